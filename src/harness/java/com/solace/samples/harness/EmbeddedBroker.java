@@ -0,0 +1,1158 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ *  Apache Qpid JMS 2.0 Solace AMQP Examples: EmbeddedBroker
+ */
+
+package com.solace.samples.harness;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+import org.apache.qpid.proton.amqp.Binary;
+import org.apache.qpid.proton.amqp.Symbol;
+import org.apache.qpid.proton.amqp.messaging.Accepted;
+import org.apache.qpid.proton.amqp.messaging.AmqpValue;
+import org.apache.qpid.proton.amqp.messaging.ApplicationProperties;
+import org.apache.qpid.proton.amqp.messaging.MessageAnnotations;
+import org.apache.qpid.proton.amqp.messaging.Modified;
+import org.apache.qpid.proton.amqp.messaging.Properties;
+import org.apache.qpid.proton.amqp.messaging.Rejected;
+import org.apache.qpid.proton.amqp.messaging.Released;
+import org.apache.qpid.proton.amqp.messaging.Source;
+import org.apache.qpid.proton.amqp.messaging.Target;
+import org.apache.qpid.proton.amqp.messaging.TerminusDurability;
+import org.apache.qpid.proton.amqp.transaction.Coordinator;
+import org.apache.qpid.proton.amqp.transaction.Declare;
+import org.apache.qpid.proton.amqp.transaction.Declared;
+import org.apache.qpid.proton.amqp.transaction.Discharge;
+import org.apache.qpid.proton.amqp.transaction.TransactionalState;
+import org.apache.qpid.proton.amqp.transport.DeliveryState;
+import org.apache.qpid.proton.amqp.transport.ErrorCondition;
+import org.apache.qpid.proton.amqp.transport.SenderSettleMode;
+import org.apache.qpid.proton.engine.Collector;
+import org.apache.qpid.proton.engine.Connection;
+import org.apache.qpid.proton.engine.Delivery;
+import org.apache.qpid.proton.engine.EndpointState;
+import org.apache.qpid.proton.engine.Event;
+import org.apache.qpid.proton.engine.Link;
+import org.apache.qpid.proton.engine.Receiver;
+import org.apache.qpid.proton.engine.Sasl;
+import org.apache.qpid.proton.engine.Sender;
+import org.apache.qpid.proton.engine.Session;
+import org.apache.qpid.proton.engine.Transport;
+import org.apache.qpid.proton.engine.TransportException;
+import org.apache.qpid.proton.message.Message;
+
+/**
+ * A minimal in-memory AMQP 1.0 broker, built on the Apache Qpid Proton-J engine that the Qpid JMS client already
+ * depends on. It lets the samples run end-to-end on a loopback port without a Solace message router, for example in CI.
+ *
+ * It supports what the samples use: queues, topics with Solace-style wildcard subscriptions ('*' and a trailing
+ * '&gt;'), temporary queues, durable and shared subscriptions, simple JMS selectors, JMSXGroupID sticky groups, local
+ * transactions, redelivery of released and unacknowledged messages, and prefetch and drain credit. Messages are kept in
+ * memory only, but survive a {@link #stop()} and {@link #start()} of the same instance, which behaves like a broker
+ * restart. Usernames and passwords are not checked.
+ *
+ * With {@link #setThrottle(long)} the broker accepts at most a given number of messages per second from producers, like
+ * a broker whose disks or network are saturated. Messages beyond that wait unacknowledged, and producer links only get
+ * new credit as they are accepted.
+ *
+ * All broker state is owned by a single I/O thread.
+ */
+public class EmbeddedBroker implements AutoCloseable {
+
+    private static final Symbol ANONYMOUS_RELAY = Symbol.valueOf("ANONYMOUS-RELAY");
+    private static final Symbol SHARED_SUBS = Symbol.valueOf("SHARED-SUBS");
+    private static final Symbol QUEUE_CAPABILITY = Symbol.valueOf("queue");
+    private static final Symbol TOPIC_CAPABILITY = Symbol.valueOf("topic");
+    private static final Symbol TEMP_QUEUE_CAPABILITY = Symbol.valueOf("temporary-queue");
+    private static final Symbol TEMP_TOPIC_CAPABILITY = Symbol.valueOf("temporary-topic");
+    private static final Symbol SHARED_CAPABILITY = Symbol.valueOf("shared");
+    private static final Symbol JMS_DEST_ANNOTATION = Symbol.valueOf("x-opt-jms-dest");
+
+    private static final byte QUEUE_TYPE = 0;
+    private static final byte TOPIC_TYPE = 1;
+    private static final byte TEMP_QUEUE_TYPE = 2;
+    private static final byte TEMP_TOPIC_TYPE = 3;
+
+    private static final int PRODUCER_CREDIT = 1000;
+
+    /**
+     * A message as received from a producer. The encoded form is forwarded to consumers unchanged unless it has to be
+     * marked as redelivered.
+     */
+    static class StoredMessage {
+        final byte[] encoded;
+        final Message message;
+        final String groupId;
+        int deliveryCount;
+        private Map<String, Object> selectorProperties;
+
+        StoredMessage(byte[] encoded, Message message) {
+            this.encoded = encoded;
+            this.message = message;
+            this.groupId = message.getGroupId();
+        }
+
+        byte[] encodeForDelivery() {
+            if (deliveryCount == 0) {
+                return encoded;
+            }
+            message.setDeliveryCount(deliveryCount);
+            byte[] buffer = new byte[encoded.length + 64];
+            int length = message.encode(buffer, 0, buffer.length);
+            return Arrays.copyOf(buffer, length);
+        }
+
+        Map<String, Object> selectorProperties() {
+            if (selectorProperties == null) {
+                selectorProperties = new HashMap<>();
+                ApplicationProperties applicationProperties = message.getApplicationProperties();
+                if (applicationProperties != null) {
+                    for (Object entry : applicationProperties.getValue().entrySet()) {
+                        Map.Entry<?, ?> property = (Map.Entry<?, ?>) entry;
+                        selectorProperties.put(String.valueOf(property.getKey()), property.getValue());
+                    }
+                }
+                Properties properties = message.getProperties();
+                if (properties != null) {
+                    putIfNotNull("JMSCorrelationID", properties.getCorrelationId());
+                    putIfNotNull("JMSMessageID", properties.getMessageId());
+                    putIfNotNull("JMSType", properties.getSubject());
+                    putIfNotNull("JMSXGroupID", properties.getGroupId());
+                }
+                selectorProperties.put("JMSPriority", (int) message.getPriority());
+                selectorProperties.put("JMSDeliveryMode", message.isDurable() ? "PERSISTENT" : "NON_PERSISTENT");
+            }
+            return selectorProperties;
+        }
+
+        private void putIfNotNull(String name, Object value) {
+            if (value != null) {
+                selectorProperties.put(name, value.toString());
+            }
+        }
+    }
+
+    /**
+     * A queue, temporary queue or the backing queue of a topic subscription.
+     */
+    static class MessageQueue {
+        final String name;
+        final LinkedList<StoredMessage> messages = new LinkedList<>();
+        final List<Consumer> consumers = new ArrayList<>();
+        final Map<String, Consumer> groups = new HashMap<>();
+        int nextConsumer;
+
+        MessageQueue(String name) {
+            this.name = name;
+        }
+    }
+
+    static class Subscription {
+        final String key;
+        final String topicFilter;
+        final SelectorExpression selector;
+        final boolean durable;
+        final Source source;
+        final MessageQueue queue;
+        int consumerCount;
+
+        Subscription(String key, String topicFilter, SelectorExpression selector, boolean durable, Source source) {
+            this.key = key;
+            this.topicFilter = topicFilter;
+            this.selector = selector;
+            this.durable = durable;
+            this.source = source;
+            this.queue = new MessageQueue(key);
+        }
+    }
+
+    static class Consumer {
+        final Sender sender;
+        final ConnectionState connection;
+        final MessageQueue queue;
+        final SelectorExpression selector;
+        final Subscription subscription;
+        final Set<Delivery> unsettled = new LinkedHashSet<>();
+
+        Consumer(Sender sender, ConnectionState connection, MessageQueue queue, SelectorExpression selector,
+                Subscription subscription) {
+            this.sender = sender;
+            this.connection = connection;
+            this.queue = queue;
+            this.selector = selector;
+            this.subscription = subscription;
+        }
+    }
+
+    static class Producer {
+        final String address;
+        final byte type;
+        final String temporaryQueue;
+
+        Producer(String address, byte type, String temporaryQueue) {
+            this.address = address;
+            this.type = type;
+            this.temporaryQueue = temporaryQueue;
+        }
+    }
+
+    /**
+     * A local transaction: sent messages are routed and acknowledged messages forgotten only once it is committed.
+     */
+    static class Transaction {
+        final List<Runnable> onCommit = new ArrayList<>();
+        final List<Runnable> onRollback = new ArrayList<>();
+    }
+
+    /**
+     * The context of the link on which transactions are declared and discharged.
+     */
+    static class TransactionCoordinator {
+    }
+
+    static class ConnectionState {
+        final SocketChannel channel;
+        final Transport transport = Transport.Factory.create();
+        final Connection connection = Connection.Factory.create();
+        final Collector collector = Collector.Factory.create();
+        final Sasl sasl;
+        final List<Consumer> consumers = new ArrayList<>();
+        final List<String> temporaryQueues = new ArrayList<>();
+        final Map<Binary, Transaction> transactions = new HashMap<>();
+        SelectionKey key;
+        boolean saslDone;
+        boolean closed;
+
+        ConnectionState(SocketChannel channel) {
+            this.channel = channel;
+            this.sasl = transport.sasl();
+            sasl.server();
+            sasl.setMechanisms("PLAIN", "ANONYMOUS");
+            transport.bind(connection);
+            connection.collect(collector);
+        }
+
+        String containerId() {
+            return connection.getRemoteContainer();
+        }
+    }
+
+    private final int requestedPort;
+    private final Map<String, MessageQueue> queues = new HashMap<>();
+    private final Map<String, Subscription> subscriptions = new LinkedHashMap<>();
+    private final List<ConnectionState> connections = new ArrayList<>();
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final Set<MessageQueue> pendingDispatch = new LinkedHashSet<>();
+
+    private volatile boolean running;
+    private ServerSocketChannel server;
+    private Selector selector;
+    private Thread ioThread;
+    private int port;
+    private long deliveryTag;
+    private long temporaryQueueCount;
+    private long subscriptionCount;
+    private long transactionCount;
+
+    /**
+     * A received message that waits for the throttle.
+     */
+    static class ThrottledDelivery {
+        final ConnectionState connection;
+        final Delivery delivery;
+        final StoredMessage message;
+
+        ThrottledDelivery(ConnectionState connection, Delivery delivery, StoredMessage message) {
+            this.connection = connection;
+            this.delivery = delivery;
+            this.message = message;
+        }
+    }
+
+    // the number of messages from producers still to be rejected, owned by the I/O thread
+    private int rejectedSends;
+
+    private volatile long throttleRate;
+    private final Queue<ThrottledDelivery> throttled = new ArrayDeque<>();
+    private double throttleTokens;
+    private long throttleRefillNanos = System.nanoTime();
+
+    /**
+     * Creates a broker that listens on the given loopback port, or on a free port when 0.
+     */
+    public EmbeddedBroker(int port) {
+        this.requestedPort = port;
+    }
+
+    public synchronized void start() throws IOException {
+        if (running) {
+            return;
+        }
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        server.socket().setReuseAddress(true);
+        // once started, a restart reuses the same port so that clients can reconnect
+        server.bind(new InetSocketAddress("127.0.0.1", port != 0 ? port : requestedPort));
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+        port = server.socket().getLocalPort();
+        running = true;
+        ioThread = new Thread(this::run, "EmbeddedBroker-" + port);
+        ioThread.setDaemon(true);
+        ioThread.start();
+    }
+
+    /**
+     * Stops the broker abruptly, dropping all client connections as if the broker process had been killed. Queues,
+     * durable subscriptions and their messages are kept for a later {@link #start()}.
+     */
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        selector.wakeup();
+        try {
+            ioThread.join(10000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void close() {
+        stop();
+    }
+
+    /**
+     * Limits the messages accepted from producers to the given number per second, or removes the limit when 0.
+     * Transactional sends are not throttled.
+     */
+    public void setThrottle(long messagesPerSecond) {
+        throttleRate = messagesPerSecond;
+    }
+
+    /**
+     * Rejects the next messages sent by producers outside a transaction, as a broker does when it cannot store them,
+     * so that their sends fail.
+     */
+    public void rejectSends(int count) {
+        call(() -> rejectedSends = count);
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public String getUri() {
+        return "amqp://127.0.0.1:" + port;
+    }
+
+    public void createQueue(String name) {
+        call(() -> queues.computeIfAbsent(name, MessageQueue::new));
+    }
+
+    /**
+     * Returns the number of messages in the queue that have not been sent to a consumer yet.
+     */
+    public int getQueueDepth(String name) {
+        return call(() -> {
+            MessageQueue queue = queues.get(name);
+            return queue == null ? 0 : queue.messages.size();
+        });
+    }
+
+    /**
+     * Returns the number of consumers attached to the queue.
+     */
+    public int getConsumerCount(String name) {
+        return call(() -> {
+            MessageQueue queue = queues.get(name);
+            return queue == null ? 0 : queue.consumers.size();
+        });
+    }
+
+    /**
+     * Returns the number of subscriptions with active consumers that a message published to the topic would reach.
+     */
+    public int getSubscriberCount(String topic) {
+        return call(() -> {
+            int count = 0;
+            for (Subscription subscription : subscriptions.values()) {
+                if (subscription.consumerCount > 0 && TopicMatcher.matches(subscription.topicFilter, topic)) {
+                    count++;
+                }
+            }
+            return count;
+        });
+    }
+
+    /**
+     * Returns the number of messages that a durable subscription holds, sent to a consumer or not.
+     */
+    public int getSubscriptionDepth(String subscriptionName) {
+        return call(() -> {
+            int depth = 0;
+            for (Subscription subscription : subscriptions.values()) {
+                if (subscription.durable && subscription.key.endsWith("|" + subscriptionName)) {
+                    depth += subscription.queue.messages.size();
+                    for (Consumer consumer : subscription.queue.consumers) {
+                        depth += consumer.unsettled.size();
+                    }
+                }
+            }
+            return depth;
+        });
+    }
+
+    private <T> T call(Supplier<T> task) {
+        if (!running) {
+            // the I/O thread is not running, so the state can be accessed directly
+            synchronized (this) {
+                return task.get();
+            }
+        }
+        CompletableFuture<T> result = new CompletableFuture<>();
+        tasks.add(() -> result.complete(task.get()));
+        selector.wakeup();
+        try {
+            return result.get(10, TimeUnit.SECONDS);
+        } catch (InterruptedException | ExecutionException | TimeoutException e) {
+            throw new IllegalStateException("Broker did not respond", e);
+        }
+    }
+
+    private void run() {
+        try {
+            while (running) {
+                selector.select(pendingDispatch.isEmpty() && throttled.isEmpty() ? 100 : 1);
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    task.run();
+                }
+                for (SelectionKey key : selector.selectedKeys()) {
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else if (key.isReadable()) {
+                        read((ConnectionState) key.attachment());
+                    }
+                }
+                selector.selectedKeys().clear();
+
+                long now = System.currentTimeMillis();
+                for (ConnectionState connection : new ArrayList<>(connections)) {
+                    if (!connection.closed) {
+                        connection.transport.tick(now);
+                        processEvents(connection);
+                    }
+                }
+                acceptThrottled();
+                dispatchPending();
+                for (ConnectionState connection : new ArrayList<>(connections)) {
+                    if (!connection.closed) {
+                        processEvents(connection);
+                        flush(connection);
+                    }
+                }
+                connections.removeIf(connection -> connection.closed);
+            }
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+        } finally {
+            for (ConnectionState connection : new ArrayList<>(connections)) {
+                closeConnection(connection);
+            }
+            connections.clear();
+            throttled.clear();
+            try {
+                server.close();
+                selector.close();
+            } catch (IOException e) {
+                // shutting down anyway
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = server.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        ConnectionState connection = new ConnectionState(channel);
+        connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+        connections.add(connection);
+    }
+
+    private void read(ConnectionState connection) {
+        try {
+            while (true) {
+                int capacity = connection.transport.capacity();
+                if (capacity <= 0) {
+                    break;
+                }
+                ByteBuffer tail = connection.transport.tail();
+                int read = connection.channel.read(tail);
+                if (read < 0) {
+                    connection.transport.close_tail();
+                    break;
+                }
+                connection.transport.process();
+                if (read == 0) {
+                    break;
+                }
+            }
+            if (!connection.saslDone && connection.sasl.getRemoteMechanisms().length > 0) {
+                // any username and password is accepted
+                connection.sasl.done(Sasl.PN_SASL_OK);
+                connection.saslDone = true;
+            }
+        } catch (IOException | TransportException e) {
+            closeConnection(connection);
+        }
+    }
+
+    private void flush(ConnectionState connection) {
+        try {
+            while (true) {
+                int pending = connection.transport.pending();
+                if (pending < 0) {
+                    closeConnection(connection);
+                    return;
+                }
+                if (pending == 0) {
+                    connection.key.interestOps(SelectionKey.OP_READ);
+                    return;
+                }
+                int written = connection.channel.write(connection.transport.head());
+                if (written == 0) {
+                    // the socket buffer is full, continue once it is writable again
+                    connection.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    return;
+                }
+                connection.transport.pop(written);
+            }
+        } catch (IOException | TransportException e) {
+            closeConnection(connection);
+        }
+    }
+
+    private void closeConnection(ConnectionState connection) {
+        if (connection.closed) {
+            return;
+        }
+        connection.closed = true;
+        for (Transaction transaction : connection.transactions.values()) {
+            transaction.onRollback.forEach(Runnable::run);
+        }
+        connection.transactions.clear();
+        for (Consumer consumer : new ArrayList<>(connection.consumers)) {
+            removeConsumer(consumer, false);
+        }
+        for (String temporaryQueue : connection.temporaryQueues) {
+            queues.remove(temporaryQueue);
+        }
+        try {
+            connection.channel.close();
+        } catch (IOException e) {
+            // already gone
+        }
+    }
+
+    private void processEvents(ConnectionState connection) {
+        Event event;
+        while (!connection.closed && (event = connection.collector.peek()) != null) {
+            handle(connection, event);
+            connection.collector.pop();
+        }
+    }
+
+    private void handle(ConnectionState connection, Event event) {
+        switch (event.getType()) {
+        case CONNECTION_REMOTE_OPEN:
+            Connection amqpConnection = event.getConnection();
+            amqpConnection.setContainer("embedded-broker");
+            amqpConnection.setOfferedCapabilities(new Symbol[] { ANONYMOUS_RELAY, SHARED_SUBS });
+            amqpConnection.open();
+            break;
+        case CONNECTION_REMOTE_CLOSE:
+            event.getConnection().close();
+            break;
+        case SESSION_REMOTE_OPEN:
+            if (event.getSession().getLocalState() == EndpointState.UNINITIALIZED) {
+                event.getSession().open();
+            }
+            break;
+        case SESSION_REMOTE_CLOSE:
+            Session session = event.getSession();
+            for (Link link = connection.connection.linkHead(null, null); link != null; link = link.next(null, null)) {
+                if (link.getSession() == session && link.getLocalState() != EndpointState.CLOSED) {
+                    linkClosed(connection, link, false);
+                }
+            }
+            session.close();
+            break;
+        case LINK_REMOTE_OPEN:
+            if (event.getLink().getLocalState() == EndpointState.UNINITIALIZED) {
+                if (event.getLink() instanceof Receiver) {
+                    openProducerLink(connection, (Receiver) event.getLink());
+                } else {
+                    openConsumerLink(connection, (Sender) event.getLink());
+                }
+            }
+            break;
+        case LINK_REMOTE_DETACH:
+            linkClosed(connection, event.getLink(), false);
+            event.getLink().detach();
+            break;
+        case LINK_REMOTE_CLOSE:
+            linkClosed(connection, event.getLink(), true);
+            event.getLink().close();
+            break;
+        case LINK_FLOW:
+            if (event.getLink() instanceof Sender && event.getLink().getContext() instanceof Consumer) {
+                Consumer consumer = (Consumer) event.getLink().getContext();
+                dispatch(consumer.queue);
+                if (consumer.sender.getDrain()) {
+                    consumer.sender.drained();
+                }
+            }
+            break;
+        case DELIVERY:
+            if (event.getLink() instanceof Receiver) {
+                onMessageReceived(connection, event.getDelivery());
+            } else {
+                onDeliveryUpdated(event.getDelivery());
+            }
+            break;
+        case TRANSPORT_TAIL_CLOSED:
+            // the input ends after the client's Close frame, but the reply must still be written; flush closes the
+            // socket once the output has ended as well
+            if (connection.connection.getLocalState() != EndpointState.CLOSED) {
+                connection.connection.close();
+            }
+            break;
+        case TRANSPORT_ERROR:
+            closeConnection(connection);
+            break;
+        default:
+            break;
+        }
+    }
+
+    private void openProducerLink(ConnectionState connection, Receiver receiver) {
+        if (receiver.getRemoteTarget() instanceof Coordinator) {
+            receiver.setTarget(receiver.getRemoteTarget());
+            receiver.setSource(receiver.getRemoteSource());
+            receiver.setContext(new TransactionCoordinator());
+            receiver.open();
+            receiver.flow(PRODUCER_CREDIT);
+            return;
+        }
+        Target remoteTarget = (Target) receiver.getRemoteTarget();
+        String address = remoteTarget != null ? remoteTarget.getAddress() : null;
+        byte type = remoteTarget != null ? destinationType(remoteTarget.getCapabilities()) : -1;
+        String temporaryQueue = null;
+        if (remoteTarget != null && remoteTarget.getDynamic()) {
+            // a temporary destination is created by attaching a producer link to a dynamic target
+            temporaryQueue = "#P2P/QTMP/embedded-broker/" + (++temporaryQueueCount);
+            queues.put(temporaryQueue, new MessageQueue(temporaryQueue));
+            connection.temporaryQueues.add(temporaryQueue);
+            Target target = new Target();
+            target.setAddress(temporaryQueue);
+            target.setDynamic(true);
+            target.setCapabilities(remoteTarget.getCapabilities());
+            receiver.setTarget(target);
+            address = temporaryQueue;
+            type = TEMP_QUEUE_TYPE;
+        } else {
+            receiver.setTarget(remoteTarget);
+            if (address != null && type == QUEUE_TYPE) {
+                queues.computeIfAbsent(address, MessageQueue::new);
+            }
+        }
+        receiver.setSource(receiver.getRemoteSource());
+        receiver.setContext(new Producer(address, type, temporaryQueue));
+        receiver.open();
+        receiver.flow(PRODUCER_CREDIT);
+    }
+
+    private void openConsumerLink(ConnectionState connection, Sender sender) {
+        Source remoteSource = (Source) sender.getRemoteSource();
+        sender.setTarget(sender.getRemoteTarget());
+        if (remoteSource == null) {
+            // a lookup of an existing durable subscription, used to unsubscribe
+            Subscription subscription = subscriptions.get(subscriptionKey(connection, sender.getName()));
+            sender.setSource(subscription != null ? subscription.source : null);
+            sender.setContext(subscription);
+            sender.open();
+            return;
+        }
+
+        String address = remoteSource.getAddress();
+        SelectorExpression selector = SelectorExpression.fromFilter(remoteSource.getFilter());
+        Source source = (Source) remoteSource.copy();
+        Consumer consumer;
+        if (destinationType(remoteSource.getCapabilities()) == TOPIC_TYPE) {
+            boolean durable = remoteSource.getDurable() != null && remoteSource.getDurable() != TerminusDurability.NONE;
+            boolean shared = contains(remoteSource.getCapabilities(), SHARED_CAPABILITY);
+            String key = durable || shared ? subscriptionKey(connection, sender.getName())
+                    : "subscription-" + (++subscriptionCount);
+            Subscription subscription = subscriptions.get(key);
+            if (subscription != null && (!subscription.topicFilter.equals(address)
+                    || !String.valueOf(subscription.selector).equals(String.valueOf(selector)))) {
+                // changing the topic or selector of a durable subscription replaces it
+                subscriptions.remove(key);
+                subscription = null;
+            }
+            if (subscription == null) {
+                subscription = new Subscription(key, address, selector, durable, source);
+                subscriptions.put(key, subscription);
+            }
+            subscription.consumerCount++;
+            consumer = new Consumer(sender, connection, subscription.queue, null, subscription);
+        } else {
+            MessageQueue queue = queues.get(address);
+            if (queue == null && address.startsWith("#P2P/QTMP/")) {
+                // the temporary queue has been deleted
+                sender.setSource(null);
+                sender.open();
+                sender.close();
+                return;
+            }
+            if (queue == null) {
+                queue = new MessageQueue(address);
+                queues.put(address, queue);
+            }
+            consumer = new Consumer(sender, connection, queue, selector, null);
+        }
+        sender.setSource(source);
+        sender.setContext(consumer);
+        sender.open();
+        consumer.queue.consumers.add(consumer);
+        connection.consumers.add(consumer);
+    }
+
+    private void linkClosed(ConnectionState connection, Link link, boolean closed) {
+        Object context = link.getContext();
+        link.setContext(null);
+        if (context instanceof Consumer) {
+            removeConsumer((Consumer) context, closed);
+        } else if (context instanceof Subscription && closed) {
+            // closing the lookup link unsubscribes
+            Subscription subscription = (Subscription) context;
+            if (subscription.consumerCount == 0) {
+                subscriptions.remove(subscription.key);
+            }
+        } else if (context instanceof Producer && ((Producer) context).temporaryQueue != null && closed) {
+            String temporaryQueue = ((Producer) context).temporaryQueue;
+            queues.remove(temporaryQueue);
+            connection.temporaryQueues.remove(temporaryQueue);
+        }
+    }
+
+    private void removeConsumer(Consumer consumer, boolean closed) {
+        MessageQueue queue = consumer.queue;
+        queue.consumers.remove(consumer);
+        consumer.connection.consumers.remove(consumer);
+        queue.groups.values().removeIf(owner -> owner == consumer);
+        // messages sent to the consumer but not acknowledged are redelivered to others
+        List<StoredMessage> unacknowledged = new ArrayList<>();
+        for (Delivery delivery : consumer.unsettled) {
+            StoredMessage message = (StoredMessage) delivery.getContext();
+            message.deliveryCount++;
+            unacknowledged.add(message);
+        }
+        consumer.unsettled.clear();
+        for (int i = unacknowledged.size() - 1; i >= 0; i--) {
+            queue.messages.addFirst(unacknowledged.get(i));
+        }
+
+        Subscription subscription = consumer.subscription;
+        if (subscription != null) {
+            subscription.consumerCount--;
+            if (subscription.consumerCount == 0 && (!subscription.durable || (closed
+                    && !contains(subscription.source.getCapabilities(), SHARED_CAPABILITY)))) {
+                subscriptions.remove(subscription.key);
+            }
+        }
+        pendingDispatch.add(queue);
+    }
+
+    private void onMessageReceived(ConnectionState connection, Delivery delivery) {
+        if (delivery.isPartial()) {
+            return;
+        }
+        Receiver receiver = (Receiver) delivery.getLink();
+        byte[] encoded = new byte[delivery.pending()];
+        int length = receiver.recv(encoded, 0, encoded.length);
+        receiver.advance();
+
+        Message message = Message.Factory.create();
+        message.decode(encoded, 0, length);
+        DeliveryState outcome = Accepted.getInstance();
+        if (receiver.getContext() instanceof TransactionCoordinator) {
+            outcome = coordinate(connection, message);
+        } else if (delivery.getRemoteState() instanceof TransactionalState) {
+            // the message is routed when its transaction commits
+            TransactionalState state = (TransactionalState) delivery.getRemoteState();
+            Transaction transaction = connection.transactions.get(state.getTxnId());
+            if (transaction != null) {
+                Producer producer = (Producer) receiver.getContext();
+                StoredMessage stored = new StoredMessage(encoded, message);
+                transaction.onCommit.add(() -> route(producer, stored));
+            }
+            TransactionalState accepted = new TransactionalState();
+            accepted.setTxnId(state.getTxnId());
+            accepted.setOutcome(Accepted.getInstance());
+            outcome = accepted;
+        } else if (rejectedSends > 0) {
+            rejectedSends--;
+            Rejected rejected = new Rejected();
+            rejected.setError(new ErrorCondition(Symbol.valueOf("amqp:resource-limit-exceeded"),
+                    "rejected by the embedded broker"));
+            outcome = rejected;
+        } else {
+            StoredMessage stored = new StoredMessage(encoded, message);
+            if (throttleRate > 0 && (!throttled.isEmpty() || !takeThrottleToken())) {
+                // neither acknowledged nor given new credit until the throttle lets it through
+                throttled.add(new ThrottledDelivery(connection, delivery, stored));
+                return;
+            }
+            route((Producer) receiver.getContext(), stored);
+        }
+        settle(delivery, outcome);
+    }
+
+    private void settle(Delivery delivery, DeliveryState outcome) {
+        Receiver receiver = (Receiver) delivery.getLink();
+        if (!delivery.remotelySettled()) {
+            delivery.disposition(outcome);
+        }
+        delivery.settle();
+        if (receiver.getCredit() < PRODUCER_CREDIT / 2) {
+            receiver.flow(PRODUCER_CREDIT - receiver.getCredit());
+        }
+    }
+
+    /**
+     * Accepts the throttled messages that the rate now allows, in the order they were received.
+     */
+    private void acceptThrottled() {
+        ThrottledDelivery next;
+        while ((next = throttled.peek()) != null && (throttleRate == 0 || takeThrottleToken())) {
+            throttled.poll();
+            if (next.connection.closed || next.delivery.getLink().getLocalState() == EndpointState.CLOSED) {
+                // the producer is gone and will send the message again if it has to
+                continue;
+            }
+            route((Producer) next.delivery.getLink().getContext(), next.message);
+            settle(next.delivery, Accepted.getInstance());
+        }
+    }
+
+    private boolean takeThrottleToken() {
+        long now = System.nanoTime();
+        long rate = throttleRate;
+        // allows bursts of up to 10 milliseconds worth of messages
+        double burst = Math.max(1, rate / 100.0);
+        throttleTokens = Math.min(burst, throttleTokens + (now - throttleRefillNanos) * rate / 1e9);
+        throttleRefillNanos = now;
+        if (throttleTokens >= 1) {
+            throttleTokens--;
+            return true;
+        }
+        return false;
+    }
+
+    private DeliveryState coordinate(ConnectionState connection, Message message) {
+        Object body = message.getBody() instanceof AmqpValue ? ((AmqpValue) message.getBody()).getValue() : null;
+        if (body instanceof Declare) {
+            Binary transactionId = new Binary(ByteBuffer.allocate(8).putLong(++transactionCount).array());
+            connection.transactions.put(transactionId, new Transaction());
+            Declared declared = new Declared();
+            declared.setTxnId(transactionId);
+            return declared;
+        }
+        if (body instanceof Discharge) {
+            Discharge discharge = (Discharge) body;
+            Transaction transaction = connection.transactions.remove(discharge.getTxnId());
+            if (transaction != null) {
+                if (Boolean.TRUE.equals(discharge.getFail())) {
+                    transaction.onRollback.forEach(Runnable::run);
+                } else {
+                    transaction.onCommit.forEach(Runnable::run);
+                }
+            }
+        }
+        return Accepted.getInstance();
+    }
+
+    private void route(Producer producer, StoredMessage message) {
+        String address = producer != null ? producer.address : null;
+        byte type = producer != null ? producer.type : -1;
+        if (address == null) {
+            // sent through the anonymous relay: the destination is in the message itself
+            address = message.message.getAddress();
+            MessageAnnotations annotations = message.message.getMessageAnnotations();
+            Object annotation = annotations != null ? annotations.getValue().get(JMS_DEST_ANNOTATION) : null;
+            type = annotation instanceof Number ? ((Number) annotation).byteValue() : -1;
+        }
+        if (address == null) {
+            return;
+        }
+        if (type == TOPIC_TYPE || type == TEMP_TOPIC_TYPE || (type < 0 && !queues.containsKey(address))) {
+            for (Subscription subscription : subscriptions.values()) {
+                if (TopicMatcher.matches(subscription.topicFilter, address) && (subscription.selector == null
+                        || subscription.selector.matches(message.selectorProperties()))) {
+                    enqueue(subscription.queue, message);
+                }
+            }
+        } else {
+            MessageQueue queue = queues.get(address);
+            if (queue == null && type == QUEUE_TYPE) {
+                queue = new MessageQueue(address);
+                queues.put(address, queue);
+            }
+            // messages for temporary queues that no longer exist are dropped
+            if (queue != null) {
+                enqueue(queue, message);
+            }
+        }
+    }
+
+    private void enqueue(MessageQueue queue, StoredMessage message) {
+        queue.messages.add(message);
+        pendingDispatch.add(queue);
+    }
+
+    private void dispatchPending() {
+        while (!pendingDispatch.isEmpty()) {
+            Iterator<MessageQueue> it = pendingDispatch.iterator();
+            MessageQueue queue = it.next();
+            it.remove();
+            dispatch(queue);
+        }
+    }
+
+    private void dispatch(MessageQueue queue) {
+        if (queue.consumers.isEmpty()) {
+            return;
+        }
+        for (Iterator<StoredMessage> it = queue.messages.iterator(); it.hasNext();) {
+            if (!hasCredit(queue)) {
+                return;
+            }
+            StoredMessage message = it.next();
+            Consumer consumer = selectConsumer(queue, message);
+            if (consumer != null) {
+                it.remove();
+                deliver(consumer, message);
+            }
+        }
+    }
+
+    private static boolean hasCredit(MessageQueue queue) {
+        for (Consumer consumer : queue.consumers) {
+            if (consumer.sender.getCredit() > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Consumer selectConsumer(MessageQueue queue, StoredMessage message) {
+        if (message.groupId != null) {
+            Consumer owner = queue.groups.get(message.groupId);
+            if (owner != null) {
+                // messages of a group always go to the same consumer, in order
+                return owner.sender.getCredit() > 0 ? owner : null;
+            }
+        }
+        int size = queue.consumers.size();
+        for (int i = 0; i < size; i++) {
+            int index = (queue.nextConsumer + i) % size;
+            Consumer consumer = queue.consumers.get(index);
+            if (consumer.sender.getCredit() > 0
+                    && (consumer.selector == null || consumer.selector.matches(message.selectorProperties()))) {
+                queue.nextConsumer = (index + 1) % size;
+                if (message.groupId != null) {
+                    queue.groups.put(message.groupId, consumer);
+                }
+                return consumer;
+            }
+        }
+        return null;
+    }
+
+    private void deliver(Consumer consumer, StoredMessage message) {
+        long tag = ++deliveryTag;
+        Delivery delivery = consumer.sender.delivery(ByteBuffer.allocate(8).putLong(tag).array());
+        delivery.setContext(message);
+        byte[] encoded = message.encodeForDelivery();
+        consumer.sender.send(encoded, 0, encoded.length);
+        consumer.sender.advance();
+        if (consumer.sender.getRemoteSenderSettleMode() == SenderSettleMode.SETTLED) {
+            delivery.settle();
+        } else {
+            consumer.unsettled.add(delivery);
+        }
+    }
+
+    private void onDeliveryUpdated(Delivery delivery) {
+        Object context = delivery.getLink().getContext();
+        DeliveryState state = delivery.getRemoteState();
+        if (!(context instanceof Consumer) || (state == null && !delivery.remotelySettled())) {
+            return;
+        }
+        Consumer consumer = (Consumer) context;
+        if (!consumer.unsettled.remove(delivery)) {
+            return;
+        }
+        StoredMessage message = (StoredMessage) delivery.getContext();
+        Object outcome = state;
+        if (state instanceof TransactionalState) {
+            // an acknowledgement in a transaction: the message is redelivered if the transaction rolls back
+            Transaction transaction = consumer.connection.transactions
+                    .get(((TransactionalState) state).getTxnId());
+            if (transaction != null) {
+                MessageQueue queue = consumer.queue;
+                transaction.onRollback.add(() -> {
+                    message.deliveryCount++;
+                    queue.messages.addFirst(message);
+                    pendingDispatch.add(queue);
+                });
+            }
+            outcome = ((TransactionalState) state).getOutcome();
+        }
+        if (outcome instanceof Released || outcome instanceof Modified) {
+            if (outcome instanceof Modified && Boolean.TRUE.equals(((Modified) outcome).getDeliveryFailed())) {
+                message.deliveryCount++;
+            }
+            consumer.queue.messages.addFirst(message);
+            pendingDispatch.add(consumer.queue);
+        }
+        // accepted and rejected messages are simply forgotten
+        delivery.settle();
+    }
+
+    private String subscriptionKey(ConnectionState connection, String linkName) {
+        // Qpid JMS names the links of shared subscriptions "name|2", "name|global", "name|volatile1" and so on
+        int separator = linkName.indexOf('|');
+        String name = separator < 0 ? linkName : linkName.substring(0, separator);
+        String qualifier = separator < 0 ? "" : linkName.substring(separator + 1);
+        String scope = qualifier.startsWith("global") ? "global" : connection.containerId();
+        return scope + (qualifier.contains("volatile") ? "|volatile" : "") + "|" + name;
+    }
+
+    private static byte destinationType(Symbol[] capabilities) {
+        if (contains(capabilities, TOPIC_CAPABILITY) || contains(capabilities, TEMP_TOPIC_CAPABILITY)) {
+            return TOPIC_TYPE;
+        }
+        if (contains(capabilities, TEMP_QUEUE_CAPABILITY)) {
+            return TEMP_QUEUE_TYPE;
+        }
+        return contains(capabilities, QUEUE_CAPABILITY) ? QUEUE_TYPE : -1;
+    }
+
+    private static boolean contains(Symbol[] capabilities, Symbol capability) {
+        if (capabilities != null) {
+            for (Symbol symbol : capabilities) {
+                if (capability.equals(symbol)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Stops the broker for the downtime every interval, for example to watch {@code FailoverClient} ride through
+     * restarts.
+     */
+    private static void restartPeriodically(EmbeddedBroker broker, long intervalSeconds, long downtimeMillis)
+            throws Exception {
+        while (true) {
+            Thread.sleep(TimeUnit.SECONDS.toMillis(intervalSeconds));
+            System.out.printf("Stopping the embedded broker for %d ms...%n", downtimeMillis);
+            broker.stop();
+            try {
+                Thread.sleep(downtimeMillis);
+            } finally {
+                broker.start();
+                System.out.println("Embedded broker restarted.");
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 5672;
+        EmbeddedBroker broker = new EmbeddedBroker(port);
+        long restartIntervalSeconds = 0;
+        long downtimeMillis = 2000;
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("--throttle") && i + 1 < args.length) {
+                broker.setThrottle(Long.parseLong(args[++i]));
+            } else if (args[i].equals("--restart-interval") && i + 1 < args.length) {
+                restartIntervalSeconds = Long.parseLong(args[++i]);
+            } else if (args[i].equals("--downtime") && i + 1 < args.length) {
+                downtimeMillis = Long.parseLong(args[++i]);
+            } else {
+                broker.createQueue(args[i]);
+            }
+        }
+        broker.start();
+        System.out.printf("Embedded AMQP 1.0 broker listening on %s. Press Ctrl-C to stop.%n", broker.getUri());
+        if (restartIntervalSeconds > 0) {
+            restartPeriodically(broker, restartIntervalSeconds, downtimeMillis);
+        }
+        Thread.currentThread().join();
+    }
+}
@@ -0,0 +1,616 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ *  Apache Qpid JMS 2.0 Solace AMQP Examples: SampleHarness
+ */
+
+package com.solace.samples.harness;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+import javax.jms.BytesMessage;
+import javax.jms.ConnectionFactory;
+import javax.jms.DeliveryMode;
+import javax.jms.JMSConsumer;
+import javax.jms.JMSContext;
+import javax.jms.JMSProducer;
+import javax.jms.Queue;
+import javax.jms.TextMessage;
+import javax.jms.Topic;
+
+import org.apache.qpid.jms.JmsConnectionFactory;
+
+import com.solace.samples.BasicReplier;
+import com.solace.samples.BasicRequestor;
+import com.solace.samples.ContextPool;
+import com.solace.samples.LatencyHistogram;
+import com.solace.samples.LatencyRecorder;
+import com.solace.samples.MappedRecordReader;
+import com.solace.samples.PartitionedConsumer;
+import com.solace.samples.QueueConsumer;
+import com.solace.samples.QueueProducer;
+import com.solace.samples.Requestor;
+import com.solace.samples.SampleOptions;
+import com.solace.samples.SendTimestamp;
+import com.solace.samples.SendWindow;
+import com.solace.samples.TopicPublisher;
+import com.solace.samples.TopicSubscriber;
+import com.solace.samples.features.DurableTopicSubscriber;
+import com.solace.samples.features.FailoverClient;
+import com.solace.samples.perf.PoolingBenchmark;
+
+/**
+ * Runs all samples end-to-end against an {@link EmbeddedBroker}, so that they can be tested without a Solace message
+ * router, for example in CI or after upgrading the Qpid JMS client.
+ *
+ * The harness starts the broker on a loopback port and creates the Q/tutorial queue. Topics need no provisioning. It
+ * then runs every sample pair in its basic mode, runs the load modes of the samples with small message counts, and
+ * finally runs three throughput smoke tests: non-persistent publish/subscribe, persistent queue sends and
+ * request/reply. A smoke test fails if its rate is below {@code --min-rate} msgs/sec or its p99 latency is above
+ * {@code --max-p99} milliseconds.
+ * The process exits with status 1 if any step failed.
+ *
+ * With {@code --uri} the same steps run against an existing broker instead.
+ */
+public class SampleHarness {
+
+    final String QUEUE_NAME = "Q/tutorial";
+    final String TOPIC_NAME = "T/GettingStarted/pubsub";
+    final String REQUEST_TOPIC_NAME = "T/GettingStarted/requests";
+    final String SMOKE_TOPIC_NAME = "T/harness/throughput";
+    final String SMOKE_QUEUE_NAME = "Q/harness/throughput";
+    final String SMOKE_REQUEST_QUEUE_NAME = "Q/harness/requests";
+
+    final long SAMPLE_TIMEOUT_SECONDS = 60;
+    final long READY_TIMEOUT_SECONDS = 10;
+
+    /**
+     * The main method of a sample.
+     */
+    private interface Sample {
+        void main(String[] args) throws Exception;
+    }
+
+    private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "SampleHarness");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final List<String> results = new ArrayList<>();
+    private int failures;
+
+    private EmbeddedBroker broker;
+    private String uri;
+    private String username;
+    private String password;
+
+    private void run(SampleOptions options) throws Exception {
+        username = options.getString("username", "default");
+        password = options.getString("password", "default");
+        uri = options.getString("uri", null);
+        if (uri == null) {
+            broker = new EmbeddedBroker(options.getInt("port", 0));
+            broker.start();
+            broker.createQueue(QUEUE_NAME);
+            uri = broker.getUri();
+            System.out.printf("SampleHarness started an embedded AMQP 1.0 broker on %s.%n", uri);
+        } else {
+            System.out.printf("SampleHarness is using the broker on %s.%n", uri);
+        }
+
+        try {
+            runSamplePairs();
+            runLoadModes();
+            int count = options.getInt("count", 20000);
+            double minRate = options.getLong("min-rate", 500);
+            long maxP99Micros = TimeUnit.MILLISECONDS.toMicros(options.getLong("max-p99", 1000));
+            smokeTestPublishSubscribe(count, minRate, maxP99Micros);
+            smokeTestPersistentQueue(count, minRate, maxP99Micros);
+            smokeTestRequestReply(count / 4, minRate, maxP99Micros);
+        } finally {
+            if (broker != null) {
+                broker.stop();
+            }
+        }
+
+        System.out.println();
+        System.out.println("SampleHarness results:");
+        for (String result : results) {
+            System.out.println(result);
+        }
+        System.out.printf("%d of %d steps failed.%n", failures, results.size());
+    }
+
+    private void runSamplePairs() throws Exception {
+        runPair("TopicSubscriber / TopicPublisher", TopicSubscriber::main, new String[0],
+                () -> subscriberCount(TOPIC_NAME) > 0, TopicPublisher::main);
+        runPair("QueueConsumer / QueueProducer", QueueConsumer::main, new String[0],
+                () -> consumerCount(QUEUE_NAME) > 0, QueueProducer::main);
+        runPair("BasicReplier / BasicRequestor", BasicReplier::main, new String[0],
+                () -> subscriberCount(REQUEST_TOPIC_NAME) > 0, BasicRequestor::main);
+        runPair("DurableTopicSubscriber / TopicPublisher", DurableTopicSubscriber::main, new String[0],
+                () -> subscriberCount(TOPIC_NAME) > 0, TopicPublisher::main);
+    }
+
+    private void runLoadModes() throws Exception {
+        runSample("TopicPublisher load mode", TopicPublisher::main, "--count", "1000", "--threads", "2");
+        runSample("QueueProducer windowed mode", QueueProducer::main, "--window", "16", "--count", "1000");
+        if (broker != null) {
+            runWithRejectedSends("QueueProducer windowed mode with rejected sends", 10, 1000, QueueProducer::main,
+                    "--window", "16", "--count", "1000");
+            Path records = writeRecords(1000);
+            try {
+                runWithRejectedSends("QueueProducer load mode with rejected sends", 10, 1000, QueueProducer::main,
+                        "--load", records.toString(), "--producers", "2", "--batch", "100");
+            } finally {
+                Files.deleteIfExists(records);
+                Files.deleteIfExists(Paths.get(records + ".checkpoint"));
+            }
+        }
+        runSample("QueueProducer transacted mode", QueueProducer::main, "--transacted", "--batch", "10,100",
+                "--count", "500");
+        runSample("QueueConsumer drain mode", QueueConsumer::main, "--threads", "2", "--count", "4000",
+                "--idle-timeout", "5");
+        runExportWithRotation("QueueConsumer export mode with rotation", 3000, 1000);
+        runPartitioned("QueueProducer keyed mode / PartitionedConsumer by selector",
+                PartitionedConsumer.Assignment.SELECTOR, 4, 15, 2000);
+        runPartitioned("QueueProducer keyed mode / PartitionedConsumer by JMSXGroupID",
+                PartitionedConsumer.Assignment.GROUP, 4, 15, 2000);
+        runPair("BasicReplier service / BasicRequestor load mode", BasicReplier::main,
+                new String[] { "--workers", "2", "--duration", "5" }, () -> subscriberCount(REQUEST_TOPIC_NAME) > 0,
+                BasicRequestor::main, "--concurrency", "16", "--count", "1000");
+        // the durable subscription created above collects a backlog to catch up on
+        runSample("TopicPublisher backlog", TopicPublisher::main, "--count", "1000");
+        runSample("DurableTopicSubscriber catch-up mode", DurableTopicSubscriber::main, "--catch-up",
+                "--idle-timeout", "2", "--duration", "1");
+        runPair("DurableTopicSubscriber shared mode / TopicPublisher", DurableTopicSubscriber::main,
+                new String[] { "--shared", "--consumers", "2", "--duration", "3" },
+                () -> subscriberCount(TOPIC_NAME) > 0, TopicPublisher::main, "--count", "1000");
+        runSample("PoolingBenchmark", PoolingBenchmark::main, "--runs", "2", "--count", "100");
+        if (broker != null) {
+            runWithBrokerRestart("FailoverClient with a broker restart", FailoverClient::main, "--duration", "6",
+                    "--rate", "200", "--idle-timeout", "5");
+        }
+    }
+
+    /**
+     * Runs a sample and stops the embedded broker for a second while it runs, as if the broker had been restarted.
+     */
+    private void runWithBrokerRestart(String name, Sample sample, String... options) throws Exception {
+        System.out.printf("%n=== %s ===%n", name);
+        Future<?> running = start(sample, options);
+        Thread.sleep(2000);
+        broker.stop();
+        Thread.sleep(1000);
+        broker.start();
+        String error = await(running);
+        record(name, error == null, error);
+    }
+
+    /**
+     * Runs a sample that sends the given number of messages to the queue while the embedded broker rejects the first of
+     * them, and checks that the sample resent them so that every message reached the queue.
+     */
+    private void runWithRejectedSends(String name, int rejected, int count, Sample sample, String... options)
+            throws InterruptedException {
+        System.out.printf("%n=== %s ===%n", name);
+        int depthBefore = broker.getQueueDepth(QUEUE_NAME);
+        broker.rejectSends(rejected);
+        String error = await(start(sample, options));
+        int queued = broker.getQueueDepth(QUEUE_NAME) - depthBefore;
+        if (error == null && queued != count) {
+            error = String.format("%d of %d messages reached the queue", queued, count);
+        }
+        record(name, error == null, error);
+    }
+
+    /**
+     * Fills the queue with messages of the given size, exports it to files rotated every megabyte, and checks that
+     * every message was written to exactly one file that is not larger than that, and that none was left on the queue.
+     */
+    private void runExportWithRotation(String name, int count, int size) throws Exception {
+        System.out.printf("%n=== %s ===%n", name);
+        ConnectionFactory connectionFactory = new JmsConnectionFactory(username, password, uri);
+        try (JMSContext context = connectionFactory.createContext()) {
+            Queue queue = context.createQueue(QUEUE_NAME);
+            SendWindow sendWindow = new SendWindow(64, new LatencyRecorder("Acknowledgement"));
+            JMSProducer producer = context.createProducer().setDeliveryMode(DeliveryMode.PERSISTENT)
+                    .setAsync(sendWindow);
+            for (int i = 0; i < count; i++) {
+                BytesMessage message = context.createBytesMessage();
+                message.writeBytes(new byte[size]);
+                sendWindow.send(producer, queue, message);
+            }
+            sendWindow.awaitCompletion(SAMPLE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        }
+
+        Path directory = Files.createTempDirectory("SampleHarness");
+        try {
+            String error = await(start(QueueConsumer::main, "--export", directory.resolve("export").toString(),
+                    "--rotate-mb", "1", "--sync-messages", "500", "--idle-timeout", "2"));
+            if (error == null) {
+                error = checkExport(directory, count, size);
+            }
+            if (error == null && broker != null && broker.getQueueDepth(QUEUE_NAME) > 0) {
+                error = broker.getQueueDepth(QUEUE_NAME) + " exported messages were not acknowledged";
+            }
+            record(name, error == null, error);
+        } finally {
+            try (Stream<Path> files = Files.list(directory)) {
+                for (Path file : files.collect(Collectors.toList())) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(directory);
+        }
+    }
+
+    /**
+     * Sends messages spread over the keys with the keyed mode of the QueueProducer while a {@link PartitionedConsumer}
+     * drains the queue, and checks that the messages of every key were processed by one partition, in order. Split by
+     * selector, every partition must also have processed exactly the messages of its own keys.
+     */
+    private void runPartitioned(String name, PartitionedConsumer.Assignment assignment, int partitions, int keys,
+            int count) throws Exception {
+        System.out.printf("%n=== %s ===%n", name);
+        Map<String, Thread> owners = new ConcurrentHashMap<>();
+        AtomicLong moved = new AtomicLong();
+        String error;
+        try (ContextPool pool = new ContextPool(new JmsConnectionFactory(username, password, uri), partitions)) {
+            PartitionedConsumer consumer = new PartitionedConsumer(pool, QUEUE_NAME, assignment, partitions,
+                    message -> {
+                        try {
+                            Thread owner = owners.putIfAbsent(message.getStringProperty("JMSXGroupID"),
+                                    Thread.currentThread());
+                            if (owner != null && owner != Thread.currentThread()) {
+                                moved.incrementAndGet();
+                            }
+                        } catch (Exception e) {
+                            throw new RuntimeException(e);
+                        }
+                    }, 100);
+            // the consumers attach first, so that the broker can hand every group to any of them
+            consumer.start(count, TimeUnit.SECONDS.toMillis(5));
+            error = await(start(QueueProducer::main, "--keys", String.valueOf(keys), "--partitions",
+                    String.valueOf(partitions), "--count", String.valueOf(count)));
+            consumer.join();
+            consumer.printSummary(System.out);
+
+            long[] expected = new long[partitions];
+            for (int i = 0; i < count; i++) {
+                expected[PartitionedConsumer.partitionOf("key-" + (i % keys), partitions)]++;
+            }
+            if (error == null && consumer.getProcessed() != count) {
+                error = String.format("%d of %d messages processed", consumer.getProcessed(), count);
+            } else if (error == null && (moved.get() > 0 || consumer.getReordered() > 0)) {
+                error = String.format("%d messages processed by another partition than earlier ones of their key,"
+                        + " %d out of order", moved.get(), consumer.getReordered());
+            }
+            for (int p = 0; p < partitions && error == null; p++) {
+                if (assignment == PartitionedConsumer.Assignment.SELECTOR
+                        && consumer.getPartitionCount(p) != expected[p]) {
+                    error = String.format("partition %d processed %d messages instead of %d", p,
+                            consumer.getPartitionCount(p), expected[p]);
+                }
+            }
+        }
+        record(name, error == null, error);
+    }
+
+    /**
+     * Returns what is wrong with the export files in the directory, or null if they hold the expected records.
+     */
+    private static String checkExport(Path directory, int count, int size) throws IOException {
+        List<Path> files;
+        try (Stream<Path> list = Files.list(directory)) {
+            files = list.sorted().collect(Collectors.toList());
+        }
+        long records = 0;
+        for (Path file : files) {
+            if (Files.size(file) > 1024 * 1024) {
+                return file.getFileName() + " is larger than 1 MB";
+            }
+            try (MappedRecordReader reader = new MappedRecordReader(file, MappedRecordReader.Format.LENGTH, 0)) {
+                ByteBuffer record;
+                while ((record = reader.next()) != null) {
+                    if (record.remaining() != size) {
+                        return "a record of " + record.remaining() + " bytes in " + file.getFileName();
+                    }
+                    records++;
+                }
+            }
+        }
+        if (records != count || files.size() < 2) {
+            return String.format("%d of %d messages exported to %d file(s)", records, count, files.size());
+        }
+        return null;
+    }
+
+    /**
+     * Writes a temporary file of newline-separated records for the bulk loader.
+     */
+    private static Path writeRecords(int count) throws IOException {
+        Path file = Files.createTempFile("SampleHarness", ".txt");
+        List<String> lines = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            lines.add("Hello world Queues! " + i);
+        }
+        Files.write(file, lines, StandardCharsets.UTF_8);
+        return file;
+    }
+
+    /**
+     * Starts the receiving sample, waits until it is ready, runs the sending sample and waits for both to finish.
+     */
+    private void runPair(String name, Sample receiver, String[] receiverOptions, BooleanSupplier ready, Sample sender,
+            String... senderOptions) throws InterruptedException {
+        System.out.printf("%n=== %s ===%n", name);
+        Future<?> receiving = start(receiver, receiverOptions);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(READY_TIMEOUT_SECONDS);
+        while (!ready.getAsBoolean() && !receiving.isDone()) {
+            if (System.nanoTime() - deadline >= 0) {
+                receiving.cancel(true);
+                record(name, false, "the receiver did not subscribe within " + READY_TIMEOUT_SECONDS + " seconds");
+                return;
+            }
+            Thread.sleep(10);
+        }
+        String error = await(start(sender, senderOptions));
+        String receiverError = await(receiving);
+        if (error == null) {
+            error = receiverError;
+        }
+        record(name, error == null, error);
+    }
+
+    private void runSample(String name, Sample sample, String... options) throws InterruptedException {
+        System.out.printf("%n=== %s ===%n", name);
+        String error = await(start(sample, options));
+        record(name, error == null, error);
+    }
+
+    private Future<?> start(Sample sample, String... options) {
+        String[] args = new String[3 + options.length];
+        args[0] = uri;
+        args[1] = username;
+        args[2] = password;
+        System.arraycopy(options, 0, args, 3, options.length);
+        return executor.submit(() -> {
+            sample.main(args);
+            return null;
+        });
+    }
+
+    /**
+     * Waits for a sample to finish and returns why it failed, or null if it succeeded.
+     */
+    private String await(Future<?> sample) throws InterruptedException {
+        try {
+            sample.get(SAMPLE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            return null;
+        } catch (TimeoutException e) {
+            sample.cancel(true);
+            return "did not finish within " + SAMPLE_TIMEOUT_SECONDS + " seconds";
+        } catch (Exception e) {
+            return String.valueOf(e.getCause());
+        }
+    }
+
+    private void smokeTestPublishSubscribe(int count, double minRate, long maxP99Micros) throws Exception {
+        String name = "Smoke test: non-persistent publish/subscribe";
+        System.out.printf("%n=== %s ===%n", name);
+        ConnectionFactory connectionFactory = new JmsConnectionFactory(username, password, uri);
+        LatencyRecorder completionLatency = new LatencyRecorder("Send completion");
+        LatencyRecorder endToEndLatency = new LatencyRecorder("End-to-end");
+        AtomicLong received = new AtomicLong();
+        AtomicLong lastReceiveNanos = new AtomicLong();
+
+        try (JMSContext subscriberContext = connectionFactory.createContext();
+                JMSContext publisherContext = connectionFactory.createContext()) {
+            Topic topic = subscriberContext.createTopic(SMOKE_TOPIC_NAME);
+            subscriberContext.createConsumer(topic).setMessageListener(message -> {
+                try {
+                    endToEndLatency.recordEndToEnd(message);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+                lastReceiveNanos.set(System.nanoTime());
+                received.incrementAndGet();
+            });
+
+            SendWindow sendWindow = new SendWindow(1000, completionLatency);
+            JMSProducer producer = publisherContext.createProducer().setDeliveryMode(DeliveryMode.NON_PERSISTENT)
+                    .setAsync(sendWindow);
+            long startNanos = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                TextMessage message = publisherContext.createTextMessage("smoke test");
+                SendTimestamp.stamp(message);
+                sendWindow.send(producer, topic, message);
+            }
+            sendWindow.awaitCompletion(SAMPLE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            awaitCount(received, count);
+
+            double elapsedSeconds = Math.max(lastReceiveNanos.get() - startNanos, 1) / 1e9;
+            endToEndLatency.getTotal().printSummary(System.out, endToEndLatency.getName());
+            check(name, count, received.get(), received.get() / elapsedSeconds, minRate, completionLatency,
+                    maxP99Micros);
+        }
+    }
+
+    private void smokeTestPersistentQueue(int count, double minRate, long maxP99Micros) throws Exception {
+        String name = "Smoke test: persistent queue send and drain";
+        System.out.printf("%n=== %s ===%n", name);
+        ConnectionFactory connectionFactory = new JmsConnectionFactory(username, password, uri);
+        LatencyRecorder acknowledgementLatency = new LatencyRecorder("Acknowledgement");
+
+        try (JMSContext context = connectionFactory.createContext()) {
+            Queue queue = context.createQueue(SMOKE_QUEUE_NAME);
+            SendWindow sendWindow = new SendWindow(64, acknowledgementLatency);
+            JMSProducer producer = context.createProducer().setDeliveryMode(DeliveryMode.PERSISTENT)
+                    .setAsync(sendWindow);
+            long startNanos = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                sendWindow.send(producer, queue, context.createTextMessage("smoke test"));
+            }
+            sendWindow.awaitCompletion(SAMPLE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            double elapsedSeconds = (System.nanoTime() - startNanos) / 1e9;
+
+            // every acknowledged message must be delivered
+            long drained = 0;
+            try (JMSContext consumerContext = context.createContext(JMSContext.AUTO_ACKNOWLEDGE)) {
+                JMSConsumer consumer = consumerContext.createConsumer(queue);
+                while (drained < count && consumer.receive(5000) != null) {
+                    drained++;
+                }
+            }
+            System.out.printf("Drained %d of %d acknowledged messages.%n", drained, sendWindow.getCompleted());
+            check(name, count, Math.min(drained, sendWindow.getCompleted()),
+                    sendWindow.getCompleted() / elapsedSeconds, minRate, acknowledgementLatency, maxP99Micros);
+        }
+    }
+
+    private void smokeTestRequestReply(int count, double minRate, long maxP99Micros) throws Exception {
+        String name = "Smoke test: request/reply";
+        System.out.printf("%n=== %s ===%n", name);
+        ConnectionFactory connectionFactory = new JmsConnectionFactory(username, password, uri);
+        LatencyRecorder roundTripLatency = new LatencyRecorder("Round-trip");
+        AtomicLong replies = new AtomicLong();
+        Semaphore inFlight = new Semaphore(16);
+
+        try (JMSContext replierContext = connectionFactory.createContext();
+                JMSContext requestorContext = connectionFactory.createContext();
+                Requestor requestor = new Requestor(requestorContext, TimeUnit.SECONDS.toMillis(10))) {
+            Queue requestQueue = replierContext.createQueue(SMOKE_REQUEST_QUEUE_NAME);
+            JMSProducer replyProducer = replierContext.createProducer().setDeliveryMode(DeliveryMode.NON_PERSISTENT);
+            // replies are sent on the session of the listener, from the listener thread
+            replierContext.createConsumer(requestQueue).setMessageListener(request -> {
+                try {
+                    TextMessage reply = replierContext.createTextMessage("reply");
+                    reply.setJMSCorrelationID(request.getJMSCorrelationID());
+                    replyProducer.send(request.getJMSReplyTo(), reply);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            });
+
+            long startNanos = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                inFlight.acquire();
+                long requestNanos = System.nanoTime();
+                requestor.request(requestQueue, requestorContext.createTextMessage("request"))
+                        .whenComplete((reply, failure) -> {
+                            if (failure == null) {
+                                roundTripLatency.recordSince(requestNanos);
+                                replies.incrementAndGet();
+                            }
+                            inFlight.release();
+                        });
+            }
+            inFlight.acquire(16);
+            double elapsedSeconds = (System.nanoTime() - startNanos) / 1e9;
+            check(name, count, replies.get(), replies.get() / elapsedSeconds, minRate, roundTripLatency,
+                    maxP99Micros);
+        }
+    }
+
+    private void awaitCount(AtomicLong counter, long count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(SAMPLE_TIMEOUT_SECONDS);
+        while (counter.get() < count && System.nanoTime() - deadline < 0) {
+            Thread.sleep(10);
+        }
+    }
+
+    private void check(String name, long expected, long actual, double rate, double minRate, LatencyRecorder latency,
+            long maxP99Micros) {
+        LatencyHistogram total = latency.getTotal();
+        total.printSummary(System.out, latency.getName());
+        long p99 = total.getValueAtPercentile(99);
+        List<String> problems = new ArrayList<>();
+        if (actual < expected) {
+            problems.add(String.format("only %d of %d messages arrived", actual, expected));
+        }
+        if (rate < minRate) {
+            problems.add(String.format("rate below %.0f msgs/sec", minRate));
+        }
+        if (p99 > maxP99Micros) {
+            problems.add(String.format("p99 latency above %d usec", maxP99Micros));
+        }
+        String detail = String.format("%.0f msgs/sec, %s p99 %d usec", rate, latency.getName().toLowerCase(), p99);
+        record(name, problems.isEmpty(), problems.isEmpty() ? detail : detail + ": " + String.join(", ", problems));
+    }
+
+    private void record(String name, boolean passed, String detail) {
+        if (!passed) {
+            failures++;
+        }
+        results.add(String.format("  %s  %s%s", passed ? "PASS" : "FAIL", name,
+                detail != null ? " (" + detail + ")" : ""));
+    }
+
+    private int subscriberCount(String topic) {
+        // against an external broker, give the receiver time to subscribe
+        return broker != null ? broker.getSubscriberCount(topic) : sleepAndReady();
+    }
+
+    private int consumerCount(String queue) {
+        return broker != null ? broker.getConsumerCount(queue) : sleepAndReady();
+    }
+
+    private int sleepAndReady() {
+        try {
+            Thread.sleep(2000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return 1;
+    }
+
+    public static void main(String[] args) throws Exception {
+        SampleOptions options = new SampleOptions(args, 0);
+        if (options.has("help")) {
+            System.out.println("Usage: SampleHarness [--port <port>] [--count <messages>] [--min-rate <msgs/sec>]"
+                    + " [--max-p99 <ms>] [--uri amqp://<msg_backbone_ip:amqp_port> --username <username>"
+                    + " --password <password>]");
+            System.exit(-1);
+        }
+        SampleHarness harness = new SampleHarness();
+        harness.run(options);
+        System.exit(harness.failures == 0 ? 0 : 1);
+    }
+}
@@ -0,0 +1,267 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ *  Apache Qpid JMS 2.0 Solace AMQP Examples: SelectorExpression
+ */
+
+package com.solace.samples.harness;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.qpid.proton.amqp.DescribedType;
+
+/**
+ * The subset of the JMS message selector syntax that the samples use: comparisons of properties with string, numeric
+ * and boolean literals (=, &lt;&gt;, &lt;, &gt;, &lt;=, &gt;=), IS [NOT] NULL, AND, OR, NOT and parentheses.
+ */
+class SelectorExpression {
+
+    private interface Node {
+        Object evaluate(Map<String, Object> properties);
+    }
+
+    private final String text;
+    private final Node root;
+
+    private SelectorExpression(String text) {
+        this.text = text;
+        this.tokens = tokenize(text);
+        this.root = parseOr();
+        if (position != tokens.size()) {
+            throw new IllegalArgumentException("Unexpected '" + tokens.get(position) + "' in selector: " + text);
+        }
+    }
+
+    /**
+     * Returns the selector of an AMQP source filter map, or null when there is none.
+     */
+    static SelectorExpression fromFilter(Map<?, ?> filter) {
+        if (filter != null) {
+            for (Object value : filter.values()) {
+                if (isSelectorFilter(value)) {
+                    return parse((String) ((DescribedType) value).getDescribed());
+                }
+            }
+        }
+        return null;
+    }
+
+    private static boolean isSelectorFilter(Object value) {
+        if (!(value instanceof DescribedType) || !(((DescribedType) value).getDescribed() instanceof String)) {
+            return false;
+        }
+        // apache.org:selector-filter:string, which Qpid JMS encodes with its numeric descriptor
+        Object descriptor = ((DescribedType) value).getDescriptor();
+        return descriptor instanceof Number ? ((Number) descriptor).longValue() == 0x0000468C00000004L
+                : String.valueOf(descriptor).equals("apache.org:selector-filter:string");
+    }
+
+    static SelectorExpression parse(String text) {
+        return text == null || text.trim().isEmpty() ? null : new SelectorExpression(text);
+    }
+
+    boolean matches(Map<String, Object> properties) {
+        return Boolean.TRUE.equals(root.evaluate(properties));
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+
+    // parsing
+
+    private final List<String> tokens;
+    private int position;
+
+    private static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        int i = 0;
+        while (i < text.length()) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '\'') {
+                // string literals keep their quotes; '' is an escaped quote
+                StringBuilder literal = new StringBuilder("'");
+                i++;
+                while (i < text.length()) {
+                    if (text.charAt(i) == '\'') {
+                        if (i + 1 < text.length() && text.charAt(i + 1) == '\'') {
+                            literal.append('\'');
+                            i += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    literal.append(text.charAt(i++));
+                }
+                i++;
+                tokens.add(literal.toString());
+            } else if (c == '(' || c == ')' || c == '=') {
+                tokens.add(String.valueOf(c));
+                i++;
+            } else if (c == '<' || c == '>') {
+                if (i + 1 < text.length() && (text.charAt(i + 1) == '=' || (c == '<' && text.charAt(i + 1) == '>'))) {
+                    tokens.add(text.substring(i, i + 2));
+                    i += 2;
+                } else {
+                    tokens.add(String.valueOf(c));
+                    i++;
+                }
+            } else {
+                int start = i;
+                while (i < text.length() && !Character.isWhitespace(text.charAt(i))
+                        && "()=<>'".indexOf(text.charAt(i)) < 0) {
+                    i++;
+                }
+                tokens.add(text.substring(start, i));
+            }
+        }
+        return tokens;
+    }
+
+    private String peek() {
+        return position < tokens.size() ? tokens.get(position) : null;
+    }
+
+    private boolean accept(String keyword) {
+        if (keyword.equalsIgnoreCase(peek())) {
+            position++;
+            return true;
+        }
+        return false;
+    }
+
+    private String next() {
+        if (position >= tokens.size()) {
+            throw new IllegalArgumentException("Unexpected end of selector: " + text);
+        }
+        return tokens.get(position++);
+    }
+
+    private Node parseOr() {
+        Node left = parseAnd();
+        while (accept("OR")) {
+            Node l = left;
+            Node r = parseAnd();
+            left = properties -> Boolean.TRUE.equals(l.evaluate(properties))
+                    || Boolean.TRUE.equals(r.evaluate(properties));
+        }
+        return left;
+    }
+
+    private Node parseAnd() {
+        Node left = parseNot();
+        while (accept("AND")) {
+            Node l = left;
+            Node r = parseNot();
+            left = properties -> Boolean.TRUE.equals(l.evaluate(properties))
+                    && Boolean.TRUE.equals(r.evaluate(properties));
+        }
+        return left;
+    }
+
+    private Node parseNot() {
+        if (accept("NOT")) {
+            Node operand = parseNot();
+            return properties -> {
+                Object value = operand.evaluate(properties);
+                return value == null ? null : !Boolean.TRUE.equals(value);
+            };
+        }
+        return parseComparison();
+    }
+
+    private Node parseComparison() {
+        Node left = parseOperand();
+        if (accept("IS")) {
+            boolean negate = accept("NOT");
+            if (!accept("NULL")) {
+                throw new IllegalArgumentException("Expected NULL in selector: " + text);
+            }
+            return properties -> (left.evaluate(properties) == null) != negate;
+        }
+        String operator = peek();
+        if (operator == null || !"= <> < > <= >=".contains(operator) || operator.trim().isEmpty()) {
+            return left;
+        }
+        position++;
+        Node right = parseOperand();
+        return properties -> compare(operator, left.evaluate(properties), right.evaluate(properties));
+    }
+
+    private Node parseOperand() {
+        if (accept("(")) {
+            Node inner = parseOr();
+            if (!accept(")")) {
+                throw new IllegalArgumentException("Missing ')' in selector: " + text);
+            }
+            return inner;
+        }
+        String token = next();
+        if (token.startsWith("'")) {
+            String literal = token.substring(1);
+            return properties -> literal;
+        }
+        if (token.equalsIgnoreCase("TRUE") || token.equalsIgnoreCase("FALSE")) {
+            Boolean literal = Boolean.valueOf(token);
+            return properties -> literal;
+        }
+        if (Character.isDigit(token.charAt(0)) || token.charAt(0) == '-' || token.charAt(0) == '.') {
+            Number literal = token.contains(".") ? (Number) Double.valueOf(token) : (Number) Long.valueOf(token);
+            return properties -> literal;
+        }
+        return properties -> properties.get(token);
+    }
+
+    private static Boolean compare(String operator, Object left, Object right) {
+        if (left == null || right == null) {
+            // comparisons with a missing property are unknown
+            return null;
+        }
+        int result;
+        if (left instanceof Number && right instanceof Number) {
+            result = Double.compare(((Number) left).doubleValue(), ((Number) right).doubleValue());
+        } else if (left instanceof String && right instanceof String) {
+            result = ((String) left).compareTo((String) right);
+        } else if (left instanceof Boolean && right instanceof Boolean) {
+            result = left.equals(right) ? 0 : 1;
+        } else {
+            return operator.equals("<>");
+        }
+        switch (operator) {
+        case "=":
+            return result == 0;
+        case "<>":
+            return result != 0;
+        case "<":
+            return result < 0;
+        case ">":
+            return result > 0;
+        case "<=":
+            return result <= 0;
+        default:
+            return result >= 0;
+        }
+    }
+}
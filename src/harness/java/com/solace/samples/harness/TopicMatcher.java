@@ -0,0 +1,54 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ *  Apache Qpid JMS 2.0 Solace AMQP Examples: TopicMatcher
+ */
+
+package com.solace.samples.harness;
+
+/**
+ * Matches topics against Solace topic subscriptions. Topic levels are separated by '/'. A '*' on its own matches
+ * exactly one level, and a level ending in '*' matches any level with that prefix. A '&gt;' as the last level matches
+ * one or more remaining levels.
+ */
+class TopicMatcher {
+
+    static boolean matches(String subscription, String topic) {
+        String[] filterLevels = subscription.split("/", -1);
+        String[] topicLevels = topic.split("/", -1);
+        for (int i = 0; i < filterLevels.length; i++) {
+            String filter = filterLevels[i];
+            if (filter.equals(">") && i == filterLevels.length - 1) {
+                return topicLevels.length > i;
+            }
+            if (i >= topicLevels.length) {
+                return false;
+            }
+            if (filter.endsWith("*")) {
+                if (!topicLevels[i].startsWith(filter.substring(0, filter.length() - 1))) {
+                    return false;
+                }
+            } else if (!filter.equals(topicLevels[i])) {
+                return false;
+            }
+        }
+        return filterLevels.length == topicLevels.length;
+    }
+}
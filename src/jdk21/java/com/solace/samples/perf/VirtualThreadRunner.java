@@ -0,0 +1,423 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ *  Apache Qpid JMS 2.0 Solace AMQP Examples: VirtualThreadRunner
+ */
+
+package com.solace.samples.perf;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.jms.DeliveryMode;
+import javax.jms.Destination;
+import javax.jms.JMSConsumer;
+import javax.jms.JMSContext;
+import javax.jms.JMSProducer;
+import javax.jms.Message;
+import javax.jms.Queue;
+import javax.jms.TemporaryQueue;
+import javax.jms.TextMessage;
+
+import org.apache.qpid.jms.JmsConnectionFactory;
+import org.apache.qpid.jms.JmsDestination;
+import org.apache.qpid.jms.JmsTemporaryQueue;
+import org.apache.qpid.jms.policy.JmsDefaultPrefetchPolicy;
+
+import com.solace.samples.ContextPool;
+import com.solace.samples.LatencyHistogram;
+import com.solace.samples.LatencyRecorder;
+import com.solace.samples.SampleOptions;
+import com.solace.samples.SendTimestamp;
+import com.solace.samples.SendWindow;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordingStream;
+
+/**
+ * Runs many concurrent instances of the blocking BasicRequestor, BasicReplier and QueueConsumer logic, one task per
+ * instance, on virtual threads and on platform threads for comparison. Every task has its own session and blocks in
+ * {@code send()} and {@code receive()} exactly like the basic samples.
+ *
+ * For every thread mode and scenario the runner reports throughput, latency, the memory each task takes once its session
+ * is open, and how often a virtual thread blocked while pinned to its carrier thread, for instance inside a
+ * {@code synchronized} block of the client. Pinning events come from JDK Flight Recorder, with the client frames where
+ * they happened.
+ *
+ * This sample needs JDK 21 and is only built by the jdk21 profile: {@code mvn -Pjdk21 compile} or
+ * {@code ./gradlew -Pjdk21 build}.
+ */
+public class VirtualThreadRunner {
+
+    final String REQUEST_QUEUE_NAME = "Q/virtual/requests";
+
+    final String QUEUE_NAME = "Q/tutorial";
+
+    final int REPLY_TIMEOUT_MS = 10000;
+
+    final long IDLE_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private JmsConnectionFactory connectionFactory;
+    private int tasks;
+    private int connections;
+    private int requests;
+    private long count;
+    private long pinThresholdMillis;
+
+    private void run(String solaceHost, String solaceUsername, String solacePassword, SampleOptions options)
+            throws Exception {
+        String[] threadModes = options.getString("threads", "platform,virtual").split(",");
+        String[] scenarios = options.getString("scenarios", "request-reply,consume").split(",");
+        tasks = options.getInt("tasks", 500);
+        connections = options.getInt("connections", 8);
+        requests = options.getInt("requests", 20);
+        count = options.getLong("count", 100000);
+        pinThresholdMillis = options.getLong("pin-threshold", 0);
+
+        System.out.printf("VirtualThreadRunner is running %d tasks per scenario on %d connections to %s...%n", tasks,
+                connections, solaceHost);
+
+        connectionFactory = new JmsConnectionFactory(solaceUsername, solacePassword, solaceHost);
+        // a small prefetch spreads the messages of a queue over all of its consumers
+        JmsDefaultPrefetchPolicy prefetchPolicy = new JmsDefaultPrefetchPolicy();
+        prefetchPolicy.setQueuePrefetch(options.getInt("prefetch", 10));
+        connectionFactory.setPrefetchPolicy(prefetchPolicy);
+
+        List<String> results = new ArrayList<>();
+        for (String scenario : scenarios) {
+            for (String threadMode : threadModes) {
+                results.add(measure(scenario.trim(), threadMode.trim()));
+            }
+        }
+
+        System.out.println();
+        System.out.printf("%-14s %-9s %7s %10s %9s %9s %9s %8s %11s %10s %9s%n", "scenario", "threads", "tasks",
+                "ops/sec", "p50 usec", "p99 usec", "max usec", "pinned", "heap KB/task", "RSS KB/task",
+                "OS threads");
+        for (String result : results) {
+            System.out.println(result);
+        }
+    }
+
+    private ExecutorService newExecutor(String threadMode) {
+        switch (threadMode) {
+        case "virtual":
+            return Executors.newVirtualThreadPerTaskExecutor();
+        case "platform":
+            return Executors.newThreadPerTaskExecutor(Thread.ofPlatform().name("task-", 0).factory());
+        default:
+            throw new IllegalArgumentException("Unknown thread mode '" + threadMode + "'");
+        }
+    }
+
+    private String measure(String scenario, String threadMode) throws Exception {
+        System.out.printf("Running %s with %s threads...%n", scenario, threadMode);
+        LatencyRecorder latency = new LatencyRecorder(scenario);
+        AtomicLong operations = new AtomicLong();
+        LongAdder pinnedEvents = new LongAdder();
+        Map<String, Long> pinnedSites = new ConcurrentHashMap<>();
+        // tasks open their session and then wait, so that the memory of an idle task can be measured
+        CountDownLatch ready = new CountDownLatch(scenario.equals("request-reply") ? 2 * tasks : tasks);
+        CountDownLatch go = new CountDownLatch(1);
+
+        System.gc();
+        long baseHeap = usedHeap();
+        long baseRss = residentSetSize();
+
+        double elapsedSeconds;
+        long taskHeap;
+        long taskRss;
+        int osThreads;
+        try (ContextPool pool = new ContextPool(connectionFactory, connections, 0);
+                RecordingStream pinning = new RecordingStream()) {
+            pinning.enable("jdk.VirtualThreadPinned").withThreshold(Duration.ofMillis(pinThresholdMillis))
+                    .withStackTrace();
+            pinning.onEvent("jdk.VirtualThreadPinned", event -> {
+                pinnedEvents.increment();
+                pinnedSites.merge(pinnedSite(event), 1L, Long::sum);
+            });
+            pinning.startAsync();
+
+            long startNanos;
+            try (ExecutorService executor = newExecutor(threadMode)) {
+                Runnable feeder;
+                if (scenario.equals("request-reply")) {
+                    feeder = startRequestReply(executor, pool, latency, operations, ready, go);
+                } else if (scenario.equals("consume")) {
+                    feeder = startConsume(executor, pool, latency, operations, ready, go);
+                } else {
+                    throw new IllegalArgumentException("Unknown scenario '" + scenario + "'");
+                }
+                if (!ready.await(2, TimeUnit.MINUTES)) {
+                    System.out.println("Timed out waiting for all tasks to open their sessions.");
+                }
+                System.gc();
+                taskHeap = (usedHeap() - baseHeap) / tasks;
+                taskRss = (residentSetSize() - baseRss) / tasks;
+                osThreads = ManagementFactory.getThreadMXBean().getThreadCount();
+
+                startNanos = System.nanoTime();
+                go.countDown();
+                feeder.run();
+                // close() waits for all tasks to end
+            }
+            elapsedSeconds = (System.nanoTime() - startNanos) / 1e9;
+            // waits until the events recorded so far have been handled
+            pinning.stop();
+        }
+
+        LatencyHistogram total = latency.getTotal();
+        System.out.printf("%d operations in %.2f seconds, %d pinning events.%n", operations.get(), elapsedSeconds,
+                pinnedEvents.sum());
+        total.printSummary(System.out, scenario);
+        pinnedSites.entrySet().stream().sorted(Map.Entry.<String, Long>comparingByValue().reversed()).limit(5)
+                .forEach(site -> System.out.printf("  pinned %d times at %s%n", site.getValue(), site.getKey()));
+        return String.format("%-14s %-9s %7d %10.0f %9d %9d %9d %8d %11.1f %10.1f %9d", scenario, threadMode, tasks,
+                operations.get() / elapsedSeconds, total.getValueAtPercentile(50), total.getValueAtPercentile(99),
+                total.getMaxValue(), pinnedEvents.sum(), taskHeap / 1024.0, taskRss / 1024.0, osThreads);
+    }
+
+    /**
+     * Starts the replier and requestor tasks, and returns what the main thread does while they run: it stops the
+     * repliers once the requestors are done.
+     */
+    private Runnable startRequestReply(ExecutorService executor, ContextPool pool, LatencyRecorder latency,
+            AtomicLong operations, CountDownLatch ready, CountDownLatch go) {
+        AtomicBoolean stopped = new AtomicBoolean();
+        CountDownLatch requestorsDone = new CountDownLatch(tasks);
+        for (int t = 0; t < tasks; t++) {
+            executor.execute(() -> reply(pool, stopped, ready, go));
+        }
+        for (int t = 0; t < tasks; t++) {
+            final String correlationIdPrefix = "request-" + t + "-";
+            executor.execute(() -> {
+                try {
+                    request(pool, correlationIdPrefix, latency, operations, ready, go);
+                } finally {
+                    requestorsDone.countDown();
+                }
+            });
+        }
+        return () -> {
+            try {
+                requestorsDone.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            stopped.set(true);
+        };
+    }
+
+    /**
+     * The BasicRequestor logic: send a request and block until its reply arrives, over and over.
+     */
+    private void request(ContextPool pool, String correlationIdPrefix, LatencyRecorder latency, AtomicLong operations,
+            CountDownLatch ready, CountDownLatch go) {
+        boolean counted = false;
+        try (JMSContext context = pool.createContext(JMSContext.AUTO_ACKNOWLEDGE)) {
+            Queue requestQueue = context.createQueue(REQUEST_QUEUE_NAME);
+            TemporaryQueue replyQueue = context.createTemporaryQueue();
+            JMSConsumer replies = context.createConsumer(replyQueue);
+            JMSProducer producer = context.createProducer().setDeliveryMode(DeliveryMode.NON_PERSISTENT);
+            ready.countDown();
+            counted = true;
+            go.await();
+            for (int r = 0; r < requests; r++) {
+                TextMessage request = context.createTextMessage("Sample Request");
+                request.setJMSReplyTo(replyQueue);
+                request.setJMSCorrelationID(correlationIdPrefix + r);
+                long startNanos = System.nanoTime();
+                producer.send(requestQueue, request);
+                Message reply = replies.receive(REPLY_TIMEOUT_MS);
+                if (reply == null) {
+                    System.out.println("Timed out waiting for a reply.");
+                    continue;
+                }
+                latency.recordSince(startNanos);
+                operations.incrementAndGet();
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            if (!counted) {
+                ready.countDown();
+            }
+        }
+    }
+
+    /**
+     * The BasicReplier logic: block until a request arrives and reply to it, until stopped.
+     */
+    private void reply(ContextPool pool, AtomicBoolean stopped, CountDownLatch ready, CountDownLatch go) {
+        boolean counted = false;
+        try (JMSContext context = pool.createContext(JMSContext.AUTO_ACKNOWLEDGE)) {
+            JMSConsumer requests = context.createConsumer(context.createQueue(REQUEST_QUEUE_NAME));
+            JMSProducer producer = context.createProducer().setDeliveryMode(DeliveryMode.NON_PERSISTENT);
+            ready.countDown();
+            counted = true;
+            go.await();
+            while (!stopped.get()) {
+                Message request = requests.receive(100);
+                if (request == null || request.getJMSReplyTo() == null) {
+                    continue;
+                }
+                // workaround as the Apache Qpid JMS API always sets JMSReplyTo as non-temporary
+                Destination replyDestination = new JmsTemporaryQueue(
+                        ((JmsDestination) request.getJMSReplyTo()).getAddress());
+                TextMessage reply = context.createTextMessage("Sample response");
+                reply.setJMSCorrelationID(request.getJMSCorrelationID());
+                producer.send(replyDestination, reply);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            if (!counted) {
+                ready.countDown();
+            }
+        }
+    }
+
+    /**
+     * Starts the consumer tasks, and returns what the main thread does while they run: it sends the messages they
+     * consume.
+     */
+    private Runnable startConsume(ExecutorService executor, ContextPool pool, LatencyRecorder latency,
+            AtomicLong operations, CountDownLatch ready, CountDownLatch go) {
+        AtomicLong lastReceiveNanos = new AtomicLong();
+        for (int t = 0; t < tasks; t++) {
+            executor.execute(() -> consume(pool, latency, operations, lastReceiveNanos, ready, go));
+        }
+        return () -> {
+            lastReceiveNanos.set(System.nanoTime());
+            try (JMSContext context = pool.createContext(JMSContext.AUTO_ACKNOWLEDGE)) {
+                Queue queue = context.createQueue(QUEUE_NAME);
+                SendWindow sendWindow = new SendWindow(100, new LatencyRecorder("Send completion"));
+                JMSProducer producer = context.createProducer().setDeliveryMode(DeliveryMode.NON_PERSISTENT)
+                        .setAsync(sendWindow);
+                for (long i = 0; i < count; i++) {
+                    TextMessage message = context.createTextMessage("Hello world Queues!");
+                    SendTimestamp.stamp(message);
+                    sendWindow.send(producer, queue, message);
+                }
+                sendWindow.awaitCompletion(30, TimeUnit.SECONDS);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        };
+    }
+
+    /**
+     * The QueueConsumer logic: block until a message arrives, until all messages have been consumed or the queue has
+     * stayed empty for a while.
+     */
+    private void consume(ContextPool pool, LatencyRecorder latency, AtomicLong operations, AtomicLong lastReceiveNanos,
+            CountDownLatch ready, CountDownLatch go) {
+        boolean counted = false;
+        try (JMSContext context = pool.createContext(JMSContext.AUTO_ACKNOWLEDGE)) {
+            JMSConsumer consumer = context.createConsumer(context.createQueue(QUEUE_NAME));
+            ready.countDown();
+            counted = true;
+            go.await();
+            while (operations.get() < count) {
+                Message message = consumer.receive(100);
+                if (message == null) {
+                    if (System.nanoTime() - lastReceiveNanos.get() >= IDLE_TIMEOUT_NANOS) {
+                        break;
+                    }
+                    continue;
+                }
+                lastReceiveNanos.set(System.nanoTime());
+                latency.recordEndToEnd(message);
+                operations.incrementAndGet();
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            if (!counted) {
+                ready.countDown();
+            }
+        }
+    }
+
+    /**
+     * Returns the first frame outside the JDK where a virtual thread was pinned, which is usually the
+     * {@code synchronized} method or block of the client that it blocked in.
+     */
+    private static String pinnedSite(RecordedEvent event) {
+        if (event.getStackTrace() == null) {
+            return "unknown";
+        }
+        for (RecordedFrame frame : event.getStackTrace().getFrames()) {
+            String className = frame.getMethod().getType().getName();
+            if (!className.startsWith("java.") && !className.startsWith("jdk.") && !className.startsWith("sun.")) {
+                return className + "." + frame.getMethod().getName() + ":" + frame.getLineNumber();
+            }
+        }
+        return "JDK";
+    }
+
+    private static long usedHeap() {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    /**
+     * Returns the resident set size of the process, which includes the stacks of platform threads, or 0 where
+     * /proc/self/status does not exist.
+     */
+    private static long residentSetSize() {
+        Path status = Paths.get("/proc/self/status");
+        try {
+            for (String line : Files.readAllLines(status)) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+                }
+            }
+        } catch (Exception e) {
+            // not Linux
+        }
+        return 0;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.out.println("Usage: VirtualThreadRunner amqp://<msg_backbone_ip:amqp_port> <username> <password>"
+                    + " [--threads platform|virtual[,...]] [--scenarios request-reply|consume[,...]]"
+                    + " [--tasks <tasks>] [--connections <connections>] [--requests <requests per requestor>]"
+                    + " [--count <messages>] [--prefetch <messages>] [--pin-threshold <ms>]");
+            System.exit(-1);
+        }
+        new VirtualThreadRunner().run(args[0], args[1], args[2], new SampleOptions(args, 3));
+    }
+}
@@ -0,0 +1,92 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ *  Apache Qpid JMS 2.0 Solace AMQP Examples: CorrelationIdBenchmark
+ */
+
+package com.solace.samples.jmh;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.solace.samples.Requestor;
+
+/**
+ * Compares ways of generating correlation IDs for requests and of matching the "ID:" prefixed correlation ID of a reply
+ * against the one that was sent.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CorrelationIdBenchmark {
+
+    final String prefix = UUID.randomUUID().toString() + '-';
+    final AtomicLong sequence = new AtomicLong();
+
+    final String sentId = UUID.randomUUID().toString();
+    final String replyId = "ID:" + sentId;
+
+    @Benchmark
+    public String generateRandomUuid() {
+        return UUID.randomUUID().toString();
+    }
+
+    @Benchmark
+    public String generateThreadLocalRandomUuid() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return new UUID(random.nextLong(), random.nextLong()).toString();
+    }
+
+    @Benchmark
+    public String generatePrefixAndSequence() {
+        return prefix + sequence.incrementAndGet();
+    }
+
+    @Benchmark
+    public boolean matchWithReplaceAll() {
+        return replyId.replaceAll("ID:", "").equals(sentId);
+    }
+
+    @Benchmark
+    public boolean matchWithPrefixStrip() {
+        return Requestor.stripIdPrefix(replyId).equals(sentId);
+    }
+
+    @Benchmark
+    public boolean matchWithRegionMatches() {
+        int offset = replyId.startsWith("ID:") ? 3 : 0;
+        return replyId.length() - offset == sentId.length() && replyId.regionMatches(offset, sentId, 0, sentId.length());
+    }
+}
@@ -0,0 +1,111 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ *  Apache Qpid JMS 2.0 Solace AMQP Examples: MessageBenchmark
+ */
+
+package com.solace.samples.jmh;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+import javax.jms.TextMessage;
+
+import org.apache.qpid.jms.provider.amqp.message.AmqpCodec;
+import org.apache.qpid.jms.provider.amqp.message.AmqpJmsBytesMessageFacade;
+import org.apache.qpid.jms.provider.amqp.message.AmqpJmsTextMessageFacade;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Measures the per-message cost of building and encoding the messages the samples send.
+ *
+ * The messages are built the same way {@code JMSContext.createTextMessage()} and {@code createBytesMessage()} build them
+ * in Apache Qpid JMS, and are encoded with the codec the client uses before a message is written to the AMQP transfer
+ * frame. No connection is needed, so the numbers isolate the client-side CPU and allocation cost.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageBenchmark {
+
+    @Param({ "16", "256", "4096", "65536" })
+    int payloadSize;
+
+    String text;
+    byte[] bytes;
+
+    @Setup
+    public void setUp() {
+        char[] filler = new char[payloadSize];
+        Arrays.fill(filler, 'x');
+        text = new String(filler);
+        bytes = new byte[payloadSize];
+        Arrays.fill(bytes, (byte) 'x');
+    }
+
+    @Benchmark
+    public TextMessage createTextMessage() throws JMSException {
+        AmqpJmsTextMessageFacade facade = new AmqpJmsTextMessageFacade();
+        TextMessage message = facade.asJmsMessage();
+        message.setText(text);
+        return message;
+    }
+
+    @Benchmark
+    public ByteBuf encodeTextMessage() throws JMSException {
+        AmqpJmsTextMessageFacade facade = new AmqpJmsTextMessageFacade();
+        facade.asJmsMessage().setText(text);
+        facade.onSend(0);
+        return AmqpCodec.encodeMessage(facade);
+    }
+
+    @Benchmark
+    public BytesMessage createBytesMessage() throws JMSException {
+        AmqpJmsBytesMessageFacade facade = new AmqpJmsBytesMessageFacade();
+        BytesMessage message = facade.asJmsMessage();
+        message.writeBytes(bytes);
+        return message;
+    }
+
+    @Benchmark
+    public ByteBuf encodeBytesMessage() throws JMSException {
+        AmqpJmsBytesMessageFacade facade = new AmqpJmsBytesMessageFacade();
+        facade.asJmsMessage().writeBytes(bytes);
+        facade.onSend(0);
+        return AmqpCodec.encodeMessage(facade);
+    }
+}
@@ -27,10 +27,23 @@ import org.apache.qpid.jms.JmsConnectionFactory;
 import org.apache.qpid.jms.JmsDestination;
 import org.apache.qpid.jms.JmsTemporaryQueue;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
 import javax.jms.ConnectionFactory;
 import javax.jms.DeliveryMode;
 import javax.jms.Destination;
 import javax.jms.JMSContext;
+import javax.jms.JMSException;
+import javax.jms.JMSProducer;
 import javax.jms.Message;
 import javax.jms.TextMessage;
 import javax.jms.Topic;
@@ -40,11 +53,40 @@ import javax.jms.Topic;
  * message broker.
  * 
  * This is the Replier in the Request/Reply messaging pattern.
+ *
+ * When started with additional options the sample runs as a long-running replier service: requests are dispatched from a
+ * message listener to a pool of worker threads (or to virtual threads on JDK 21+), replies are sent through a fixed set of
+ * reused producers, and the request rate, queueing delay and service time are reported periodically.
  */
 public class BasicReplier {
 
     final String REQUEST_TOPIC_NAME = "T/GettingStarted/requests";
 
+    final long DEFAULT_REPORT_INTERVAL_SECONDS = 10;
+
+    /**
+     * A session and producer used to send replies. Sessions are not thread safe, so each one is used by a single worker
+     * at a time.
+     */
+    private static class ReplyChannel {
+        final JMSContext context;
+        final JMSProducer producer;
+
+        ReplyChannel(JMSContext context) {
+            this.context = context;
+            this.producer = context.createProducer().setDeliveryMode(DeliveryMode.NON_PERSISTENT);
+        }
+    }
+
+    // reply destinations rebuilt from their address, least recently used first
+    private Map<String, Destination> replyDestinations;
+    private BlockingQueue<ReplyChannel> replyChannels;
+
+    private final LatencyRecorder requestLatency = new LatencyRecorder("Request");
+    private final LatencyRecorder queueingDelay = new LatencyRecorder("Queueing delay");
+    private final LatencyRecorder serviceTime = new LatencyRecorder("Service time");
+    private final AtomicLong replies = new AtomicLong();
+
     private void run(String... args) throws Exception {
         String solaceHost = args[0];
         String solaceUsername = args[1];
@@ -72,6 +114,10 @@ public class BasicReplier {
             Destination replyDestination = request.getJMSReplyTo();
             if (replyDestination != null) {
                 System.out.println("Received request, responding...");
+                long latencyMicros = SendTimestamp.latencyMicros(request);
+                if (latencyMicros >= 0) {
+                    System.out.printf("Request latency: %d usec%n", latencyMicros);
+                }
 
                 // workaround as the Apache Qpid JMS API always sets JMSReplyTo as non-temporary
                 String replyDestinationName = ((JmsDestination) replyDestination).getAddress();
@@ -83,6 +129,8 @@ public class BasicReplier {
 
                 // Copy the correlation ID from the request to the reply
                 reply.setJMSCorrelationID(request.getJMSCorrelationID());
+                // lets the requestor measure the reply latency
+                SendTimestamp.stamp(reply);
 
                 // Sent the reply
                 // create producer and send the reply
@@ -94,11 +142,144 @@ public class BasicReplier {
         }
     }
 
+    @SuppressWarnings("try")
+    private void runService(String solaceHost, String solaceUsername, String solacePassword, SampleOptions options)
+            throws Exception {
+        int workers = options.getInt("workers", 4);
+        long durationSeconds = options.getLong("duration", 0);
+        long reportIntervalMillis = TimeUnit.SECONDS.toMillis(options.getLong("report-interval",
+                DEFAULT_REPORT_INTERVAL_SECONDS));
+        final int cacheSize = options.getInt("cache-size", 1024);
+
+        ExecutorService executor = options.getBoolean("virtual") ? newVirtualThreadExecutor() : null;
+        boolean virtualThreads = executor != null;
+        if (!virtualThreads) {
+            executor = Executors.newFixedThreadPool(workers);
+        }
+        System.out.printf("BasicReplier service is connecting to Solace router %s with %s...%n", solaceHost,
+                virtualThreads ? "virtual threads and " + workers + " reply producers" : workers + " worker threads");
+
+        replyDestinations = new LinkedHashMap<String, Destination>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Destination> eldest) {
+                return size() > cacheSize;
+            }
+        };
+        replyChannels = new ArrayBlockingQueue<>(workers);
+
+        ConnectionFactory connectionFactory = new JmsConnectionFactory(solaceUsername, solacePassword, solaceHost);
+        try (JMSContext context = connectionFactory.createContext();
+                LatencyReporter reporter = new LatencyReporter(options, DEFAULT_REPORT_INTERVAL_SECONDS,
+                        requestLatency, queueingDelay, serviceTime)) {
+            // replies are sent on sessions of the same connection, created once and reused
+            List<ReplyChannel> channels = new ArrayList<>();
+            for (int i = 0; i < workers; i++) {
+                ReplyChannel channel = new ReplyChannel(context.createContext(JMSContext.AUTO_ACKNOWLEDGE));
+                channels.add(channel);
+                replyChannels.add(channel);
+            }
+
+            Topic requestTopic = context.createTopic(REQUEST_TOPIC_NAME);
+            final ExecutorService workerPool = executor;
+            context.createConsumer(requestTopic).setMessageListener(request -> {
+                long receivedNanos = System.nanoTime();
+                workerPool.execute(() -> reply(request, receivedNanos));
+            });
+            System.out.println("Awaiting requests...");
+
+            long startNanos = System.nanoTime();
+            long endNanos = durationSeconds > 0 ? startNanos + TimeUnit.SECONDS.toNanos(durationSeconds) : Long.MAX_VALUE;
+            long lastReplies = 0;
+            long lastReportNanos = startNanos;
+            while (durationSeconds == 0 || System.nanoTime() - endNanos < 0) {
+                Thread.sleep(Math.min(reportIntervalMillis,
+                        Math.max(1, TimeUnit.NANOSECONDS.toMillis(endNanos - System.nanoTime()))));
+                long now = System.nanoTime();
+                long total = replies.get();
+                System.out.printf("Replied to %d requests, %.0f requests/sec%n", total,
+                        (total - lastReplies) / ((now - lastReportNanos) / 1e9));
+                lastReplies = total;
+                lastReportNanos = now;
+            }
+
+            executor.shutdown();
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+            for (ReplyChannel channel : channels) {
+                channel.context.close();
+            }
+            System.out.printf("Replied to %d requests. Exiting...%n", replies.get());
+        }
+    }
+
+    private void reply(Message request, long receivedNanos) {
+        long startNanos = System.nanoTime();
+        queueingDelay.recordValue((startNanos - receivedNanos) / 1000);
+        try {
+            requestLatency.recordEndToEnd(request);
+            SampleMetrics.received(request);
+            Destination replyDestination = request.getJMSReplyTo();
+            if (replyDestination == null) {
+                System.out.println("Received message without reply-to field.");
+                return;
+            }
+            String replyDestinationName = ((JmsDestination) replyDestination).getAddress();
+            synchronized (replyDestinations) {
+                replyDestination = replyDestinations.get(replyDestinationName);
+                if (replyDestination == null) {
+                    // workaround as the Apache Qpid JMS API always sets JMSReplyTo as non-temporary
+                    replyDestination = new JmsTemporaryQueue(replyDestinationName);
+                    replyDestinations.put(replyDestinationName, replyDestination);
+                }
+            }
+
+            // blocks only when more workers than reply channels are active, as with virtual threads
+            ReplyChannel channel = replyChannels.take();
+            try {
+                TextMessage reply = channel.context.createTextMessage("Sample response");
+                reply.setJMSCorrelationID(request.getJMSCorrelationID());
+                SendTimestamp.stamp(reply);
+                long sendNanos = System.nanoTime();
+                channel.producer.send(replyDestination, reply);
+                SampleMetrics.sent((System.nanoTime() - sendNanos) / 1000);
+            } finally {
+                replyChannels.add(channel);
+            }
+            replies.incrementAndGet();
+            serviceTime.recordSince(startNanos);
+        } catch (JMSException | RuntimeException e) {
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns an executor that starts a virtual thread per task, or null before JDK 21. Reflection keeps the samples
+     * buildable for Java 8.
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            System.out.println("Virtual threads need JDK 21 or newer, using a thread pool instead.");
+            return null;
+        }
+    }
+
     public static void main(String... args) throws Exception {
         if (args.length < 3) {
-            System.out.println("Usage: BasicReplier amqp://<msg_backbone_ip:amqp_port> <username> <password>");
+            System.out.println("Usage: BasicReplier amqp://<msg_backbone_ip:amqp_port> <username> <password>"
+                    + " [--workers <threads>] [--virtual] [--duration <seconds>] [--cache-size <destinations>]"
+                    + " [--report-interval <seconds>]");
             System.exit(-1);
         }
-        new BasicReplier().run(args);
+        SampleOptions options = new SampleOptions(args, 3);
+        if (options.isEmpty()) {
+            new BasicReplier().run(args);
+        } else {
+            new BasicReplier().runService(args[0], args[1], args[2], options);
+        }
     }
 }
@@ -26,9 +26,15 @@ package com.solace.samples;
 import org.apache.qpid.jms.JmsConnectionFactory;
 
 import java.util.UUID;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
 import javax.jms.ConnectionFactory;
 import javax.jms.DeliveryMode;
 import javax.jms.JMSContext;
+import javax.jms.JMSException;
 import javax.jms.Message;
 import javax.jms.TextMessage;
 import javax.jms.Topic;
@@ -39,6 +45,9 @@ import javax.jms.TemporaryQueue;
  * the message broker.
  * 
  * This is the Requestor in the Request/Reply messaging pattern.
+ *
+ * When started with additional options the sample runs in load mode: it keeps {@code --concurrency} requests in flight
+ * through a {@link Requestor} and reports the request rate and round-trip latency percentiles.
  */
 public class BasicRequestor {
 
@@ -73,6 +82,8 @@ public class BasicRequestor {
             // The application must put a correlation ID in the request
             String correlationId = UUID.randomUUID().toString();
             request.setJMSCorrelationID(correlationId);
+            // lets the replier measure the request latency
+            SendTimestamp.stamp(request);
 
             System.out.printf("Sending request '%s' to topic '%s'...%n", request.getText(), requestTopic.toString());
 
@@ -96,7 +107,7 @@ public class BasicRequestor {
             }
 
             // Apache Qpid JMS prefixes correlation ID with string "ID:" so remove such prefix for interoperability
-            if (!reply.getJMSCorrelationID().replaceAll("ID:", "").equals(correlationId)) {
+            if (!Requestor.stripIdPrefix(reply.getJMSCorrelationID()).equals(correlationId)) {
                 throw new Exception("Received invalid correlationID in reply message.");
             }
 
@@ -107,15 +118,81 @@ public class BasicRequestor {
             }
 
             System.out.printf("Message Content:%n%s%n", reply.toString());
+            long latencyMicros = SendTimestamp.latencyMicros(reply);
+            if (latencyMicros >= 0) {
+                System.out.printf("Reply latency: %d usec%n", latencyMicros);
+            }
+        }
+    }
+
+    @SuppressWarnings("try")
+    private void runLoad(String solaceHost, String solaceUsername, String solacePassword, SampleOptions options)
+            throws Exception {
+        int concurrency = options.getInt("concurrency", 16);
+        long count = options.getLong("count", 10000);
+        long timeoutMillis = options.getLong("timeout", REPLY_TIMEOUT_MS);
+
+        System.out.printf("BasicRequestor is sending %d requests to %s with %d in flight...%n", count, solaceHost,
+                concurrency);
+
+        ConnectionFactory connectionFactory = new JmsConnectionFactory(solaceUsername, solacePassword, solaceHost);
+        LatencyRecorder latency = new LatencyRecorder("Round-trip");
+        LatencyRecorder replyLatency = new LatencyRecorder("Reply");
+        try (JMSContext context = connectionFactory.createContext();
+                Requestor requestor = new Requestor(context, timeoutMillis);
+                LatencyReporter reporter = new LatencyReporter(options, latency, replyLatency)) {
+            Topic requestTopic = context.createTopic(REQUEST_TOPIC_NAME);
+
+            AtomicLong replies = new AtomicLong();
+            AtomicLong timeouts = new AtomicLong();
+            AtomicLong errors = new AtomicLong();
+            Semaphore inFlight = new Semaphore(concurrency);
+
+            long startNanos = System.nanoTime();
+            for (long i = 0; i < count; i++) {
+                inFlight.acquire();
+                long requestNanos = System.nanoTime();
+                requestor.request(requestTopic, context.createTextMessage("Sample Request")).whenComplete(
+                        (reply, error) -> {
+                            if (error == null) {
+                                latency.recordSince(requestNanos);
+                                try {
+                                    replyLatency.recordEndToEnd(reply);
+                                } catch (JMSException e) {
+                                    // not a stamped reply
+                                }
+                                replies.incrementAndGet();
+                            } else if (error instanceof TimeoutException) {
+                                timeouts.incrementAndGet();
+                            } else {
+                                errors.incrementAndGet();
+                            }
+                            inFlight.release();
+                        });
+            }
+            // wait for the last requests to be answered or to time out
+            inFlight.tryAcquire(concurrency, timeoutMillis * 2, TimeUnit.MILLISECONDS);
+            double elapsedSeconds = (System.nanoTime() - startNanos) / 1e9;
+
+            System.out.printf("Sent %d requests in %.2f seconds: %d replies, %d timeouts, %d errors.%n", count,
+                    elapsedSeconds, replies.get(), timeouts.get(), errors.get());
+            System.out.printf("Throughput: %.0f requests/sec with %d in flight%n", replies.get() / elapsedSeconds,
+                    concurrency);
         }
     }
 
     public static void main(String[] args) throws Exception {
         if (args.length < 3) {
-            System.out.println("Usage: BasicRequestor amqp://<msg_backbone_ip:amqp_port> <username> <password>");
+            System.out.println("Usage: BasicRequestor amqp://<msg_backbone_ip:amqp_port> <username> <password>"
+                    + " [--concurrency <requests in flight>] [--count <requests>] [--timeout <ms>]");
             System.exit(-1);
         }
-        new BasicRequestor().run(args);
+        SampleOptions options = new SampleOptions(args, 3);
+        if (options.isEmpty()) {
+            new BasicRequestor().run(args);
+        } else {
+            new BasicRequestor().runLoad(args[0], args[1], args[2], options);
+        }
     }
 
 }
@@ -0,0 +1,159 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ *  Apache Qpid JMS 2.0 Solace AMQP Examples: BatchingPublisher
+ */
+
+package com.solace.samples;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+
+import javax.jms.BytesMessage;
+import javax.jms.Destination;
+import javax.jms.JMSContext;
+import javax.jms.JMSException;
+import javax.jms.JMSProducer;
+
+/**
+ * Packs many small records into one {@link BytesMessage}, so that the AMQP framing and the per-message work of the
+ * broker and the client are paid once per batch instead of once per record.
+ *
+ * A batch is the records one after another, each preceded by its length as a 4-byte int, and the number of records is
+ * set as a message property. A batch is sent when it holds the maximum number of records or bytes, or when its first
+ * record has waited for the linger time. A linger time of 0 sends a batch whenever the publisher has nothing else to
+ * send, so batches only form under load. {@link RecordUnbatcher} hands the records back one by one.
+ *
+ * Like the session it sends on, a batching publisher must only be used by one thread. The linger time is checked when
+ * a record is published and by {@link #flushIfLingering(long)}, which a publisher that waits between records should
+ * call, see {@link #nanosUntilFlush(long)}.
+ */
+public class BatchingPublisher {
+
+    public static final String RECORD_COUNT_PROPERTY = "SampleBatchRecords";
+
+    static final int LENGTH_PREFIX_SIZE = 4;
+
+    private final JMSContext context;
+    private final JMSProducer producer;
+    private final Destination destination;
+    private final SendWindow sendWindow;
+    private final PayloadCompression compression;
+    private final int maxRecords;
+    private final long lingerNanos;
+    private final ByteBuffer batch;
+
+    private int batchRecords;
+    private long batchStartNanos;
+    private long records;
+    private long batches;
+
+    /**
+     * Creates a publisher that sends its batches through the send window, and compresses them if a compression stage is
+     * given.
+     */
+    public BatchingPublisher(JMSContext context, JMSProducer producer, Destination destination, SendWindow sendWindow,
+            PayloadCompression compression, int maxRecords, int maxBytes, long lingerNanos) {
+        this.context = context;
+        this.producer = producer;
+        this.destination = destination;
+        this.sendWindow = sendWindow;
+        this.compression = compression;
+        this.maxRecords = maxRecords;
+        this.lingerNanos = lingerNanos;
+        this.batch = ByteBuffer.allocate(maxBytes);
+    }
+
+    /**
+     * Adds the remaining bytes of the record to the current batch, sending batches as they fill up or linger. The
+     * position of the record is not changed.
+     */
+    public void publish(ByteBuffer record) throws JMSException, InterruptedException {
+        int length = record.remaining();
+        if (LENGTH_PREFIX_SIZE + length > batch.capacity()) {
+            throw new IllegalArgumentException("A record of " + length + " bytes does not fit in a batch of "
+                    + batch.capacity() + " bytes");
+        }
+        if (LENGTH_PREFIX_SIZE + length > batch.remaining()) {
+            flush();
+        }
+        if (batchRecords == 0) {
+            batchStartNanos = System.nanoTime();
+        }
+        batch.putInt(length);
+        batch.put(record.duplicate());
+        batchRecords++;
+        records++;
+        if (batchRecords >= maxRecords || batch.remaining() <= LENGTH_PREFIX_SIZE) {
+            flush();
+        } else if (lingerNanos > 0) {
+            flushIfLingering(System.nanoTime());
+        }
+    }
+
+    /**
+     * Sends the current batch if its first record has waited for the linger time. Returns true if a batch was sent.
+     */
+    public boolean flushIfLingering(long nowNanos) throws JMSException, InterruptedException {
+        if (batchRecords > 0 && nowNanos - batchStartNanos >= lingerNanos) {
+            flush();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns how long the current batch may still wait before it has to be sent, or {@link Long#MAX_VALUE} if there is
+     * no batch.
+     */
+    public long nanosUntilFlush(long nowNanos) {
+        return batchRecords == 0 ? Long.MAX_VALUE : Math.max(batchStartNanos + lingerNanos - nowNanos, 0);
+    }
+
+    /**
+     * Sends the current batch, if it holds any records. The send window blocks here while it is full.
+     */
+    public void flush() throws JMSException, InterruptedException {
+        if (batchRecords == 0) {
+            return;
+        }
+        ((Buffer) batch).flip();
+        BytesMessage message = context.createBytesMessage();
+        // the body is copied into the message, so the batch buffer can be reused straight away
+        if (compression != null) {
+            compression.write(message, batch);
+        } else {
+            BytesPayload.write(message, batch);
+        }
+        message.setIntProperty(RECORD_COUNT_PROPERTY, batchRecords);
+        ((Buffer) batch).clear();
+        batchRecords = 0;
+        batches++;
+        sendWindow.send(producer, destination, message);
+    }
+
+    public long getRecords() {
+        return records;
+    }
+
+    public long getBatches() {
+        return batches;
+    }
+}
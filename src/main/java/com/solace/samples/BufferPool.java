@@ -0,0 +1,76 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ *  Apache Qpid JMS 2.0 Solace AMQP Examples: BufferPool
+ */
+
+package com.solace.samples;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A pool of reusable {@link ByteBuffer}s for large message payloads, so that every message does not allocate a new buffer
+ * of several megabytes. Buffers are pooled in power-of-two size classes, and at most {@code maxPooledPerSize} free
+ * buffers of each size class are kept.
+ *
+ * Direct buffers live outside the Java heap and are never moved or scanned by the garbage collector.
+ */
+public class BufferPool {
+
+    private static final int MIN_BUFFER_SIZE = 1024;
+
+    private final boolean direct;
+    private final int maxPooledPerSize;
+    private final ConcurrentMap<Integer, BlockingQueue<ByteBuffer>> freeBuffers = new ConcurrentHashMap<>();
+
+    public BufferPool(boolean direct, int maxPooledPerSize) {
+        this.direct = direct;
+        this.maxPooledPerSize = maxPooledPerSize;
+    }
+
+    /**
+     * Returns a cleared buffer whose limit is the requested size. It should be returned with {@link #release(ByteBuffer)}
+     * once it is no longer used.
+     */
+    public ByteBuffer acquire(int size) {
+        int capacity = Math.max(MIN_BUFFER_SIZE, Integer.highestOneBit(Math.max(size, 1) * 2 - 1));
+        ByteBuffer buffer = freeList(capacity).poll();
+        if (buffer == null) {
+            buffer = direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+        }
+        // through Buffer, as the ByteBuffer overrides of clear(), flip() and the like do not exist on Java 8
+        ((Buffer) buffer).clear().limit(size);
+        return buffer;
+    }
+
+    public void release(ByteBuffer buffer) {
+        // buffers beyond the pool size are left to the garbage collector
+        freeList(buffer.capacity()).offer(buffer);
+    }
+
+    private BlockingQueue<ByteBuffer> freeList(int capacity) {
+        return freeBuffers.computeIfAbsent(capacity, c -> new ArrayBlockingQueue<>(maxPooledPerSize));
+    }
+}
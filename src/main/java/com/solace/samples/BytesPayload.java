@@ -0,0 +1,87 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ *  Apache Qpid JMS 2.0 Solace AMQP Examples: BytesPayload
+ */
+
+package com.solace.samples;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+
+/**
+ * Moves binary payloads between {@link ByteBuffer}s and {@link BytesMessage}s with as few copies as the JMS API allows.
+ *
+ * JMS only accepts and returns {@code byte[]}. A heap buffer is written straight from its backing array, so the only copy
+ * is the one into the message. A direct or memory-mapped buffer is copied through a small per-thread chunk instead of a
+ * {@code byte[]} the size of the payload. Apache Qpid JMS reads a received body straight from its network buffer, so
+ * reading in chunks into a pooled buffer does not allocate either.
+ */
+public class BytesPayload {
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final ThreadLocal<byte[]> CHUNK = ThreadLocal.withInitial(() -> new byte[CHUNK_SIZE]);
+
+    /**
+     * Appends the remaining bytes of the payload to the message. The position of the payload is not changed.
+     */
+    public static void write(BytesMessage message, ByteBuffer payload) throws JMSException {
+        if (payload.hasArray()) {
+            message.writeBytes(payload.array(), payload.arrayOffset() + payload.position(), payload.remaining());
+            return;
+        }
+        ByteBuffer source = payload.duplicate();
+        byte[] chunk = CHUNK.get();
+        while (source.hasRemaining()) {
+            int length = Math.min(chunk.length, source.remaining());
+            source.get(chunk, 0, length);
+            message.writeBytes(chunk, 0, length);
+        }
+    }
+
+    /**
+     * Reads the rest of the message body into the buffer, up to its limit, and returns the number of bytes read.
+     */
+    public static int read(BytesMessage message, ByteBuffer target) throws JMSException {
+        int total = 0;
+        if (target.hasArray() && target.arrayOffset() + target.position() == 0) {
+            // readBytes can only fill an array from its start
+            int read = message.readBytes(target.array(), target.remaining());
+            if (read > 0) {
+                ((Buffer) target).position(read);
+                total = read;
+            }
+            return total;
+        }
+        byte[] chunk = CHUNK.get();
+        while (target.hasRemaining()) {
+            int read = message.readBytes(chunk, Math.min(chunk.length, target.remaining()));
+            if (read <= 0) {
+                break;
+            }
+            target.put(chunk, 0, read);
+            total += read;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,139 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ *  Apache Qpid JMS 2.0 Solace AMQP Examples: ContextPool
+ */
+
+package com.solace.samples;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.jms.ConnectionFactory;
+import javax.jms.JMSContext;
+import javax.jms.JMSRuntimeException;
+
+/**
+ * Keeps a fixed number of open, warmed-up connections and hands out new sessions on them, so that short-lived senders and
+ * receivers do not pay the AMQP connect, SASL and open handshake every time.
+ *
+ * Every call to {@link #createContext(int)} returns a new child {@link JMSContext} with its own session on one of the
+ * pooled connections, picked round-robin. A child context is meant to be used by a single thread and closed by it; closing
+ * it leaves the connection open. Connections are health-checked periodically and replaced when they fail.
+ */
+public class ContextPool implements AutoCloseable {
+
+    private final ConnectionFactory connectionFactory;
+    private final AtomicReferenceArray<JMSContext> connections;
+    private final AtomicInteger next = new AtomicInteger();
+    private final ScheduledExecutorService healthChecker;
+
+    public ContextPool(ConnectionFactory connectionFactory, int connections) {
+        this(connectionFactory, connections, 30);
+    }
+
+    /**
+     * Opens all connections before returning. A health check interval of 0 disables health checks.
+     */
+    public ContextPool(ConnectionFactory connectionFactory, int connections, long healthCheckIntervalSeconds) {
+        this.connectionFactory = connectionFactory;
+        this.connections = new AtomicReferenceArray<>(connections);
+        for (int i = 0; i < connections; i++) {
+            this.connections.set(i, openConnection());
+        }
+        if (healthCheckIntervalSeconds > 0) {
+            healthChecker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "ContextPool-health-check");
+                thread.setDaemon(true);
+                return thread;
+            });
+            healthChecker.scheduleWithFixedDelay(this::checkHealth, healthCheckIntervalSeconds,
+                    healthCheckIntervalSeconds, TimeUnit.SECONDS);
+        } else {
+            healthChecker = null;
+        }
+    }
+
+    /**
+     * Creates a new session, with the given session mode, on one of the pooled connections.
+     */
+    public JMSContext createContext(int sessionMode) {
+        int index = Math.floorMod(next.getAndIncrement(), connections.length());
+        return connections.get(index).createContext(sessionMode);
+    }
+
+    public int size() {
+        return connections.length();
+    }
+
+    @Override
+    public void close() {
+        if (healthChecker != null) {
+            healthChecker.shutdownNow();
+        }
+        // a connection stays open until its child contexts have been closed as well
+        for (int i = 0; i < connections.length(); i++) {
+            connections.get(i).close();
+        }
+    }
+
+    private JMSContext openConnection() {
+        JMSContext connection = connectionFactory.createContext();
+        try {
+            warmUp(connection);
+        } catch (JMSRuntimeException e) {
+            connection.close();
+            throw e;
+        }
+        return connection;
+    }
+
+    /**
+     * Connects and opens, then closes, a session so that the first real session does not wait for the handshake.
+     */
+    private static void warmUp(JMSContext connection) {
+        connection.start();
+        try (JMSContext session = connection.createContext(JMSContext.AUTO_ACKNOWLEDGE)) {
+            session.createProducer();
+        }
+    }
+
+    private void checkHealth() {
+        for (int i = 0; i < connections.length(); i++) {
+            JMSContext connection = connections.get(i);
+            try {
+                warmUp(connection);
+            } catch (JMSRuntimeException e) {
+                System.out.printf("Pooled connection %d failed its health check (%s), reconnecting...%n", i,
+                        e.getMessage());
+                try {
+                    connections.set(i, openConnection());
+                    connection.close();
+                } catch (JMSRuntimeException reconnectFailure) {
+                    System.out.printf("Reconnecting pooled connection %d failed: %s%n", i,
+                            reconnectFailure.getMessage());
+                }
+            }
+        }
+    }
+}
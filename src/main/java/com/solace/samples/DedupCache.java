@@ -0,0 +1,471 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ *  Apache Qpid JMS 2.0 Solace AMQP Examples: DedupCache
+ */
+
+package com.solace.samples;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+
+/**
+ * Remembers the keys of recently processed messages, so that a consumer can drop redelivered messages that it has
+ * already processed, and at-least-once delivery becomes effectively-once processing.
+ *
+ * Keys are not stored: each key is reduced to a 64-bit hash, kept in an open-addressing hash table with linear probing
+ * outside the Java heap, in a direct or memory-mapped buffer. An entry takes 8 bytes in the table, which is never more
+ * than half full, and 16 bytes in a ring that records the order and time in which the keys were added, about 32 MB per
+ * million entries in all, and nothing is allocated per message. The oldest entry is evicted when the cache holds
+ * {@code maxEntries} keys, and entries older than the time-to-live are evicted as new keys arrive. A new key whose hash
+ * equals one in a full cache of a million entries wrongly drops its message as a duplicate, which happens to about 1
+ * in 18 trillion messages.
+ *
+ * Given a file, the buffer is a memory-mapped view of it. {@link #snapshot()} records the ring's position in the file's
+ * header and forces the file to disk. A background thread takes a snapshot every {@code snapshotIntervalMillis}, and
+ * {@link #close()} takes a last one. The file is forced outside the cache's lock, so consumers are not held up while it
+ * is written. A cache opened on the same file after a restart rebuilds its table from the ring. Keys added after the
+ * last snapshot are lost in a crash, so their redeliveries are processed again.
+ *
+ * A consumer checks a message with {@link #isDuplicate(Message, String)} before it processes it, and only once the
+ * processing has succeeded, before it acknowledges the message, adds its key with
+ * {@link #markProcessed(Message, String)}. A message whose processing failed is therefore processed again when it is
+ * redelivered, and one whose acknowledgement was lost is dropped. All methods are thread-safe, so one cache can be
+ * shared by several consumers.
+ */
+public class DedupCache implements AutoCloseable {
+
+    static final long MAGIC = 0x5344454455504331L;
+    static final int HEADER_BYTES = 64;
+    static final int RING_ENTRY_BYTES = 16;
+    static final int TABLE_ENTRY_BYTES = 8;
+
+    // header fields
+    private static final int MAGIC_OFFSET = 0;
+    private static final int MAX_ENTRIES_OFFSET = 8;
+    private static final int RING_HEAD_OFFSET = 16;
+    private static final int RING_COUNT_OFFSET = 24;
+    private static final int SNAPSHOT_TIME_OFFSET = 32;
+
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final ByteBuffer buffer;
+    private final MappedByteBuffer mapped;
+    private final Thread snapshotThread;
+    private final int tableOffset;
+    private final int mask;
+
+    // the ring holds the entries in the order they were added, oldest first
+    private int ringHead;
+    private int ringCount;
+
+    private long lookups;
+    private long hits;
+    private long expired;
+    private long evicted;
+    private long restored;
+    private long lookupNanos;
+
+    /**
+     * Creates a cache in a direct buffer. A time-to-live of 0 keeps the entries until they are evicted by size.
+     */
+    public DedupCache(int maxEntries, long ttlMillis) {
+        int size = requiredBytes(maxEntries);
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlMillis;
+        this.mask = (int) tableCapacity(maxEntries) - 1;
+        this.tableOffset = HEADER_BYTES + maxEntries * RING_ENTRY_BYTES;
+        this.buffer = ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+        this.mapped = null;
+        this.snapshotThread = null;
+    }
+
+    /**
+     * Creates a cache in the given file, restoring the entries of its last snapshot if the file holds a cache of the
+     * same size. Otherwise the file is cleared. With a snapshot interval of 0, snapshots are only taken on request and
+     * on close.
+     */
+    public DedupCache(int maxEntries, long ttlMillis, Path file, long snapshotIntervalMillis) throws IOException {
+        int size = requiredBytes(maxEntries);
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlMillis;
+        this.mask = (int) tableCapacity(maxEntries) - 1;
+        this.tableOffset = HEADER_BYTES + maxEntries * RING_ENTRY_BYTES;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            boolean reusable = channel.size() == size;
+            if (!reusable) {
+                channel.truncate(0);
+            }
+            // the mapping remains valid once the channel is closed
+            this.mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+        this.buffer = mapped.order(ByteOrder.nativeOrder());
+        if (buffer.getLong(MAGIC_OFFSET) == MAGIC && buffer.getLong(MAX_ENTRIES_OFFSET) == maxEntries) {
+            restore();
+        } else {
+            clear();
+        }
+        if (snapshotIntervalMillis > 0) {
+            snapshotThread = new Thread(() -> {
+                try {
+                    while (true) {
+                        Thread.sleep(snapshotIntervalMillis);
+                        snapshot();
+                    }
+                } catch (InterruptedException e) {
+                    // closed
+                }
+            }, "DedupCache-snapshot");
+            snapshotThread.setDaemon(true);
+            snapshotThread.start();
+        } else {
+            snapshotThread = null;
+        }
+    }
+
+    /**
+     * Creates a cache from the "--dedup-size", "--dedup-ttl", "--dedup-file" and "--dedup-snapshot-interval" sample
+     * options, or returns null without "--dedup".
+     */
+    public static DedupCache fromOptions(SampleOptions options) throws IOException {
+        if (!options.has("dedup")) {
+            return null;
+        }
+        int maxEntries = options.getInt("dedup-size", 1000000);
+        long ttlMillis = TimeUnit.SECONDS.toMillis(options.getLong("dedup-ttl", 3600));
+        String file = options.getString("dedup-file", null);
+        if (file == null) {
+            return new DedupCache(maxEntries, ttlMillis);
+        }
+        return new DedupCache(maxEntries, ttlMillis, Paths.get(file),
+                options.getLong("dedup-snapshot-interval", 1000));
+    }
+
+    /**
+     * Returns the deduplication key of the message: the value of the given property, or its JMSMessageID if the
+     * property is null or the message does not have it.
+     */
+    public static String keyOf(Message message, String property) throws JMSException {
+        if (property != null) {
+            String key = message.getStringProperty(property);
+            if (key != null) {
+                return key;
+            }
+        }
+        return message.getJMSMessageID();
+    }
+
+    /**
+     * Returns the number of bytes a cache for the given number of entries takes, in memory or on disk.
+     */
+    public static int requiredBytes(int maxEntries) {
+        long bytes = HEADER_BYTES + (long) maxEntries * RING_ENTRY_BYTES
+                + tableCapacity(maxEntries) * TABLE_ENTRY_BYTES;
+        if (maxEntries < 1 || bytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Unsupported dedup cache size: " + maxEntries + " entries");
+        }
+        return (int) bytes;
+    }
+
+    // the table is kept at most half full, so that probe sequences stay short
+    private static long tableCapacity(int maxEntries) {
+        return Long.highestOneBit(Math.max(maxEntries, 1) * 4L - 1);
+    }
+
+    /**
+     * Returns true if the key has been added and not yet evicted, in which case its message is a duplicate.
+     */
+    public synchronized boolean contains(String key) {
+        long startNanos = System.nanoTime();
+        expire(System.currentTimeMillis());
+        lookups++;
+        boolean found = find(hash(key)) >= 0;
+        if (found) {
+            hits++;
+        }
+        lookupNanos += System.nanoTime() - startNanos;
+        return found;
+    }
+
+    /**
+     * Adds the key of a processed message, and returns false if it had already been added and not yet evicted.
+     */
+    public synchronized boolean add(String key) {
+        long startNanos = System.nanoTime();
+        long now = System.currentTimeMillis();
+        expire(now);
+        long hash = hash(key);
+        int slot = find(hash);
+        boolean added = slot < 0;
+        if (added) {
+            if (ringCount == maxEntries) {
+                removeOldest();
+                evicted++;
+                // removing an entry can move the others
+                slot = find(hash);
+            }
+            buffer.putLong(tableOffset + (-slot - 1) * TABLE_ENTRY_BYTES, hash);
+            int ringOffset = ringOffset((ringHead + ringCount) % maxEntries);
+            buffer.putLong(ringOffset, hash);
+            buffer.putLong(ringOffset + 8, now);
+            ringCount++;
+        }
+        lookupNanos += System.nanoTime() - startNanos;
+        return added;
+    }
+
+    /**
+     * Returns true if the message's key, as returned by {@link #keyOf(Message, String)}, has been added, in which case
+     * the message has already been processed.
+     */
+    public boolean isDuplicate(Message message, String keyProperty) throws JMSException {
+        boolean duplicate = contains(keyOf(message, keyProperty));
+        if (duplicate) {
+            SampleMetrics.duplicate();
+        }
+        return duplicate;
+    }
+
+    /**
+     * Adds the message's key, once the message has been processed and before it is acknowledged.
+     */
+    public void markProcessed(Message message, String keyProperty) throws JMSException {
+        add(keyOf(message, keyProperty));
+    }
+
+    /**
+     * Records the ring's position in the file's header and forces the file to disk. Does nothing for a cache that is
+     * not backed by a file.
+     */
+    public void snapshot() {
+        if (mapped == null) {
+            return;
+        }
+        synchronized (this) {
+            buffer.putLong(RING_HEAD_OFFSET, ringHead);
+            buffer.putLong(RING_COUNT_OFFSET, ringCount);
+            buffer.putLong(SNAPSHOT_TIME_OFFSET, System.currentTimeMillis());
+        }
+        // keys added while the file is forced may or may not be written, but the header only covers those before it
+        mapped.force();
+    }
+
+    private void clear() {
+        for (int offset = 0; offset < buffer.capacity(); offset += 8) {
+            buffer.putLong(offset, 0);
+        }
+        buffer.putLong(MAGIC_OFFSET, MAGIC);
+        buffer.putLong(MAX_ENTRIES_OFFSET, maxEntries);
+        ringHead = 0;
+        ringCount = 0;
+        snapshot();
+    }
+
+    private void restore() {
+        ringHead = (int) buffer.getLong(RING_HEAD_OFFSET);
+        ringCount = (int) buffer.getLong(RING_COUNT_OFFSET);
+        // the table may hold keys added after the snapshot, which are not in the snapshot's part of the ring
+        for (int offset = tableOffset; offset < buffer.capacity(); offset += 8) {
+            buffer.putLong(offset, 0);
+        }
+        for (int i = 0; i < ringCount; i++) {
+            long hash = buffer.getLong(ringOffset((ringHead + i) % maxEntries));
+            int slot = find(hash);
+            if (slot < 0) {
+                buffer.putLong(tableOffset + (-slot - 1) * TABLE_ENTRY_BYTES, hash);
+            }
+        }
+        restored = ringCount;
+    }
+
+    private void expire(long now) {
+        if (ttlMillis <= 0) {
+            return;
+        }
+        long oldest = now - ttlMillis;
+        while (ringCount > 0 && buffer.getLong(ringOffset(ringHead) + 8) <= oldest) {
+            removeOldest();
+            expired++;
+        }
+    }
+
+    private void removeOldest() {
+        long hash = buffer.getLong(ringOffset(ringHead));
+        ringHead = (ringHead + 1) % maxEntries;
+        ringCount--;
+        int slot = find(hash);
+        if (slot >= 0) {
+            remove(slot);
+        }
+    }
+
+    /**
+     * Returns the slot that holds the hash, or -(slot + 1) for the empty slot where it belongs.
+     */
+    private int find(long hash) {
+        int slot = (int) hash & mask;
+        while (true) {
+            long value = buffer.getLong(tableOffset + slot * TABLE_ENTRY_BYTES);
+            if (value == hash) {
+                return slot;
+            }
+            if (value == 0) {
+                return -slot - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * Empties the slot, and moves later entries of the same probe sequence back, so that no lookup stops early at the
+     * empty slot.
+     */
+    private void remove(int slot) {
+        int hole = slot;
+        int next = slot;
+        while (true) {
+            next = (next + 1) & mask;
+            long value = buffer.getLong(tableOffset + next * TABLE_ENTRY_BYTES);
+            if (value == 0) {
+                break;
+            }
+            int home = (int) value & mask;
+            // the entry can move to the hole if the hole lies between its home slot and its slot
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                buffer.putLong(tableOffset + hole * TABLE_ENTRY_BYTES, value);
+                hole = next;
+            }
+        }
+        buffer.putLong(tableOffset + hole * TABLE_ENTRY_BYTES, 0);
+    }
+
+    private static int ringOffset(int index) {
+        return HEADER_BYTES + index * RING_ENTRY_BYTES;
+    }
+
+    /**
+     * A 64-bit FNV-1a hash of the key's characters, mixed with the MurmurHash3 finalizer so that the low bits, which
+     * pick the slot, depend on every character. 0 marks an empty slot, so it is never returned.
+     */
+    static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash != 0 ? hash : 1;
+    }
+
+    public synchronized int size() {
+        return ringCount;
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public synchronized long getLookups() {
+        return lookups;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized double getHitRate() {
+        return lookups > 0 ? hits / (double) lookups : 0;
+    }
+
+    /**
+     * Returns the number of entries evicted because the cache was full.
+     */
+    public synchronized long getEvicted() {
+        return evicted;
+    }
+
+    public synchronized long getExpired() {
+        return expired;
+    }
+
+    /**
+     * Returns the number of entries restored from the file when the cache was opened.
+     */
+    public long getRestored() {
+        return restored;
+    }
+
+    /**
+     * Returns the mean time spent in the cache per lookup, including adding the key and evicting entries.
+     */
+    public synchronized double getLookupNanos() {
+        return lookups > 0 ? lookupNanos / (double) lookups : 0;
+    }
+
+    public long getMemoryBytes() {
+        return buffer.capacity();
+    }
+
+    public double getBytesPerMillionEntries() {
+        return buffer.capacity() * 1e6 / maxEntries;
+    }
+
+    /**
+     * Prints the hit rate, evictions, footprint and lookup cost.
+     */
+    public synchronized void printSummary(PrintStream out) {
+        out.printf("Dedup cache: %d lookups, %d duplicates (hit rate %.2f%%), %d of %d entries, %d evicted, %d expired"
+                + "%s%n", lookups, hits, getHitRate() * 100, ringCount, maxEntries, evicted, expired,
+                mapped != null ? ", " + restored + " restored" : "");
+        out.printf("Dedup cache footprint: %.1f MB %s, %.1f MB per million entries, %.0f nsec/lookup%n",
+                getMemoryBytes() / (1024.0 * 1024), mapped != null ? "memory-mapped" : "off-heap",
+                getBytesPerMillionEntries() / (1024 * 1024), getLookupNanos());
+    }
+
+    @Override
+    public void close() {
+        if (snapshotThread != null) {
+            snapshotThread.interrupt();
+            try {
+                snapshotThread.join();
+            } catch (InterruptedException e) {
+                // still take the last snapshot, and leave the interrupt to the caller
+                Thread.currentThread().interrupt();
+            }
+        }
+        snapshot();
+    }
+}
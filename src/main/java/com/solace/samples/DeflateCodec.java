@@ -0,0 +1,130 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ *  Apache Qpid JMS 2.0 Solace AMQP Examples: DeflateCodec
+ */
+
+package com.solace.samples;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The Deflate (zlib) codec of the JDK. Level 1 is several times faster than the default level 6 and usually compresses
+ * JSON only slightly less.
+ *
+ * {@link Deflater} and {@link Inflater} only work on arrays in Java 8, so direct buffers are copied through a scratch
+ * array. The native zlib state of both is reused for every message.
+ */
+public class DeflateCodec implements PayloadCodec {
+
+    private static final int SCRATCH_SIZE = 64 * 1024;
+
+    private final Deflater deflater;
+    private final Inflater inflater = new Inflater();
+    private byte[] input = new byte[0];
+    private final byte[] output = new byte[SCRATCH_SIZE];
+
+    public DeflateCodec(int level) {
+        this.deflater = new Deflater(level);
+    }
+
+    @Override
+    public String getName() {
+        return "deflate";
+    }
+
+    @Override
+    public int maxCompressedLength(int length) {
+        // the bound of zlib's compressBound()
+        return length + (length >> 12) + (length >> 14) + (length >> 25) + 13;
+    }
+
+    @Override
+    public void compress(ByteBuffer source, ByteBuffer target) {
+        deflater.reset();
+        setInput(source, deflater::setInput);
+        deflater.finish();
+        while (!deflater.finished()) {
+            int written;
+            if (target.hasArray()) {
+                written = deflater.deflate(target.array(), target.arrayOffset() + target.position(), target.remaining());
+                ((Buffer) target).position(target.position() + written);
+            } else {
+                written = deflater.deflate(output, 0, Math.min(output.length, target.remaining()));
+                target.put(output, 0, written);
+            }
+            if (written == 0 && !target.hasRemaining()) {
+                throw new BufferOverflowException();
+            }
+        }
+    }
+
+    @Override
+    public void decompress(ByteBuffer source, ByteBuffer target) throws IOException {
+        inflater.reset();
+        setInput(source, inflater::setInput);
+        try {
+            while (!inflater.finished()) {
+                int written;
+                if (target.hasArray()) {
+                    written = inflater.inflate(target.array(), target.arrayOffset() + target.position(),
+                            target.remaining());
+                    ((Buffer) target).position(target.position() + written);
+                } else {
+                    written = inflater.inflate(output, 0, Math.min(output.length, target.remaining()));
+                    target.put(output, 0, written);
+                }
+                if (written == 0 && (inflater.needsInput() || inflater.needsDictionary() || !target.hasRemaining())) {
+                    throw new IOException("The compressed payload does not match its uncompressed length");
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt deflate payload", e);
+        }
+    }
+
+    private interface InputSetter {
+        void setInput(byte[] data, int offset, int length);
+    }
+
+    /**
+     * Hands all remaining bytes of the source to the deflater or inflater, which reads them during the calls that
+     * follow.
+     */
+    private void setInput(ByteBuffer source, InputSetter setter) {
+        int length = source.remaining();
+        if (source.hasArray()) {
+            setter.setInput(source.array(), source.arrayOffset() + source.position(), length);
+        } else {
+            if (input.length < length) {
+                input = new byte[Integer.highestOneBit(length * 2 - 1)];
+            }
+            source.duplicate().get(input, 0, length);
+            setter.setInput(input, 0, length);
+        }
+        ((Buffer) source).position(source.limit());
+    }
+}
@@ -0,0 +1,149 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ *  Apache Qpid JMS 2.0 Solace AMQP Examples: HistogramLogWriter
+ */
+
+package com.solace.samples;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.Base64;
+import java.util.Date;
+import java.util.Locale;
+import java.util.zip.Deflater;
+
+/**
+ * Writes interval histograms in the HdrHistogram log format (version 1.3), so that they can be processed with the
+ * standard HdrHistogram tools such as HistogramLogProcessor and HistogramLogAnalyzer.
+ *
+ * Values are recorded in microseconds; the interval maximum is written in milliseconds, which is what the tools expect.
+ */
+public class HistogramLogWriter implements Closeable {
+
+    private static final int V2_ENCODING_COOKIE = 0x1c849303 | 0x10;
+    private static final int V2_COMPRESSED_ENCODING_COOKIE = 0x1c849304 | 0x10;
+    private static final int ENCODING_HEADER_SIZE = 40;
+
+    private final PrintStream log;
+    private final long baseTimeMillis;
+    private final Deflater deflater = new Deflater();
+    private ByteBuffer encoded = ByteBuffer.allocate(1024);
+    private byte[] compressed = new byte[1024];
+
+    public HistogramLogWriter(File file, long baseTimeMillis) throws IOException {
+        this.log = new PrintStream(new FileOutputStream(file), false, "US-ASCII");
+        this.baseTimeMillis = baseTimeMillis;
+        log.println("#[Histogram log format version 1.3]");
+        log.printf(Locale.US, "#[StartTime: %.3f (seconds since epoch), %s]%n", baseTimeMillis / 1000.0,
+                new Date(baseTimeMillis));
+        log.printf(Locale.US, "#[BaseTime: %.3f (seconds since epoch)]%n", baseTimeMillis / 1000.0);
+        log.println("\"StartTimestamp\",\"Interval_Length\",\"Interval_Max\",\"Interval_Compressed_Histogram\"");
+    }
+
+    public synchronized void writeInterval(String tag, long startMillis, long endMillis, LatencyHistogram histogram) {
+        String prefix = tag != null ? "Tag=" + tag.replace(' ', '_').replace(',', '_') + "," : "";
+        log.printf(Locale.US, "%s%.3f,%.3f,%.3f,%s%n", prefix, (startMillis - baseTimeMillis) / 1000.0,
+                (endMillis - startMillis) / 1000.0, histogram.getMaxValue() / 1000.0,
+                Base64.getEncoder().encodeToString(compress(histogram)));
+        log.flush();
+    }
+
+    @Override
+    public synchronized void close() {
+        deflater.end();
+        log.close();
+    }
+
+    private byte[] compress(LatencyHistogram histogram) {
+        int length = encode(histogram);
+        deflater.reset();
+        deflater.setInput(encoded.array(), 0, length);
+        deflater.finish();
+        if (compressed.length < length + 64) {
+            compressed = new byte[length + 64];
+        }
+        int compressedLength = deflater.deflate(compressed, 8, compressed.length - 8);
+        ByteBuffer header = ByteBuffer.wrap(compressed, 0, 8);
+        header.putInt(V2_COMPRESSED_ENCODING_COOKIE);
+        header.putInt(compressedLength);
+        byte[] result = new byte[8 + compressedLength];
+        System.arraycopy(compressed, 0, result, 0, result.length);
+        return result;
+    }
+
+    /**
+     * Encodes the histogram in the HdrHistogram V2 format: a fixed header followed by the counts as ZigZag LEB128
+     * numbers, with runs of empty buckets written as negative run lengths.
+     */
+    private int encode(LatencyHistogram histogram) {
+        long maxValue = histogram.getMaxValue();
+        int countsLimit = histogram.getTotalCount() == 0 ? 0 : histogram.countsIndexFor(maxValue) + 1;
+        int maxLength = ENCODING_HEADER_SIZE + 9 * countsLimit;
+        if (encoded.capacity() < maxLength) {
+            encoded = ByteBuffer.allocate(maxLength);
+        }
+        ((Buffer) encoded).clear();
+        encoded.putInt(V2_ENCODING_COOKIE);
+        encoded.putInt(0); // payload length, filled in below
+        encoded.putInt(0); // normalizing index offset
+        encoded.putInt(LatencyHistogram.SIGNIFICANT_DIGITS);
+        encoded.putLong(1); // lowest discernible value
+        encoded.putLong(LatencyHistogram.HIGHEST_TRACKABLE_VALUE);
+        encoded.putDouble(1.0); // integer to double value conversion ratio
+
+        int index = 0;
+        while (index < countsLimit) {
+            long count = histogram.getCountAtIndex(index++);
+            if (count == 0) {
+                long zeros = 1;
+                while (index < countsLimit && histogram.getCountAtIndex(index) == 0) {
+                    zeros++;
+                    index++;
+                }
+                putZigZag(zeros > 1 ? -zeros : 0);
+            } else {
+                putZigZag(count);
+            }
+        }
+        int length = encoded.position();
+        encoded.putInt(4, length - ENCODING_HEADER_SIZE);
+        return length;
+    }
+
+    private void putZigZag(long value) {
+        value = (value << 1) ^ (value >> 63);
+        for (int i = 0; i < 8; i++) {
+            if ((value >>> 7) == 0) {
+                encoded.put((byte) value);
+                return;
+            }
+            encoded.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        // the ninth byte carries all remaining eight bits
+        encoded.put((byte) value);
+    }
+}
@@ -0,0 +1,77 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ *  Apache Qpid JMS 2.0 Solace AMQP Examples: JsonPayload
+ */
+
+package com.solace.samples;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Generates JSON payloads that look like a batch of trade records, for measuring compression. Real JSON compresses far
+ * less than a payload of repeated characters, but well, because field names and most values repeat from record to
+ * record.
+ */
+public class JsonPayload {
+
+    private static final String[] SYMBOLS = { "AAPL", "MSFT", "GOOG", "AMZN", "TSLA", "NVDA", "META", "ORCL" };
+    private static final String[] VENUES = { "XNAS", "XNYS", "ARCX", "BATS" };
+
+    /**
+     * Returns the given number of different payloads of exactly the given size, as heap buffers that must not be
+     * modified. Payloads too small for a single record are padded with spaces.
+     */
+    public static ByteBuffer[] generate(int size, int variants, long seed) {
+        Random random = new Random(seed);
+        ByteBuffer[] payloads = new ByteBuffer[variants];
+        for (int v = 0; v < variants; v++) {
+            StringBuilder json = new StringBuilder(size + 256).append("{\"trades\":[");
+            int closingLength = "]}".length();
+            for (int record = 0;; record++) {
+                String next = (record > 0 ? "," : "") + record(random);
+                if (json.length() + next.length() + closingLength > size && record > 0) {
+                    break;
+                }
+                json.append(next);
+                if (json.length() + closingLength > size) {
+                    break;
+                }
+            }
+            json.append("]}");
+            while (json.length() < size) {
+                json.append(' ');
+            }
+            byte[] data = json.toString().getBytes(StandardCharsets.US_ASCII);
+            payloads[v] = ByteBuffer.wrap(data, 0, Math.min(size, data.length));
+        }
+        return payloads;
+    }
+
+    private static String record(Random random) {
+        return String.format("{\"id\":%d,\"symbol\":\"%s\",\"side\":\"%s\",\"price\":%.2f,\"quantity\":%d,"
+                + "\"venue\":\"%s\",\"timestamp\":%d}", random.nextInt(Integer.MAX_VALUE),
+                SYMBOLS[random.nextInt(SYMBOLS.length)], random.nextBoolean() ? "BUY" : "SELL",
+                10 + random.nextDouble() * 990, 1 + random.nextInt(100) * 100, VENUES[random.nextInt(VENUES.length)],
+                1500000000000L + random.nextInt(Integer.MAX_VALUE));
+    }
+}
@@ -0,0 +1,189 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ *  Apache Qpid JMS 2.0 Solace AMQP Examples: LatencyHistogram
+ */
+
+package com.solace.samples;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed-size, allocation-free latency histogram with three significant digits of precision. Values are recorded in
+ * microseconds and may be recorded concurrently from any number of threads.
+ *
+ * The bucket layout is the same as the one used by HdrHistogram, so percentiles can be compared directly with other
+ * HdrHistogram based tools.
+ */
+public class LatencyHistogram {
+
+    static final int SIGNIFICANT_DIGITS = 3;
+    // one hour, in microseconds
+    static final long HIGHEST_TRACKABLE_VALUE = 3_600_000_000L;
+
+    final int subBucketHalfCountMagnitude;
+    final int subBucketHalfCount;
+    final long subBucketMask;
+    final int leadingZeroCountBase;
+
+    private final AtomicLongArray counts;
+
+    public LatencyHistogram() {
+        long largestValueWithSingleUnitResolution = 2 * (long) Math.pow(10, SIGNIFICANT_DIGITS);
+        int subBucketCountMagnitude = (int) Math.ceil(Math.log(largestValueWithSingleUnitResolution) / Math.log(2));
+        subBucketHalfCountMagnitude = subBucketCountMagnitude - 1;
+        int subBucketCount = 1 << subBucketCountMagnitude;
+        subBucketHalfCount = subBucketCount / 2;
+        subBucketMask = subBucketCount - 1;
+        leadingZeroCountBase = 64 - subBucketHalfCountMagnitude - 1;
+
+        long smallestUntrackableValue = subBucketCount;
+        int bucketCount = 1;
+        while (smallestUntrackableValue <= HIGHEST_TRACKABLE_VALUE) {
+            smallestUntrackableValue <<= 1;
+            bucketCount++;
+        }
+        counts = new AtomicLongArray((bucketCount + 1) * subBucketHalfCount);
+    }
+
+    /**
+     * Records a latency, in microseconds. Values above one hour are clamped.
+     */
+    public void recordValue(long micros) {
+        long value = Math.min(Math.max(micros, 0), HIGHEST_TRACKABLE_VALUE);
+        counts.incrementAndGet(countsIndexFor(value));
+    }
+
+    /**
+     * Records the time elapsed since the given {@link System#nanoTime()} reading.
+     */
+    public void recordSince(long startNanos) {
+        recordValue((System.nanoTime() - startNanos) / 1000);
+    }
+
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+    }
+
+    /**
+     * Adds the counts of another histogram to this one.
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < counts.length(); i++) {
+            long count = other.counts.get(i);
+            if (count != 0) {
+                counts.addAndGet(i, count);
+            }
+        }
+    }
+
+    public long getTotalCount() {
+        long total = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            total += counts.get(i);
+        }
+        return total;
+    }
+
+    public long getMaxValue() {
+        for (int i = counts.length() - 1; i >= 0; i--) {
+            if (counts.get(i) != 0) {
+                return highestEquivalentValue(valueFromIndex(i));
+            }
+        }
+        return 0;
+    }
+
+    public double getMean() {
+        long total = 0;
+        double sum = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            long count = counts.get(i);
+            if (count != 0) {
+                long value = valueFromIndex(i);
+                total += count;
+                sum += count * (double) (value + (sizeOfEquivalentValueRange(value) >> 1));
+            }
+        }
+        return total == 0 ? 0 : sum / total;
+    }
+
+    /**
+     * Returns the value, in microseconds, at or below which the given percentage of recorded values fall.
+     */
+    public long getValueAtPercentile(double percentile) {
+        long totalCount = getTotalCount();
+        if (totalCount == 0) {
+            return 0;
+        }
+        double requested = Math.min(percentile, 100.0);
+        long countAtPercentile = Math.max((long) (((requested / 100.0) * totalCount) + 0.5), 1);
+        long total = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            total += counts.get(i);
+            if (total >= countAtPercentile) {
+                return highestEquivalentValue(valueFromIndex(i));
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Prints a one line percentile summary, in microseconds.
+     */
+    public void printSummary(PrintStream out, String label) {
+        out.printf("%s latency (usec): count=%d mean=%.1f p50=%d p90=%d p99=%d p99.9=%d max=%d%n", label,
+                getTotalCount(), getMean(), getValueAtPercentile(50), getValueAtPercentile(90),
+                getValueAtPercentile(99), getValueAtPercentile(99.9), getMaxValue());
+    }
+
+    long getCountAtIndex(int index) {
+        return counts.get(index);
+    }
+
+    int countsIndexFor(long value) {
+        int bucketIndex = leadingZeroCountBase - Long.numberOfLeadingZeros(value | subBucketMask);
+        int subBucketIndex = (int) (value >>> bucketIndex);
+        return ((bucketIndex + 1) << subBucketHalfCountMagnitude) + (subBucketIndex - subBucketHalfCount);
+    }
+
+    long valueFromIndex(int index) {
+        int bucketIndex = (index >> subBucketHalfCountMagnitude) - 1;
+        int subBucketIndex = (index & (subBucketHalfCount - 1)) + subBucketHalfCount;
+        if (bucketIndex < 0) {
+            subBucketIndex -= subBucketHalfCount;
+            bucketIndex = 0;
+        }
+        return (long) subBucketIndex << bucketIndex;
+    }
+
+    private long sizeOfEquivalentValueRange(long value) {
+        int bucketIndex = leadingZeroCountBase - Long.numberOfLeadingZeros(value | subBucketMask);
+        int subBucketIndex = (int) (value >>> bucketIndex);
+        return 1L << (subBucketIndex >= (subBucketHalfCount << 1) ? bucketIndex + 1 : bucketIndex);
+    }
+
+    private long highestEquivalentValue(long value) {
+        return value + sizeOfEquivalentValueRange(value) - 1;
+    }
+}
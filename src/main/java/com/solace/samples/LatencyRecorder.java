@@ -0,0 +1,122 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ *  Apache Qpid JMS 2.0 Solace AMQP Examples: LatencyRecorder
+ */
+
+package com.solace.samples;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+
+/**
+ * Records latencies from any number of threads and hands out consistent interval snapshots without pausing the recording
+ * threads or allocating memory.
+ *
+ * Recording threads write to an active {@link LatencyHistogram}. Taking a snapshot swaps it with an idle one and then
+ * waits for writers still using the old one to finish, the same writer/reader phaser scheme HdrHistogram's Recorder uses.
+ */
+public class LatencyRecorder {
+
+    private final String name;
+
+    private final AtomicLong startEpoch = new AtomicLong();
+    private final AtomicLong evenEndEpoch = new AtomicLong();
+    private final AtomicLong oddEndEpoch = new AtomicLong(Long.MIN_VALUE);
+
+    private volatile LatencyHistogram active = new LatencyHistogram();
+    private LatencyHistogram inactive = new LatencyHistogram();
+    private final LatencyHistogram total = new LatencyHistogram();
+
+    public LatencyRecorder(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Records a latency, in microseconds.
+     */
+    public void recordValue(long micros) {
+        long criticalValue = startEpoch.getAndIncrement();
+        try {
+            active.recordValue(micros);
+        } finally {
+            if (criticalValue < 0) {
+                oddEndEpoch.getAndIncrement();
+            } else {
+                evenEndEpoch.getAndIncrement();
+            }
+        }
+    }
+
+    /**
+     * Records the time elapsed since the given {@link System#nanoTime()} reading.
+     */
+    public void recordSince(long startNanos) {
+        recordValue((System.nanoTime() - startNanos) / 1000);
+    }
+
+    /**
+     * Records the end-to-end latency of a message stamped with a {@link SendTimestamp}, if it has one.
+     */
+    public void recordEndToEnd(Message message) throws JMSException {
+        long micros = SendTimestamp.latencyMicros(message);
+        if (micros >= 0) {
+            recordValue(micros);
+        }
+    }
+
+    /**
+     * Returns the values recorded since the previous snapshot. The returned histogram is reused by the next call.
+     */
+    public synchronized LatencyHistogram snapshotInterval() {
+        inactive.reset();
+        LatencyHistogram interval = active;
+        active = inactive;
+        inactive = interval;
+        waitForWriters();
+        total.add(interval);
+        return interval;
+    }
+
+    /**
+     * Returns all values recorded so far.
+     */
+    public synchronized LatencyHistogram getTotal() {
+        snapshotInterval();
+        return total;
+    }
+
+    private void waitForWriters() {
+        boolean nextPhaseIsEven = startEpoch.get() < 0;
+        long initialStartValue = nextPhaseIsEven ? 0 : Long.MIN_VALUE;
+        (nextPhaseIsEven ? evenEndEpoch : oddEndEpoch).set(initialStartValue);
+        long startValueAtFlip = startEpoch.getAndSet(initialStartValue);
+        // writers that entered before the flip finish on the previous histogram
+        while ((nextPhaseIsEven ? oddEndEpoch : evenEndEpoch).get() != startValueAtFlip) {
+            Thread.yield();
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ *  Apache Qpid JMS 2.0 Solace AMQP Examples: LatencyReporter
+ */
+
+package com.solace.samples;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically takes interval snapshots of a set of {@link LatencyRecorder}s, prints them and optionally appends them to
+ * an HdrHistogram log file. Closing the reporter prints the totals.
+ *
+ * It is configured with the "--report-interval &lt;seconds&gt;" and "--hdr-log &lt;file&gt;" sample options. With
+ * "--metrics-port &lt;port&gt;" it also serves {@link SampleMetrics} through a {@link MetricsServer} while it is open,
+ * with the percentiles of the last interval as latency gauges. Intervals are then taken every 10 seconds, unless a report
+ * interval is set.
+ *
+ * A reporter is usually held in a try-with-resources statement only for its {@link #close()}, which javac's "try" lint
+ * reports, so the methods that do so suppress that warning.
+ */
+public class LatencyReporter implements AutoCloseable {
+
+    static final long DEFAULT_METRICS_INTERVAL_SECONDS = 10;
+
+    private final LatencyRecorder[] recorders;
+    private final MetricsServer metricsServer;
+    private final HistogramLogWriter logWriter;
+    private final Thread reportThread;
+    private long intervalStartMillis = System.currentTimeMillis();
+
+    public LatencyReporter(SampleOptions options, LatencyRecorder... recorders) throws IOException {
+        this(options, 0, recorders);
+    }
+
+    public LatencyReporter(SampleOptions options, long defaultIntervalSeconds, LatencyRecorder... recorders)
+            throws IOException {
+        this.recorders = recorders;
+        String logFile = options.getString("hdr-log", null);
+        this.logWriter = logFile != null ? new HistogramLogWriter(new File(logFile), intervalStartMillis) : null;
+
+        this.metricsServer = options.has("metrics-port") ? new MetricsServer(options.getInt("metrics-port", 0)) : null;
+
+        long reportIntervalMillis = TimeUnit.SECONDS.toMillis(options.getLong("report-interval",
+                defaultIntervalSeconds));
+        // the latency gauges need intervals, even when they are not printed
+        long intervalMillis = reportIntervalMillis > 0 || metricsServer == null ? reportIntervalMillis
+                : TimeUnit.SECONDS.toMillis(DEFAULT_METRICS_INTERVAL_SECONDS);
+        if (intervalMillis > 0) {
+            reportThread = new Thread(() -> {
+                try {
+                    while (true) {
+                        Thread.sleep(intervalMillis);
+                        report(reportIntervalMillis > 0);
+                    }
+                } catch (InterruptedException e) {
+                    // closed
+                }
+            }, "LatencyReporter");
+            reportThread.setDaemon(true);
+            reportThread.start();
+        } else {
+            reportThread = null;
+        }
+    }
+
+    private synchronized void report(boolean print) {
+        long now = System.currentTimeMillis();
+        for (LatencyRecorder recorder : recorders) {
+            LatencyHistogram interval = recorder.snapshotInterval();
+            if (print) {
+                interval.printSummary(System.out, recorder.getName() + " interval");
+            }
+            if (logWriter != null) {
+                logWriter.writeInterval(recorder.getName(), intervalStartMillis, now, interval);
+            }
+            SampleMetrics.updateLatency(recorder.getName(), interval);
+        }
+        intervalStartMillis = now;
+    }
+
+    @Override
+    public void close() {
+        if (reportThread != null) {
+            reportThread.interrupt();
+            try {
+                reportThread.join();
+            } catch (InterruptedException e) {
+                // still report the totals, and leave the interrupt to the caller
+                Thread.currentThread().interrupt();
+            }
+        }
+        // the last, partial interval is logged but not printed
+        report(false);
+        for (LatencyRecorder recorder : recorders) {
+            recorder.getTotal().printSummary(System.out, recorder.getName());
+        }
+        if (logWriter != null) {
+            logWriter.close();
+        }
+        if (metricsServer != null) {
+            metricsServer.close();
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ *  Apache Qpid JMS 2.0 Solace AMQP Examples: MappedRecordReader
+ */
+
+package com.solace.samples;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads the records of a file through a memory mapping, returning each record as a read-only slice of the mapped region
+ * instead of copying it into the heap. Records are either lines separated by '\n' (a trailing '\r' is removed and empty
+ * lines are skipped), or a 4-byte big-endian length followed by that many bytes.
+ *
+ * The file is mapped one region at a time, so files larger than 2 GB can be read. A region is only unmapped once no
+ * record sliced from it is referenced any more.
+ */
+public class MappedRecordReader implements AutoCloseable {
+
+    public enum Format {
+        NEWLINE, LENGTH
+    }
+
+    private static final int DEFAULT_REGION_SIZE = 64 * 1024 * 1024;
+
+    private final FileChannel channel;
+    private final long fileSize;
+    private final Format format;
+    private final int regionSize;
+
+    private MappedByteBuffer region;
+    private long regionStart;
+    // the file offset of the next record
+    private long position;
+
+    public MappedRecordReader(Path file, Format format, long startOffset) throws IOException {
+        this(file, format, startOffset, DEFAULT_REGION_SIZE);
+    }
+
+    public MappedRecordReader(Path file, Format format, long startOffset, int regionSize) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        this.fileSize = channel.size();
+        this.format = format;
+        this.regionSize = regionSize;
+        this.position = startOffset;
+    }
+
+    /**
+     * Returns the next record, or null at the end of the file.
+     */
+    public ByteBuffer next() throws IOException {
+        while (position < fileSize) {
+            if (region == null || position < regionStart || position >= regionStart + region.limit()) {
+                map(position, regionSize);
+            }
+            int offset = (int) (position - regionStart);
+            int limit = region.limit();
+            boolean lastRegion = regionStart + limit >= fileSize;
+
+            if (format == Format.NEWLINE) {
+                int end = offset;
+                while (end < limit && region.get(end) != '\n') {
+                    end++;
+                }
+                if (end == limit && !lastRegion) {
+                    // the record continues beyond this region
+                    remap(offset, limit);
+                    continue;
+                }
+                position = regionStart + Math.min(end + 1, limit);
+                int recordEnd = end > offset && region.get(end - 1) == '\r' ? end - 1 : end;
+                if (recordEnd > offset) {
+                    return slice(offset, recordEnd - offset);
+                }
+            } else {
+                if (limit - offset < 4 || limit - offset - 4 < region.getInt(offset)) {
+                    if (lastRegion) {
+                        throw new IOException("Truncated record at offset " + position);
+                    }
+                    remap(offset, limit);
+                    continue;
+                }
+                int length = region.getInt(offset);
+                if (length < 0) {
+                    throw new IOException("Invalid record length " + length + " at offset " + position);
+                }
+                position += 4 + length;
+                return slice(offset + 4, length);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the file offset of the next record.
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void remap(int offset, int limit) throws IOException {
+        // a record that starts at the beginning of a region needs a larger one
+        map(position, offset == 0 ? (long) limit * 2 : regionSize);
+    }
+
+    private void map(long start, long size) throws IOException {
+        long length = Math.min(Math.min(size, Integer.MAX_VALUE), fileSize - start);
+        region = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+        regionStart = start;
+    }
+
+    private ByteBuffer slice(int offset, int length) {
+        ByteBuffer record = region.duplicate();
+        ((Buffer) record).position(offset);
+        ((Buffer) record).limit(offset + length);
+        return record.slice().asReadOnlyBuffer();
+    }
+}
@@ -0,0 +1,267 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ *  Apache Qpid JMS 2.0 Solace AMQP Examples: PartitionedConsumer
+ */
+
+package com.solace.samples;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.jms.JMSConsumer;
+import javax.jms.JMSContext;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageListener;
+
+/**
+ * Consumes one queue with several consumers in parallel, each on its own session and thread, while keeping the messages
+ * of every key in order.
+ *
+ * Publishers stamp every message with {@link #stamp}: its key as the JMSXGroupID, the key's partition and a per-key
+ * sequence number. The queue is then split up in one of two ways:
+ * <ul>
+ * <li>{@link Assignment#SELECTOR}: consumer n is created with the selector "SamplePartition = n", so the broker only
+ * gives it the messages of its partition. Publishers and consumers must agree on the number of partitions.</li>
+ * <li>{@link Assignment#GROUP}: all consumers take from the queue without a selector, and the broker sticks every
+ * JMSXGroupID to the first consumer that received it. Any number of consumers works, but the keys are only spread as
+ * evenly as the broker happens to assign them.</li>
+ * </ul>
+ * Either way all messages of a key go to one consumer, which processes them in order. The consumers check the per-key
+ * sequence numbers and count the messages that arrived out of order. Sessions use CLIENT_ACKNOWLEDGE and acknowledge
+ * every {@code ackBatch} messages.
+ */
+public class PartitionedConsumer {
+
+    /**
+     * How messages are assigned to the consumers.
+     */
+    public enum Assignment {
+        SELECTOR, GROUP
+    }
+
+    public static final String PARTITION_PROPERTY = "SamplePartition";
+    public static final String KEY_SEQUENCE_PROPERTY = "SampleKeySequence";
+
+    private static final long POLL_MILLIS = 100;
+
+    private final ContextPool pool;
+    private final String queueName;
+    private final Assignment assignment;
+    private final int partitions;
+    private final MessageListener handler;
+    private final int ackBatch;
+
+    private final AtomicLong processed = new AtomicLong();
+    private final AtomicLong reordered = new AtomicLong();
+    private final AtomicLong acknowledgements = new AtomicLong();
+    private final AtomicLongArray partitionCounts;
+    private final Map<String, Long> lastSequences = new ConcurrentHashMap<>();
+    private final AtomicLong lastReceiveNanos = new AtomicLong();
+    private final List<Thread> threads = new ArrayList<>();
+    private long startNanos;
+
+    /**
+     * Creates a consumer for the given queue. Every partition gets a session from the pool; the pool remains owned by
+     * the caller.
+     */
+    public PartitionedConsumer(ContextPool pool, String queueName, Assignment assignment, int partitions,
+            MessageListener handler, int ackBatch) {
+        this.pool = pool;
+        this.queueName = queueName;
+        this.assignment = assignment;
+        this.partitions = partitions;
+        this.handler = handler;
+        this.ackBatch = ackBatch;
+        this.partitionCounts = new AtomicLongArray(partitions);
+    }
+
+    /**
+     * Stamps a message with its key, the key's partition and its sequence number within the key.
+     */
+    public static void stamp(Message message, String key, long keySequence, int partitions) throws JMSException {
+        message.setStringProperty("JMSXGroupID", key);
+        message.setIntProperty(PARTITION_PROPERTY, partitionOf(key, partitions));
+        message.setLongProperty(KEY_SEQUENCE_PROPERTY, keySequence);
+    }
+
+    public static int partitionOf(String key, int partitions) {
+        return Math.floorMod(key.hashCode(), partitions);
+    }
+
+    /**
+     * Returns the selector of the consumer of the given partition.
+     */
+    public static String selector(int partition) {
+        return PARTITION_PROPERTY + " = " + partition;
+    }
+
+    /**
+     * Consumes until the given number of messages has been processed by all partitions together, or until no message has
+     * arrived for the idle timeout.
+     */
+    public void run(long count, long idleTimeoutMillis) throws InterruptedException {
+        start(count, idleTimeoutMillis);
+        join();
+    }
+
+    /**
+     * Attaches the consumers of all partitions and starts consuming in the background.
+     *
+     * The broker binds a JMSXGroupID to a consumer when it delivers the group's first message, so with
+     * {@link Assignment#GROUP} the messages should only arrive once this has returned. Otherwise the consumer that
+     * attaches first takes every group that is already waiting.
+     */
+    public void start(long count, long idleTimeoutMillis) {
+        startNanos = System.nanoTime();
+        lastReceiveNanos.set(startNanos);
+        for (int p = 0; p < partitions; p++) {
+            final int partition = p;
+            // the session is created here and then only used by the partition's thread
+            JMSContext context = pool.createContext(JMSContext.CLIENT_ACKNOWLEDGE);
+            JMSConsumer consumer = assignment == Assignment.SELECTOR
+                    ? context.createConsumer(context.createQueue(queueName), selector(partition))
+                    : context.createConsumer(context.createQueue(queueName));
+            Thread thread = new Thread(() -> consume(partition, context, consumer, count,
+                    TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis)), "PartitionedConsumer-" + partition);
+            threads.add(thread);
+            thread.start();
+        }
+    }
+
+    /**
+     * Waits until the consumers have stopped.
+     */
+    public void join() throws InterruptedException {
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    private void consume(int partition, JMSContext context, JMSConsumer consumer, long count,
+            long idleTimeoutNanos) {
+        try {
+            int unacknowledged = 0;
+            while (processed.get() < count && System.nanoTime() - lastReceiveNanos.get() < idleTimeoutNanos) {
+                Message message = consumer.receive(POLL_MILLIS);
+                if (message == null) {
+                    continue;
+                }
+                lastReceiveNanos.set(System.nanoTime());
+                SampleMetrics.received(message);
+                checkOrder(message);
+                try {
+                    handler.onMessage(message);
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+                partitionCounts.incrementAndGet(partition);
+                processed.incrementAndGet();
+                if (++unacknowledged >= ackBatch) {
+                    acknowledge(context, unacknowledged);
+                    unacknowledged = 0;
+                }
+            }
+            if (unacknowledged > 0) {
+                acknowledge(context, unacknowledged);
+            }
+        } catch (JMSException e) {
+            e.printStackTrace();
+        } finally {
+            context.close();
+        }
+    }
+
+    private void checkOrder(Message message) throws JMSException {
+        String key = message.getStringProperty("JMSXGroupID");
+        if (key == null || !message.propertyExists(KEY_SEQUENCE_PROPERTY)) {
+            return;
+        }
+        // all messages of a key are received by one consumer, so this is never a race
+        long sequence = message.getLongProperty(KEY_SEQUENCE_PROPERTY);
+        Long last = lastSequences.put(key, sequence);
+        if (last != null && last > sequence) {
+            reordered.incrementAndGet();
+        }
+    }
+
+    private void acknowledge(JMSContext context, int messages) {
+        long ackNanos = System.nanoTime();
+        context.acknowledge();
+        SampleMetrics.acknowledged(messages, ackNanos);
+        acknowledgements.incrementAndGet();
+    }
+
+    public long getProcessed() {
+        return processed.get();
+    }
+
+    /**
+     * Returns the number of messages that arrived before an earlier message of the same key.
+     */
+    public long getReordered() {
+        return reordered.get();
+    }
+
+    public long getAcknowledgements() {
+        return acknowledgements.get();
+    }
+
+    public long getPartitionCount(int partition) {
+        return partitionCounts.get(partition);
+    }
+
+    /**
+     * Returns the messages processed per second, from the start of {@link #run} until the last message arrived.
+     */
+    public double getDrainRate() {
+        // the idle time at the end is not part of the drain
+        return processed.get() / (Math.max(lastReceiveNanos.get() - startNanos, 1) / 1e9);
+    }
+
+    /**
+     * Returns the largest number of messages processed by one partition, relative to an even share. 1.0 is perfectly
+     * even; with 4 partitions, 4.0 means one partition did all the work.
+     */
+    public double getSkew() {
+        long max = 0;
+        for (int p = 0; p < partitions; p++) {
+            max = Math.max(max, partitionCounts.get(p));
+        }
+        return processed.get() == 0 ? 0 : max * partitions / (double) processed.get();
+    }
+
+    public void printSummary(PrintStream out) {
+        StringBuilder counts = new StringBuilder();
+        for (int p = 0; p < partitions; p++) {
+            counts.append(p == 0 ? "" : ", ").append(partitionCounts.get(p));
+        }
+        out.printf("Processed %d messages on %d partition(s) by %s (%s), %d out of order, %d acknowledgement calls.%n",
+                processed.get(), partitions, assignment == Assignment.SELECTOR ? "selector" : "JMSXGroupID", counts,
+                reordered.get(), acknowledgements.get());
+    }
+}
@@ -0,0 +1,82 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ *  Apache Qpid JMS 2.0 Solace AMQP Examples: PayloadCodec
+ */
+
+package com.solace.samples;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ServiceLoader;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses and decompresses message payloads for {@link PayloadCompression}.
+ *
+ * Deflate from {@code java.util.zip} is built in, as {@code deflate} or {@code deflate:<level>} with a level from 1
+ * (fastest) to 9 (smallest). Other codecs, such as LZ4 or Zstandard, are plugged in by wrapping their library in an
+ * implementation of this interface and listing it in {@code META-INF/services/com.solace.samples.PayloadCodec}.
+ * {@link #forName(String)} then finds them by name, without changes to the samples.
+ *
+ * A codec instance is only used by one thread at a time.
+ */
+public interface PayloadCodec {
+
+    /**
+     * The name the codec is found by, which is also stored in the messages it compressed.
+     */
+    String getName();
+
+    /**
+     * Returns the largest size that a payload of the given length can have once compressed.
+     */
+    int maxCompressedLength(int length);
+
+    /**
+     * Compresses the remaining bytes of the source into the target, which has at least
+     * {@link #maxCompressedLength(int)} bytes remaining.
+     */
+    void compress(ByteBuffer source, ByteBuffer target);
+
+    /**
+     * Decompresses the remaining bytes of the source into the target, which has exactly the uncompressed length
+     * remaining.
+     */
+    void decompress(ByteBuffer source, ByteBuffer target) throws IOException;
+
+    /**
+     * Returns a new instance of the named codec.
+     */
+    static PayloadCodec forName(String name) {
+        if (name.equals("deflate")) {
+            return new DeflateCodec(Deflater.DEFAULT_COMPRESSION);
+        }
+        if (name.startsWith("deflate:")) {
+            return new DeflateCodec(Integer.parseInt(name.substring("deflate:".length())));
+        }
+        for (PayloadCodec codec : ServiceLoader.load(PayloadCodec.class)) {
+            if (codec.getName().equals(name)) {
+                return codec;
+            }
+        }
+        throw new IllegalArgumentException("Unknown codec '" + name + "', add its implementation to the classpath");
+    }
+}
@@ -0,0 +1,216 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ *  Apache Qpid JMS 2.0 Solace AMQP Examples: PayloadCompression
+ */
+
+package com.solace.samples;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+
+/**
+ * Compresses {@link BytesMessage} bodies with a {@link PayloadCodec} on the sending side and decompresses them
+ * transparently on the receiving side.
+ *
+ * Payloads of at least the threshold size are compressed, and the message is marked with the name of the codec and the
+ * uncompressed length in two message properties. Payloads that do not get smaller are sent as they are. A receiver
+ * needs no configuration: it finds the codec from the property of every message, and passes unmarked bodies through.
+ *
+ * The stage counts the bytes before and after compression and the time spent compressing and decompressing, which is
+ * CPU time as the codecs never block.
+ */
+public class PayloadCompression {
+
+    public static final String CODEC_PROPERTY = "SampleCodec";
+    public static final String LENGTH_PROPERTY = "SampleUncompressedLength";
+
+    private final String codecName;
+    private final int threshold;
+    private final ThreadLocal<PayloadCodec> encoders;
+    private final ThreadLocal<Map<String, PayloadCodec>> decoders = ThreadLocal.withInitial(HashMap::new);
+    private final BufferPool pool = new BufferPool(false, 64);
+
+    private final AtomicLong writtenMessages = new AtomicLong();
+    private final AtomicLong compressedMessages = new AtomicLong();
+    private final AtomicLong rawBytes = new AtomicLong();
+    private final AtomicLong encodedBytes = new AtomicLong();
+    private final AtomicLong compressNanos = new AtomicLong();
+    private final AtomicLong readMessages = new AtomicLong();
+    private final AtomicLong decompressedMessages = new AtomicLong();
+    private final AtomicLong decompressNanos = new AtomicLong();
+
+    /**
+     * Creates a stage that compresses with the named codec, or does not compress when the name is "none".
+     */
+    public PayloadCompression(String codecName, int threshold) {
+        this.codecName = codecName;
+        this.threshold = threshold;
+        if ("none".equals(codecName)) {
+            this.encoders = null;
+        } else {
+            // fail now for an unknown codec, rather than on the first message
+            PayloadCodec.forName(codecName);
+            this.encoders = ThreadLocal.withInitial(() -> PayloadCodec.forName(codecName));
+        }
+    }
+
+    /**
+     * Creates a stage from the "--codec" and "--compress-threshold" sample options.
+     */
+    public static PayloadCompression fromOptions(SampleOptions options) {
+        return new PayloadCompression(options.getString("codec", "none"), options.getInt("compress-threshold", 1024));
+    }
+
+    /**
+     * Writes the remaining bytes of the payload to the message, compressed if it is large enough. The position of the
+     * payload is not changed.
+     */
+    public void write(BytesMessage message, ByteBuffer payload) throws JMSException {
+        int length = payload.remaining();
+        writtenMessages.incrementAndGet();
+        rawBytes.addAndGet(length);
+        if (encoders != null && length >= threshold) {
+            PayloadCodec codec = encoders.get();
+            ByteBuffer compressed = pool.acquire(codec.maxCompressedLength(length));
+            try {
+                long startNanos = System.nanoTime();
+                codec.compress(payload.duplicate(), compressed);
+                compressNanos.addAndGet(System.nanoTime() - startNanos);
+                ((Buffer) compressed).flip();
+                if (compressed.remaining() < length) {
+                    message.setStringProperty(CODEC_PROPERTY, codec.getName());
+                    message.setIntProperty(LENGTH_PROPERTY, length);
+                    BytesPayload.write(message, compressed);
+                    compressedMessages.incrementAndGet();
+                    encodedBytes.addAndGet(compressed.remaining());
+                    return;
+                }
+            } finally {
+                pool.release(compressed);
+            }
+        }
+        BytesPayload.write(message, payload);
+        encodedBytes.addAndGet(length);
+    }
+
+    /**
+     * Returns the length of the message payload once decompressed.
+     */
+    public static int getPayloadLength(BytesMessage message) throws JMSException {
+        if (message.propertyExists(LENGTH_PROPERTY)) {
+            return message.getIntProperty(LENGTH_PROPERTY);
+        }
+        return (int) message.getBodyLength();
+    }
+
+    /**
+     * Reads the message payload, decompressed if needed, into a pooled buffer that should be handed back with
+     * {@link #release(ByteBuffer)}. The buffer is ready to be read.
+     */
+    public ByteBuffer read(BytesMessage message) throws JMSException {
+        ByteBuffer payload = pool.acquire(getPayloadLength(message));
+        String name = message.getStringProperty(CODEC_PROPERTY);
+        readMessages.incrementAndGet();
+        if (name == null) {
+            BytesPayload.read(message, payload);
+            ((Buffer) payload).flip();
+            return payload;
+        }
+        PayloadCodec codec = decoders.get().computeIfAbsent(name, PayloadCodec::forName);
+        ByteBuffer compressed = pool.acquire((int) message.getBodyLength());
+        try {
+            BytesPayload.read(message, compressed);
+            ((Buffer) compressed).flip();
+            long startNanos = System.nanoTime();
+            codec.decompress(compressed, payload);
+            decompressNanos.addAndGet(System.nanoTime() - startNanos);
+            decompressedMessages.incrementAndGet();
+            ((Buffer) payload).flip();
+            return payload;
+        } catch (IOException e) {
+            pool.release(payload);
+            JMSException error = new JMSException("Failed to decompress a " + name + " payload: " + e.getMessage());
+            error.setLinkedException(e);
+            throw error;
+        } finally {
+            pool.release(compressed);
+        }
+    }
+
+    public void release(ByteBuffer payload) {
+        pool.release(payload);
+    }
+
+    public long getWrittenMessages() {
+        return writtenMessages.get();
+    }
+
+    public long getReadMessages() {
+        return readMessages.get();
+    }
+
+    public long getRawBytes() {
+        return rawBytes.get();
+    }
+
+    public long getEncodedBytes() {
+        return encodedBytes.get();
+    }
+
+    /**
+     * Returns the uncompressed size divided by the size sent, over all written messages.
+     */
+    public double getCompressionRatio() {
+        return encodedBytes.get() == 0 ? 1.0 : rawBytes.get() / (double) encodedBytes.get();
+    }
+
+    public double getCompressMicrosPerMessage() {
+        return compressNanos.get() / 1000.0 / Math.max(compressedMessages.get(), 1);
+    }
+
+    public double getDecompressMicrosPerMessage() {
+        return decompressNanos.get() / 1000.0 / Math.max(decompressedMessages.get(), 1);
+    }
+
+    /**
+     * Prints what was compressed and decompressed, if anything.
+     */
+    public void printSummary(PrintStream out) {
+        if (writtenMessages.get() > 0) {
+            out.printf("Compression (%s, threshold %d bytes): %d of %d messages compressed, %.1f MB to %.1f MB "
+                    + "(ratio %.2f), %.1f usec/msg%n", codecName, threshold, compressedMessages.get(),
+                    writtenMessages.get(), rawBytes.get() / (1024.0 * 1024), encodedBytes.get() / (1024.0 * 1024),
+                    getCompressionRatio(), getCompressMicrosPerMessage());
+        }
+        if (readMessages.get() > 0) {
+            out.printf("Decompression: %d of %d bytes messages decompressed, %.1f usec/msg%n",
+                    decompressedMessages.get(), readMessages.get(), getDecompressMicrosPerMessage());
+        }
+    }
+}
@@ -24,9 +24,19 @@
 package com.solace.samples;
 
 import org.apache.qpid.jms.JmsConnectionFactory;
+import org.apache.qpid.jms.policy.JmsDefaultPrefetchPolicy;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.atomic.AtomicLong;
 
+import javax.jms.BytesMessage;
 import javax.jms.ConnectionFactory;
+import javax.jms.JMSConsumer;
 import javax.jms.JMSContext;
 import javax.jms.Message;
 import javax.jms.TextMessage;
@@ -37,11 +47,31 @@ import javax.jms.Queue;
  * broker.
  * 
  * The queue used for messages is created on the message broker.
+ *
+ * When started with additional options the sample runs in drain mode: several consumer threads, each with its own
+ * {@link JMSContext}, empty the queue using CLIENT_ACKNOWLEDGE with batched acknowledgements or DUPS_OK_ACKNOWLEDGE, and
+ * report the drain rate, the number of redelivered messages and the end-to-end latency of messages stamped by the
+ * QueueProducer. BytesMessages compressed by {@link PayloadCompression} are decompressed transparently. With
+ * {@code --dedup} a {@link DedupCache} drops redelivered messages that have already been processed, by JMSMessageID or
+ * by the {@code --dedup-key} property; they are acknowledged again, but not processed. A message is only recorded in
+ * the cache once it has been processed.
+ *
+ * With {@code --workers <threads>} the sample runs a {@link StagedConsumer}: the receiving thread hands messages to
+ * worker threads, in order per JMSXGroupID, and only acknowledges them once they have been processed.
+ *
+ * With {@code --partitions <n>} the sample runs a {@link PartitionedConsumer}: n consumers on their own sessions drain
+ * the queue in parallel, split by a selector on the partition the QueueProducer stamped with {@code --keys}, or by
+ * JMSXGroupID with {@code --partition-by group}.
+ *
+ * With {@code --export <file>} the sample runs as a {@link QueueExporter} that archives the queue, or a durable
+ * subscription, to a length-prefixed file and only acknowledges messages once they are on disk.
  */
 public class QueueConsumer {
 
     final String QUEUE_NAME = "Q/tutorial";
 
+    final long DEFAULT_IDLE_TIMEOUT_SECONDS = 10;
+
     private void run(String... args) throws Exception {
         String solaceHost = args[0];
         String solaceUsername = args[1];
@@ -67,18 +97,262 @@ public class QueueConsumer {
             // process received message
             if (message instanceof TextMessage) {
                 System.out.printf("TextMessage received: '%s'%n", ((TextMessage) message).getText());
+            } else if (message instanceof BytesMessage) {
+                printBytesMessage((BytesMessage) message);
             } else {
                 System.out.println("Message received.");
             }
             System.out.printf("Message Content:%n%s%n", message.toString());
+            long latencyMicros = SendTimestamp.latencyMicros(message);
+            if (latencyMicros >= 0) {
+                System.out.printf("End-to-end latency: %d usec%n", latencyMicros);
+            }
+        }
+    }
+
+    static void printBytesMessage(BytesMessage message) throws Exception {
+        if (RecordUnbatcher.isBatch(message)) {
+            int records = new RecordUnbatcher().unbatch(message, record -> {
+            });
+            System.out.printf("Batch of %d records received.%n", records);
+            return;
+        }
+        PayloadCompression compression = new PayloadCompression("none", 0);
+        ByteBuffer payload = compression.read(message);
+        String codec = message.getStringProperty(PayloadCompression.CODEC_PROPERTY);
+        System.out.printf("BytesMessage received: %d bytes%s%n", payload.remaining(),
+                codec != null ? ", decompressed with " + codec + " from " + message.getBodyLength() + " bytes" : "");
+        compression.release(payload);
+    }
+
+    @SuppressWarnings("try")
+    private void runDrain(String solaceHost, String solaceUsername, String solacePassword, SampleOptions options)
+            throws Exception {
+        final int threads = options.getInt("threads", 1);
+        final boolean dupsOk = "dups_ok".equalsIgnoreCase(options.getString("ack", "client"));
+        final int ackBatch = options.getInt("ack-batch", 100);
+        final long ackIntervalNanos = TimeUnit.MILLISECONDS.toNanos(options.getLong("ack-interval", 100));
+        final long count = options.getLong("count", Long.MAX_VALUE);
+        final long idleTimeoutNanos = TimeUnit.SECONDS.toNanos(options.getLong("idle-timeout",
+                DEFAULT_IDLE_TIMEOUT_SECONDS));
+        final long pollMillis = Math.max(1, Math.min(100, TimeUnit.NANOSECONDS.toMillis(ackIntervalNanos)));
+
+        System.out.printf("QueueConsumer is draining queue '%s' on %s with %d thread(s), %s...%n", QUEUE_NAME,
+                solaceHost, threads, dupsOk ? "DUPS_OK acknowledgement"
+                        : "client acknowledgement every " + ackBatch + " messages or "
+                                + TimeUnit.NANOSECONDS.toMillis(ackIntervalNanos) + " ms");
+
+        JmsConnectionFactory connectionFactory = new JmsConnectionFactory(solaceUsername, solacePassword, solaceHost);
+        // the same setting as the "jms.prefetchPolicy.queuePrefetch" connection URI option
+        if (options.has("prefetch")) {
+            JmsDefaultPrefetchPolicy prefetchPolicy = new JmsDefaultPrefetchPolicy();
+            prefetchPolicy.setQueuePrefetch(options.getInt("prefetch", 0));
+            connectionFactory.setPrefetchPolicy(prefetchPolicy);
+        }
+
+        final LatencyRecorder latency = new LatencyRecorder("End-to-end");
+        final PayloadCompression compression = PayloadCompression.fromOptions(options);
+        final String dedupKey = options.getString("dedup-key", null);
+        final AtomicLong received = new AtomicLong();
+        final AtomicLong redelivered = new AtomicLong();
+        final AtomicLong acknowledgements = new AtomicLong();
+        final AtomicLong lastReceiveNanos = new AtomicLong(System.nanoTime());
+
+        // by default every consumer gets a connection of its own
+        try (ContextPool pool = new ContextPool(connectionFactory, options.getInt("connections", threads), 0);
+                LatencyReporter reporter = new LatencyReporter(options, latency);
+                DedupCache dedup = DedupCache.fromOptions(options)) {
+            final long startNanos = System.nanoTime();
+            List<Thread> consumers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                Thread consumer = new Thread(() -> {
+                    int sessionMode = dupsOk ? JMSContext.DUPS_OK_ACKNOWLEDGE : JMSContext.CLIENT_ACKNOWLEDGE;
+                    // every consumer has its own session, on one of the pooled connections
+                    try (JMSContext context = pool.createContext(sessionMode)) {
+                        JMSConsumer queueConsumer = context.createConsumer(context.createQueue(QUEUE_NAME));
+                        int unacknowledged = 0;
+                        long lastAckNanos = System.nanoTime();
+                        while (true) {
+                            Message message = queueConsumer.receive(pollMillis);
+                            long now = System.nanoTime();
+                            if (message != null) {
+                                lastReceiveNanos.set(now);
+                                if (message.getJMSRedelivered()) {
+                                    redelivered.incrementAndGet();
+                                }
+                                latency.recordEndToEnd(message);
+                                SampleMetrics.received(message);
+                                // a duplicate was processed before it was redelivered, and is only acknowledged again
+                                if (dedup == null || !dedup.isDuplicate(message, dedupKey)) {
+                                    if (message instanceof BytesMessage) {
+                                        // decompresses the body if needed, as a real consumer would before
+                                        // processing it
+                                        compression.release(compression.read((BytesMessage) message));
+                                    }
+                                    if (dedup != null) {
+                                        dedup.markProcessed(message, dedupKey);
+                                    }
+                                }
+                                unacknowledged++;
+                            }
+                            // acknowledges every message consumed so far by this session with a single call
+                            if (!dupsOk && unacknowledged > 0
+                                    && (unacknowledged >= ackBatch || now - lastAckNanos >= ackIntervalNanos)) {
+                                long ackNanos = System.nanoTime();
+                                context.acknowledge();
+                                SampleMetrics.acknowledged(unacknowledged, ackNanos);
+                                acknowledgements.incrementAndGet();
+                                unacknowledged = 0;
+                                lastAckNanos = now;
+                            }
+                            if (message != null && received.incrementAndGet() >= count) {
+                                break;
+                            }
+                            if (received.get() >= count || now - lastReceiveNanos.get() >= idleTimeoutNanos) {
+                                break;
+                            }
+                        }
+                        if (!dupsOk && unacknowledged > 0) {
+                            long ackNanos = System.nanoTime();
+                            context.acknowledge();
+                            SampleMetrics.acknowledged(unacknowledged, ackNanos);
+                            acknowledgements.incrementAndGet();
+                        }
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }, "QueueConsumer-" + t);
+                consumers.add(consumer);
+                consumer.start();
+            }
+            for (Thread consumer : consumers) {
+                consumer.join();
+            }
+
+            // the idle time at the end is not part of the drain
+            double drainSeconds = Math.max(lastReceiveNanos.get() - startNanos, 1) / 1e9;
+            System.out.printf("Drained %d messages in %.2f seconds (%d redelivered, %d acknowledgement calls).%n",
+                    received.get(), drainSeconds, redelivered.get(), acknowledgements.get());
+            System.out.printf("Drain rate: %.0f msgs/sec%n", received.get() / drainSeconds);
+            compression.printSummary(System.out);
+            if (dedup != null) {
+                dedup.printSummary(System.out);
+            }
+        }
+    }
+
+    @SuppressWarnings("try")
+    private void runStaged(String solaceHost, String solaceUsername, String solacePassword, SampleOptions options)
+            throws Exception {
+        int workers = options.getInt("workers", 4);
+        long handlerCostNanos = TimeUnit.MICROSECONDS.toNanos(options.getLong("handler-cost", 0));
+        long count = options.getLong("count", Long.MAX_VALUE);
+        long idleTimeoutMillis = TimeUnit.SECONDS.toMillis(options.getLong("idle-timeout",
+                DEFAULT_IDLE_TIMEOUT_SECONDS));
+
+        System.out.printf("QueueConsumer is processing queue '%s' on %s with %d worker(s)...%n", QUEUE_NAME, solaceHost,
+                workers);
+
+        JmsConnectionFactory connectionFactory = new JmsConnectionFactory(solaceUsername, solacePassword, solaceHost);
+        LatencyRecorder latency = new LatencyRecorder("End-to-end");
+        try (JMSContext context = connectionFactory.createContext(JMSContext.CLIENT_ACKNOWLEDGE);
+                LatencyReporter reporter = new LatencyReporter(options, latency)) {
+            JMSConsumer consumer = context.createConsumer(context.createQueue(QUEUE_NAME));
+            StagedConsumer stagedConsumer = new StagedConsumer(context, consumer, message -> {
+                // stands in for slow processing, such as a database write
+                if (handlerCostNanos > 0) {
+                    LockSupport.parkNanos(handlerCostNanos);
+                }
+                try {
+                    latency.recordEndToEnd(message);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }, options.getString("key-property", "JMSXGroupID"), workers, options.getInt("ring-size", 1024),
+                    options.getInt("ack-batch", StagedConsumer.DEFAULT_ACK_BATCH));
+
+            long startNanos = System.nanoTime();
+            stagedConsumer.run(count, idleTimeoutMillis);
+            double elapsedSeconds = (System.nanoTime() - startNanos) / 1e9;
+            stagedConsumer.printSummary(System.out);
+            System.out.printf("Throughput: %.0f msgs/sec (including the final idle timeout)%n",
+                    stagedConsumer.getProcessed() / elapsedSeconds);
+        }
+    }
+
+    @SuppressWarnings("try")
+    private void runPartitioned(String solaceHost, String solaceUsername, String solacePassword, SampleOptions options)
+            throws Exception {
+        int partitions = options.getInt("partitions", 4);
+        PartitionedConsumer.Assignment assignment = PartitionedConsumer.Assignment
+                .valueOf(options.getString("partition-by", "selector").toUpperCase());
+        long handlerCostNanos = TimeUnit.MICROSECONDS.toNanos(options.getLong("handler-cost", 0));
+        long count = options.getLong("count", Long.MAX_VALUE);
+        long idleTimeoutMillis = TimeUnit.SECONDS.toMillis(options.getLong("idle-timeout",
+                DEFAULT_IDLE_TIMEOUT_SECONDS));
+
+        System.out.printf("QueueConsumer is draining queue '%s' on %s with %d partition(s) by %s...%n", QUEUE_NAME,
+                solaceHost, partitions, assignment == PartitionedConsumer.Assignment.SELECTOR ? "selector"
+                        : "JMSXGroupID");
+
+        JmsConnectionFactory connectionFactory = new JmsConnectionFactory(solaceUsername, solacePassword, solaceHost);
+        LatencyRecorder latency = new LatencyRecorder("End-to-end");
+        // by default every partition gets a connection of its own
+        try (ContextPool pool = new ContextPool(connectionFactory, options.getInt("connections", partitions), 0);
+                LatencyReporter reporter = new LatencyReporter(options, latency)) {
+            PartitionedConsumer partitionedConsumer = new PartitionedConsumer(pool, QUEUE_NAME, assignment, partitions,
+                    message -> {
+                        // stands in for processing, such as a database write
+                        if (handlerCostNanos > 0) {
+                            LockSupport.parkNanos(handlerCostNanos);
+                        }
+                        try {
+                            latency.recordEndToEnd(message);
+                        } catch (Exception e) {
+                            throw new RuntimeException(e);
+                        }
+                    }, options.getInt("ack-batch", 100));
+
+            partitionedConsumer.run(count, idleTimeoutMillis);
+            partitionedConsumer.printSummary(System.out);
+            System.out.printf("Drain rate: %.0f msgs/sec%n", partitionedConsumer.getDrainRate());
         }
     }
 
     public static void main(String[] args) throws Exception {
         if (args.length < 3) {
-            System.out.println("Usage: QueueConsumer amqp://<msg_backbone_ip:amqp_port> <username> <password>");
+            System.out.println("Usage: QueueConsumer amqp://<msg_backbone_ip:amqp_port> <username> <password>"
+                    + " [--threads <consumers>] [--connections <connections>] [--prefetch <messages>]"
+                    + " [--ack client|dups_ok]"
+                    + " [--ack-batch <messages>] [--ack-interval <ms>] [--count <messages>]"
+                    + " [--idle-timeout <seconds>] [--dedup [--dedup-key <property>] [--dedup-size <entries>]"
+                    + " [--dedup-ttl <seconds>] [--dedup-file <file> [--dedup-snapshot-interval <ms>]]]");
+            System.out.println("       QueueConsumer amqp://<msg_backbone_ip:amqp_port> <username> <password>"
+                    + " --workers <threads> [--handler-cost <usec>] [--key-property <property>]"
+                    + " [--ring-size <messages>] [--ack-batch <messages>] [--count <messages>]"
+                    + " [--idle-timeout <seconds>]");
+            System.out.println("       QueueConsumer amqp://<msg_backbone_ip:amqp_port> <username> <password>"
+                    + " --partitions <consumers> [--partition-by selector|group] [--handler-cost <usec>]"
+                    + " [--connections <connections>] [--ack-batch <messages>] [--count <messages>]"
+                    + " [--idle-timeout <seconds>]");
+            System.out.println("       QueueConsumer amqp://<msg_backbone_ip:amqp_port> <username> <password>"
+                    + " --export <file> [--topic <topic> --subscription <name> [--client-id <id>]]"
+                    + " [--rotate-mb <megabytes>] [--buffer-mb <megabytes>] [--sync-interval <ms>]"
+                    + " [--sync-messages <messages>] [--prefetch <messages>] [--count <messages>]"
+                    + " [--idle-timeout <seconds>]");
             System.exit(-1);
         }
-        new QueueConsumer().run(args);
+        SampleOptions options = new SampleOptions(args, 3);
+        if (options.isEmpty()) {
+            new QueueConsumer().run(args);
+        } else if (options.has("export")) {
+            new QueueExporter(args[0], args[1], args[2], options).run(new QueueConsumer().QUEUE_NAME);
+        } else if (options.has("partitions")) {
+            new QueueConsumer().runPartitioned(args[0], args[1], args[2], options);
+        } else if (options.has("workers")) {
+            new QueueConsumer().runStaged(args[0], args[1], args[2], options);
+        } else {
+            new QueueConsumer().runDrain(args[0], args[1], args[2], options);
+        }
     }
 }
@@ -0,0 +1,279 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ *  Apache Qpid JMS 2.0 Solace AMQP Examples: QueueExporter
+ */
+
+package com.solace.samples;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.BytesMessage;
+import javax.jms.JMSConsumer;
+import javax.jms.JMSContext;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.TextMessage;
+
+import org.apache.qpid.jms.JmsConnectionFactory;
+import org.apache.qpid.jms.policy.JmsDefaultPrefetchPolicy;
+
+/**
+ * Exports the messages of a queue or a durable subscription to a file. This is the exporter mode of the
+ * {@link QueueConsumer}.
+ *
+ * Every message body is appended as a 4-byte big-endian length followed by the body: the bytes of a {@link BytesMessage},
+ * or the UTF-8 encoded text of a {@link TextMessage}. This is the {@link MappedRecordReader.Format#LENGTH} format, so an
+ * export can be loaded into a queue again with the bulk loader mode of the QueueProducer.
+ *
+ * Records are collected in a large direct buffer and written to a {@link FileChannel} when it fills up. Every
+ * {@code --sync-interval} milliseconds or {@code --sync-messages} messages, the buffer is written, the file is forced to
+ * disk and only then are the messages acknowledged, with a single CLIENT_ACKNOWLEDGE call. A message is therefore never
+ * removed from the broker before it is durable in the file. If the exporter stops between a sync and the
+ * acknowledgement, the messages are delivered again and appear twice in the export.
+ *
+ * With {@code --rotate-mb} the export is split into numbered files that do not grow beyond that size. A file is forced
+ * to disk before it is closed, and its messages are acknowledged with the next sync, together with those already in
+ * the next file.
+ */
+public class QueueExporter {
+
+    private static final int LENGTH_PREFIX_BYTES = 4;
+
+    private final String solaceHost;
+    private final SampleOptions options;
+    private final JmsConnectionFactory connectionFactory;
+    private final LatencyRecorder syncLatency = new LatencyRecorder("Sync");
+
+    private final Path file;
+    private final long rotateBytes;
+    private final ByteBuffer buffer;
+    private FileChannel channel;
+    private int fileIndex;
+    private int files;
+    private long fileBytes;
+
+    private long exportedMessages;
+    private long exportedBytes;
+    private long skippedMessages;
+    private long syncs;
+
+    public QueueExporter(String solaceHost, String solaceUsername, String solacePassword, SampleOptions options) {
+        this.solaceHost = solaceHost;
+        this.options = options;
+        this.connectionFactory = new JmsConnectionFactory(solaceUsername, solacePassword, solaceHost);
+        if (options.has("prefetch")) {
+            JmsDefaultPrefetchPolicy prefetchPolicy = new JmsDefaultPrefetchPolicy();
+            prefetchPolicy.setQueuePrefetch(options.getInt("prefetch", 0));
+            prefetchPolicy.setDurableTopicPrefetch(options.getInt("prefetch", 0));
+            connectionFactory.setPrefetchPolicy(prefetchPolicy);
+        }
+        // a durable subscription belongs to a client ID
+        if (options.has("subscription")) {
+            connectionFactory.setClientID(options.getString("client-id", "QueueExporter"));
+        }
+        this.file = Paths.get(options.getString("export", null));
+        this.rotateBytes = options.getLong("rotate-mb", 0) * 1024 * 1024;
+        this.buffer = ByteBuffer.allocateDirect(options.getInt("buffer-mb", 8) * 1024 * 1024);
+    }
+
+    /**
+     * Exports the queue, or the durable subscription given with {@code --topic} and {@code --subscription}.
+     */
+    @SuppressWarnings("try")
+    public void run(String queueName) throws Exception {
+        long syncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(options.getLong("sync-interval", 1000));
+        long syncMessages = options.getLong("sync-messages", 10000);
+        long count = options.getLong("count", Long.MAX_VALUE);
+        long idleTimeoutNanos = TimeUnit.SECONDS.toNanos(options.getLong("idle-timeout", 10));
+        long pollMillis = Math.max(1, Math.min(100, TimeUnit.NANOSECONDS.toMillis(syncIntervalNanos)));
+        String subscription = options.getString("subscription", null);
+
+        try (JMSContext context = connectionFactory.createContext(JMSContext.CLIENT_ACKNOWLEDGE);
+                LatencyReporter reporter = new LatencyReporter(options, syncLatency)) {
+            JMSConsumer consumer;
+            if (subscription != null) {
+                String topicName = options.getString("topic", "T/GettingStarted/pubsub");
+                System.out.printf("QueueConsumer is exporting durable subscription '%s' on topic '%s' from %s to %s...%n",
+                        subscription, topicName, solaceHost, file);
+                consumer = context.createDurableConsumer(context.createTopic(topicName), subscription);
+            } else {
+                System.out.printf("QueueConsumer is exporting queue '%s' from %s to %s...%n", queueName, solaceHost,
+                        file);
+                consumer = context.createConsumer(context.createQueue(queueName));
+            }
+
+            openNextFile();
+            long startNanos = System.nanoTime();
+            long lastReceiveNanos = startNanos;
+            try {
+                long lastSyncNanos = startNanos;
+                long unacknowledged = 0;
+                while (exportedMessages + skippedMessages < count) {
+                    Message message = consumer.receive(pollMillis);
+                    long now = System.nanoTime();
+                    if (message != null) {
+                        lastReceiveNanos = now;
+                        SampleMetrics.received(message);
+                        append(message);
+                        unacknowledged++;
+                    } else if (now - lastReceiveNanos >= idleTimeoutNanos) {
+                        break;
+                    }
+                    if (unacknowledged >= syncMessages
+                            || (unacknowledged > 0 && now - lastSyncNanos >= syncIntervalNanos)) {
+                        sync(context, unacknowledged);
+                        unacknowledged = 0;
+                        lastSyncNanos = System.nanoTime();
+                    }
+                }
+                sync(context, unacknowledged);
+            } finally {
+                // after a failure, the records since the last sync are not acknowledged and are delivered again
+                channel.close();
+            }
+
+            // the idle time at the end is not part of the export
+            double elapsedSeconds = Math.max(lastReceiveNanos - startNanos, 1) / 1e9;
+            System.out.printf("Exported %d messages (%.1f MB) to %d file(s) in %.2f seconds with %d syncs, "
+                    + "%d messages without a text or bytes body skipped.%n", exportedMessages,
+                    exportedBytes / (1024.0 * 1024), files, elapsedSeconds, syncs, skippedMessages);
+            System.out.printf("Throughput: %.0f msgs/sec, %.1f MB/sec%n", exportedMessages / elapsedSeconds,
+                    exportedBytes / (1024.0 * 1024) / elapsedSeconds);
+        }
+    }
+
+    /**
+     * Appends the body of the message to the buffer, writing the buffer to the file first if it is too full.
+     */
+    private void append(Message message) throws JMSException, IOException {
+        ByteBuffer body = null;
+        int length;
+        if (message instanceof BytesMessage) {
+            length = (int) ((BytesMessage) message).getBodyLength();
+        } else if (message instanceof TextMessage && ((TextMessage) message).getText() != null) {
+            body = ByteBuffer.wrap(((TextMessage) message).getText().getBytes(StandardCharsets.UTF_8));
+            length = body.remaining();
+        } else {
+            // still acknowledged with the next sync
+            skippedMessages++;
+            return;
+        }
+
+        int recordBytes = LENGTH_PREFIX_BYTES + length;
+        if (rotateBytes > 0 && fileBytes + buffer.position() > 0
+                && fileBytes + buffer.position() + recordBytes > rotateBytes) {
+            rotate();
+        }
+        if (buffer.remaining() < recordBytes) {
+            writeBuffer();
+        }
+
+        if (recordBytes > buffer.capacity()) {
+            // a record larger than the buffer is written on its own
+            if (body == null) {
+                body = ByteBuffer.allocate(length);
+                BytesPayload.read((BytesMessage) message, body);
+                ((Buffer) body).flip();
+            }
+            ByteBuffer lengthPrefix = ByteBuffer.allocate(LENGTH_PREFIX_BYTES).putInt(length);
+            ((Buffer) lengthPrefix).flip();
+            writeFully(lengthPrefix);
+            writeFully(body);
+        } else {
+            buffer.putInt(length);
+            if (body != null) {
+                buffer.put(body);
+            } else {
+                // read the body straight into the direct buffer
+                int limit = buffer.limit();
+                ((Buffer) buffer).limit(buffer.position() + length);
+                BytesPayload.read((BytesMessage) message, buffer);
+                ((Buffer) buffer).limit(limit);
+            }
+        }
+        exportedMessages++;
+        exportedBytes += recordBytes;
+    }
+
+    /**
+     * Makes every record appended so far durable and then acknowledges all messages received by the session, the given
+     * number since the last sync.
+     */
+    private void sync(JMSContext context, long messages) throws IOException {
+        long startNanos = System.nanoTime();
+        writeBuffer();
+        // like fdatasync: the data and the file length are written, the modification time may not be
+        channel.force(false);
+        long ackNanos = System.nanoTime();
+        context.acknowledge();
+        SampleMetrics.acknowledged(messages, ackNanos);
+        syncLatency.recordSince(startNanos);
+        syncs++;
+    }
+
+    /**
+     * Makes the current file durable and continues in the next one. Acknowledging here would also acknowledge the
+     * message being appended, which is not written yet, so that is left to the next sync.
+     */
+    private void rotate() throws IOException {
+        writeBuffer();
+        channel.force(false);
+        channel.close();
+        openNextFile();
+    }
+
+    private void writeBuffer() throws IOException {
+        ((Buffer) buffer).flip();
+        writeFully(buffer);
+        ((Buffer) buffer).clear();
+    }
+
+    private void writeFully(ByteBuffer source) throws IOException {
+        while (source.hasRemaining()) {
+            fileBytes += channel.write(source);
+        }
+    }
+
+    /**
+     * Opens the export file, or with rotation the next numbered file that does not exist yet. An existing file is never
+     * overwritten.
+     */
+    private void openNextFile() throws IOException {
+        Path next = file;
+        if (rotateBytes > 0) {
+            do {
+                next = Paths.get(String.format("%s.%05d", file, fileIndex++));
+            } while (Files.exists(next));
+        }
+        channel = FileChannel.open(next, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        fileBytes = 0;
+        files++;
+    }
+}
@@ -0,0 +1,454 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ *  Apache Qpid JMS 2.0 Solace AMQP Examples: QueueLoader
+ */
+
+package com.solace.samples;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.jms.BytesMessage;
+import javax.jms.DeliveryMode;
+import javax.jms.Destination;
+import javax.jms.JMSContext;
+import javax.jms.JMSException;
+import javax.jms.JMSProducer;
+import javax.jms.JMSRuntimeException;
+import javax.jms.Message;
+
+import org.apache.qpid.jms.JmsConnectionFactory;
+
+/**
+ * Loads the records of a file into a queue, one {@link BytesMessage} per record. This is the bulk loader mode of the
+ * {@link QueueProducer}.
+ *
+ * A reader thread slices records from the memory-mapped file with a {@link MappedRecordReader} and hands them out in
+ * chunks of {@code --batch} records to {@code --producers} parallel producers. Each producer either pipelines
+ * asynchronous sends through a send window, or sends every chunk in a transaction of its own with {@code --transacted}.
+ * Every attempt to send a record builds a new message from its slice of the file. If a producer fails, the load stops.
+ *
+ * Progress is checkpointed to a file every {@code --checkpoint-interval} milliseconds, and when the JVM shuts down: the
+ * offset up to which every record has been acknowledged. An interrupted load started again with the same file resumes from
+ * that offset. Records after the checkpoint, those in flight and those acknowledged since it was last written, are sent
+ * again, so a resumed load can contain duplicates but never misses a record.
+ */
+public class QueueLoader {
+
+    /**
+     * A run of consecutive records, handed to one producer.
+     */
+    private static class Chunk {
+        final long index;
+        final List<ByteBuffer> records = new ArrayList<>();
+        final AtomicInteger pending = new AtomicInteger();
+        // the file offset after the last record, set before the chunk is handed out
+        long endOffset;
+        volatile boolean failed;
+
+        Chunk(long index) {
+            this.index = index;
+        }
+    }
+
+    private static final Chunk END_OF_FILE = new Chunk(-1);
+
+    /**
+     * An asynchronous send of one record.
+     */
+    private static class PendingSend {
+        final Chunk chunk;
+        final ByteBuffer record;
+        int attempts;
+
+        PendingSend(Chunk chunk, ByteBuffer record) {
+            this.chunk = chunk;
+            this.record = record;
+        }
+    }
+
+    /**
+     * Tracks which chunks have been acknowledged, and the file offset before which all of them have.
+     */
+    private static class Checkpoint {
+        private final Path file;
+        private final TreeMap<Long, Chunk> completed = new TreeMap<>();
+        private long nextIndex;
+        private long offset;
+        private long records;
+        private boolean blocked;
+
+        Checkpoint(Path file, long offset, long records) {
+            this.file = file;
+            this.offset = offset;
+            this.records = records;
+        }
+
+        synchronized void complete(Chunk chunk) {
+            completed.put(chunk.index, chunk);
+            // the checkpoint cannot move past a chunk whose records were given up on
+            while (!blocked && completed.containsKey(nextIndex)) {
+                Chunk next = completed.remove(nextIndex);
+                if (next.failed) {
+                    blocked = true;
+                    break;
+                }
+                offset = next.endOffset;
+                records += next.records.size();
+                nextIndex++;
+            }
+        }
+
+        synchronized long getOffset() {
+            return offset;
+        }
+
+        void write() throws IOException {
+            String content;
+            synchronized (this) {
+                content = offset + " " + records + "\n";
+            }
+            // written to a temporary file and renamed, so a crash never leaves a partial checkpoint
+            Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+            Files.write(temporary, content.getBytes(StandardCharsets.US_ASCII));
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        static long[] read(Path file) throws IOException {
+            if (!Files.exists(file)) {
+                return new long[] { 0, 0 };
+            }
+            String[] fields = new String(Files.readAllBytes(file), StandardCharsets.US_ASCII).trim().split(" ");
+            return new long[] { Long.parseLong(fields[0]), Long.parseLong(fields[1]) };
+        }
+    }
+
+    /**
+     * A send window that also tells which record every completed send belonged to. Completions of a session arrive in
+     * send order, so the sends are simply queued in the same order.
+     */
+    private class ChunkWindow extends SendWindow {
+        private final JMSContext context;
+        private final Queue<PendingSend> sendOrder = new ConcurrentLinkedQueue<>();
+        final Queue<PendingSend> failedSends = new ConcurrentLinkedQueue<>();
+
+        ChunkWindow(JMSContext context, int size) {
+            super(size, latency);
+            this.context = context;
+        }
+
+        void send(JMSProducer producer, Destination destination, PendingSend pendingSend) throws InterruptedException {
+            pendingSend.attempts++;
+            sendOrder.add(pendingSend);
+            try {
+                // a new message on every attempt, as the client can leave a message that failed to send read-only
+                send(producer, destination, createMessage(context, pendingSend.record));
+            } catch (RuntimeException e) {
+                // no completion will arrive for this send
+                sendOrder.remove(pendingSend);
+                failedSends.add(pendingSend);
+            }
+        }
+
+        @Override
+        public void onCompletion(Message message) {
+            PendingSend pendingSend = sendOrder.poll();
+            super.onCompletion(message);
+            sentRecords.incrementAndGet();
+            sentBytes.addAndGet(pendingSend.record.remaining());
+            if (pendingSend.chunk.pending.decrementAndGet() == 0) {
+                checkpoint.complete(pendingSend.chunk);
+            }
+        }
+
+        @Override
+        public void onException(Message message, Exception exception) {
+            PendingSend pendingSend = sendOrder.poll();
+            super.onException(message, exception);
+            // retried by the producer thread
+            failedSends.add(pendingSend);
+        }
+    }
+
+    private final String solaceHost;
+    private final SampleOptions options;
+    private final JmsConnectionFactory connectionFactory;
+    private final LatencyRecorder latency;
+    private Checkpoint checkpoint;
+    private final AtomicLong sentRecords = new AtomicLong();
+    private final AtomicLong sentBytes = new AtomicLong();
+    private final AtomicLong abandoned = new AtomicLong();
+    // the first failure of a producer thread, which stops the load
+    private final AtomicReference<Exception> producerFailure = new AtomicReference<>();
+
+    public QueueLoader(String solaceHost, String solaceUsername, String solacePassword, SampleOptions options) {
+        this.solaceHost = solaceHost;
+        this.options = options;
+        this.connectionFactory = new JmsConnectionFactory(solaceUsername, solacePassword, solaceHost);
+        this.latency = new LatencyRecorder(options.getBoolean("transacted") ? "Commit" : "Acknowledgement");
+    }
+
+    @SuppressWarnings("try")
+    public void run(String queueName) throws Exception {
+        Path file = Paths.get(options.getString("load", null));
+        MappedRecordReader.Format format = MappedRecordReader.Format
+                .valueOf(options.getString("format", "newline").toUpperCase());
+        int producers = options.getInt("producers", 4);
+        int batch = options.getInt("batch", 1000);
+        boolean transacted = options.getBoolean("transacted");
+        int deliveryMode = "non_persistent".equalsIgnoreCase(options.getString("delivery-mode", "persistent"))
+                ? DeliveryMode.NON_PERSISTENT
+                : DeliveryMode.PERSISTENT;
+        Path checkpointFile = Paths.get(options.getString("checkpoint", file + ".checkpoint"));
+        long checkpointIntervalMillis = options.getLong("checkpoint-interval", 1000);
+
+        long[] resumeFrom = Checkpoint.read(checkpointFile);
+        checkpoint = new Checkpoint(checkpointFile, resumeFrom[0], resumeFrom[1]);
+        // a load stopped with Ctrl-C records how far it got
+        Thread shutdownHook = new Thread(() -> {
+            try {
+                checkpoint.write();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+        if (resumeFrom[0] > 0) {
+            System.out.printf("Resuming from offset %d, after %d records loaded before.%n", resumeFrom[0], resumeFrom[1]);
+        }
+        System.out.printf("QueueProducer is loading %s into queue '%s' on %s with %d %s producer(s)...%n", file,
+                queueName, solaceHost, producers, transacted ? "transacted" : "asynchronous");
+
+        BlockingQueue<Chunk> chunks = new ArrayBlockingQueue<>(producers * 2);
+        long startNanos = System.nanoTime();
+        List<Thread> producerThreads = new ArrayList<>();
+        try (ContextPool pool = new ContextPool(connectionFactory, options.getInt("connections", producers), 0);
+                MappedRecordReader reader = new MappedRecordReader(file, format, resumeFrom[0]);
+                LatencyReporter reporter = new LatencyReporter(options, latency)) {
+            for (int p = 0; p < producers; p++) {
+                Thread producerThread = new Thread(() -> {
+                    int sessionMode = transacted ? JMSContext.SESSION_TRANSACTED : JMSContext.AUTO_ACKNOWLEDGE;
+                    try (JMSContext context = pool.createContext(sessionMode)) {
+                        if (transacted) {
+                            produceTransacted(context, context.createQueue(queueName), deliveryMode, chunks);
+                        } else {
+                            produceAsync(context, context.createQueue(queueName), deliveryMode, chunks);
+                        }
+                    } catch (Exception e) {
+                        producerFailure.compareAndSet(null, e);
+                    }
+                }, "QueueLoader-" + p);
+                producerThreads.add(producerThread);
+                producerThread.start();
+            }
+
+            try {
+                readChunks(reader, chunks, batch, producers, checkpointIntervalMillis);
+                for (Thread producerThread : producerThreads) {
+                    while (producerThread.isAlive()) {
+                        producerThread.join(checkpointIntervalMillis);
+                        checkpoint.write();
+                    }
+                }
+                checkProducers();
+            } finally {
+                // after a failure, the producers still waiting for chunks stop as well
+                for (Thread producerThread : producerThreads) {
+                    producerThread.interrupt();
+                }
+            }
+            checkpoint.write();
+            // the checkpoint is up to date, and may be deleted while the JVM runs on
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+
+            double elapsedSeconds = (System.nanoTime() - startNanos) / 1e9;
+            System.out.printf("Loaded %d records (%.1f MB) in %.2f seconds, %d given up after retries.%n",
+                    sentRecords.get(), sentBytes.get() / (1024.0 * 1024), elapsedSeconds, abandoned.get());
+            System.out.printf("Throughput: %.0f records/sec, %.1f MB/sec%n", sentRecords.get() / elapsedSeconds,
+                    sentBytes.get() / (1024.0 * 1024) / elapsedSeconds);
+            if (checkpoint.getOffset() < reader.getFileSize()) {
+                System.out.printf("Some records were not loaded. Run the load again to resume from offset %d.%n",
+                        checkpoint.getOffset());
+            } else {
+                System.out.printf("The whole file has been loaded. Delete %s to load it again.%n", checkpointFile);
+            }
+        }
+    }
+
+    /**
+     * Reads the file on this thread and hands its records out in chunks, writing the checkpoint as it goes.
+     */
+    private void readChunks(MappedRecordReader reader, BlockingQueue<Chunk> chunks, int batch, int producers,
+            long checkpointIntervalMillis) throws Exception {
+        long nextCheckpointNanos = System.nanoTime();
+        long index = 0;
+        Chunk chunk = null;
+        ByteBuffer record;
+        while ((record = reader.next()) != null) {
+            if (chunk == null) {
+                chunk = new Chunk(index++);
+            }
+            chunk.records.add(record);
+            if (chunk.records.size() >= batch) {
+                chunk.endOffset = reader.getPosition();
+                handOut(chunks, chunk, checkpointIntervalMillis);
+                chunk = null;
+            }
+            if (System.nanoTime() - nextCheckpointNanos >= 0) {
+                checkpoint.write();
+                nextCheckpointNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(checkpointIntervalMillis);
+            }
+        }
+        if (chunk != null) {
+            chunk.endOffset = reader.getPosition();
+            handOut(chunks, chunk, checkpointIntervalMillis);
+        }
+        for (int p = 0; p < producers; p++) {
+            handOut(chunks, END_OF_FILE, checkpointIntervalMillis);
+        }
+    }
+
+    /**
+     * Waits for a producer to take the chunk, writing the checkpoint while they are all busy. A failed producer would
+     * never take it, so this fails as soon as one has.
+     */
+    private void handOut(BlockingQueue<Chunk> chunks, Chunk chunk, long checkpointIntervalMillis) throws Exception {
+        checkProducers();
+        while (!chunks.offer(chunk, checkpointIntervalMillis, TimeUnit.MILLISECONDS)) {
+            checkProducers();
+            checkpoint.write();
+        }
+    }
+
+    private void checkProducers() throws Exception {
+        Exception failure = producerFailure.get();
+        if (failure != null) {
+            throw new Exception("A producer failed, so the load stopped at offset " + checkpoint.getOffset(), failure);
+        }
+    }
+
+    private void produceAsync(JMSContext context, Destination queue, int deliveryMode, BlockingQueue<Chunk> chunks)
+            throws Exception {
+        int retries = options.getInt("retries", 3);
+        ChunkWindow window = new ChunkWindow(context, options.getInt("window", 256));
+        JMSProducer producer = context.createProducer().setDeliveryMode(deliveryMode).setAsync(window);
+        Chunk chunk;
+        while ((chunk = chunks.take()) != END_OF_FILE) {
+            chunk.pending.set(chunk.records.size());
+            for (ByteBuffer record : chunk.records) {
+                retryFailed(producer, queue, window, retries);
+                window.send(producer, queue, new PendingSend(chunk, record));
+            }
+        }
+        do {
+            window.awaitCompletion(30, TimeUnit.SECONDS);
+        } while (retryFailed(producer, queue, window, retries) > 0);
+    }
+
+    /**
+     * Resends failed messages, and gives up on them after the given number of retries. Returns the number resent.
+     */
+    private int retryFailed(JMSProducer producer, Destination queue, ChunkWindow window, int retries)
+            throws InterruptedException {
+        int resent = 0;
+        PendingSend failed;
+        while ((failed = window.failedSends.poll()) != null) {
+            if (failed.attempts > retries) {
+                abandoned.incrementAndGet();
+                failed.chunk.failed = true;
+                if (failed.chunk.pending.decrementAndGet() == 0) {
+                    checkpoint.complete(failed.chunk);
+                }
+            } else {
+                window.send(producer, queue, failed);
+                resent++;
+            }
+        }
+        return resent;
+    }
+
+    private void produceTransacted(JMSContext context, Destination queue, int deliveryMode, BlockingQueue<Chunk> chunks)
+            throws Exception {
+        int retries = options.getInt("retries", 3);
+        JMSProducer producer = context.createProducer().setDeliveryMode(deliveryMode);
+        Chunk chunk;
+        while ((chunk = chunks.take()) != END_OF_FILE) {
+            // every chunk is one transaction, sent again as a whole if it fails
+            boolean committed = false;
+            for (int attempt = 0; attempt <= retries && !committed; attempt++) {
+                try {
+                    for (ByteBuffer record : chunk.records) {
+                        producer.send(queue, createMessage(context, record));
+                    }
+                    long commitStartNanos = System.nanoTime();
+                    context.commit();
+                    latency.recordSince(commitStartNanos);
+                    SampleMetrics.committed(chunk.records.size(), (System.nanoTime() - commitStartNanos) / 1000);
+                    committed = true;
+                } catch (JMSRuntimeException e) {
+                    System.out.printf("Transaction of %d records failed: %s%n", chunk.records.size(), e.getMessage());
+                    try {
+                        context.rollback();
+                    } catch (JMSRuntimeException rollbackFailure) {
+                        // already rolled back by the failed commit
+                    }
+                }
+            }
+            if (committed) {
+                for (ByteBuffer record : chunk.records) {
+                    sentBytes.addAndGet(record.remaining());
+                }
+                sentRecords.addAndGet(chunk.records.size());
+            } else {
+                abandoned.addAndGet(chunk.records.size());
+                chunk.failed = true;
+            }
+            checkpoint.complete(chunk);
+        }
+    }
+
+    private BytesMessage createMessage(JMSContext context, ByteBuffer record) {
+        try {
+            BytesMessage message = context.createBytesMessage();
+            BytesPayload.write(message, record);
+            SendTimestamp.stamp(message);
+            return message;
+        } catch (JMSException e) {
+            throw new JMSRuntimeException(e.getMessage(), e.getErrorCode(), e);
+        }
+    }
+}
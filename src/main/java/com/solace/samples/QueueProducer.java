@@ -24,9 +24,25 @@
 package com.solace.samples;
 
 import org.apache.qpid.jms.JmsConnectionFactory;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.jms.BytesMessage;
 import javax.jms.ConnectionFactory;
 import javax.jms.DeliveryMode;
 import javax.jms.JMSContext;
+import javax.jms.JMSException;
+import javax.jms.JMSProducer;
+import javax.jms.JMSRuntimeException;
+import javax.jms.Message;
 import javax.jms.Queue;
 import javax.jms.TextMessage;
 
@@ -35,11 +51,39 @@ import javax.jms.TextMessage;
  * broker.
  * 
  * The queue used for messages must exist on the message broker.
+ *
+ * When started with additional options the sample runs in windowed mode: it keeps up to {@code --window} persistent
+ * messages in flight using asynchronous sends and reports the sustained rate and the per-message acknowledgement latency.
+ * A window of 1 waits for every acknowledgement, the same as the blocking send below. With {@code --codec} the
+ * messages are generated JSON sent as BytesMessages and compressed by {@link PayloadCompression}. With
+ * {@code --target-p99} the sends are paced by a {@link RateController} that holds the acknowledgement p99 below the
+ * target. With {@code --keys <n>} the messages are spread over n keys and stamped for a {@link PartitionedConsumer}
+ * with {@code --partitions} partitions.
+ *
+ * With {@code --transacted} the sample instead sends on a {@link JMSContext#SESSION_TRANSACTED} context and commits once
+ * per batch, so that the broker only has to persist each batch once. A batch is committed when it is full or when its
+ * first message has waited for {@code --linger} milliseconds. A failed batch is rolled back and sent again. The sample
+ * runs once for every batch size given with {@code --batch} and compares their throughput and commit latency.
+ *
+ * With {@code --load <file>} the sample loads the records of a file into the queue, see {@link QueueLoader}.
  */
 public class QueueProducer {
 
     final String QUEUE_NAME = "Q/tutorial";
 
+    final long DEFAULT_MESSAGE_COUNT = 10000;
+
+    final String DEFAULT_BATCH_SIZES = "1,10,100,1000";
+
+    // numbers the messages of the windowed mode, so that the attempts to send each of them can be counted
+    static final String MESSAGE_NUMBER_PROPERTY = "SampleMessageNumber";
+
+    // number of messages given up on after all retries failed
+    private long abandoned;
+
+    // number of transactions rolled back, in transacted mode
+    private long rollbacks;
+
     private void run(String... args) throws Exception {
         String solaceHost = args[0];
         String solaceUsername = args[1];
@@ -61,21 +105,322 @@ public class QueueProducer {
 
             // Create a text message.
             TextMessage message = context.createTextMessage("Hello world Queues!");
+            // lets consumers measure end-to-end latency
+            SendTimestamp.stamp(message);
 
             System.out.printf("Sending message '%s' to queue '%s'...%n", message.getText(), queue.toString());
             // send message
-            context.createProducer().setDeliveryMode(DeliveryMode.PERSISTENT).send(queue, "Hello world Queues!");
+            context.createProducer().setDeliveryMode(DeliveryMode.PERSISTENT).send(queue, message);
 
             System.out.println("Sent successfully. Exiting...");
         }
     }
 
+    @SuppressWarnings("try")
+    private void runWindowed(String solaceHost, String solaceUsername, String solacePassword, SampleOptions options)
+            throws Exception {
+        int window = options.getInt("window", 64);
+        long count = options.getLong("count", DEFAULT_MESSAGE_COUNT);
+        int retries = options.getInt("retries", 3);
+        char[] filler = new char[options.getInt("size", 100)];
+        Arrays.fill(filler, 'x');
+        String payload = new String(filler);
+        PayloadCompression compression = options.has("codec") ? PayloadCompression.fromOptions(options) : null;
+        ByteBuffer[] jsonPayloads = compression != null ? JsonPayload.generate(filler.length, 64, 1) : null;
+        RateController rateController = RateController.fromOptions("Send rate", options);
+        int keys = options.getInt("keys", 0);
+        int partitions = options.getInt("partitions", 4);
+
+        System.out.printf("QueueProducer is sending %d persistent messages to %s with a window of %d...%n", count,
+                solaceHost, window);
+
+        ConnectionFactory connectionFactory = new JmsConnectionFactory(solaceUsername, solacePassword, solaceHost);
+
+        LatencyRecorder latency = new LatencyRecorder("Acknowledgement");
+        if (rateController != null) {
+            SampleMetrics.register(rateController);
+        }
+        try (JMSContext context = connectionFactory.createContext();
+                LatencyReporter reporter = new LatencyReporter(options, latency)) {
+            Queue queue = context.createQueue(QUEUE_NAME);
+
+            // failed sends are handed back to this thread to be retried
+            SendWindow sendWindow = new SendWindow(window, latency, true);
+            sendWindow.setRateController(rateController);
+            JMSProducer producer = context.createProducer().setDeliveryMode(DeliveryMode.PERSISTENT)
+                    .setAsync(sendWindow);
+            Map<Long, Integer> attempts = new HashMap<>();
+
+            long startNanos = System.nanoTime();
+            for (long i = 0; i < count; i++) {
+                retryFailed(context, sendWindow, producer, queue, attempts, retries);
+                if (rateController != null) {
+                    rateController.acquire();
+                }
+                Message message;
+                if (compression != null) {
+                    BytesMessage bytesMessage = context.createBytesMessage();
+                    compression.write(bytesMessage, jsonPayloads[(int) (i % jsonPayloads.length)]);
+                    message = bytesMessage;
+                } else {
+                    message = context.createTextMessage(payload);
+                }
+                SendTimestamp.stamp(message);
+                message.setLongProperty(MESSAGE_NUMBER_PROPERTY, i);
+                if (keys > 0) {
+                    PartitionedConsumer.stamp(message, "key-" + (i % keys), i / keys, partitions);
+                }
+                // blocks here while the window is full
+                sendWindow.send(producer, queue, message);
+            }
+            // keep retrying until nothing is left in flight
+            do {
+                if (!sendWindow.awaitCompletion(30, TimeUnit.SECONDS)) {
+                    System.out.println("Timed out waiting for outstanding sends to complete.");
+                    break;
+                }
+            } while (retryFailed(context, sendWindow, producer, queue, attempts, retries) > 0);
+            double elapsedSeconds = (System.nanoTime() - startNanos) / 1e9;
+
+            System.out.printf("Sent %d persistent messages in %.2f seconds: %d acknowledged, %d send failures, "
+                    + "%d given up after %d retries.%n", count, elapsedSeconds, sendWindow.getCompleted(),
+                    sendWindow.getFailed(), abandoned, retries);
+            System.out.printf("Throughput: %.0f msgs/sec with a window of %d%n",
+                    sendWindow.getCompleted() / elapsedSeconds, window);
+            if (compression != null) {
+                compression.printSummary(System.out);
+            }
+            if (rateController != null) {
+                rateController.printSummary(System.out);
+            }
+        } finally {
+            if (rateController != null) {
+                SampleMetrics.unregister(rateController);
+            }
+        }
+    }
+
+    @SuppressWarnings("try")
+    private void runTransacted(String solaceHost, String solaceUsername, String solacePassword, SampleOptions options)
+            throws Exception {
+        String[] batchSizes = options.getString("batch", DEFAULT_BATCH_SIZES).split(",");
+        long count = options.getLong("count", DEFAULT_MESSAGE_COUNT);
+        long lingerNanos = TimeUnit.MILLISECONDS.toNanos(options.getLong("linger", 0));
+        long rate = options.getLong("rate", 0);
+        int retries = options.getInt("retries", 3);
+        char[] filler = new char[options.getInt("size", 100)];
+        Arrays.fill(filler, 'x');
+        String payload = new String(filler);
+
+        System.out.printf("QueueProducer is sending %d persistent messages in transactions to %s for batch sizes %s...%n",
+                count, solaceHost, String.join(", ", batchSizes));
+
+        ConnectionFactory connectionFactory = new JmsConnectionFactory(solaceUsername, solacePassword, solaceHost);
+
+        List<String> results = new ArrayList<>();
+        try (JMSContext context = connectionFactory.createContext(JMSContext.SESSION_TRANSACTED)) {
+            Queue queue = context.createQueue(QUEUE_NAME);
+            JMSProducer producer = context.createProducer().setDeliveryMode(DeliveryMode.PERSISTENT);
+
+            for (String batchSizeOption : batchSizes) {
+                int batchSize = Integer.parseInt(batchSizeOption.trim());
+                LatencyRecorder commitLatency = new LatencyRecorder("Commit (batch " + batchSize + ")");
+                abandoned = 0;
+                rollbacks = 0;
+                long transactions = 0;
+                double elapsedSeconds;
+                try (LatencyReporter reporter = new LatencyReporter(options, commitLatency)) {
+                    List<Message> batch = new ArrayList<>(batchSize);
+                    // false once a send of the current batch has failed
+                    boolean sent = true;
+                    long batchStartNanos = 0;
+
+                    long startNanos = System.nanoTime();
+                    for (long i = 0; i < count; i++) {
+                        if (rate > 0) {
+                            // wait until the message is due, committing a lingering batch in the meantime
+                            long dueNanos = startNanos + (long) (i * 1e9 / rate);
+                            long now;
+                            while ((now = System.nanoTime()) - dueNanos < 0) {
+                                if (!batch.isEmpty() && lingerNanos > 0 && now - batchStartNanos >= lingerNanos) {
+                                    commitBatch(context, producer, queue, batch, sent, commitLatency, retries);
+                                    transactions++;
+                                    batch.clear();
+                                    sent = true;
+                                    continue;
+                                }
+                                long waitNanos = dueNanos - now;
+                                if (!batch.isEmpty() && lingerNanos > 0) {
+                                    waitNanos = Math.min(waitNanos, batchStartNanos + lingerNanos - now);
+                                }
+                                LockSupport.parkNanos(waitNanos);
+                            }
+                        }
+
+                        TextMessage message = context.createTextMessage(payload);
+                        SendTimestamp.stamp(message);
+                        if (batch.isEmpty()) {
+                            batchStartNanos = System.nanoTime();
+                        }
+                        batch.add(message);
+                        if (sent) {
+                            try {
+                                // returns without waiting for the broker; the messages are only kept once committed
+                                producer.send(queue, message);
+                            } catch (JMSRuntimeException e) {
+                                System.out.printf("Send failed, the batch will be rolled back: %s%n", e.getMessage());
+                                sent = false;
+                            }
+                        }
+
+                        if (batch.size() >= batchSize
+                                || (lingerNanos > 0 && System.nanoTime() - batchStartNanos >= lingerNanos)) {
+                            commitBatch(context, producer, queue, batch, sent, commitLatency, retries);
+                            transactions++;
+                            batch.clear();
+                            sent = true;
+                        }
+                    }
+                    if (!batch.isEmpty()) {
+                        commitBatch(context, producer, queue, batch, sent, commitLatency, retries);
+                        transactions++;
+                    }
+                    elapsedSeconds = (System.nanoTime() - startNanos) / 1e9;
+
+                    System.out.printf("Batch size %d: committed %d messages in %d transactions in %.2f seconds, "
+                            + "%d rollbacks, %d messages given up after %d retries.%n", batchSize, count - abandoned,
+                            transactions, elapsedSeconds, rollbacks, abandoned, retries);
+                }
+                LatencyHistogram total = commitLatency.getTotal();
+                results.add(String.format("%10d %12.0f %12d %12d %12d", batchSize,
+                        (count - abandoned) / elapsedSeconds, total.getValueAtPercentile(50),
+                        total.getValueAtPercentile(99), total.getMaxValue()));
+            }
+        }
+
+        System.out.println();
+        System.out.printf("%10s %12s %12s %12s %12s%n", "batch", "msgs/sec", "commit p50", "commit p99", "commit max");
+        for (String result : results) {
+            System.out.println(result);
+        }
+        System.out.println("(commit latencies in usec)");
+    }
+
+    /**
+     * Commits the current transaction. If a send or the commit fails, the transaction is rolled back and all messages of
+     * the batch are sent and committed again, up to the given number of retries. Returns true if the batch was committed.
+     */
+    private boolean commitBatch(JMSContext context, JMSProducer producer, Queue queue, List<Message> batch,
+            boolean sent, LatencyRecorder commitLatency, int retries) {
+        if (!sent) {
+            rollback(context);
+        }
+        for (int attempt = 0; attempt <= retries; attempt++) {
+            try {
+                if (!sent) {
+                    for (Message message : batch) {
+                        producer.send(queue, message);
+                    }
+                }
+                long commitStartNanos = System.nanoTime();
+                // this is where the broker persists the whole batch
+                context.commit();
+                commitLatency.recordSince(commitStartNanos);
+                SampleMetrics.committed(batch.size(), (System.nanoTime() - commitStartNanos) / 1000);
+                return true;
+            } catch (JMSRuntimeException e) {
+                // includes TransactionRolledBackRuntimeException, thrown when the broker rolled back the commit
+                System.out.printf("Transaction of %d messages failed: %s%n", batch.size(), e.getMessage());
+                rollback(context);
+                sent = false;
+            }
+        }
+        abandoned += batch.size();
+        System.out.printf("Giving up on a batch of %d messages after %d retries.%n", batch.size(), retries);
+        return false;
+    }
+
+    private void rollback(JMSContext context) {
+        rollbacks++;
+        try {
+            context.rollback();
+        } catch (JMSRuntimeException e) {
+            // the transaction may already have been rolled back by the failed commit
+        }
+    }
+
+    /**
+     * Resends the messages whose asynchronous send failed, and returns how many were resent. Attempts are counted per
+     * message number, as every attempt sends a new message.
+     */
+    private int retryFailed(JMSContext context, SendWindow sendWindow, JMSProducer producer, Queue queue,
+            Map<Long, Integer> attempts, int retries) throws InterruptedException, JMSException {
+        int resent = 0;
+        Message failed;
+        while ((failed = sendWindow.pollFailed()) != null) {
+            long number = failed.getLongProperty(MESSAGE_NUMBER_PROPERTY);
+            int attempt = attempts.getOrDefault(number, 0) + 1;
+            if (attempt > retries) {
+                attempts.remove(number);
+                abandoned++;
+                System.out.printf("Giving up on message %d after %d retries.%n", number, retries);
+            } else {
+                attempts.put(number, attempt);
+                sendWindow.send(producer, queue, copyForResend(context, failed));
+                resent++;
+            }
+        }
+        return resent;
+    }
+
+    /**
+     * Apache Qpid JMS leaves a message whose asynchronous send failed read-only, so a new message with the same body
+     * and properties is sent in its place. The copy keeps the message number and the first send time.
+     */
+    static Message copyForResend(JMSContext context, Message failed) throws JMSException {
+        Message message;
+        if (failed instanceof BytesMessage) {
+            BytesMessage bytesMessage = context.createBytesMessage();
+            bytesMessage.writeBytes(failed.getBody(byte[].class));
+            message = bytesMessage;
+        } else {
+            message = context.createTextMessage(failed.getBody(String.class));
+        }
+        for (Enumeration<?> names = failed.getPropertyNames(); names.hasMoreElements();) {
+            String name = (String) names.nextElement();
+            message.setObjectProperty(name, failed.getObjectProperty(name));
+        }
+        return message;
+    }
+
     public static void main(String[] args) throws Exception {
         if (args.length < 3) {
-            System.out.println("Usage: QueueProducer amqp://<msg_backbone_ip:amqp_port> <username> <password>");
+            System.out.println("Usage: QueueProducer amqp://<msg_backbone_ip:amqp_port> <username> <password>"
+                    + " [--window <in-flight messages>] [--count <messages>] [--size <bytes>] [--retries <retries>]"
+                    + " [--codec none|deflate[:<level>]|<codec>] [--compress-threshold <bytes>]"
+                    + " [--keys <keys> [--partitions <partitions>]]"
+                    + " [--target-p99 <msecs> [--rate <initial msgs/sec>] [--max-rate <msgs/sec>]"
+                    + " [--rate-increase <msgs/sec>] [--control-interval <msecs>]]");
+            System.out.println("       QueueProducer amqp://<msg_backbone_ip:amqp_port> <username> <password> --transacted"
+                    + " [--batch <size>[,<size>...]] [--linger <msecs>] [--rate <msgs/sec>] [--count <messages>]"
+                    + " [--size <bytes>] [--retries <retries>]");
+            System.out.println("       QueueProducer amqp://<msg_backbone_ip:amqp_port> <username> <password> --load <file>"
+                    + " [--format newline|length] [--producers <producers>] [--connections <connections>]"
+                    + " [--window <in-flight messages>] [--transacted] [--batch <records>]"
+                    + " [--delivery-mode persistent|non_persistent] [--retries <retries>]"
+                    + " [--checkpoint <file>] [--checkpoint-interval <ms>]");
             System.exit(-1);
         }
-        new QueueProducer().run(args);
+        SampleOptions options = new SampleOptions(args, 3);
+        if (options.isEmpty()) {
+            new QueueProducer().run(args);
+        } else if (options.has("load")) {
+            new QueueLoader(args[0], args[1], args[2], options).run(new QueueProducer().QUEUE_NAME);
+        } else if (options.getBoolean("transacted")) {
+            new QueueProducer().runTransacted(args[0], args[1], args[2], options);
+        } else {
+            new QueueProducer().runWindowed(args[0], args[1], args[2], options);
+        }
     }
 
 }
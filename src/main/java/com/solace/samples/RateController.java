@@ -0,0 +1,243 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ *  Apache Qpid JMS 2.0 Solace AMQP Examples: RateController
+ */
+
+package com.solace.samples;
+
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Paces publishers at a rate that it adjusts to hold the p99 send-completion latency below a target, using additive
+ * increase and multiplicative decrease (AIMD), the way TCP finds the capacity of a path.
+ *
+ * Every control interval the controller looks at the completion latencies that {@link SendWindow}s reported, and at the
+ * time sends stalled because the broker had not granted credit or the window was full. When the publishers were stalled
+ * for more than {@link #STALLED_SHARE_FOR_DECREASE} of the interval or the p99 was above the target it cuts the rate by
+ * {@link #DECREASE_FACTOR}, and then waits at least one p99 before cutting again, as the sends that were queued before
+ * the cut still complete late. When latency is good and the publishers actually use the current rate, it raises the rate
+ * by a fixed step. A publisher that sends slower than it is allowed to does not raise the rate.
+ *
+ * The controller reacts to latency that has already gone up, so the p99 over a whole run ends up somewhat above the
+ * target, but it stays bounded however much more the publishers could send.
+ *
+ * One controller may pace any number of publisher threads.
+ */
+public class RateController {
+
+    /**
+     * The decision taken in the last control interval.
+     */
+    public enum State {
+        INCREASE, HOLD, DECREASE
+    }
+
+    static final double DECREASE_FACTOR = 0.8;
+    // short stalls happen now and then, such as during a garbage collection, and are no sign of an overloaded broker
+    static final double STALLED_SHARE_FOR_DECREASE = 0.1;
+    // the publishers must use at least this share of the rate before it is raised
+    static final double UTILIZATION_FOR_INCREASE = 0.9;
+    // time that was not used to send earns at most this much of a burst
+    static final long BURST_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final long targetP99Micros;
+    private final double minRate;
+    private final double maxRate;
+    private final double increase;
+    private final long controlIntervalNanos;
+    private final LatencyRecorder latency;
+    private final LongAdder stalls = new LongAdder();
+    private final LongAdder stalledNanos = new LongAdder();
+
+    // guarded by this
+    private double rate;
+    private long sendIntervalNanos;
+    private long nextSendNanos = System.nanoTime();
+    private long nextControlNanos = nextSendNanos;
+    private long holdUntilNanos = nextSendNanos;
+    private long intervalStartNanos = nextSendNanos;
+    private long intervalSends;
+    private long intervalStalledNanos;
+
+    private volatile State state = State.HOLD;
+    private volatile long lastP99Micros;
+    private volatile double lastSendRate;
+    private volatile long increases;
+    private volatile long decreases;
+
+    public RateController(String name, long targetP99Micros, double initialRate, double minRate, double maxRate,
+            double increase, long controlInterval, TimeUnit unit) {
+        this.targetP99Micros = targetP99Micros;
+        this.minRate = Math.max(minRate, 1);
+        this.maxRate = Math.max(maxRate, this.minRate);
+        this.increase = increase;
+        this.controlIntervalNanos = unit.toNanos(controlInterval);
+        this.latency = new LatencyRecorder(name);
+        nextControlNanos += controlIntervalNanos;
+        setRate(initialRate);
+    }
+
+    /**
+     * Returns a controller configured with the "--target-p99 &lt;msecs&gt;", "--rate &lt;initial msgs/sec&gt;",
+     * "--min-rate", "--max-rate", "--rate-increase &lt;msgs/sec per interval&gt;" and "--control-interval &lt;msecs&gt;"
+     * sample options, or null when no target is set.
+     */
+    public static RateController fromOptions(String name, SampleOptions options) {
+        if (!options.has("target-p99")) {
+            return null;
+        }
+        long initialRate = options.getLong("rate", 1000);
+        return new RateController(name, TimeUnit.MILLISECONDS.toMicros(options.getLong("target-p99", 0)), initialRate,
+                options.getLong("min-rate", 10), options.getLong("max-rate", Long.MAX_VALUE),
+                options.getLong("rate-increase", Math.max(initialRate / 10, 1)), options.getLong("control-interval", 100),
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Waits until the next send is due at the current rate. Takes a control decision when an interval has passed.
+     */
+    public void acquire() throws InterruptedException {
+        long now = System.nanoTime();
+        long sendNanos;
+        synchronized (this) {
+            if (now - nextControlNanos >= 0) {
+                adjust(now);
+            }
+            if (now - nextSendNanos > BURST_NANOS) {
+                nextSendNanos = now - BURST_NANOS;
+            }
+            sendNanos = nextSendNanos;
+            nextSendNanos += sendIntervalNanos;
+            intervalSends++;
+        }
+        if (sendNanos - now > 0) {
+            TimeUnit.NANOSECONDS.sleep(sendNanos - now);
+        }
+    }
+
+    /**
+     * Reports the time an asynchronous send took to complete.
+     */
+    public void onCompletion(long latencyMicros) {
+        latency.recordValue(latencyMicros);
+    }
+
+    /**
+     * Reports a send that blocked for lack of producer credit or a full send window, and for how long.
+     */
+    public void onStall(long blockedNanos) {
+        stalls.increment();
+        stalledNanos.add(blockedNanos);
+    }
+
+    private void adjust(long now) {
+        LatencyHistogram interval = latency.snapshotInterval();
+        long totalStalledNanos = stalledNanos.sum();
+        // stalls of several publisher threads may add up to more than the interval
+        double stalledShare = (totalStalledNanos - intervalStalledNanos) / (double) (now - intervalStartNanos);
+        intervalStalledNanos = totalStalledNanos;
+        boolean stalled = stalledShare > STALLED_SHARE_FOR_DECREASE;
+        lastSendRate = intervalSends * 1e9 / (now - intervalStartNanos);
+        intervalSends = 0;
+        intervalStartNanos = now;
+        nextControlNanos = now + controlIntervalNanos;
+
+        if (interval.getTotalCount() == 0 && !stalled) {
+            // nothing completed, so there is nothing to learn from
+            state = State.HOLD;
+            return;
+        }
+        if (interval.getTotalCount() > 0) {
+            lastP99Micros = interval.getValueAtPercentile(99);
+        }
+        if (stalled || lastP99Micros > targetP99Micros) {
+            if (now - holdUntilNanos >= 0 && rate > minRate) {
+                setRate(Math.max(rate * DECREASE_FACTOR, minRate));
+                holdUntilNanos = now + Math.max(controlIntervalNanos, TimeUnit.MICROSECONDS.toNanos(lastP99Micros));
+                decreases++;
+                state = State.DECREASE;
+            } else {
+                state = State.HOLD;
+            }
+        } else if (lastSendRate >= rate * UTILIZATION_FOR_INCREASE && rate < maxRate) {
+            setRate(Math.min(rate + increase, maxRate));
+            increases++;
+            state = State.INCREASE;
+        } else {
+            state = State.HOLD;
+        }
+    }
+
+    private void setRate(double newRate) {
+        rate = newRate;
+        sendIntervalNanos = (long) (1e9 / newRate);
+    }
+
+    public synchronized double getRate() {
+        return rate;
+    }
+
+    public String getName() {
+        return latency.getName();
+    }
+
+    public long getTargetP99Micros() {
+        return targetP99Micros;
+    }
+
+    /**
+     * Returns the p99 send-completion latency of the last control interval that had completions, in microseconds.
+     */
+    public long getLastP99Micros() {
+        return lastP99Micros;
+    }
+
+    /**
+     * Returns the rate at which the publishers sent in the last control interval.
+     */
+    public double getLastSendRate() {
+        return lastSendRate;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public long getIncreases() {
+        return increases;
+    }
+
+    public long getDecreases() {
+        return decreases;
+    }
+
+    public long getStalls() {
+        return stalls.sum();
+    }
+
+    public void printSummary(PrintStream out) {
+        out.printf("%s: rate %.0f msgs/sec (%s), target p99 %d usec, last p99 %d usec, %d increases, %d decreases,"
+                + " %d stalled sends%n", getName(), getRate(), state, targetP99Micros, lastP99Micros, increases,
+                decreases, getStalls());
+    }
+}
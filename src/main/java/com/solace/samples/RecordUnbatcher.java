@@ -0,0 +1,99 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ *  Apache Qpid JMS 2.0 Solace AMQP Examples: RecordUnbatcher
+ */
+
+package com.solace.samples;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+import javax.jms.Message;
+
+/**
+ * Hands the records of batches sent by a {@link BatchingPublisher} to the application one by one. Batches compressed
+ * by {@link PayloadCompression} are decompressed first. A {@link BytesMessage} that is not a batch is handed over as a
+ * single record, so a consumer can receive from batching and non-batching publishers alike.
+ *
+ * The body of each message is read once into a pooled buffer, and the records are slices of it that are only valid
+ * during the call to the handler.
+ */
+public class RecordUnbatcher {
+
+    /**
+     * Receives the records of a message.
+     */
+    public interface RecordHandler {
+        void onRecord(ByteBuffer record) throws Exception;
+    }
+
+    private final PayloadCompression compression;
+
+    public RecordUnbatcher() {
+        this(new PayloadCompression("none", 0));
+    }
+
+    /**
+     * Creates an unbatcher that decompresses through the given stage, which then also counts the decompressed
+     * batches.
+     */
+    public RecordUnbatcher(PayloadCompression compression) {
+        this.compression = compression;
+    }
+
+    /**
+     * Returns true if the message is a batch of records.
+     */
+    public static boolean isBatch(Message message) throws JMSException {
+        return message instanceof BytesMessage && message.propertyExists(BatchingPublisher.RECORD_COUNT_PROPERTY);
+    }
+
+    /**
+     * Hands every record of the message to the handler, in the order they were published, and returns the number of
+     * records.
+     */
+    public int unbatch(BytesMessage message, RecordHandler handler) throws Exception {
+        ByteBuffer body = compression.read(message);
+        try {
+            if (!isBatch(message)) {
+                handler.onRecord(body);
+                return 1;
+            }
+            int records = message.getIntProperty(BatchingPublisher.RECORD_COUNT_PROPERTY);
+            for (int i = 0; i < records; i++) {
+                int length = body.getInt();
+                if (length < 0 || length > body.remaining()) {
+                    throw new JMSException("Corrupt batch: record " + i + " of " + records + " has a length of "
+                            + length + " bytes with " + body.remaining() + " bytes left");
+                }
+                ByteBuffer record = body.slice();
+                ((Buffer) record).limit(length);
+                handler.onRecord(record);
+                ((Buffer) body).position(body.position() + length);
+            }
+            return records;
+        } finally {
+            compression.release(body);
+        }
+    }
+}
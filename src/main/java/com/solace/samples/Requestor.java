@@ -0,0 +1,159 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ *  Apache Qpid JMS 2.0 Solace AMQP Examples: Requestor
+ */
+
+package com.solace.samples;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jms.DeliveryMode;
+import javax.jms.Destination;
+import javax.jms.JMSContext;
+import javax.jms.JMSException;
+import javax.jms.JMSProducer;
+import javax.jms.Message;
+import javax.jms.MessageListener;
+import javax.jms.TemporaryQueue;
+
+/**
+ * Sends requests and matches their replies, keeping any number of requests in flight on a single shared temporary reply
+ * queue.
+ *
+ * Replies are delivered to a {@link MessageListener} on a session of their own and are matched to the waiting request
+ * through a concurrent map keyed by correlation ID. Requests that are not answered in time are failed with a
+ * {@link TimeoutException} by a {@link TimerWheel}.
+ */
+public class Requestor implements MessageListener, AutoCloseable {
+
+    // Apache Qpid JMS prefixes correlation IDs with this string
+    static final String ID_PREFIX = "ID:";
+
+    private static class PendingRequest {
+        final CompletableFuture<Message> reply = new CompletableFuture<>();
+        TimerWheel.Timeout timeout;
+    }
+
+    private final JMSContext replyContext;
+    private final JMSProducer producer;
+    private final TemporaryQueue replyQueue;
+    private final long timeoutMillis;
+    private final TimerWheel timer = new TimerWheel(10, TimeUnit.MILLISECONDS, 512);
+    private final Map<String, PendingRequest> pending = new ConcurrentHashMap<>();
+
+    // correlation IDs are a per-requestor unique prefix followed by a sequence number
+    private final String correlationIdPrefix = UUID.randomUUID().toString() + '-';
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * Creates a requestor that sends on the given context. Replies are received on a separate session of the same
+     * connection. The context remains owned by the caller.
+     */
+    public Requestor(JMSContext context, long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+        this.producer = context.createProducer().setDeliveryMode(DeliveryMode.NON_PERSISTENT);
+        this.replyQueue = context.createTemporaryQueue();
+        this.replyContext = context.createContext(JMSContext.AUTO_ACKNOWLEDGE);
+        this.replyContext.createConsumer(replyQueue).setMessageListener(this);
+    }
+
+    /**
+     * Sends the request and returns a future that completes with the reply, or with a {@link TimeoutException}.
+     */
+    public CompletableFuture<Message> request(Destination destination, Message request) throws JMSException {
+        String correlationId = correlationIdPrefix + sequence.incrementAndGet();
+        request.setJMSReplyTo(replyQueue);
+        request.setJMSCorrelationID(correlationId);
+        SendTimestamp.stamp(request);
+
+        PendingRequest pendingRequest = new PendingRequest();
+        pendingRequest.timeout = timer.schedule(timeoutMillis, TimeUnit.MILLISECONDS, () -> {
+            PendingRequest expired = pending.remove(correlationId);
+            if (expired != null) {
+                expired.reply.completeExceptionally(
+                        new TimeoutException("Failed to receive a reply in " + timeoutMillis + " msecs"));
+            }
+        });
+        pending.put(correlationId, pendingRequest);
+
+        try {
+            // a JMS session must not be used by several threads at once
+            long sendNanos = System.nanoTime();
+            synchronized (producer) {
+                producer.send(destination, request);
+            }
+            SampleMetrics.sent((System.nanoTime() - sendNanos) / 1000);
+        } catch (RuntimeException e) {
+            pending.remove(correlationId);
+            pendingRequest.timeout.cancel();
+            pendingRequest.reply.completeExceptionally(e);
+        }
+        return pendingRequest.reply;
+    }
+
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    @Override
+    public void onMessage(Message reply) {
+        try {
+            SampleMetrics.received(reply);
+            String correlationId = reply.getJMSCorrelationID();
+            if (correlationId == null) {
+                System.out.println("Received a reply message with no correlationID.");
+                return;
+            }
+            PendingRequest pendingRequest = pending.remove(stripIdPrefix(correlationId));
+            if (pendingRequest == null) {
+                // the request has already timed out
+                return;
+            }
+            pendingRequest.timeout.cancel();
+            pendingRequest.reply.complete(reply);
+        } catch (JMSException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Removes the "ID:" prefix that Apache Qpid JMS adds to correlation IDs, without the cost of a regular expression.
+     */
+    public static String stripIdPrefix(String correlationId) {
+        return correlationId.startsWith(ID_PREFIX) ? correlationId.substring(ID_PREFIX.length()) : correlationId;
+    }
+
+    @Override
+    public void close() {
+        replyContext.close();
+        timer.close();
+        for (PendingRequest pendingRequest : pending.values()) {
+            pendingRequest.reply.completeExceptionally(new IllegalStateException("Requestor closed"));
+        }
+        pending.clear();
+    }
+}
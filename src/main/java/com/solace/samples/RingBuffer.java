@@ -0,0 +1,91 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ *  Apache Qpid JMS 2.0 Solace AMQP Examples: RingBuffer
+ */
+
+package com.solace.samples;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded, lock-free queue for one producer thread and one consumer thread, backed by an array whose size is a power
+ * of two. Neither side ever blocks or allocates: {@link #offer(Object)} fails when the ring is full and {@link #poll()}
+ * returns null when it is empty, and the caller decides how to wait.
+ *
+ * Each side only writes its own counter, and publishes with an ordered write, so an element written to a slot is
+ * visible to the consumer once it sees the new tail.
+ */
+public class RingBuffer<E> {
+
+    private final Object[] slots;
+    private final int mask;
+    // the next slot to read, only written by the consumer
+    private final AtomicLong head = new AtomicLong();
+    // the next slot to write, only written by the producer
+    private final AtomicLong tail = new AtomicLong();
+
+    public RingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) * 2 - 1);
+        this.slots = new Object[size];
+        this.mask = size - 1;
+    }
+
+    /**
+     * Adds the element, or returns false if the ring is full. Only called by the producer thread.
+     */
+    public boolean offer(E element) {
+        long currentTail = tail.get();
+        if (currentTail - head.get() == slots.length) {
+            return false;
+        }
+        slots[(int) (currentTail & mask)] = element;
+        tail.lazySet(currentTail + 1);
+        return true;
+    }
+
+    /**
+     * Removes and returns the oldest element, or null if the ring is empty. Only called by the consumer thread.
+     */
+    @SuppressWarnings("unchecked")
+    public E poll() {
+        long currentHead = head.get();
+        if (currentHead == tail.get()) {
+            return null;
+        }
+        int index = (int) (currentHead & mask);
+        E element = (E) slots[index];
+        // lets the element be collected, as the slot may not be reused for a long time
+        slots[index] = null;
+        head.lazySet(currentHead + 1);
+        return element;
+    }
+
+    /**
+     * Returns the number of elements in the ring. The value may be out of date by the time it is used.
+     */
+    public int size() {
+        return (int) (tail.get() - head.get());
+    }
+
+    public int capacity() {
+        return slots.length;
+    }
+}
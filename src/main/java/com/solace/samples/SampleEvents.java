@@ -0,0 +1,117 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ *  Apache Qpid JMS 2.0 Solace AMQP Examples: SampleEvents
+ */
+
+package com.solace.samples;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * JDK Flight Recorder events for sends, receives and acknowledgements. In a recording they line up with the garbage
+ * collections, safepoints and thread states of the same moment, which shows whether a latency spike was caused by the
+ * JVM rather than by the broker or the network.
+ *
+ * The events are disabled unless a recording enables them, for instance with
+ * {@code -XX:StartFlightRecording:settings=profile}, and cost next to nothing when disabled. Only
+ * {@link SampleMetrics} uses this class, and only once it has checked that the JVM has Flight Recorder.
+ */
+final class SampleEvents {
+
+    @Name("com.solace.samples.Send")
+    @Label("Message Send")
+    @Description("A message sent and acknowledged by the broker")
+    @Category("Solace Samples")
+    @StackTrace(false)
+    static class SendEvent extends Event {
+        @Label("Send Latency")
+        @Timespan(Timespan.MICROSECONDS)
+        long latency;
+    }
+
+    @Name("com.solace.samples.Receive")
+    @Label("Message Receive")
+    @Description("A message received by a consumer")
+    @Category("Solace Samples")
+    @StackTrace(false)
+    static class ReceiveEvent extends Event {
+        @Label("End-to-end Latency")
+        @Description("The time since the message was sent, or -1 if it has no send timestamp")
+        @Timespan(Timespan.MICROSECONDS)
+        long endToEndLatency;
+
+        @Label("Redelivered")
+        boolean redelivered;
+    }
+
+    @Name("com.solace.samples.Acknowledge")
+    @Label("Message Acknowledgement")
+    @Description("An acknowledgement call of a consumer")
+    @Category("Solace Samples")
+    @StackTrace(false)
+    static class AcknowledgeEvent extends Event {
+        @Label("Messages")
+        long messages;
+
+        @Label("Acknowledgement Time")
+        @Timespan(Timespan.MICROSECONDS)
+        long acknowledgementTime;
+    }
+
+    private SampleEvents() {
+    }
+
+    static void send(long latencyMicros) {
+        SendEvent event = new SendEvent();
+        if (event.shouldCommit()) {
+            event.latency = latencyMicros;
+            event.commit();
+        }
+    }
+
+    static void receive(Message message, boolean redelivered) throws JMSException {
+        ReceiveEvent event = new ReceiveEvent();
+        // the send timestamp is only read when a recording takes the event
+        if (event.shouldCommit()) {
+            event.endToEndLatency = SendTimestamp.latencyMicros(message);
+            event.redelivered = redelivered;
+            event.commit();
+        }
+    }
+
+    static void acknowledge(long messages, long acknowledgementMicros) {
+        AcknowledgeEvent event = new AcknowledgeEvent();
+        if (event.shouldCommit()) {
+            event.messages = messages;
+            event.acknowledgementTime = acknowledgementMicros;
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,257 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ *  Apache Qpid JMS 2.0 Solace AMQP Examples: SampleMetrics
+ */
+
+package com.solace.samples;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+
+/**
+ * Process-wide message counters and gauges of the samples, served in the Prometheus text format by a
+ * {@link MetricsServer}.
+ *
+ * The counters are {@link LongAdder}s, which spread concurrent increments over several cells instead of contending on
+ * one, so counting costs the sending and receiving threads next to nothing. Latency gauges are the percentiles of the
+ * last interval of every {@link LatencyReporter}. Every count is also recorded as a JDK Flight Recorder event, see
+ * {@link SampleEvents}, when the JVM has Flight Recorder. The state of registered {@link RateController}s is served as
+ * gauges too.
+ */
+public final class SampleMetrics {
+
+    private static final LongAdder SENT = new LongAdder();
+    private static final LongAdder RECEIVED = new LongAdder();
+    private static final LongAdder ACKNOWLEDGED = new LongAdder();
+    private static final LongAdder REDELIVERED = new LongAdder();
+    private static final LongAdder FAILED = new LongAdder();
+    private static final LongAdder DUPLICATES = new LongAdder();
+    private static final LongAdder IN_FLIGHT = new LongAdder();
+
+    // recorder name to { p50, p99, max, count } of its last interval, sorted for a stable output
+    private static final Map<String, long[]> LATENCIES = new ConcurrentSkipListMap<>();
+
+    private static final Map<String, RateController> RATE_CONTROLLERS = new ConcurrentSkipListMap<>();
+
+    private static final boolean EVENTS = isFlightRecorderAvailable();
+
+    private SampleMetrics() {
+    }
+
+    /**
+     * Counts an asynchronous send that is now waiting for the broker.
+     */
+    public static void sendStarted() {
+        IN_FLIGHT.increment();
+    }
+
+    /**
+     * Counts an asynchronous send that the broker has acknowledged, with the time it took.
+     */
+    public static void sendCompleted(long latencyMicros) {
+        IN_FLIGHT.decrement();
+        sent(latencyMicros);
+    }
+
+    /**
+     * Counts an asynchronous send that failed.
+     */
+    public static void sendFailed() {
+        IN_FLIGHT.decrement();
+        FAILED.increment();
+    }
+
+    /**
+     * Counts a message sent with a blocking send, with the time the send took.
+     */
+    public static void sent(long latencyMicros) {
+        SENT.increment();
+        if (EVENTS) {
+            SampleEvents.send(latencyMicros);
+        }
+    }
+
+    /**
+     * Counts the messages of a committed transaction, with the time the commit took.
+     */
+    public static void committed(int messages, long commitMicros) {
+        SENT.add(messages);
+        if (EVENTS) {
+            for (int i = 0; i < messages; i++) {
+                SampleEvents.send(commitMicros);
+            }
+        }
+    }
+
+    /**
+     * Counts a received message, and whether it was redelivered.
+     */
+    public static void received(Message message) throws JMSException {
+        RECEIVED.increment();
+        boolean redelivered = message.getJMSRedelivered();
+        if (redelivered) {
+            REDELIVERED.increment();
+        }
+        if (EVENTS) {
+            SampleEvents.receive(message, redelivered);
+        }
+    }
+
+    /**
+     * Counts a received message that was dropped as a duplicate of one already processed.
+     */
+    public static void duplicate() {
+        DUPLICATES.increment();
+    }
+
+    /**
+     * Counts the messages acknowledged by an acknowledgement call that started at the given
+     * {@link System#nanoTime()} reading.
+     */
+    public static void acknowledged(long messages, long startNanos) {
+        ACKNOWLEDGED.add(messages);
+        if (EVENTS) {
+            SampleEvents.acknowledge(messages, TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos));
+        }
+    }
+
+    /**
+     * Publishes the percentiles of the latest interval of a latency recorder.
+     */
+    public static void updateLatency(String name, LatencyHistogram interval) {
+        LATENCIES.put(name, new long[] { interval.getValueAtPercentile(50), interval.getValueAtPercentile(99),
+                interval.getMaxValue(), interval.getTotalCount() });
+    }
+
+    /**
+     * Serves the state of the rate controller until it is unregistered.
+     */
+    public static void register(RateController controller) {
+        RATE_CONTROLLERS.put(controller.getName(), controller);
+    }
+
+    public static void unregister(RateController controller) {
+        RATE_CONTROLLERS.remove(controller.getName(), controller);
+    }
+
+    /**
+     * Returns all metrics in the Prometheus text exposition format.
+     */
+    public static String scrape() {
+        StringBuilder out = new StringBuilder(2048);
+        counter(out, "sample_messages_sent_total", "Messages sent and acknowledged by the broker.", SENT);
+        counter(out, "sample_messages_received_total", "Messages received.", RECEIVED);
+        counter(out, "sample_messages_acknowledged_total", "Received messages acknowledged.", ACKNOWLEDGED);
+        counter(out, "sample_messages_redelivered_total", "Received messages that were redelivered.", REDELIVERED);
+        counter(out, "sample_messages_failed_total", "Messages whose send failed.", FAILED);
+        counter(out, "sample_messages_duplicate_total", "Received messages dropped as duplicates.", DUPLICATES);
+        out.append("# HELP sample_send_in_flight Asynchronous sends waiting for the broker.\n");
+        out.append("# TYPE sample_send_in_flight gauge\n");
+        out.append("sample_send_in_flight ").append(IN_FLIGHT.sum()).append('\n');
+        out.append("# HELP sample_latency_microseconds Latency percentiles over the last reporting interval.\n");
+        out.append("# TYPE sample_latency_microseconds gauge\n");
+        for (Map.Entry<String, long[]> latency : LATENCIES.entrySet()) {
+            String recorder = escape(latency.getKey());
+            long[] values = latency.getValue();
+            quantile(out, recorder, "0.5", values[0]);
+            quantile(out, recorder, "0.99", values[1]);
+            quantile(out, recorder, "1", values[2]);
+        }
+        out.append("# HELP sample_latency_interval_count Latencies recorded in the last reporting interval.\n");
+        out.append("# TYPE sample_latency_interval_count gauge\n");
+        for (Map.Entry<String, long[]> latency : LATENCIES.entrySet()) {
+            out.append("sample_latency_interval_count{recorder=\"").append(escape(latency.getKey())).append("\"} ")
+                    .append(latency.getValue()[3]).append('\n');
+        }
+        if (!RATE_CONTROLLERS.isEmpty()) {
+            rateControllers(out);
+        }
+        return out.toString();
+    }
+
+    private static void rateControllers(StringBuilder out) {
+        out.append("# HELP sample_rate_limit Send rate currently allowed by a rate controller, in msgs/sec.\n");
+        out.append("# TYPE sample_rate_limit gauge\n");
+        for (RateController controller : RATE_CONTROLLERS.values()) {
+            out.append("sample_rate_limit{controller=\"").append(escape(controller.getName())).append("\"} ")
+                    .append((long) controller.getRate()).append('\n');
+        }
+        out.append("# HELP sample_rate_state Decision of a rate controller in its last control interval.\n");
+        out.append("# TYPE sample_rate_state gauge\n");
+        for (RateController controller : RATE_CONTROLLERS.values()) {
+            for (RateController.State state : RateController.State.values()) {
+                out.append("sample_rate_state{controller=\"").append(escape(controller.getName()))
+                        .append("\",state=\"").append(state).append("\"} ")
+                        .append(controller.getState() == state ? 1 : 0).append('\n');
+            }
+        }
+        out.append("# HELP sample_rate_p99_microseconds Send completion p99 of the last control interval.\n");
+        out.append("# TYPE sample_rate_p99_microseconds gauge\n");
+        for (RateController controller : RATE_CONTROLLERS.values()) {
+            out.append("sample_rate_p99_microseconds{controller=\"").append(escape(controller.getName())).append("\"} ")
+                    .append(controller.getLastP99Micros()).append('\n');
+        }
+        out.append("# HELP sample_rate_decreases_total Times a rate controller cut the rate.\n");
+        out.append("# TYPE sample_rate_decreases_total counter\n");
+        for (RateController controller : RATE_CONTROLLERS.values()) {
+            out.append("sample_rate_decreases_total{controller=\"").append(escape(controller.getName())).append("\"} ")
+                    .append(controller.getDecreases()).append('\n');
+        }
+        out.append("# HELP sample_send_stalls_total Sends that blocked on producer credit or a full send window.\n");
+        out.append("# TYPE sample_send_stalls_total counter\n");
+        for (RateController controller : RATE_CONTROLLERS.values()) {
+            out.append("sample_send_stalls_total{controller=\"").append(escape(controller.getName())).append("\"} ")
+                    .append(controller.getStalls()).append('\n');
+        }
+    }
+
+    private static void counter(StringBuilder out, String name, String help, LongAdder value) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" counter\n");
+        out.append(name).append(' ').append(value.sum()).append('\n');
+    }
+
+    private static void quantile(StringBuilder out, String recorder, String quantile, long value) {
+        out.append("sample_latency_microseconds{recorder=\"").append(recorder).append("\",quantile=\"")
+                .append(quantile).append("\"} ").append(value).append('\n');
+    }
+
+    private static String escape(String labelValue) {
+        return labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /**
+     * Flight Recorder is part of JDK 11 and later, and of OpenJDK 8 from update 262.
+     */
+    private static boolean isFlightRecorderAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+}
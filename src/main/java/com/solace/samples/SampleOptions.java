@@ -0,0 +1,77 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ *  Apache Qpid JMS 2.0 Solace AMQP Examples: SampleOptions
+ */
+
+package com.solace.samples;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Parses the optional "--name value" arguments that follow the usual {@code <host> <username> <password>} arguments of
+ * the samples. A name that is not followed by a value (for example "--virtual") is treated as a boolean flag.
+ */
+public class SampleOptions {
+
+    private final Map<String, String> options = new HashMap<>();
+
+    public SampleOptions(String[] args, int firstOption) {
+        for (int i = firstOption; i < args.length; i++) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument: " + args[i]);
+            }
+            String name = args[i].substring(2);
+            if (i + 1 < args.length && !args[i + 1].startsWith("--")) {
+                options.put(name, args[++i]);
+            } else {
+                options.put(name, "true");
+            }
+        }
+    }
+
+    public boolean isEmpty() {
+        return options.isEmpty();
+    }
+
+    public boolean has(String name) {
+        return options.containsKey(name);
+    }
+
+    public String getString(String name, String defaultValue) {
+        String value = options.get(name);
+        return value != null ? value : defaultValue;
+    }
+
+    public int getInt(String name, int defaultValue) {
+        String value = options.get(name);
+        return value != null ? Integer.parseInt(value) : defaultValue;
+    }
+
+    public long getLong(String name, long defaultValue) {
+        String value = options.get(name);
+        return value != null ? Long.parseLong(value) : defaultValue;
+    }
+
+    public boolean getBoolean(String name) {
+        return Boolean.parseBoolean(options.get(name));
+    }
+}
@@ -0,0 +1,60 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ *  Apache Qpid JMS 2.0 Solace AMQP Examples: SendTimestamp
+ */
+
+package com.solace.samples;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+
+/**
+ * Stamps messages with the time they were sent, in microseconds since the epoch, so that receivers can measure end-to-end
+ * latency. JMSTimestamp only has millisecond resolution, so a separate message property is used.
+ *
+ * Latencies measured between two hosts are only as accurate as the synchronization of their clocks.
+ */
+public class SendTimestamp {
+
+    public static final String PROPERTY_NAME = "SampleSendTimeMicros";
+
+    // the wall clock is read once; System.nanoTime() provides the sub-millisecond part
+    private static final long BASE_EPOCH_MICROS = System.currentTimeMillis() * 1000;
+    private static final long BASE_NANOS = System.nanoTime();
+
+    public static long epochMicros() {
+        return BASE_EPOCH_MICROS + (System.nanoTime() - BASE_NANOS) / 1000;
+    }
+
+    public static void stamp(Message message) throws JMSException {
+        message.setLongProperty(PROPERTY_NAME, epochMicros());
+    }
+
+    /**
+     * Returns the microseconds elapsed since the message was stamped, or -1 if the message has no send timestamp.
+     */
+    public static long latencyMicros(Message message) throws JMSException {
+        if (!message.propertyExists(PROPERTY_NAME)) {
+            return -1;
+        }
+        return epochMicros() - message.getLongProperty(PROPERTY_NAME);
+    }
+}
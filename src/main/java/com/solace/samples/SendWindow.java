@@ -0,0 +1,168 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ *  Apache Qpid JMS 2.0 Solace AMQP Examples: SendWindow
+ */
+
+package com.solace.samples;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jms.CompletionListener;
+import javax.jms.Destination;
+import javax.jms.JMSProducer;
+import javax.jms.Message;
+
+/**
+ * Bounds the number of asynchronous sends that are waiting for a broker acknowledgement and records the time each send
+ * took to complete.
+ *
+ * A window is used by a single sending thread with a single {@link JMSProducer}. JMS 2.0 requires completion listeners of
+ * a session to be invoked in send order, so the send times are kept in a plain ring buffer instead of a map.
+ *
+ * Optionally, messages whose send failed are kept so that the sending thread can retry them with {@link #pollFailed()};
+ * completion listeners must not use the session themselves.
+ *
+ * Every send is also counted in {@link SampleMetrics}, and reported to a {@link RateController} if one is set: its
+ * completion latency, and whether the sending thread stalled on the window or on producer credit.
+ */
+public class SendWindow implements CompletionListener {
+
+    // a send that blocks for longer than this counts as stalled; handing a send to the connection's I/O thread alone
+    // takes a few milliseconds now and then
+    static final long STALL_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final int size;
+    private final Semaphore permits;
+    private final long[] sendTimes;
+    private final int mask;
+    private final LatencyRecorder latency;
+    private final boolean retainFailed;
+    private volatile RateController rateController;
+
+    // written by the sending thread only
+    private long sendSequence;
+    // written by the completion thread only
+    private long completeSequence;
+
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final Queue<Message> failedMessages = new ConcurrentLinkedQueue<>();
+
+    public SendWindow(int size, LatencyRecorder latency) {
+        this(size, latency, false);
+    }
+
+    public SendWindow(int size, LatencyRecorder latency, boolean retainFailed) {
+        this.retainFailed = retainFailed;
+        this.size = size;
+        this.permits = new Semaphore(size);
+        this.sendTimes = new long[Integer.highestOneBit(Math.max(size, 1) * 2 - 1)];
+        this.mask = sendTimes.length - 1;
+        this.latency = latency;
+    }
+
+    /**
+     * Sends the message asynchronously, blocking while the window is full. The producer must have been configured with
+     * {@code setAsync(window)}.
+     */
+    public void send(JMSProducer producer, Destination destination, Message message) throws InterruptedException {
+        long acquireNanos = System.nanoTime();
+        permits.acquire();
+        sendTimes[(int) (sendSequence++ & mask)] = System.nanoTime();
+        SampleMetrics.sendStarted();
+        try {
+            // an asynchronous send only blocks while the broker has not granted the producer credit
+            producer.send(destination, message);
+            RateController controller = rateController;
+            long blockedNanos = System.nanoTime() - acquireNanos;
+            if (controller != null && blockedNanos > STALL_NANOS) {
+                controller.onStall(blockedNanos);
+            }
+        } catch (RuntimeException e) {
+            // the completion listener is not called for a send that failed synchronously
+            sendSequence--;
+            SampleMetrics.sendFailed();
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Reports completion latencies and stalled sends to the given controller, or to none if null.
+     */
+    public void setRateController(RateController rateController) {
+        this.rateController = rateController;
+    }
+
+    /**
+     * Waits until all sends in the window have completed or the timeout expires.
+     */
+    public boolean awaitCompletion(long timeout, TimeUnit unit) throws InterruptedException {
+        if (permits.tryAcquire(size, timeout, unit)) {
+            permits.release(size);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the next message whose asynchronous send failed, or null if there is none.
+     */
+    public Message pollFailed() {
+        return failedMessages.poll();
+    }
+
+    public long getCompleted() {
+        return completed.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    @Override
+    public void onCompletion(Message message) {
+        long latencyMicros = (System.nanoTime() - sendTimes[(int) (completeSequence++ & mask)]) / 1000;
+        latency.recordValue(latencyMicros);
+        SampleMetrics.sendCompleted(latencyMicros);
+        RateController controller = rateController;
+        if (controller != null) {
+            controller.onCompletion(latencyMicros);
+        }
+        completed.incrementAndGet();
+        permits.release();
+    }
+
+    @Override
+    public void onException(Message message, Exception exception) {
+        completeSequence++;
+        SampleMetrics.sendFailed();
+        failed.incrementAndGet();
+        if (retainFailed) {
+            failedMessages.add(message);
+        }
+        permits.release();
+    }
+}
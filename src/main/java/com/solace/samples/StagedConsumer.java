@@ -0,0 +1,294 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ *  Apache Qpid JMS 2.0 Solace AMQP Examples: StagedConsumer
+ */
+
+package com.solace.samples;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.jms.JMSConsumer;
+import javax.jms.JMSContext;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageListener;
+
+/**
+ * Decouples receiving messages from processing them, so that a slow handler does not stall delivery. One receive thread
+ * takes messages from the consumer and hands them to a pool of worker threads, which run the handler.
+ *
+ * Every worker has its own {@link RingBuffer}, with the receive thread as its single producer. Messages with the same
+ * key, the value of a string property such as JMSXGroupID, always go to the same worker and are processed in the order
+ * they were received. Messages without a key go to the worker with the fewest messages waiting. When a ring is full the
+ * receive thread waits, which holds back the broker through the consumer's prefetch.
+ *
+ * The session must use CLIENT_ACKNOWLEDGE. Acknowledging a session covers every message it has delivered, so the
+ * receive thread only acknowledges once all messages it handed out have been processed, at most every
+ * {@code ackBatch} messages. Every acknowledgement therefore drains the rings: a larger batch keeps the workers busier,
+ * but more messages are delivered again after a failure. When the handler throws, the receive thread stops handing out
+ * messages, waits for those in flight and recovers the session instead of acknowledging it, so that the broker delivers
+ * every message since the last acknowledgement again, including those that were processed.
+ *
+ * With no workers the receive thread runs the handler itself, the way the basic samples process messages.
+ */
+public class StagedConsumer {
+
+    /**
+     * Large enough that the rings seldom run dry while an acknowledgement waits for them, with the default ring size.
+     */
+    public static final int DEFAULT_ACK_BATCH = 1000;
+
+    private static final long IDLE_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+    private static final int IDLE_SPINS = 100;
+
+    private final JMSContext context;
+    private final JMSConsumer consumer;
+    private final MessageListener handler;
+    private final String keyProperty;
+    private final int ackBatch;
+    private final List<RingBuffer<Message>> rings = new ArrayList<>();
+    private final List<Thread> workers = new ArrayList<>();
+    private volatile boolean stopped;
+
+    private final AtomicLong processed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private long dispatched;
+    private long settledUpTo;
+    private long settledFailures;
+    private long acknowledgements;
+    private long recoveries;
+    private long blockedNanos;
+    private final LatencyHistogram ringDepth = new LatencyHistogram();
+    private final LatencyRecorder ackWait = new LatencyRecorder("Acknowledgement wait");
+
+    public StagedConsumer(JMSContext context, JMSConsumer consumer, MessageListener handler, String keyProperty,
+            int workerCount, int ringSize, int ackBatch) {
+        this.context = context;
+        this.consumer = consumer;
+        this.handler = handler;
+        this.keyProperty = keyProperty;
+        this.ackBatch = ackBatch;
+        for (int w = 0; w < workerCount; w++) {
+            RingBuffer<Message> ring = new RingBuffer<>(ringSize);
+            rings.add(ring);
+            Thread worker = new Thread(() -> work(ring), "StagedConsumer-worker-" + w);
+            worker.setDaemon(true);
+            workers.add(worker);
+        }
+    }
+
+    /**
+     * Receives and processes messages until the given number has been received, counting redeliveries, or no message
+     * arrived for the idle timeout, and returns once all of them are processed and acknowledged or recovered.
+     */
+    public void run(long count, long idleTimeoutMillis) throws JMSException, InterruptedException {
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        long idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+        long lastReceiveNanos = System.nanoTime();
+        long unacknowledged = 0;
+        try {
+            while (dispatched < count) {
+                Message message = consumer.receive(100);
+                if (message == null) {
+                    if (System.nanoTime() - lastReceiveNanos >= idleTimeoutNanos) {
+                        break;
+                    }
+                    // nothing is lost by acknowledging what has been processed while the queue is empty
+                    if (unacknowledged > 0) {
+                        settle();
+                        unacknowledged = 0;
+                    }
+                    continue;
+                }
+                lastReceiveNanos = System.nanoTime();
+                SampleMetrics.received(message);
+                dispatch(message);
+                dispatched++;
+                // after a failure nothing more is handed out until the session has been recovered
+                if (++unacknowledged >= ackBatch || failed.get() > settledFailures) {
+                    settle();
+                    unacknowledged = 0;
+                }
+            }
+            if (unacknowledged > 0) {
+                settle();
+            }
+        } finally {
+            stopped = true;
+            for (Thread worker : workers) {
+                worker.join();
+            }
+        }
+    }
+
+    private void dispatch(Message message) throws JMSException {
+        if (rings.isEmpty()) {
+            process(message);
+            return;
+        }
+        RingBuffer<Message> ring = selectRing(message);
+        ringDepth.recordValue(ring.size());
+        if (!ring.offer(message)) {
+            long startNanos = System.nanoTime();
+            int spins = 0;
+            while (!ring.offer(message)) {
+                idle(spins++);
+            }
+            blockedNanos += System.nanoTime() - startNanos;
+        }
+    }
+
+    private RingBuffer<Message> selectRing(Message message) throws JMSException {
+        String key = keyProperty != null ? message.getStringProperty(keyProperty) : null;
+        if (key != null) {
+            // the same key always maps to the same worker, which keeps its messages in order
+            return rings.get(Math.floorMod(key.hashCode(), rings.size()));
+        }
+        RingBuffer<Message> leastLoaded = rings.get(0);
+        for (int i = 1; i < rings.size(); i++) {
+            if (rings.get(i).size() < leastLoaded.size()) {
+                leastLoaded = rings.get(i);
+            }
+        }
+        return leastLoaded;
+    }
+
+    /**
+     * Waits until every dispatched message has been processed, then acknowledges all of them with one call, or recovers
+     * the session if any of them failed.
+     */
+    private void settle() {
+        long startNanos = System.nanoTime();
+        int spins = 0;
+        while (processed.get() < dispatched) {
+            idle(spins++);
+        }
+        ackWait.recordSince(startNanos);
+        long failures = failed.get();
+        if (failures > settledFailures) {
+            // the broker delivers every unacknowledged message of the session again, in order
+            context.recover();
+            settledFailures = failures;
+            recoveries++;
+        } else {
+            long ackNanos = System.nanoTime();
+            context.acknowledge();
+            SampleMetrics.acknowledged(dispatched - settledUpTo, ackNanos);
+            acknowledgements++;
+        }
+        settledUpTo = dispatched;
+    }
+
+    private void work(RingBuffer<Message> ring) {
+        int spins = 0;
+        while (true) {
+            Message message = ring.poll();
+            if (message != null) {
+                process(message);
+                spins = 0;
+            } else if (stopped) {
+                // the receive thread only stops once everything it dispatched has been processed
+                return;
+            } else {
+                idle(spins++);
+            }
+        }
+    }
+
+    private void process(Message message) {
+        try {
+            handler.onMessage(message);
+        } catch (RuntimeException e) {
+            failed.incrementAndGet();
+        }
+        processed.incrementAndGet();
+    }
+
+    /**
+     * Spins briefly, then parks, so that an idle thread neither burns a core nor adds much latency.
+     */
+    private static void idle(int spins) {
+        if (spins < IDLE_SPINS) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(IDLE_PARK_NANOS);
+        }
+    }
+
+    public long getProcessed() {
+        return processed.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public long getAcknowledgements() {
+        return acknowledgements;
+    }
+
+    /**
+     * Returns the number of times the session was recovered after a failure.
+     */
+    public long getRecoveries() {
+        return recoveries;
+    }
+
+    /**
+     * Returns the time the receive thread spent waiting for a full ring.
+     */
+    public long getBlockedNanos() {
+        return blockedNanos;
+    }
+
+    /**
+     * Returns the number of messages already waiting in a ring when another one was added to it.
+     */
+    public LatencyHistogram getRingDepth() {
+        return ringDepth;
+    }
+
+    public LatencyRecorder getAckWait() {
+        return ackWait;
+    }
+
+    /**
+     * Prints the processing, queue depth and acknowledgement statistics.
+     */
+    public void printSummary(PrintStream out) {
+        out.printf("Processed %d messages (%d failed) on %s, %d acknowledgement calls, %d recoveries.%n",
+                processed.get(), failed.get(), rings.isEmpty() ? "the receive thread" : rings.size() + " workers",
+                acknowledgements, recoveries);
+        if (!rings.isEmpty()) {
+            out.printf("Ring depth (messages): p50=%d p99=%d max=%d of %d, receive thread blocked %d ms%n",
+                    ringDepth.getValueAtPercentile(50), ringDepth.getValueAtPercentile(99), ringDepth.getMaxValue(),
+                    rings.get(0).capacity(), TimeUnit.NANOSECONDS.toMillis(blockedNanos));
+        }
+        ackWait.getTotal().printSummary(out, ackWait.getName());
+    }
+}
@@ -0,0 +1,147 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ *  Apache Qpid JMS 2.0 Solace AMQP Examples: TimerWheel
+ */
+
+package com.solace.samples;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A hashed timer wheel for large numbers of timeouts that are usually cancelled before they expire, such as request
+ * timeouts. Scheduling and cancelling are O(1) and timeouts fire with a precision of one tick.
+ *
+ * New timeouts are handed to the single timer thread through a queue, so the wheel itself is only touched by that thread.
+ */
+public class TimerWheel implements AutoCloseable {
+
+    /**
+     * A scheduled task that can be cancelled.
+     */
+    public static class Timeout {
+        private final long deadlineNanos;
+        private final Runnable task;
+        private long remainingRounds;
+        private volatile boolean cancelled;
+
+        Timeout(long deadlineNanos, Runnable task) {
+            this.deadlineNanos = deadlineNanos;
+            this.task = task;
+        }
+
+        public void cancel() {
+            cancelled = true;
+        }
+    }
+
+    private final long tickNanos;
+    private final List<List<Timeout>> wheel = new ArrayList<>();
+    private final int mask;
+    private final Queue<Timeout> newTimeouts = new ConcurrentLinkedQueue<>();
+    private final long startNanos = System.nanoTime();
+    private final Thread timerThread;
+    private volatile boolean closed;
+    private long tick;
+
+    public TimerWheel(long tickDuration, TimeUnit unit, int ticksPerWheel) {
+        this.tickNanos = unit.toNanos(tickDuration);
+        int size = Integer.highestOneBit(Math.max(ticksPerWheel, 2) * 2 - 1);
+        for (int i = 0; i < size; i++) {
+            wheel.add(new ArrayList<>());
+        }
+        this.mask = size - 1;
+        this.timerThread = new Thread(this::runTimer, "TimerWheel");
+        this.timerThread.setDaemon(true);
+        this.timerThread.start();
+    }
+
+    /**
+     * Runs the task on the timer thread once the delay has passed, unless the returned timeout is cancelled first. Tasks
+     * must be short as they delay all other timeouts.
+     */
+    public Timeout schedule(long delay, TimeUnit unit, Runnable task) {
+        Timeout timeout = new Timeout(System.nanoTime() + unit.toNanos(delay), task);
+        newTimeouts.add(timeout);
+        return timeout;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        timerThread.interrupt();
+    }
+
+    private void runTimer() {
+        while (!closed) {
+            long tickDeadline = startNanos + (tick + 1) * tickNanos;
+            long sleepNanos = tickDeadline - System.nanoTime();
+            if (sleepNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+            transferNewTimeouts();
+            expire(wheel.get((int) (tick & mask)));
+            tick++;
+        }
+    }
+
+    private void transferNewTimeouts() {
+        Timeout timeout;
+        while ((timeout = newTimeouts.poll()) != null) {
+            if (timeout.cancelled) {
+                continue;
+            }
+            // never schedule into a tick that has already been processed
+            long deadlineTick = Math.max((timeout.deadlineNanos - startNanos) / tickNanos, tick);
+            timeout.remainingRounds = (deadlineTick - tick) / wheel.size();
+            wheel.get((int) (deadlineTick & mask)).add(timeout);
+        }
+    }
+
+    private void expire(List<Timeout> bucket) {
+        // compact the bucket in place, keeping only the timeouts that belong to a later round
+        int kept = 0;
+        for (int i = 0; i < bucket.size(); i++) {
+            Timeout timeout = bucket.get(i);
+            if (timeout.cancelled) {
+                continue;
+            }
+            if (timeout.remainingRounds > 0) {
+                timeout.remainingRounds--;
+                bucket.set(kept++, timeout);
+                continue;
+            }
+            try {
+                timeout.task.run();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+        bucket.subList(kept, bucket.size()).clear();
+    }
+}
@@ -0,0 +1,340 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ *  Apache Qpid JMS 2.0 Solace AMQP Examples: TopicFanOut
+ */
+
+package com.solace.samples;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.jms.DeliveryMode;
+import javax.jms.JMSContext;
+import javax.jms.JMSException;
+import javax.jms.JMSProducer;
+import javax.jms.Message;
+import javax.jms.TextMessage;
+import javax.jms.Topic;
+
+import org.apache.qpid.jms.JmsConnectionFactory;
+
+/**
+ * Opens a large number of topic subscriptions in one process and measures how well they scale. This is the fan-out mode
+ * of the {@link TopicSubscriber}.
+ *
+ * Topics form a generated hierarchy {@code T/fanout/<n>/<n>/...} with {@code --levels} branches per level. Subscription
+ * i subscribes to one leaf topic, or with a probability of {@code --wildcards} percent to a wildcard topic that covers a
+ * subtree: {@code *} in place of one level, or {@code >} for all levels below a prefix. The subscriptions are spread
+ * round-robin over {@code --sessions} sessions on each of {@code --connections} connections. Every consumer has a
+ * {@link javax.jms.MessageListener} that hands its messages to a shared pool of {@code --workers} threads, so that a slow
+ * subscription does not hold up the session it shares with the others.
+ *
+ * A publisher on a connection of its own sends to random leaf topics at {@code --rate} msgs/sec for {@code --duration}
+ * seconds. The sample reports how long the subscriptions took to open, the threads and heap they use, the fan-out rate,
+ * the delivery latency over all deliveries and the spread of the mean and maximum latency between subscriptions.
+ */
+public class TopicFanOut {
+
+    static final String TOPIC_PREFIX = "T/fanout";
+
+    // a level of a subscription pattern that matches any branch
+    private static final int ANY = -1;
+
+    private final String solaceHost;
+    private final SampleOptions options;
+    private final JmsConnectionFactory connectionFactory;
+
+    private final int[] levels;
+    private final int leaves;
+    private final int subscriptions;
+    // the fixed branch of every level of every subscription, or ANY
+    private final int[][] patterns;
+    // the number of leading levels followed by '>', or 0 for a pattern without '>'
+    private final int[] prefixLevels;
+    // how many subscriptions receive a message published to each leaf topic
+    private final int[] fanOut;
+    private int wildcardSubscriptions;
+
+    private final LatencyRecorder latency = new LatencyRecorder("Delivery");
+    private final LatencyRecorder sendLatency = new LatencyRecorder("Send completion");
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong lastDeliveryNanos = new AtomicLong();
+    private final AtomicLongArray subscriptionCounts;
+    private final AtomicLongArray subscriptionLatencySums;
+    private final AtomicLongArray subscriptionLatencyMaxima;
+
+    public TopicFanOut(String solaceHost, String solaceUsername, String solacePassword, SampleOptions options) {
+        this.solaceHost = solaceHost;
+        this.options = options;
+        this.connectionFactory = new JmsConnectionFactory(solaceUsername, solacePassword, solaceHost);
+
+        String[] branches = options.getString("levels", "10,10,10").split(",");
+        this.levels = new int[branches.length];
+        int leafCount = 1;
+        for (int l = 0; l < branches.length; l++) {
+            levels[l] = Integer.parseInt(branches[l].trim());
+            leafCount *= levels[l];
+        }
+        this.leaves = leafCount;
+        this.subscriptions = options.getInt("subscriptions", 1000);
+        this.patterns = new int[subscriptions][];
+        this.prefixLevels = new int[subscriptions];
+        this.fanOut = new int[leaves];
+        this.subscriptionCounts = new AtomicLongArray(subscriptions);
+        this.subscriptionLatencySums = new AtomicLongArray(subscriptions);
+        this.subscriptionLatencyMaxima = new AtomicLongArray(subscriptions);
+        generateSubscriptions(options.getInt("wildcards", 10), new Random(options.getLong("seed", 1)));
+    }
+
+    @SuppressWarnings("try")
+    public void run() throws Exception {
+        int connections = options.getInt("connections", 4);
+        int sessionsPerConnection = options.getInt("sessions", 16);
+        int workers = options.getInt("workers", Runtime.getRuntime().availableProcessors());
+        long rate = options.getLong("rate", 100);
+        long durationNanos = TimeUnit.SECONDS.toNanos(options.getLong("duration", 30));
+        byte[] filler = new byte[options.getInt("size", 100)];
+        Arrays.fill(filler, (byte) 'x');
+        String payload = new String(filler);
+
+        System.out.printf("TopicSubscriber is opening %d subscriptions on %d topics (%d with wildcards) on %s, "
+                + "%d session(s) on each of %d connection(s)...%n", subscriptions, leaves, wildcardSubscriptions,
+                solaceHost, sessionsPerConnection, connections);
+
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        ExecutorService executor = Executors.newFixedThreadPool(workers);
+        System.gc();
+        long heapBefore = memory.getHeapMemoryUsage().getUsed();
+        int threadsBefore = threads.getThreadCount();
+        long setupStartNanos = System.nanoTime();
+
+        try (ContextPool pool = new ContextPool(connectionFactory, connections, 0)) {
+            // the pool hands out sessions round-robin over its connections
+            List<JMSContext> sessions = new ArrayList<>();
+            for (int s = 0; s < connections * sessionsPerConnection; s++) {
+                sessions.add(pool.createContext(JMSContext.AUTO_ACKNOWLEDGE));
+            }
+            // every session opens its own consumers, so that their round trips to the broker overlap
+            List<Thread> openers = new ArrayList<>();
+            for (int s = 0; s < sessions.size(); s++) {
+                final int firstSubscription = s;
+                final JMSContext session = sessions.get(s);
+                Thread opener = new Thread(() -> {
+                    for (int i = firstSubscription; i < subscriptions; i += sessions.size()) {
+                        final int subscription = i;
+                        // the listener runs on the thread of its session and only hands the message over
+                        session.createConsumer(session.createTopic(topicName(subscription)))
+                                .setMessageListener(message -> executor.execute(() -> deliver(subscription, message)));
+                    }
+                }, "TopicFanOut-open-" + s);
+                openers.add(opener);
+                opener.start();
+            }
+            for (Thread opener : openers) {
+                opener.join();
+            }
+            double setupSeconds = (System.nanoTime() - setupStartNanos) / 1e9;
+            System.gc();
+            long heapPerSubscription = (memory.getHeapMemoryUsage().getUsed() - heapBefore) / subscriptions;
+            int threadsAfter = threads.getThreadCount();
+            System.out.printf("Opened %d subscriptions in %.2f seconds (%.0f subscriptions/sec).%n", subscriptions,
+                    setupSeconds, subscriptions / setupSeconds);
+            System.out.printf("Threads: %d before, %d after (%.2f per session). Heap: %.1f KB per subscription.%n",
+                    threadsBefore, threadsAfter, (threadsAfter - threadsBefore) / (double) sessions.size(),
+                    heapPerSubscription / 1024.0);
+
+            long published = 0;
+            long expected = 0;
+            long startNanos = System.nanoTime();
+            try (LatencyReporter reporter = new LatencyReporter(options, latency);
+                    JMSContext context = connectionFactory.createContext()) {
+                Topic[] topics = new Topic[leaves];
+                for (int leaf = 0; leaf < leaves; leaf++) {
+                    topics[leaf] = context.createTopic(leafTopicName(leaf));
+                }
+                SendWindow sendWindow = new SendWindow(options.getInt("window", 256), sendLatency);
+                JMSProducer producer = context.createProducer().setDeliveryMode(DeliveryMode.NON_PERSISTENT)
+                        .setAsync(sendWindow);
+                Random random = new Random();
+                long intervalNanos = rate > 0 ? TimeUnit.SECONDS.toNanos(1) / rate : 0;
+                long nextSendNanos = startNanos;
+                while (System.nanoTime() - startNanos < durationNanos) {
+                    if (intervalNanos > 0) {
+                        // pace the sends against a fixed schedule so that the rate does not drift
+                        long now = System.nanoTime();
+                        if (nextSendNanos - now > 0) {
+                            TimeUnit.NANOSECONDS.sleep(nextSendNanos - now);
+                        }
+                        nextSendNanos += intervalNanos;
+                    }
+                    int leaf = random.nextInt(leaves);
+                    TextMessage message = context.createTextMessage(payload);
+                    SendTimestamp.stamp(message);
+                    sendWindow.send(producer, topics[leaf], message);
+                    published++;
+                    expected += fanOut[leaf];
+                }
+                sendWindow.awaitCompletion(30, TimeUnit.SECONDS);
+
+                // wait for the workers to catch up, as long as deliveries keep arriving
+                long lastDelivered = -1;
+                while (delivered.get() < expected && delivered.get() != lastDelivered) {
+                    lastDelivered = delivered.get();
+                    Thread.sleep(2000);
+                }
+
+                double elapsedSeconds = Math.max(lastDeliveryNanos.get() - startNanos, 1) / 1e9;
+                System.out.printf("Published %d messages; delivered %d of %d expected deliveries (%.1f%%).%n",
+                        published, delivered.get(), expected, expected == 0 ? 100.0 : 100.0 * delivered.get() / expected);
+                System.out.printf("Fan-out rate: %.0f deliveries/sec, %.1f subscriptions per message%n",
+                        delivered.get() / elapsedSeconds, published == 0 ? 0.0 : expected / (double) published);
+                printSubscriptionLatencies();
+            }
+            for (JMSContext session : sessions) {
+                session.close();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void deliver(int subscription, Message message) {
+        try {
+            SampleMetrics.received(message);
+            long latencyMicros = SendTimestamp.latencyMicros(message);
+            if (latencyMicros >= 0) {
+                latency.recordValue(latencyMicros);
+                subscriptionLatencySums.addAndGet(subscription, latencyMicros);
+                long max;
+                while ((max = subscriptionLatencyMaxima.get(subscription)) < latencyMicros
+                        && !subscriptionLatencyMaxima.compareAndSet(subscription, max, latencyMicros)) {
+                    // another worker raised the maximum at the same time
+                }
+            }
+            subscriptionCounts.incrementAndGet(subscription);
+            lastDeliveryNanos.set(System.nanoTime());
+            delivered.incrementAndGet();
+        } catch (JMSException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Prints the distribution of the mean and the maximum latency over the subscriptions that received messages. A
+     * histogram per subscription would take more heap than the subscription itself, so only the sum, count and maximum
+     * are kept for each one.
+     */
+    private void printSubscriptionLatencies() {
+        LatencyHistogram means = new LatencyHistogram();
+        LatencyHistogram maxima = new LatencyHistogram();
+        int idle = 0;
+        for (int i = 0; i < subscriptions; i++) {
+            long count = subscriptionCounts.get(i);
+            if (count == 0) {
+                idle++;
+                continue;
+            }
+            means.recordValue(subscriptionLatencySums.get(i) / count);
+            maxima.recordValue(subscriptionLatencyMaxima.get(i));
+        }
+        means.printSummary(System.out, "Per-subscription mean");
+        maxima.printSummary(System.out, "Per-subscription max");
+        System.out.printf("%d subscriptions received no messages.%n", idle);
+    }
+
+    /**
+     * Generates the subscription patterns and counts how many of them match every leaf topic.
+     */
+    private void generateSubscriptions(int wildcardPercent, Random random) {
+        for (int i = 0; i < subscriptions; i++) {
+            int[] pattern = new int[levels.length];
+            for (int l = 0; l < levels.length; l++) {
+                pattern[l] = random.nextInt(levels[l]);
+            }
+            if (random.nextInt(100) < wildcardPercent) {
+                wildcardSubscriptions++;
+                if (levels.length > 1 && random.nextBoolean()) {
+                    // '>' below a prefix of at least one level
+                    prefixLevels[i] = 1 + random.nextInt(levels.length - 1);
+                } else {
+                    pattern[random.nextInt(levels.length)] = ANY;
+                }
+            }
+            patterns[i] = pattern;
+            for (int leaf = 0; leaf < leaves; leaf++) {
+                if (matches(i, leaf)) {
+                    fanOut[leaf]++;
+                }
+            }
+        }
+    }
+
+    private boolean matches(int subscription, int leaf) {
+        int[] pattern = patterns[subscription];
+        int matchedLevels = prefixLevels[subscription] > 0 ? prefixLevels[subscription] : levels.length;
+        for (int l = levels.length - 1; l >= 0; l--) {
+            int branch = leaf % levels[l];
+            leaf /= levels[l];
+            if (l < matchedLevels && pattern[l] != ANY && pattern[l] != branch) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String topicName(int subscription) {
+        StringBuilder name = new StringBuilder(TOPIC_PREFIX);
+        int[] pattern = patterns[subscription];
+        int matchedLevels = prefixLevels[subscription] > 0 ? prefixLevels[subscription] : levels.length;
+        for (int l = 0; l < matchedLevels; l++) {
+            name.append('/');
+            if (pattern[l] == ANY) {
+                name.append('*');
+            } else {
+                name.append(pattern[l]);
+            }
+        }
+        if (prefixLevels[subscription] > 0) {
+            name.append("/>");
+        }
+        return name.toString();
+    }
+
+    private String leafTopicName(int leaf) {
+        String[] branches = new String[levels.length];
+        for (int l = levels.length - 1; l >= 0; l--) {
+            branches[l] = Integer.toString(leaf % levels[l]);
+            leaf /= levels[l];
+        }
+        return TOPIC_PREFIX + '/' + String.join("/", branches);
+    }
+}
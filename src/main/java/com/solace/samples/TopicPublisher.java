@@ -23,9 +23,19 @@
 
 package com.solace.samples;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jms.BytesMessage;
 import javax.jms.ConnectionFactory;
 import javax.jms.DeliveryMode;
 import javax.jms.JMSContext;
+import javax.jms.JMSProducer;
+import javax.jms.Message;
 import javax.jms.TextMessage;
 import javax.jms.Topic;
 
@@ -35,11 +45,23 @@ import org.apache.qpid.jms.JmsConnectionFactory;
  * Publishes a messages to a topic using Apache Qpid JMS 2.0 API over AMQP 1.0. Solace Message Router is used as the message broker.
  *
  * This is the Publisher in the Publish/Subscribe messaging pattern.
+ *
+ * When started with additional options the sample runs in load mode: one or more publisher threads, each with its own
+ * {@link JMSContext}, send pipelined asynchronous messages at a target rate and report the achieved throughput and
+ * send-completion latency percentiles.
+ *
+ * With {@code --codec} the load is generated JSON sent as BytesMessages, compressed by {@link PayloadCompression}
+ * when it is at least {@code --compress-threshold} bytes.
+ *
+ * With {@code --target-p99} the rate is not fixed: a {@link RateController} starts at {@code --rate} and adjusts it to
+ * keep the p99 send-completion latency below the target.
  */
 public class TopicPublisher {
 
     final String TOPIC_NAME = "T/GettingStarted/pubsub";
 
+    final long DEFAULT_MESSAGE_COUNT = 100000;
+
     private void run(String... args) throws Exception {
         String solaceHost = args[0];
         String solaceUsername = args[1];
@@ -60,6 +82,9 @@ public class TopicPublisher {
             // Create the message
             TextMessage message = context.createTextMessage("Hello world!");
 
+            // lets subscribers measure end-to-end latency
+            SendTimestamp.stamp(message);
+
             System.out.printf("Sending message '%s' to topic '%s'...%n", message.getText(), topic.toString());
 
             // Create producer and publish the message
@@ -69,12 +94,139 @@ public class TopicPublisher {
         }
     }
 
+    @SuppressWarnings("try")
+    private void runLoad(String solaceHost, String solaceUsername, String solacePassword, SampleOptions options)
+            throws Exception {
+        final int threads = options.getInt("threads", 1);
+        final long rate = options.getLong("rate", 0);
+        final long durationMs = TimeUnit.SECONDS.toMillis(options.getLong("duration", 0));
+        final long count = durationMs > 0 ? Long.MAX_VALUE : options.getLong("count", DEFAULT_MESSAGE_COUNT);
+        final int window = options.getInt("window", 1000);
+        char[] filler = new char[options.getInt("size", 100)];
+        Arrays.fill(filler, 'x');
+        final String payload = new String(filler);
+        final PayloadCompression compression = options.has("codec") ? PayloadCompression.fromOptions(options) : null;
+        final ByteBuffer[] jsonPayloads = compression != null ? JsonPayload.generate(filler.length, 64, 1) : null;
+        final RateController rateController = RateController.fromOptions("Publish rate", options);
+
+        System.out.printf("TopicPublisher is publishing to %s with %d thread(s), rate %s, %s, %d byte payload...%n",
+                solaceHost, threads, rateController != null
+                        ? "adaptive for a p99 of " + options.getLong("target-p99", 0) + " msecs"
+                        : rate > 0 ? rate + " msgs/sec" : "unlimited",
+                durationMs > 0 ? options.getLong("duration", 0) + " seconds" : count + " messages", filler.length);
+
+        ConnectionFactory connectionFactory = new JmsConnectionFactory(solaceUsername, solacePassword, solaceHost);
+        final LatencyRecorder latency = new LatencyRecorder("Send completion");
+        final AtomicLong sent = new AtomicLong();
+        final AtomicLong completed = new AtomicLong();
+        final AtomicLong failed = new AtomicLong();
+        if (rateController != null) {
+            SampleMetrics.register(rateController);
+        }
+
+        // by default every publisher gets a connection of its own
+        try (ContextPool pool = new ContextPool(connectionFactory, options.getInt("connections", threads), 0);
+                LatencyReporter reporter = new LatencyReporter(options, latency)) {
+            final long startNanos = System.nanoTime();
+            final long deadline = durationMs > 0 ? startNanos + TimeUnit.MILLISECONDS.toNanos(durationMs)
+                    : Long.MAX_VALUE;
+
+            List<Thread> publishers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                // spread the message count and the rate evenly over the publisher threads
+                final long threadCount = count == Long.MAX_VALUE ? count
+                        : count / threads + (t < count % threads ? 1 : 0);
+                final long intervalNanos = rate > 0 && rateController == null
+                        ? TimeUnit.SECONDS.toNanos(threads) / rate : 0;
+                Thread publisher = new Thread(() -> {
+                    // every publisher has its own session, on one of the pooled connections
+                    try (JMSContext context = pool.createContext(JMSContext.AUTO_ACKNOWLEDGE)) {
+                        Topic topic = context.createTopic(TOPIC_NAME);
+                        SendWindow sendWindow = new SendWindow(window, latency);
+                        sendWindow.setRateController(rateController);
+                        JMSProducer producer = context.createProducer().setDeliveryMode(DeliveryMode.NON_PERSISTENT)
+                                .setAsync(sendWindow);
+
+                        long nextSendNanos = System.nanoTime();
+                        for (long i = 0; i < threadCount; i++) {
+                            long now = System.nanoTime();
+                            if (durationMs > 0 && now - deadline >= 0) {
+                                break;
+                            }
+                            if (intervalNanos > 0) {
+                                // pace the sends against a fixed schedule so that the rate does not drift
+                                if (nextSendNanos - now > 0) {
+                                    TimeUnit.NANOSECONDS.sleep(nextSendNanos - now);
+                                }
+                                nextSendNanos += intervalNanos;
+                            } else if (rateController != null) {
+                                rateController.acquire();
+                            }
+                            Message message;
+                            if (compression != null) {
+                                BytesMessage bytesMessage = context.createBytesMessage();
+                                compression.write(bytesMessage, jsonPayloads[(int) (i % jsonPayloads.length)]);
+                                message = bytesMessage;
+                            } else {
+                                message = context.createTextMessage(payload);
+                            }
+                            SendTimestamp.stamp(message);
+                            sendWindow.send(producer, topic, message);
+                            sent.incrementAndGet();
+                        }
+                        if (!sendWindow.awaitCompletion(30, TimeUnit.SECONDS)) {
+                            System.out.println("Timed out waiting for outstanding sends to complete.");
+                        }
+                        completed.addAndGet(sendWindow.getCompleted());
+                        failed.addAndGet(sendWindow.getFailed());
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }, "TopicPublisher-" + t);
+                publishers.add(publisher);
+                publisher.start();
+            }
+            for (Thread publisher : publishers) {
+                publisher.join();
+            }
+
+            double elapsedSeconds = (System.nanoTime() - startNanos) / 1e9;
+            System.out.printf("Sent %d messages (%d completed, %d failed) in %.2f seconds.%n", sent.get(),
+                    completed.get(), failed.get(), elapsedSeconds);
+            System.out.printf("Throughput: %.0f msgs/sec, %.2f MB/sec%n", completed.get() / elapsedSeconds,
+                    completed.get() * (double) filler.length / elapsedSeconds / (1024 * 1024));
+            if (compression != null) {
+                compression.printSummary(System.out);
+                System.out.printf("Wire throughput: %.2f MB/sec%n",
+                        compression.getEncodedBytes() / elapsedSeconds / (1024 * 1024));
+            }
+            if (rateController != null) {
+                rateController.printSummary(System.out);
+            }
+        } finally {
+            if (rateController != null) {
+                SampleMetrics.unregister(rateController);
+            }
+        }
+    }
+
     public static void main(String[] args) throws Exception {
         if (args.length < 3) {
-            System.out.println("Usage: TopicPublisher amqp://<msg_backbone_ip:amqp_port> <username> <password>");
+            System.out.println("Usage: TopicPublisher amqp://<msg_backbone_ip:amqp_port> <username> <password>"
+                    + " [--rate <msgs/sec>] [--count <messages> | --duration <seconds>] [--size <bytes>]"
+                    + " [--threads <publishers>] [--connections <connections>]"
+                    + " [--window <in-flight sends per publisher>]"
+                    + " [--codec none|deflate[:<level>]|<codec>] [--compress-threshold <bytes>]"
+                    + " [--target-p99 <msecs> [--max-rate <msgs/sec>] [--rate-increase <msgs/sec>]"
+                    + " [--control-interval <msecs>]]");
             System.exit(-1);
         }
-        new TopicPublisher().run(args);
+        SampleOptions options = new SampleOptions(args, 3);
+        if (options.isEmpty()) {
+            new TopicPublisher().run(args);
+        } else {
+            new TopicPublisher().runLoad(args[0], args[1], args[2], options);
+        }
     }
 
 }
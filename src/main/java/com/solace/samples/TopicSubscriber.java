@@ -23,8 +23,10 @@
 
 package com.solace.samples;
 
+import javax.jms.BytesMessage;
 import javax.jms.ConnectionFactory;
 import javax.jms.JMSContext;
+import javax.jms.Message;
 import javax.jms.Topic;
 
 import org.apache.qpid.jms.JmsConnectionFactory;
@@ -34,6 +36,10 @@ import org.apache.qpid.jms.JmsConnectionFactory;
  * message broker.
  *
  * This is the Subscriber in the Publish/Subscribe messaging pattern.
+ *
+ * When started with additional options the sample runs in fan-out mode: a {@link TopicFanOut} opens thousands of
+ * subscriptions, some with wildcards, and measures the fan-out rate, the delivery latency per subscription and the
+ * threads and heap the subscriptions use.
  */
 public class TopicSubscriber {
 
@@ -59,17 +65,35 @@ public class TopicSubscriber {
             System.out.println("Awaiting message...");
             // create consumer and wait for a message to arrive.
             // the current thread blocks at the next statement until a message arrives
-            String message = context.createConsumer(topic).receiveBody(String.class);
+            Message message = context.createConsumer(topic).receive();
 
-            System.out.printf("Message received: '%s'%n", message);
+            if (message instanceof BytesMessage) {
+                // decompresses the body if the publisher compressed it
+                QueueConsumer.printBytesMessage((BytesMessage) message);
+            } else {
+                System.out.printf("Message received: '%s'%n", message.getBody(String.class));
+            }
+            long latencyMicros = SendTimestamp.latencyMicros(message);
+            if (latencyMicros >= 0) {
+                System.out.printf("End-to-end latency: %d usec%n", latencyMicros);
+            }
         }
     }
 
     public static void main(String[] args) throws Exception {
         if (args.length < 3) {
-            System.out.println("Usage: TopicSubscriber amqp://<msg_backbone_ip:amqp_port> <username> <password>");
+            System.out.println("Usage: TopicSubscriber amqp://<msg_backbone_ip:amqp_port> <username> <password>"
+                    + " [--subscriptions <subscriptions>] [--connections <connections>]"
+                    + " [--sessions <sessions per connection>] [--levels <branches>,<branches>,...]"
+                    + " [--wildcards <percent>] [--workers <threads>] [--rate <msgs/sec>] [--duration <seconds>]"
+                    + " [--size <bytes>]");
             System.exit(-1);
         }
-        new TopicSubscriber().run(args);
+        SampleOptions options = new SampleOptions(args, 3);
+        if (options.isEmpty()) {
+            new TopicSubscriber().run(args);
+        } else {
+            new TopicFanOut(args[0], args[1], args[2], options).run();
+        }
     }
 }
@@ -23,17 +23,51 @@
 
 package com.solace.samples.features;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
 import javax.jms.ConnectionFactory;
+import javax.jms.JMSConsumer;
 import javax.jms.JMSContext;
+import javax.jms.Message;
 import javax.jms.Topic;
 
 import org.apache.qpid.jms.JmsConnectionFactory;
+import org.apache.qpid.jms.policy.JmsDefaultPrefetchPolicy;
+
+import com.solace.samples.DedupCache;
+import com.solace.samples.LatencyRecorder;
+import com.solace.samples.LatencyReporter;
+import com.solace.samples.SampleMetrics;
+import com.solace.samples.SampleOptions;
+import com.solace.samples.SendTimestamp;
 
 /**
 * This sample shows how to create a Durable JMS Subscription using Apache Qpid JMS 2.0 API over AMQP 1.0.  Solace messaging is used as the
 * message broker. In Solace messaging, durable JMS subscriptions are implemented using Durable Topic Endpoints (DTEs).
  *
  * This is the Subscriber in the Publish/Subscribe messaging pattern.
+ *
+ * When started with additional options the sample runs in catch-up mode, for a subscription that has built up a large
+ * backlog while its application was down. It first drains the backlog as fast as possible, with a large prefetch, a
+ * message listener and DUPS_OK_ACKNOWLEDGE, which lets the client acknowledge lazily in batches. Once messages arrive
+ * within {@code --live-threshold} milliseconds of being sent, or no message has arrived for {@code --idle-timeout}
+ * seconds, it reports the drain rate and the time it took to reach the live tail. It then reconnects with a small
+ * prefetch, which keeps latency low and lets other consumers share the load, and reports the live end-to-end latency.
+ *
+ * With {@code --shared} the sample instead consumes a JMS 2.0 shared durable subscription, or with
+ * {@code --non-durable} a shared non-durable one, with {@code --consumers} consumers, each on its own connection. A
+ * shared subscription needs no client ID and load-balances its messages over all its consumers, in this process and in
+ * any other process that consumes the same subscription, so topic processing can be scaled out over several nodes.
+ *
+ * With {@code --dedup} a {@link DedupCache} drops messages that are redelivered after they have been processed, such
+ * as the messages the catch-up phase received but had not yet acknowledged with DUPS_OK when it reconnected. The cache
+ * is kept for the whole run, and with {@code --dedup-file} across runs.
  */
 public class DurableTopicSubscriber {
 
@@ -41,6 +75,13 @@ public class DurableTopicSubscriber {
     // The JMS Subscription name is the DTE name.
     final String SUBSCRIPTION_NAME = "GettingStarted_DTE";
     final String CLIENT_ID = "GettingStarted";
+    final String SHARED_SUBSCRIPTION_NAME = "GettingStarted_Shared";
+
+    final int DEFAULT_CATCH_UP_PREFETCH = 10000;
+    final int DEFAULT_LIVE_PREFETCH = 1;
+    final long DEFAULT_LIVE_THRESHOLD_MILLIS = 1000;
+    final long DEFAULT_IDLE_TIMEOUT_SECONDS = 5;
+    final int DEFAULT_SHARED_PREFETCH = 10;
 
     private void run(String... args) throws Exception {
         String solaceHost = args[0];
@@ -66,17 +107,239 @@ public class DurableTopicSubscriber {
             // create or activate a Durable JMS Subscription
             // create a consumer and wait for a message to arrive.
             // the current thread blocks at the next statement until a message arrives
-            String message = context.createDurableConsumer(topic, SUBSCRIPTION_NAME).receiveBody(String.class);
+            Message message = context.createDurableConsumer(topic, SUBSCRIPTION_NAME).receive();
+
+            System.out.printf("Message received: '%s'%n", message.getBody(String.class));
+            long latencyMicros = SendTimestamp.latencyMicros(message);
+            if (latencyMicros >= 0) {
+                System.out.printf("End-to-end latency: %d usec%n", latencyMicros);
+            }
+        }
+    }
+
+    @SuppressWarnings("try")
+    private void runCatchUp(String solaceHost, String solaceUsername, String solacePassword, SampleOptions options)
+            throws Exception {
+        int catchUpPrefetch = options.getInt("prefetch", DEFAULT_CATCH_UP_PREFETCH);
+        int livePrefetch = options.getInt("live-prefetch", DEFAULT_LIVE_PREFETCH);
+        long liveThresholdMicros = TimeUnit.MILLISECONDS.toMicros(options.getLong("live-threshold",
+                DEFAULT_LIVE_THRESHOLD_MILLIS));
+        long idleTimeoutNanos = TimeUnit.SECONDS.toNanos(options.getLong("idle-timeout", DEFAULT_IDLE_TIMEOUT_SECONDS));
+        long durationSeconds = options.getLong("duration", 0);
+        String dedupKey = options.getString("dedup-key", null);
+
+        try (DedupCache dedup = DedupCache.fromOptions(options)) {
+            System.out.printf("DurableTopicSubscriber is catching up on subscription '%s' on %s with a prefetch of"
+                    + " %d...%n", SUBSCRIPTION_NAME, solaceHost, catchUpPrefetch);
 
-            System.out.printf("Message received: '%s'%n", message);
+            // catch-up phase: a large prefetch keeps the link full while the listener drains the backlog
+            LatencyRecorder catchUpLatency = new LatencyRecorder("Catch-up end-to-end");
+            AtomicLong received = new AtomicLong();
+            AtomicLong lastReceiveNanos = new AtomicLong();
+            CountDownLatch caughtUp = new CountDownLatch(1);
+            long startNanos = System.nanoTime();
+            long liveTailNanos;
+            try (JMSContext context = createFactory(solaceUsername, solacePassword, solaceHost, catchUpPrefetch)
+                    .createContext(JMSContext.DUPS_OK_ACKNOWLEDGE)) {
+                context.setClientID(CLIENT_ID);
+                Topic topic = context.createTopic(TOPIC_NAME);
+                context.createDurableConsumer(topic, SUBSCRIPTION_NAME).setMessageListener(message -> {
+                    received.incrementAndGet();
+                    lastReceiveNanos.set(System.nanoTime());
+                    try {
+                        SampleMetrics.received(message);
+                        if (dedup != null && dedup.isDuplicate(message, dedupKey)) {
+                            return;
+                        }
+                        long latencyMicros = SendTimestamp.latencyMicros(message);
+                        if (latencyMicros >= 0) {
+                            catchUpLatency.recordValue(latencyMicros);
+                            // a recent message means the backlog has been consumed
+                            if (latencyMicros < liveThresholdMicros) {
+                                caughtUp.countDown();
+                            }
+                        }
+                        if (dedup != null) {
+                            dedup.markProcessed(message, dedupKey);
+                        }
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                });
+                // an empty backlog, or one without send timestamps, is detected by the lack of messages
+                long listeningNanos = System.nanoTime();
+                while (!caughtUp.await(100, TimeUnit.MILLISECONDS)) {
+                    long idleSinceNanos = received.get() == 0 ? listeningNanos : lastReceiveNanos.get();
+                    if (System.nanoTime() - idleSinceNanos >= idleTimeoutNanos) {
+                        break;
+                    }
+                }
+                if (caughtUp.getCount() == 0) {
+                    liveTailNanos = System.nanoTime() - startNanos;
+                } else {
+                    // the idle time at the end is not part of the catch-up
+                    liveTailNanos = received.get() == 0 ? 0 : lastReceiveNanos.get() - startNanos;
+                }
+                // closing the context releases the prefetched messages that have not been delivered to the listener
+            }
+            double liveTailSeconds = Math.max(liveTailNanos, 1) / 1e9;
+            System.out.printf("Caught up after %.2f seconds: drained %d backlogged messages at %.0f msgs/sec.%n",
+                    liveTailSeconds, received.get(), received.get() / liveTailSeconds);
+            catchUpLatency.getTotal().printSummary(System.out, catchUpLatency.getName());
+
+            // live phase: a small prefetch so that messages are not held back in a deep client-side buffer
+            System.out.printf("Switching to live mode with a prefetch of %d%s...%n", livePrefetch,
+                    durationSeconds > 0 ? " for " + durationSeconds + " seconds" : "");
+            LatencyRecorder liveLatency = new LatencyRecorder("Live end-to-end");
+            AtomicLong liveReceived = new AtomicLong();
+            try (JMSContext context = createFactory(solaceUsername, solacePassword, solaceHost, livePrefetch)
+                    .createContext(JMSContext.AUTO_ACKNOWLEDGE);
+                    LatencyReporter reporter = new LatencyReporter(options, liveLatency)) {
+                context.setClientID(CLIENT_ID);
+                Topic topic = context.createTopic(TOPIC_NAME);
+                context.createDurableConsumer(topic, SUBSCRIPTION_NAME).setMessageListener(message -> {
+                    liveReceived.incrementAndGet();
+                    try {
+                        SampleMetrics.received(message);
+                        if (dedup != null && dedup.isDuplicate(message, dedupKey)) {
+                            return;
+                        }
+                        liveLatency.recordEndToEnd(message);
+                        if (dedup != null) {
+                            dedup.markProcessed(message, dedupKey);
+                        }
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                });
+                if (durationSeconds > 0) {
+                    Thread.sleep(TimeUnit.SECONDS.toMillis(durationSeconds));
+                } else {
+                    Thread.currentThread().join();
+                }
+                System.out.printf("Received %d live messages.%n", liveReceived.get());
+            }
+            if (dedup != null) {
+                dedup.printSummary(System.out);
+            }
         }
     }
 
+    @SuppressWarnings("try")
+    private void runShared(String solaceHost, String solaceUsername, String solacePassword, SampleOptions options)
+            throws Exception {
+        int consumerCount = options.getInt("consumers", 4);
+        boolean durable = !options.getBoolean("non-durable");
+        int prefetch = options.getInt("prefetch", DEFAULT_SHARED_PREFETCH);
+        long handlerCostNanos = TimeUnit.MICROSECONDS.toNanos(options.getLong("handler-cost", 0));
+        long durationSeconds = options.getLong("duration", 0);
+        String dedupKey = options.getString("dedup-key", null);
+
+        System.out.printf("DurableTopicSubscriber is consuming shared %s subscription '%s' on %s with %d consumer(s)"
+                + " and a prefetch of %d...%n", durable ? "durable" : "non-durable", SHARED_SUBSCRIPTION_NAME,
+                solaceHost, consumerCount, prefetch);
+
+        // a small prefetch keeps a consumer from holding on to messages that an idle one could process
+        JmsConnectionFactory connectionFactory = new JmsConnectionFactory(solaceUsername, solacePassword, solaceHost);
+        JmsDefaultPrefetchPolicy prefetchPolicy = new JmsDefaultPrefetchPolicy();
+        prefetchPolicy.setDurableTopicPrefetch(prefetch);
+        prefetchPolicy.setTopicPrefetch(prefetch);
+        connectionFactory.setPrefetchPolicy(prefetchPolicy);
+
+        LatencyRecorder latency = new LatencyRecorder("End-to-end");
+        AtomicLongArray received = new AtomicLongArray(consumerCount);
+        List<JMSContext> contexts = new ArrayList<>();
+        // the cache is shared by the consumers, as a redelivered message can go to any of them
+        try (LatencyReporter reporter = new LatencyReporter(options, latency);
+                DedupCache dedup = DedupCache.fromOptions(options)) {
+            long startNanos = System.nanoTime();
+            try {
+                for (int c = 0; c < consumerCount; c++) {
+                    final int consumer = c;
+                    // no client ID: the subscription is shared by every connection that uses its name
+                    JMSContext context = connectionFactory.createContext(JMSContext.AUTO_ACKNOWLEDGE);
+                    contexts.add(context);
+                    Topic topic = context.createTopic(TOPIC_NAME);
+                    JMSConsumer sharedConsumer = durable
+                            ? context.createSharedDurableConsumer(topic, SHARED_SUBSCRIPTION_NAME)
+                            : context.createSharedConsumer(topic, SHARED_SUBSCRIPTION_NAME);
+                    sharedConsumer.setMessageListener(message -> {
+                        received.incrementAndGet(consumer);
+                        try {
+                            SampleMetrics.received(message);
+                            if (dedup != null && dedup.isDuplicate(message, dedupKey)) {
+                                return;
+                            }
+                            // stands in for processing, such as a database write
+                            if (handlerCostNanos > 0) {
+                                LockSupport.parkNanos(handlerCostNanos);
+                            }
+                            latency.recordEndToEnd(message);
+                            if (dedup != null) {
+                                dedup.markProcessed(message, dedupKey);
+                            }
+                        } catch (Exception e) {
+                            e.printStackTrace();
+                        }
+                    });
+                }
+                if (durationSeconds > 0) {
+                    Thread.sleep(TimeUnit.SECONDS.toMillis(durationSeconds));
+                } else {
+                    Thread.currentThread().join();
+                }
+            } finally {
+                // a durable subscription remains on the broker, with the messages that arrive while no consumer is
+                // attached
+                for (JMSContext context : contexts) {
+                    context.close();
+                }
+            }
+            double elapsedSeconds = (System.nanoTime() - startNanos) / 1e9;
+
+            long total = 0;
+            StringBuilder counts = new StringBuilder();
+            for (int c = 0; c < consumerCount; c++) {
+                total += received.get(c);
+                counts.append(c == 0 ? "" : ", ").append(received.get(c));
+            }
+            System.out.printf("Received %d messages (%s) in %.2f seconds: %.0f msgs/sec.%n", total, counts,
+                    elapsedSeconds, total / elapsedSeconds);
+            if (dedup != null) {
+                dedup.printSummary(System.out);
+            }
+        }
+    }
+
+    private ConnectionFactory createFactory(String solaceUsername, String solacePassword, String solaceHost,
+            int prefetch) {
+        JmsConnectionFactory connectionFactory = new JmsConnectionFactory(solaceUsername, solacePassword, solaceHost);
+        // the same setting as the "jms.prefetchPolicy.durableTopicPrefetch" connection URI option
+        JmsDefaultPrefetchPolicy prefetchPolicy = new JmsDefaultPrefetchPolicy();
+        prefetchPolicy.setDurableTopicPrefetch(prefetch);
+        connectionFactory.setPrefetchPolicy(prefetchPolicy);
+        return connectionFactory;
+    }
+
     public static void main(String[] args) throws Exception {
         if (args.length < 3) {
-            System.out.println("Usage: DurableTopicSubscriber amqp://<msg_backbone_ip:amqp_port> <username> <password>");
+            System.out.println("Usage: DurableTopicSubscriber amqp://<msg_backbone_ip:amqp_port> <username> <password>"
+                    + " [--catch-up] [--prefetch <messages>] [--live-prefetch <messages>]"
+                    + " [--live-threshold <ms>] [--idle-timeout <seconds>] [--duration <seconds>]"
+                    + " [--dedup [--dedup-key <property>] [--dedup-size <entries>] [--dedup-ttl <seconds>]"
+                    + " [--dedup-file <file> [--dedup-snapshot-interval <ms>]]]");
+            System.out.println("       DurableTopicSubscriber amqp://<msg_backbone_ip:amqp_port> <username> <password>"
+                    + " --shared [--non-durable] [--consumers <consumers>] [--prefetch <messages>]"
+                    + " [--handler-cost <usec>] [--duration <seconds>] [--dedup ...]");
             System.exit(-1);
         }
-        new DurableTopicSubscriber().run(args);
+        SampleOptions options = new SampleOptions(args, 3);
+        if (options.isEmpty()) {
+            new DurableTopicSubscriber().run(args);
+        } else if (options.getBoolean("shared")) {
+            new DurableTopicSubscriber().runShared(args[0], args[1], args[2], options);
+        } else {
+            new DurableTopicSubscriber().runCatchUp(args[0], args[1], args[2], options);
+        }
     }
 }
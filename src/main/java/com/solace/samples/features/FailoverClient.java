@@ -0,0 +1,412 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ *  Apache Qpid JMS 2.0 Solace AMQP Examples: FailoverClient
+ */
+
+package com.solace.samples.features;
+
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jms.DeliveryMode;
+import javax.jms.IllegalStateRuntimeException;
+import javax.jms.JMSConsumer;
+import javax.jms.JMSContext;
+import javax.jms.JMSException;
+import javax.jms.JMSProducer;
+import javax.jms.JMSRuntimeException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
+import javax.jms.Queue;
+import javax.jms.Session;
+
+import org.apache.qpid.jms.JmsConnection;
+import org.apache.qpid.jms.JmsConnectionFactory;
+import org.apache.qpid.jms.JmsConnectionListener;
+import org.apache.qpid.jms.JmsContext;
+import org.apache.qpid.jms.message.JmsInboundMessageDispatch;
+
+import com.solace.samples.LatencyRecorder;
+import com.solace.samples.LatencyReporter;
+import com.solace.samples.SampleMetrics;
+import com.solace.samples.SampleOptions;
+import com.solace.samples.SendTimestamp;
+import com.solace.samples.SendWindow;
+
+/**
+ * This sample shows how a long-running publisher and consumer ride through broker restarts with the Apache Qpid JMS
+ * failover transport, and measures what each restart costs.
+ *
+ * The connection URI is wrapped in {@code failover:(...)} unless it already is one, so that the client reconnects
+ * transparently instead of failing. The publisher sends persistent messages asynchronously through a {@link SendWindow}
+ * that keeps at most {@code --window} unacknowledged messages. The window is the bounded in-memory resend buffer: a
+ * send that fails, for example because the connection was lost before the broker acknowledged it, is sent again. Every
+ * message carries a sequence number, so the consumer can count duplicates and, at the end, the messages that were lost.
+ *
+ * A {@link JmsConnectionListener} on each connection reports when it is interrupted and restored. The sample prints the
+ * publish and receive rates every second, and for every interruption how long it lasted and how deep and how long the
+ * throughput dip was. Kill and restart the broker by hand while the sample runs, or run it against the embedded broker
+ * of the sample harness started with {@code --restart-interval <seconds>}, which then restarts itself periodically.
+ */
+public class FailoverClient {
+
+    final String QUEUE_NAME = "Q/failover";
+
+    static final String SEQUENCE_PROPERTY = "FailoverSequence";
+
+    // reconnect at once, then back off up to a second between attempts, and never give up
+    static final String DEFAULT_FAILOVER_OPTIONS = "failover.initialReconnectDelay=0&failover.reconnectDelay=100"
+            + "&failover.maxReconnectDelay=1000&failover.maxReconnectAttempts=-1";
+
+    /**
+     * Records the interruptions of one connection.
+     */
+    static class InterruptionMonitor implements JmsConnectionListener {
+        final String name;
+        final List<long[]> interruptions = Collections.synchronizedList(new ArrayList<>());
+        private volatile long interruptedNanos;
+
+        InterruptionMonitor(String name) {
+            this.name = name;
+        }
+
+        boolean isInterrupted() {
+            return interruptedNanos != 0;
+        }
+
+        @Override
+        public void onConnectionInterrupted(URI remoteURI) {
+            interruptedNanos = System.nanoTime();
+            System.out.printf("%s connection to %s interrupted, reconnecting...%n", name, remoteURI);
+        }
+
+        @Override
+        public void onConnectionRestored(URI remoteURI) {
+            long now = System.nanoTime();
+            long started = interruptedNanos;
+            interruptedNanos = 0;
+            if (started != 0) {
+                interruptions.add(new long[] { started, now });
+                System.out.printf("%s connection restored to %s after %d ms.%n", name, remoteURI,
+                        TimeUnit.NANOSECONDS.toMillis(now - started));
+            }
+        }
+
+        @Override
+        public void onConnectionFailure(Throwable error) {
+            // only called once failover has given up
+            System.out.printf("%s connection failed: %s%n", name, error);
+        }
+
+        @Override
+        public void onConnectionEstablished(URI remoteURI) {
+        }
+
+        @Override
+        public void onInboundMessage(JmsInboundMessageDispatch envelope) {
+        }
+
+        @Override
+        public void onSessionClosed(Session session, Throwable cause) {
+        }
+
+        @Override
+        public void onConsumerClosed(MessageConsumer consumer, Throwable cause) {
+        }
+
+        @Override
+        public void onProducerClosed(MessageProducer producer, Throwable cause) {
+        }
+    }
+
+    private final InterruptionMonitor publisherMonitor = new InterruptionMonitor("Publisher");
+    private final InterruptionMonitor consumerMonitor = new InterruptionMonitor("Consumer");
+    private final LatencyRecorder sendLatency = new LatencyRecorder("Send completion");
+    private final LatencyRecorder endToEndLatency = new LatencyRecorder("End-to-end");
+
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong resent = new AtomicLong();
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+    private final BitSet seen = new BitSet();
+    private volatile boolean publishing = true;
+
+    // messages received in every second of the run
+    private final List<Long> receiveRates = Collections.synchronizedList(new ArrayList<>());
+
+    @SuppressWarnings("try")
+    private void run(String solaceHost, String solaceUsername, String solacePassword, SampleOptions options)
+            throws Exception {
+        String uri = solaceHost.startsWith("failover:") ? solaceHost
+                : "failover:(" + solaceHost + ")?" + options.getString("failover-options", DEFAULT_FAILOVER_OPTIONS);
+        long durationNanos = TimeUnit.SECONDS.toNanos(options.getLong("duration", 60));
+        long rate = options.getLong("rate", 1000);
+        long idleTimeoutNanos = TimeUnit.SECONDS.toNanos(options.getLong("idle-timeout", 10));
+
+        System.out.printf("FailoverClient is publishing to and consuming from queue '%s' on %s at %d msgs/sec...%n",
+                QUEUE_NAME, uri, rate);
+        JmsConnectionFactory connectionFactory = new JmsConnectionFactory(solaceUsername, solacePassword, uri);
+        long startNanos = System.nanoTime();
+
+        try (JMSContext consumerContext = createContext(connectionFactory, consumerMonitor);
+                JMSContext publisherContext = createContext(connectionFactory, publisherMonitor);
+                LatencyReporter reporter = new LatencyReporter(options, sendLatency, endToEndLatency)) {
+            Thread consumer = new Thread(() -> consume(consumerContext, idleTimeoutNanos), "FailoverClient-consumer");
+            consumer.start();
+            Thread timeline = new Thread(() -> printTimeline(startNanos), "FailoverClient-timeline");
+            timeline.setDaemon(true);
+            timeline.start();
+
+            publish(publisherContext, options.getInt("window", 1000), rate, startNanos + durationNanos);
+            publishing = false;
+            consumer.join();
+            timeline.interrupt();
+
+            long unique;
+            synchronized (seen) {
+                unique = seen.cardinality();
+            }
+            System.out.printf("Published %d messages, %d of them resent after a failed send.%n", published.get(),
+                    resent.get());
+            System.out.printf("Received %d messages: %d unique, %d duplicates, %d lost.%n", received.get(), unique,
+                    duplicates.get(), published.get() - unique);
+            printInterruptions(startNanos);
+        }
+    }
+
+    /**
+     * Creates a context on a connection of its own, with the monitor registered as a connection listener.
+     */
+    private static JMSContext createContext(JmsConnectionFactory connectionFactory, InterruptionMonitor monitor)
+            throws Exception {
+        JmsConnection connection = (JmsConnection) connectionFactory.createConnection();
+        connection.addConnectionListener(monitor);
+        return new JmsContext(connection, JMSContext.AUTO_ACKNOWLEDGE);
+    }
+
+    private void publish(JMSContext context, int window, long rate, long deadlineNanos) throws Exception {
+        Queue queue = context.createQueue(QUEUE_NAME);
+        SendWindow sendWindow = new SendWindow(window, sendLatency, true);
+        JMSProducer producer = context.createProducer().setDeliveryMode(DeliveryMode.PERSISTENT).setAsync(sendWindow);
+        // failed sends are resent before new messages, in the order they failed
+        Deque<Message> resendBuffer = new ArrayDeque<>();
+        long intervalNanos = rate > 0 ? TimeUnit.SECONDS.toNanos(1) / rate : 0;
+        long nextSendNanos = System.nanoTime();
+        long drainDeadlineNanos = deadlineNanos + TimeUnit.SECONDS.toNanos(60);
+
+        while (true) {
+            Message failed;
+            while ((failed = sendWindow.pollFailed()) != null) {
+                resendBuffer.add(failed);
+            }
+            long now = System.nanoTime();
+            Message message = resendBuffer.poll();
+            if (message != null) {
+                message = copyForResend(context, message);
+                resent.incrementAndGet();
+            } else if (now - deadlineNanos < 0) {
+                if (intervalNanos > 0) {
+                    // pace the sends against a fixed schedule, so that messages held up by an outage are caught up
+                    if (nextSendNanos - now > 0) {
+                        TimeUnit.NANOSECONDS.sleep(Math.min(nextSendNanos - now, TimeUnit.MILLISECONDS.toNanos(10)));
+                        continue;
+                    }
+                    nextSendNanos += intervalNanos;
+                }
+                message = context.createTextMessage("Failover test message");
+                message.setLongProperty(SEQUENCE_PROPERTY, published.getAndIncrement());
+                // a resent message keeps its first send time, so its latency includes the outage
+                SendTimestamp.stamp(message);
+            } else if (sendWindow.awaitCompletion(100, TimeUnit.MILLISECONDS)) {
+                // a failed send is queued before its window slot is released
+                if ((failed = sendWindow.pollFailed()) == null) {
+                    break;
+                }
+                resendBuffer.add(failed);
+                continue;
+            } else {
+                // wait for the last sends, resending any that fail, for up to a minute
+                if (now - drainDeadlineNanos >= 0) {
+                    System.out.println("Timed out waiting for outstanding sends to complete.");
+                    break;
+                }
+                continue;
+            }
+
+            try {
+                sendWindow.send(producer, queue, message);
+            } catch (JMSRuntimeException e) {
+                System.out.printf("Send failed (%s), resending...%n", e.getMessage());
+                resendBuffer.addFirst(message);
+                resent.decrementAndGet();
+                Thread.sleep(100);
+            }
+        }
+    }
+
+    /**
+     * Apache Qpid JMS leaves a message whose asynchronous send failed read-only, so a new message is sent in its place.
+     * The copy keeps the sequence number and the first send time.
+     */
+    private static Message copyForResend(JMSContext context, Message failed) throws JMSException {
+        Message message = context.createTextMessage(failed.getBody(String.class));
+        message.setLongProperty(SEQUENCE_PROPERTY, failed.getLongProperty(SEQUENCE_PROPERTY));
+        message.setLongProperty(SendTimestamp.PROPERTY_NAME, failed.getLongProperty(SendTimestamp.PROPERTY_NAME));
+        return message;
+    }
+
+    private void consume(JMSContext context, long idleTimeoutNanos) {
+        JMSConsumer consumer = context.createConsumer(context.createQueue(QUEUE_NAME));
+        long lastReceiveNanos = System.nanoTime();
+        while (true) {
+            long now = System.nanoTime();
+            if (!publishing) {
+                synchronized (seen) {
+                    if (seen.cardinality() >= published.get()) {
+                        break;
+                    }
+                }
+                if (now - lastReceiveNanos >= idleTimeoutNanos) {
+                    break;
+                }
+            }
+            try {
+                Message message = consumer.receive(100);
+                if (message == null) {
+                    continue;
+                }
+                lastReceiveNanos = System.nanoTime();
+                received.incrementAndGet();
+                SampleMetrics.received(message);
+                endToEndLatency.recordEndToEnd(message);
+                int sequence = (int) message.getLongProperty(SEQUENCE_PROPERTY);
+                synchronized (seen) {
+                    if (seen.get(sequence)) {
+                        duplicates.incrementAndGet();
+                    } else {
+                        seen.set(sequence);
+                    }
+                }
+            } catch (IllegalStateRuntimeException e) {
+                // the consumer was closed, for example because failover gave up
+                System.out.printf("Receive failed: %s%n", e);
+                break;
+            } catch (Exception e) {
+                System.out.printf("Receive failed: %s%n", e);
+            }
+        }
+    }
+
+    /**
+     * Prints the publish and receive rates of every second.
+     */
+    private void printTimeline(long startNanos) {
+        long lastPublished = 0;
+        long lastReceived = 0;
+        try {
+            for (int second = 1;; second++) {
+                long wakeUpNanos = startNanos + TimeUnit.SECONDS.toNanos(second);
+                TimeUnit.NANOSECONDS.sleep(Math.max(wakeUpNanos - System.nanoTime(), 0));
+                long publishedNow = published.get();
+                long receivedNow = received.get();
+                receiveRates.add(receivedNow - lastReceived);
+                System.out.printf("%4ds published %6d/s received %6d/s%s%s%n", second, publishedNow - lastPublished,
+                        receivedNow - lastReceived, publisherMonitor.isInterrupted() ? " (publisher interrupted)" : "",
+                        consumerMonitor.isInterrupted() ? " (consumer interrupted)" : "");
+                lastPublished = publishedNow;
+                lastReceived = receivedNow;
+            }
+        } catch (InterruptedException e) {
+            // finished
+        }
+    }
+
+    /**
+     * Prints every interruption, and the dip in the receive rate that it caused: the lowest rate, how long it took until
+     * the rate was back at 90% of the median rate, and how many messages were received late.
+     */
+    private void printInterruptions(long startNanos) {
+        List<Long> rates;
+        synchronized (receiveRates) {
+            rates = new ArrayList<>(receiveRates);
+        }
+        List<Long> sorted = new ArrayList<>(rates);
+        Collections.sort(sorted);
+        long baseline = sorted.isEmpty() ? 0 : sorted.get(sorted.size() / 2);
+
+        List<long[]> outages = new ArrayList<>();
+        for (InterruptionMonitor monitor : new InterruptionMonitor[] { publisherMonitor, consumerMonitor }) {
+            synchronized (monitor.interruptions) {
+                for (long[] interruption : monitor.interruptions) {
+                    System.out.printf("%s connection was interrupted for %d ms at %.1fs.%n", monitor.name,
+                            TimeUnit.NANOSECONDS.toMillis(interruption[1] - interruption[0]),
+                            (interruption[0] - startNanos) / 1e9);
+                    outages.add(interruption);
+                }
+            }
+        }
+        outages.sort((a, b) -> Long.compare(a[0], b[0]));
+        System.out.printf("Median receive rate: %d msgs/sec%n", baseline);
+
+        // interruptions of both connections caused by the same broker outage are one dip
+        int recoveredSecond = -1;
+        for (long[] outage : outages) {
+            int firstSecond = (int) ((outage[0] - startNanos) / TimeUnit.SECONDS.toNanos(1));
+            int restoredSecond = (int) ((outage[1] - startNanos) / TimeUnit.SECONDS.toNanos(1));
+            if (firstSecond <= recoveredSecond) {
+                continue;
+            }
+            long lowest = Long.MAX_VALUE;
+            long deficit = 0;
+            int second = firstSecond;
+            for (; second < rates.size(); second++) {
+                long secondRate = rates.get(second);
+                if (second > restoredSecond && secondRate >= baseline * 9 / 10) {
+                    break;
+                }
+                lowest = Math.min(lowest, secondRate);
+                deficit += Math.max(baseline - secondRate, 0);
+            }
+            recoveredSecond = second;
+            System.out.printf("Dip after the interruption at %.1fs: lowest rate %d msgs/sec, back to 90%% of the median "
+                    + "after %d s, %d messages behind.%n", (outage[0] - startNanos) / 1e9,
+                    lowest == Long.MAX_VALUE ? baseline : lowest, second - firstSecond, deficit);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.out.println("Usage: FailoverClient <amqp://<msg_backbone_ip:amqp_port> | failover:(<uri>,...)>"
+                    + " <username> <password> [--rate <msgs/sec>] [--duration <seconds>] [--window <messages>]"
+                    + " [--failover-options <options>] [--idle-timeout <seconds>]");
+            System.exit(-1);
+        }
+        new FailoverClient().run(args[0], args[1], args[2], new SampleOptions(args, 3));
+    }
+}
@@ -0,0 +1,105 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ *  Apache Qpid JMS 2.0 Solace AMQP Examples: AllocationMeter
+ */
+
+package com.solace.samples.perf;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Measures the heap memory allocated by all threads of the JVM, and the garbage collections, since the meter was started.
+ *
+ * Allocations are read from the per-thread counters of the HotSpot {@code com.sun.management.ThreadMXBean}. Threads
+ * that end during the measurement are not counted. On JVMs without these counters the allocated bytes are reported as 0.
+ */
+public class AllocationMeter {
+
+    private final com.sun.management.ThreadMXBean threadBean;
+    private final Map<Long, Long> startAllocatedBytes = new HashMap<>();
+    private long startGcCount;
+    private long startGcMillis;
+
+    public AllocationMeter() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        threadBean = bean instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()
+                        ? (com.sun.management.ThreadMXBean) bean
+                        : null;
+        start();
+    }
+
+    public void start() {
+        startAllocatedBytes.clear();
+        if (threadBean != null) {
+            long[] ids = threadBean.getAllThreadIds();
+            long[] allocated = threadBean.getThreadAllocatedBytes(ids);
+            for (int i = 0; i < ids.length; i++) {
+                startAllocatedBytes.put(ids[i], allocated[i]);
+            }
+        }
+        startGcCount = totalGcCount();
+        startGcMillis = totalGcMillis();
+    }
+
+    public long getAllocatedBytes() {
+        if (threadBean == null) {
+            return 0;
+        }
+        long total = 0;
+        long[] ids = threadBean.getAllThreadIds();
+        long[] allocated = threadBean.getThreadAllocatedBytes(ids);
+        for (int i = 0; i < ids.length; i++) {
+            if (allocated[i] > 0) {
+                // threads started during the measurement count from zero
+                total += allocated[i] - startAllocatedBytes.getOrDefault(ids[i], 0L);
+            }
+        }
+        return total;
+    }
+
+    public long getGcCount() {
+        return totalGcCount() - startGcCount;
+    }
+
+    public long getGcMillis() {
+        return totalGcMillis() - startGcMillis;
+    }
+
+    private static long totalGcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(collector.getCollectionCount(), 0);
+        }
+        return count;
+    }
+
+    private static long totalGcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(collector.getCollectionTime(), 0);
+        }
+        return millis;
+    }
+}
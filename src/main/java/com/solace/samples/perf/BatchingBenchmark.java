@@ -0,0 +1,186 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ *  Apache Qpid JMS 2.0 Solace AMQP Examples: BatchingBenchmark
+ */
+
+package com.solace.samples.perf;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.jms.BytesMessage;
+import javax.jms.DeliveryMode;
+import javax.jms.JMSConsumer;
+import javax.jms.JMSContext;
+import javax.jms.JMSProducer;
+import javax.jms.Message;
+import javax.jms.Topic;
+
+import org.apache.qpid.jms.JmsConnectionFactory;
+
+import com.solace.samples.BatchingPublisher;
+import com.solace.samples.BytesPayload;
+import com.solace.samples.LatencyHistogram;
+import com.solace.samples.LatencyRecorder;
+import com.solace.samples.RecordUnbatcher;
+import com.solace.samples.SampleOptions;
+import com.solace.samples.SendTimestamp;
+import com.solace.samples.SendWindow;
+
+/**
+ * Compares publishing small records one message each, the way the TopicPublisher does, with packing them into batches
+ * through a {@link BatchingPublisher}, for several linger times.
+ *
+ * Every record starts with the time it was created, so the consumer, which unbatches with a {@link RecordUnbatcher},
+ * measures the latency of each record including the time it waited in its batch. Records are published at a fixed
+ * {@code --rate}, as lingering only makes sense for a publisher that has gaps between records.
+ */
+public class BatchingBenchmark {
+
+    final String TOPIC_NAME = "T/batching";
+
+    final String DEFAULT_LINGERS = "none,0,1,5,20";
+
+    private void run(String solaceHost, String solaceUsername, String solacePassword, SampleOptions options)
+            throws Exception {
+        String[] lingers = options.getString("lingers", DEFAULT_LINGERS).split(",");
+        long count = options.getLong("count", 100000);
+        long rate = options.getLong("rate", 20000);
+        int size = Math.max(options.getInt("size", 100), Long.BYTES);
+        int window = options.getInt("window", 100);
+        int batchRecords = options.getInt("batch-records", 1000);
+        int batchBytes = options.getInt("batch-bytes", 65536);
+
+        System.out.printf("BatchingBenchmark is publishing %d records of %d bytes at %s to topic '%s' on %s...%n",
+                count, size, rate > 0 ? rate + " records/sec" : "an unlimited rate", TOPIC_NAME, solaceHost);
+
+        JmsConnectionFactory connectionFactory = new JmsConnectionFactory(solaceUsername, solacePassword, solaceHost);
+        List<String> results = new ArrayList<>();
+        try (JMSContext producerContext = connectionFactory.createContext();
+                JMSContext consumerContext = connectionFactory.createContext()) {
+            Topic topic = producerContext.createTopic(TOPIC_NAME);
+            for (String linger : lingers) {
+                linger = linger.trim();
+                // a fresh subscription per run, so that nothing is left over from the previous one
+                try (JMSConsumer consumer = consumerContext.createConsumer(topic)) {
+                    results.add(measure(linger, count, rate, size, window, batchRecords, batchBytes, producerContext,
+                            consumer, topic));
+                }
+            }
+        }
+
+        System.out.println();
+        System.out.printf("%-12s %12s %10s %12s %10s %10s %10s%n", "linger ms", "records/sec", "msgs/sec",
+                "records/msg", "p50 usec", "p99 usec", "max usec");
+        for (String result : results) {
+            System.out.println(result);
+        }
+    }
+
+    private String measure(String linger, long count, long rate, int size, int window, int batchRecords,
+            int batchBytes, JMSContext producerContext, JMSConsumer consumer, Topic topic) throws Exception {
+        boolean batching = !"none".equals(linger);
+        System.out.printf("Publishing %s...%n", batching ? "batches with a linger of " + linger + " ms" : "unbatched");
+        LatencyHistogram latency = new LatencyHistogram();
+        AtomicLong receivedRecords = new AtomicLong();
+        AtomicLong receivedMessages = new AtomicLong();
+        RecordUnbatcher unbatcher = new RecordUnbatcher();
+
+        Thread consumerThread = new Thread(() -> {
+            try {
+                while (receivedRecords.get() < count) {
+                    Message message = consumer.receive(TimeUnit.SECONDS.toMillis(10));
+                    if (message == null) {
+                        // non-persistent messages may be discarded by the broker
+                        System.out.printf("Timed out after receiving %d records.%n", receivedRecords.get());
+                        return;
+                    }
+                    receivedMessages.incrementAndGet();
+                    receivedRecords.addAndGet(unbatcher.unbatch((BytesMessage) message,
+                            record -> latency.recordValue(SendTimestamp.epochMicros() - record.getLong(0))));
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }, "BatchingBenchmark-consumer");
+        consumerThread.start();
+
+        SendWindow sendWindow = new SendWindow(window, new LatencyRecorder("Send completion"));
+        JMSProducer producer = producerContext.createProducer().setDeliveryMode(DeliveryMode.NON_PERSISTENT)
+                .setAsync(sendWindow);
+        BatchingPublisher batcher = batching ? new BatchingPublisher(producerContext, producer, topic, sendWindow,
+                null, batchRecords, batchBytes, TimeUnit.MILLISECONDS.toNanos(Long.parseLong(linger))) : null;
+        ByteBuffer record = ByteBuffer.allocate(size);
+
+        long startNanos = System.nanoTime();
+        for (long i = 0; i < count; i++) {
+            if (rate > 0) {
+                // wait until the record is due, sending a lingering batch in the meantime
+                long dueNanos = startNanos + (long) (i * 1e9 / rate);
+                long now;
+                while ((now = System.nanoTime()) - dueNanos < 0) {
+                    if (batcher != null && batcher.flushIfLingering(now)) {
+                        continue;
+                    }
+                    long waitNanos = dueNanos - now;
+                    if (batcher != null) {
+                        waitNanos = Math.min(waitNanos, batcher.nanosUntilFlush(now));
+                    }
+                    LockSupport.parkNanos(waitNanos);
+                }
+            }
+            record.putLong(0, SendTimestamp.epochMicros());
+            if (batcher != null) {
+                batcher.publish(record);
+            } else {
+                BytesMessage message = producerContext.createBytesMessage();
+                BytesPayload.write(message, record);
+                sendWindow.send(producer, topic, message);
+            }
+        }
+        if (batcher != null) {
+            batcher.flush();
+        }
+        sendWindow.awaitCompletion(30, TimeUnit.SECONDS);
+        consumerThread.join();
+        double elapsedSeconds = (System.nanoTime() - startNanos) / 1e9;
+
+        return String.format("%-12s %12.0f %10.0f %12.1f %10d %10d %10d", linger, receivedRecords.get() / elapsedSeconds,
+                receivedMessages.get() / elapsedSeconds,
+                receivedRecords.get() / (double) Math.max(receivedMessages.get(), 1), latency.getValueAtPercentile(50),
+                latency.getValueAtPercentile(99), latency.getMaxValue());
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.out.println("Usage: BatchingBenchmark amqp://<msg_backbone_ip:amqp_port> <username> <password>"
+                    + " [--lingers none|<ms>[,none|<ms>...]] [--count <records>] [--rate <records/sec>]"
+                    + " [--size <bytes>] [--batch-records <records>] [--batch-bytes <bytes>]"
+                    + " [--window <in-flight messages>]");
+            System.exit(-1);
+        }
+        new BatchingBenchmark().run(args[0], args[1], args[2], new SampleOptions(args, 3));
+    }
+}
@@ -0,0 +1,154 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ *  Apache Qpid JMS 2.0 Solace AMQP Examples: CompressionBenchmark
+ */
+
+package com.solace.samples.perf;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jms.BytesMessage;
+import javax.jms.DeliveryMode;
+import javax.jms.JMSConsumer;
+import javax.jms.JMSContext;
+import javax.jms.JMSProducer;
+import javax.jms.Message;
+import javax.jms.Queue;
+
+import org.apache.qpid.jms.JmsConnectionFactory;
+import org.apache.qpid.jms.policy.JmsDefaultPrefetchPolicy;
+
+import com.solace.samples.JsonPayload;
+import com.solace.samples.LatencyRecorder;
+import com.solace.samples.PayloadCompression;
+import com.solace.samples.SampleOptions;
+import com.solace.samples.SendWindow;
+
+/**
+ * Sends the same generated JSON payloads through a queue once per codec and compares compression ratio, CPU time per
+ * message and the throughput that is left over, both in payload bytes and in bytes on the wire.
+ *
+ * The codecs are named as for {@code --codec}: "none" is the baseline, "deflate:1" is the fastest Deflate level. Codecs
+ * plugged in through {@link com.solace.samples.PayloadCodec} can be compared by adding their names.
+ */
+public class CompressionBenchmark {
+
+    final String QUEUE_NAME = "Q/tutorial";
+
+    final String DEFAULT_CODECS = "none,deflate:1,deflate";
+
+    private void run(String solaceHost, String solaceUsername, String solacePassword, SampleOptions options)
+            throws Exception {
+        String[] codecs = options.getString("codecs", DEFAULT_CODECS).split(",");
+        int size = options.getInt("size", 16384);
+        int count = options.getInt("count", 20000);
+        int threshold = options.getInt("threshold", 1024);
+        int window = options.getInt("window", 64);
+        ByteBuffer[] payloads = JsonPayload.generate(size, 64, 1);
+
+        System.out.printf("CompressionBenchmark is sending %d JSON messages of %d bytes per codec to queue '%s' on "
+                + "%s...%n", count, size, QUEUE_NAME, solaceHost);
+
+        JmsConnectionFactory connectionFactory = new JmsConnectionFactory(solaceUsername, solacePassword, solaceHost);
+        JmsDefaultPrefetchPolicy prefetchPolicy = new JmsDefaultPrefetchPolicy();
+        prefetchPolicy.setQueuePrefetch(options.getInt("prefetch", 64));
+        connectionFactory.setPrefetchPolicy(prefetchPolicy);
+
+        List<String> results = new ArrayList<>();
+        try (JMSContext producerContext = connectionFactory.createContext();
+                JMSContext consumerContext = connectionFactory.createContext()) {
+            Queue queue = producerContext.createQueue(QUEUE_NAME);
+            JMSConsumer consumer = consumerContext.createConsumer(queue);
+            for (String codec : codecs) {
+                PayloadCompression compression = new PayloadCompression(codec.trim(), threshold);
+                results.add(measure(codec.trim(), compression, payloads, count, window, producerContext, consumer,
+                        queue));
+            }
+        }
+
+        System.out.println();
+        System.out.printf("%-12s %7s %14s %16s %10s %14s %12s%n", "codec", "ratio", "compress us/msg",
+                "decompress us/msg", "msgs/sec", "payload MB/sec", "wire MB/sec");
+        for (String result : results) {
+            System.out.println(result);
+        }
+    }
+
+    private String measure(String codec, PayloadCompression compression, ByteBuffer[] payloads, int count, int window,
+            JMSContext producerContext, JMSConsumer consumer, Queue queue) throws Exception {
+        System.out.printf("Sending %d messages with codec %s...%n", count, codec);
+        AtomicLong received = new AtomicLong();
+        AtomicLong checksum = new AtomicLong();
+        long startNanos = System.nanoTime();
+
+        Thread consumerThread = new Thread(() -> {
+            try {
+                for (int i = 0; i < count; i++) {
+                    Message message = consumer.receive(TimeUnit.SECONDS.toMillis(30));
+                    if (message == null) {
+                        System.out.println("Timed out waiting for a message.");
+                        return;
+                    }
+                    ByteBuffer payload = compression.read((BytesMessage) message);
+                    checksum.addAndGet(payload.get(payload.limit() - 1));
+                    compression.release(payload);
+                    received.incrementAndGet();
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }, "CompressionBenchmark-consumer");
+        consumerThread.start();
+
+        SendWindow sendWindow = new SendWindow(window, new LatencyRecorder("Send completion"));
+        JMSProducer producer = producerContext.createProducer().setDeliveryMode(DeliveryMode.PERSISTENT)
+                .setAsync(sendWindow);
+        for (int i = 0; i < count; i++) {
+            BytesMessage message = producerContext.createBytesMessage();
+            compression.write(message, payloads[i % payloads.length]);
+            sendWindow.send(producer, queue, message);
+        }
+        sendWindow.awaitCompletion(60, TimeUnit.SECONDS);
+        consumerThread.join();
+
+        double elapsedSeconds = (System.nanoTime() - startNanos) / 1e9;
+        double payloadMegabytes = compression.getRawBytes() / (1024.0 * 1024);
+        double wireMegabytes = compression.getEncodedBytes() / (1024.0 * 1024);
+        return String.format("%-12s %7.2f %14.1f %16.1f %10.0f %14.1f %12.1f", codec,
+                compression.getCompressionRatio(), compression.getCompressMicrosPerMessage(),
+                compression.getDecompressMicrosPerMessage(), received.get() / elapsedSeconds,
+                payloadMegabytes / elapsedSeconds, wireMegabytes / elapsedSeconds);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.out.println("Usage: CompressionBenchmark amqp://<msg_backbone_ip:amqp_port> <username> <password>"
+                    + " [--codecs <codec>[,<codec>...]] [--size <bytes>] [--count <messages per codec>]"
+                    + " [--threshold <bytes>] [--window <in-flight messages>] [--prefetch <messages>]");
+            System.exit(-1);
+        }
+        new CompressionBenchmark().run(args[0], args[1], args[2], new SampleOptions(args, 3));
+    }
+}
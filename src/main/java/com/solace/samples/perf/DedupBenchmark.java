@@ -0,0 +1,280 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ *  Apache Qpid JMS 2.0 Solace AMQP Examples: DedupBenchmark
+ */
+
+package com.solace.samples.perf;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.DeliveryMode;
+import javax.jms.JMSConsumer;
+import javax.jms.JMSContext;
+import javax.jms.JMSProducer;
+import javax.jms.Message;
+import javax.jms.Queue;
+
+import org.apache.qpid.jms.JmsConnectionFactory;
+
+import com.solace.samples.DedupCache;
+import com.solace.samples.LatencyRecorder;
+import com.solace.samples.SampleOptions;
+import com.solace.samples.SendWindow;
+
+/**
+ * Measures what deduplicating redelivered messages with a {@link DedupCache} costs, and checks that it works.
+ *
+ * For every cache size in {@code --sizes}, a stream of three times as many message IDs, of which a
+ * {@code --duplicate-rate} fraction repeats a recent ID, is looked up in the cache and in an access-ordered
+ * {@link LinkedHashMap} of the same capacity on the heap. The benchmark reports the lookup cost, the hit rate against
+ * the rate of repeated IDs, and the memory per million entries of both. The cache is then snapshotted to a
+ * memory-mapped file and reopened from it, as after a restart.
+ *
+ * Then {@code --count} messages are sent to the queue and consumed with client acknowledgement in batches of
+ * {@code --ack-batch}, once without and once with the cache. Every {@code --recover-every} batches the session is
+ * recovered instead of acknowledged, so that the batch, which has been processed already, is redelivered. Without the
+ * cache these messages are processed twice; with it every one of them should be dropped.
+ */
+public class DedupBenchmark {
+
+    final String QUEUE_NAME = "Q/tutorial";
+
+    private void run(String solaceHost, String solaceUsername, String solacePassword, SampleOptions options)
+            throws Exception {
+        String[] sizes = options.getString("sizes", "100000,1000000").split(",");
+        double duplicateRate = Double.parseDouble(options.getString("duplicate-rate", "0.05"));
+        int count = options.getInt("count", 20000);
+        int ackBatch = options.getInt("ack-batch", 100);
+        int recoverEvery = options.getInt("recover-every", 10);
+
+        System.out.printf("DedupBenchmark is looking up message IDs with %.1f%% duplicates in caches of %s entries...%n",
+                duplicateRate * 100, String.join(", ", sizes));
+        // compiles the lookup paths, so that the first size is not measured while they are interpreted
+        measureCache(10000, duplicateRate);
+        List<String> results = new ArrayList<>();
+        for (String size : sizes) {
+            results.addAll(measureCache(Integer.parseInt(size.trim()), duplicateRate));
+        }
+        System.out.println();
+        System.out.printf("%-14s %10s %10s %10s %10s %14s%n", "cache", "entries", "nsec/msg", "hit rate", "expected",
+                "MB/M entries");
+        for (String result : results) {
+            System.out.println(result);
+        }
+
+        if (count > 0) {
+            System.out.printf("%nConsuming %d messages from queue '%s' on %s, recovering every %d batches of %d...%n",
+                    count, QUEUE_NAME, solaceHost, recoverEvery, ackBatch);
+            JmsConnectionFactory connectionFactory = new JmsConnectionFactory(solaceUsername, solacePassword,
+                    solaceHost);
+            String none = consume(connectionFactory, count, ackBatch, recoverEvery, null);
+            String dedup;
+            try (DedupCache cache = new DedupCache(Math.max(count, 1), 0)) {
+                dedup = consume(connectionFactory, count, ackBatch, recoverEvery, cache);
+                cache.printSummary(System.out);
+            }
+            System.out.println();
+            System.out.printf("%-8s %10s %10s %10s %10s %10s%n", "dedup", "received", "redeliv.", "dropped",
+                    "processed", "msgs/sec");
+            System.out.println(none);
+            System.out.println(dedup);
+        }
+    }
+
+    private List<String> measureCache(int capacity, double duplicateRate) throws Exception {
+        int lookups = capacity * 3;
+        String prefix = "ID:" + UUID.randomUUID() + ":1:1:1-";
+        List<String> results = new ArrayList<>();
+
+        System.out.printf("Measuring a cache of %d entries...%n", capacity);
+        long heapBefore = usedHeap();
+        long expectedHits;
+        double cacheNanos;
+        DedupCache cache = new DedupCache(capacity, 0);
+        try {
+            long startNanos = System.nanoTime();
+            // the check and the add of a consumer that processes every message that is not a duplicate
+            expectedHits = lookup(prefix, lookups, capacity, duplicateRate,
+                    key -> !cache.contains(key) && cache.add(key));
+            cacheNanos = (System.nanoTime() - startNanos) / (double) lookups;
+            results.add(String.format("%-14s %10d %10.0f %9.2f%% %9.2f%% %14.1f", "off-heap", capacity, cacheNanos,
+                    cache.getHitRate() * 100, expectedHits * 100.0 / lookups,
+                    cache.getBytesPerMillionEntries() / (1024 * 1024)));
+            System.out.printf("Off-heap cache: %.0f nsec/lookup inside the cache, heap grew by %.1f MB%n",
+                    cache.getLookupNanos(), Math.max(usedHeap() - heapBefore, 0) / (1024.0 * 1024));
+        } finally {
+            cache.close();
+        }
+
+        // the usual on-heap alternative: an LRU map of the message IDs themselves
+        heapBefore = usedHeap();
+        Map<String, Boolean> lru = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > capacity;
+            }
+        };
+        long[] hits = new long[1];
+        long startNanos = System.nanoTime();
+        lookup(prefix, lookups, capacity, duplicateRate, key -> {
+            boolean added = lru.putIfAbsent(key, Boolean.TRUE) == null;
+            if (!added) {
+                hits[0]++;
+            }
+            return added;
+        });
+        double lruNanos = (System.nanoTime() - startNanos) / (double) lookups;
+        long lruBytes = usedHeap() - heapBefore;
+        results.add(String.format("%-14s %10d %10.0f %9.2f%% %9.2f%% %14.1f", "LinkedHashMap", lru.size(), lruNanos,
+                hits[0] * 100.0 / lookups, expectedHits * 100.0 / lookups,
+                lruBytes * 1e6 / lru.size() / (1024 * 1024)));
+        lru.clear();
+
+        // a restart: snapshot a full cache to a memory-mapped file, and rebuild the table from the file
+        Path file = Files.createTempFile("dedup", ".cache");
+        try {
+            try (DedupCache mapped = new DedupCache(capacity, 0, file, 0)) {
+                lookup(prefix, capacity, capacity, 0, key -> mapped.add(key));
+                startNanos = System.nanoTime();
+                mapped.snapshot();
+                System.out.printf("Memory-mapped cache: snapshot of %.1f MB in %.1f ms", Files.size(file)
+                        / (1024.0 * 1024), (System.nanoTime() - startNanos) / 1e6);
+            }
+            startNanos = System.nanoTime();
+            try (DedupCache restored = new DedupCache(capacity, 0, file, 0)) {
+                double restoreMillis = (System.nanoTime() - startNanos) / 1e6;
+                boolean found = restored.contains(prefix + (capacity - 1));
+                System.out.printf(", restored %d entries in %.1f ms%s%n", restored.getRestored(), restoreMillis,
+                        found ? "" : ", but the last entry is missing");
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+        return results;
+    }
+
+    private interface KeySet {
+        boolean add(String key);
+    }
+
+    /**
+     * Looks up new IDs, and with the given probability an ID from the last half of the cache's capacity, which must be
+     * found, and returns the number of such repeated IDs.
+     */
+    private long lookup(String prefix, int lookups, int size, double duplicateRate, KeySet keys) {
+        SplittableRandom random = new SplittableRandom(42);
+        int recent = Math.max(size / 2, 1);
+        long next = 0;
+        long repeated = 0;
+        for (int i = 0; i < lookups; i++) {
+            if (next > 0 && random.nextDouble() < duplicateRate) {
+                keys.add(prefix + (next - 1 - random.nextInt((int) Math.min(next, recent))));
+                repeated++;
+            } else {
+                keys.add(prefix + next++);
+            }
+        }
+        return repeated;
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private String consume(JmsConnectionFactory connectionFactory, int count, int ackBatch, int recoverEvery,
+            DedupCache cache) throws Exception {
+        try (JMSContext context = connectionFactory.createContext(JMSContext.CLIENT_ACKNOWLEDGE)) {
+            Queue queue = context.createQueue(QUEUE_NAME);
+            SendWindow sendWindow = new SendWindow(1000, new LatencyRecorder("Send completion"));
+            JMSProducer producer = context.createProducer().setDeliveryMode(DeliveryMode.NON_PERSISTENT)
+                    .setAsync(sendWindow);
+            for (int i = 0; i < count; i++) {
+                sendWindow.send(producer, queue, context.createTextMessage("Hello world Queues!"));
+            }
+            sendWindow.awaitCompletion(30, TimeUnit.SECONDS);
+
+            long received = 0;
+            long redelivered = 0;
+            long dropped = 0;
+            long processed = 0;
+            int unacknowledged = 0;
+            long batches = 0;
+            long startNanos = System.nanoTime();
+            JMSConsumer consumer = context.createConsumer(queue);
+            Message message;
+            while ((message = consumer.receive(TimeUnit.SECONDS.toMillis(5))) != null) {
+                received++;
+                if (message.getJMSRedelivered()) {
+                    redelivered++;
+                }
+                if (cache != null && cache.isDuplicate(message, null)) {
+                    dropped++;
+                } else {
+                    processed++;
+                    if (cache != null) {
+                        cache.markProcessed(message, null);
+                    }
+                }
+                if (++unacknowledged == ackBatch) {
+                    // stands in for a consumer that fails after processing a batch, but before acknowledging it
+                    if (++batches % recoverEvery == 0) {
+                        context.recover();
+                    } else {
+                        context.acknowledge();
+                    }
+                    unacknowledged = 0;
+                }
+            }
+            // the wait for the last message is not part of the run
+            double elapsedSeconds = (System.nanoTime() - startNanos) / 1e9 - 5;
+            if (unacknowledged > 0) {
+                context.acknowledge();
+            }
+            return String.format("%-8s %10d %10d %10d %10d %10.0f", cache != null ? "on" : "off", received,
+                    redelivered, dropped, processed, received / Math.max(elapsedSeconds, 1e-3));
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.out.println("Usage: DedupBenchmark amqp://<msg_backbone_ip:amqp_port> <username> <password>"
+                    + " [--sizes <entries>[,<entries>...]] [--duplicate-rate <fraction>] [--count <messages>]"
+                    + " [--ack-batch <messages>] [--recover-every <batches>]");
+            System.exit(-1);
+        }
+        new DedupBenchmark().run(args[0], args[1], args[2], new SampleOptions(args, 3));
+    }
+}
@@ -0,0 +1,188 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ *  Apache Qpid JMS 2.0 Solace AMQP Examples: PartitionBenchmark
+ */
+
+package com.solace.samples.perf;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.jms.DeliveryMode;
+import javax.jms.JMSContext;
+import javax.jms.JMSProducer;
+import javax.jms.Queue;
+import javax.jms.TextMessage;
+
+import org.apache.qpid.jms.JmsConnectionFactory;
+
+import com.solace.samples.ContextPool;
+import com.solace.samples.LatencyRecorder;
+import com.solace.samples.PartitionedConsumer;
+import com.solace.samples.SampleOptions;
+import com.solace.samples.SendWindow;
+
+/**
+ * Measures how draining one queue scales with the number of {@link PartitionedConsumer} partitions, split by selector
+ * and by JMSXGroupID, and what the selectors cost.
+ *
+ * For every run the queue is filled with messages spread over {@code --keys} keys and stamped for the run's number of
+ * partitions, and drained. Runs split by selector fill the queue first. Runs split by JMSXGroupID attach their
+ * consumers first and fill the queue while it drains, as the broker binds each group to a consumer when it delivers the
+ * group's first message, so these runs are also limited by how fast the queue can be filled. The handler waits for
+ * {@code --handler-cost} microseconds, like a handler that writes to a database. Speedups are relative to one
+ * partition of the same kind.
+ *
+ * The selector overhead is measured separately, with no handler cost: one consumer with a selector that matches every
+ * message against one consumer without a selector. The broker evaluates selectors, so the difference is mostly broker
+ * time per message.
+ */
+public class PartitionBenchmark {
+
+    final String QUEUE_NAME = "Q/tutorial";
+
+    static final int OVERHEAD_RUNS = 3;
+
+    private void run(String solaceHost, String solaceUsername, String solacePassword, SampleOptions options)
+            throws Exception {
+        String[] modes = options.getString("modes", "selector,group").split(",");
+        String[] partitionCounts = options.getString("partitions", "1,2,4,8").split(",");
+        int count = options.getInt("count", 5000);
+        int keys = options.getInt("keys", 64);
+        long handlerCostMicros = options.getLong("handler-cost", 500);
+        int ackBatch = options.getInt("ack-batch", 100);
+
+        System.out.printf("PartitionBenchmark is draining %d messages with %d keys per run from queue '%s' on %s...%n",
+                count, keys, QUEUE_NAME, solaceHost);
+
+        JmsConnectionFactory connectionFactory = new JmsConnectionFactory(solaceUsername, solacePassword, solaceHost);
+        List<String> results = new ArrayList<>();
+        double selectorRate;
+        double plainRate;
+        try (JMSContext producerContext = connectionFactory.createContext()) {
+            Queue queue = producerContext.createQueue(QUEUE_NAME);
+
+            System.out.println("Measuring the selector overhead with no handler cost...");
+            // alternating runs, of which the best of each counts, so that warm-up and noise favour neither
+            plainRate = 0;
+            selectorRate = 0;
+            for (int i = 0; i < OVERHEAD_RUNS; i++) {
+                fill(producerContext, queue, count, keys, 1);
+                plainRate = Math.max(plainRate, measure(connectionFactory, PartitionedConsumer.Assignment.GROUP, 1,
+                        count, 0, ackBatch, null).getDrainRate());
+                fill(producerContext, queue, count, keys, 1);
+                selectorRate = Math.max(selectorRate, measure(connectionFactory,
+                        PartitionedConsumer.Assignment.SELECTOR, 1, count, 0, ackBatch, null).getDrainRate());
+            }
+
+            for (String mode : modes) {
+                PartitionedConsumer.Assignment assignment = PartitionedConsumer.Assignment
+                        .valueOf(mode.trim().toUpperCase());
+                Map<Integer, Double> rates = new HashMap<>();
+                for (String partitionCount : partitionCounts) {
+                    int partitions = Integer.parseInt(partitionCount.trim());
+                    PartitionedConsumer consumer;
+                    if (assignment == PartitionedConsumer.Assignment.GROUP) {
+                        // the consumers attach before the messages are sent, so that every group can go to any of them
+                        consumer = measure(connectionFactory, assignment, partitions, count, handlerCostMicros,
+                                ackBatch, () -> fill(producerContext, queue, count, keys, partitions));
+                    } else {
+                        fill(producerContext, queue, count, keys, partitions);
+                        consumer = measure(connectionFactory, assignment, partitions, count, handlerCostMicros,
+                                ackBatch, null);
+                    }
+                    double rate = consumer.getDrainRate();
+                    rates.put(partitions, rate);
+                    Double baseline = rates.get(1);
+                    results.add(String.format("%-10s %10d %10.0f %10s %10.2f %10d", mode.trim(), partitions, rate,
+                            baseline != null ? String.format("%.2fx", rate / baseline) : "-", consumer.getSkew(),
+                            consumer.getReordered()));
+                }
+            }
+        }
+
+        System.out.println();
+        System.out.printf("%-10s %10s %10s %10s %10s %10s%n", "split by", "partitions", "msgs/sec", "speedup", "skew",
+                "reordered");
+        for (String result : results) {
+            System.out.println(result);
+        }
+        System.out.printf("Selector overhead: %.1f usec/msg with a selector (%.0f msgs/sec), %.1f usec/msg without"
+                + " (%.0f msgs/sec), a difference of %+.1f usec/msg%n", 1e6 / selectorRate, selectorRate,
+                1e6 / plainRate, plainRate, (1e6 / selectorRate) - (1e6 / plainRate));
+    }
+
+    private void fill(JMSContext context, Queue queue, int count, int keys, int partitions) throws Exception {
+        SendWindow sendWindow = new SendWindow(1000, new LatencyRecorder("Send completion"));
+        JMSProducer producer = context.createProducer().setDeliveryMode(DeliveryMode.NON_PERSISTENT)
+                .setAsync(sendWindow);
+        for (int i = 0; i < count; i++) {
+            TextMessage message = context.createTextMessage("Hello world Queues!");
+            PartitionedConsumer.stamp(message, "key-" + (i % keys), i / keys, partitions);
+            sendWindow.send(producer, queue, message);
+        }
+        sendWindow.awaitCompletion(30, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Sends the messages to drain, while the consumers are attached.
+     */
+    private interface Filler {
+        void fill() throws Exception;
+    }
+
+    private PartitionedConsumer measure(JmsConnectionFactory connectionFactory,
+            PartitionedConsumer.Assignment assignment, int partitions, int count, long costMicros, int ackBatch,
+            Filler filler) throws Exception {
+        System.out.printf("Draining with %d partition(s) by %s, handler cost %d usec...%n", partitions,
+                assignment == PartitionedConsumer.Assignment.SELECTOR ? "selector" : "JMSXGroupID", costMicros);
+        long costNanos = TimeUnit.MICROSECONDS.toNanos(costMicros);
+        try (ContextPool pool = new ContextPool(connectionFactory, partitions, 0)) {
+            PartitionedConsumer consumer = new PartitionedConsumer(pool, QUEUE_NAME, assignment, partitions,
+                    message -> {
+                        if (costNanos > 0) {
+                            LockSupport.parkNanos(costNanos);
+                        }
+                    }, ackBatch);
+            consumer.start(count, TimeUnit.SECONDS.toMillis(10));
+            if (filler != null) {
+                filler.fill();
+            }
+            consumer.join();
+            consumer.printSummary(System.out);
+            return consumer;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.out.println("Usage: PartitionBenchmark amqp://<msg_backbone_ip:amqp_port> <username> <password>"
+                    + " [--modes selector|group[,...]] [--partitions <count>[,<count>...]] [--count <messages>]"
+                    + " [--keys <keys>] [--handler-cost <usec>] [--ack-batch <messages>]");
+            System.exit(-1);
+        }
+        new PartitionBenchmark().run(args[0], args[1], args[2], new SampleOptions(args, 3));
+    }
+}
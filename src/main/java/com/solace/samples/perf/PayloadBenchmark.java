@@ -0,0 +1,235 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ *  Apache Qpid JMS 2.0 Solace AMQP Examples: PayloadBenchmark
+ */
+
+package com.solace.samples.perf;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jms.BytesMessage;
+import javax.jms.DeliveryMode;
+import javax.jms.JMSConsumer;
+import javax.jms.JMSContext;
+import javax.jms.JMSProducer;
+import javax.jms.Message;
+import javax.jms.Queue;
+import javax.jms.TextMessage;
+
+import org.apache.qpid.jms.JmsConnectionFactory;
+import org.apache.qpid.jms.policy.JmsDefaultPrefetchPolicy;
+
+import com.solace.samples.BufferPool;
+import com.solace.samples.BytesPayload;
+import com.solace.samples.LatencyRecorder;
+import com.solace.samples.SampleOptions;
+import com.solace.samples.SendWindow;
+
+/**
+ * Compares sending large binary payloads as {@link TextMessage}s, the way the other samples send their strings, with
+ * sending them as {@link BytesMessage}s through {@link BytesPayload}.
+ *
+ * On the text path the payload is copied into a {@code byte[]}, decoded into a String and encoded again by the client,
+ * and the consumer turns the text back into bytes. On the bytes path the payload comes from a pooled heap or direct
+ * buffer, or from a memory-mapped file ({@code --source heap|direct|mmap}), and the consumer reads the body into a pooled
+ * buffer. For every payload size both paths report throughput in MB/s next to the heap allocation rate and garbage
+ * collections of the whole JVM, which includes the client's own buffers.
+ */
+public class PayloadBenchmark {
+
+    final String QUEUE_NAME = "Q/tutorial";
+
+    final String DEFAULT_SIZES = "65536,262144,1048576,4194304";
+
+    private int window;
+    private BufferPool pool;
+    private ByteBuffer template;
+
+    private void run(String solaceHost, String solaceUsername, String solacePassword, SampleOptions options)
+            throws Exception {
+        String[] sizes = options.getString("sizes", DEFAULT_SIZES).split(",");
+        long megabytes = options.getLong("megabytes", 256);
+        String source = options.getString("source", "direct");
+        window = options.getInt("window", 16);
+        int prefetch = options.getInt("prefetch", 16);
+
+        int maxSize = 0;
+        for (String size : sizes) {
+            maxSize = Math.max(maxSize, Integer.parseInt(size.trim()));
+        }
+        pool = new BufferPool(!"heap".equals(source), window + prefetch);
+        template = "mmap".equals(source) ? mapRandomFile(maxSize) : randomBuffer(maxSize, !"heap".equals(source));
+
+        System.out.printf("PayloadBenchmark is sending %d MB per payload size to queue '%s' on %s, from %s buffers...%n",
+                megabytes, QUEUE_NAME, solaceHost, source);
+
+        JmsConnectionFactory connectionFactory = new JmsConnectionFactory(solaceUsername, solacePassword, solaceHost);
+        // a small prefetch keeps the consumer from buffering hundreds of megabytes
+        JmsDefaultPrefetchPolicy prefetchPolicy = new JmsDefaultPrefetchPolicy();
+        prefetchPolicy.setQueuePrefetch(prefetch);
+        connectionFactory.setPrefetchPolicy(prefetchPolicy);
+
+        List<String> results = new ArrayList<>();
+        try (JMSContext producerContext = connectionFactory.createContext();
+                JMSContext consumerContext = connectionFactory.createContext()) {
+            Queue queue = producerContext.createQueue(QUEUE_NAME);
+            JMSConsumer consumer = consumerContext.createConsumer(queue);
+            for (String sizeOption : sizes) {
+                int size = Integer.parseInt(sizeOption.trim());
+                int count = (int) Math.max(10, Math.min(100000, megabytes * 1024 * 1024 / size));
+                results.add(measure("TextMessage", size, count, producerContext, consumer, queue, false));
+                results.add(measure("BytesMessage/" + source, size, count, producerContext, consumer, queue, true));
+            }
+        }
+
+        System.out.println();
+        System.out.printf("%10s %-20s %10s %10s %12s %14s %6s %8s%n", "payload", "path", "msgs/sec", "MB/sec",
+                "alloc MB/sec", "alloc KB/msg", "GCs", "GC ms");
+        for (String result : results) {
+            System.out.println(result);
+        }
+    }
+
+    private String measure(String path, int size, int count, JMSContext producerContext, JMSConsumer consumer,
+            Queue queue, boolean bytes) throws Exception {
+        System.out.printf("Sending %d %s messages of %d bytes...%n", count, path, size);
+        AtomicLong received = new AtomicLong();
+        AtomicLong checksum = new AtomicLong();
+        // warm-up and previous runs must not count
+        System.gc();
+        AllocationMeter meter = new AllocationMeter();
+        long startNanos = System.nanoTime();
+
+        Thread consumerThread = new Thread(() -> {
+            try {
+                for (int i = 0; i < count; i++) {
+                    Message message = consumer.receive(TimeUnit.SECONDS.toMillis(30));
+                    if (message == null) {
+                        System.out.println("Timed out waiting for a message.");
+                        return;
+                    }
+                    if (bytes) {
+                        BytesMessage bytesMessage = (BytesMessage) message;
+                        ByteBuffer target = pool.acquire((int) bytesMessage.getBodyLength());
+                        BytesPayload.read(bytesMessage, target);
+                        checksum.addAndGet(target.get(0));
+                        pool.release(target);
+                    } else {
+                        // the consumer of a text payload needs its bytes back
+                        byte[] data = ((TextMessage) message).getText().getBytes(StandardCharsets.ISO_8859_1);
+                        checksum.addAndGet(data[0]);
+                    }
+                    received.incrementAndGet();
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }, "PayloadBenchmark-consumer");
+        consumerThread.start();
+
+        SendWindow sendWindow = new SendWindow(window, new LatencyRecorder("Send completion"));
+        JMSProducer producer = producerContext.createProducer().setDeliveryMode(DeliveryMode.PERSISTENT)
+                .setAsync(sendWindow);
+        for (int i = 0; i < count; i++) {
+            ByteBuffer payload = payload(size);
+            Message message;
+            if (bytes) {
+                BytesMessage bytesMessage = producerContext.createBytesMessage();
+                BytesPayload.write(bytesMessage, payload);
+                message = bytesMessage;
+            } else {
+                byte[] data = new byte[size];
+                payload.duplicate().get(data);
+                message = producerContext.createTextMessage(new String(data, StandardCharsets.ISO_8859_1));
+            }
+            if (!(template instanceof MappedByteBuffer)) {
+                pool.release(payload);
+            }
+            sendWindow.send(producer, queue, message);
+        }
+        sendWindow.awaitCompletion(60, TimeUnit.SECONDS);
+        consumerThread.join();
+
+        double elapsedSeconds = (System.nanoTime() - startNanos) / 1e9;
+        long allocatedBytes = meter.getAllocatedBytes();
+        double megabytes = (double) received.get() * size / (1024 * 1024);
+        return String.format("%10d %-20s %10.0f %10.1f %12.1f %14.1f %6d %8d", size, path,
+                received.get() / elapsedSeconds, megabytes / elapsedSeconds,
+                allocatedBytes / (1024.0 * 1024) / elapsedSeconds, allocatedBytes / 1024.0 / Math.max(received.get(), 1),
+                meter.getGcCount(), meter.getGcMillis());
+    }
+
+    /**
+     * Returns the payload of the next message: a pooled buffer filled by the application, or a read-only slice of the
+     * memory-mapped file.
+     */
+    private ByteBuffer payload(int size) {
+        ByteBuffer source = template.duplicate();
+        ((Buffer) source).limit(size);
+        if (template instanceof MappedByteBuffer) {
+            return source;
+        }
+        ByteBuffer buffer = pool.acquire(size);
+        ((Buffer) buffer.put(source)).flip();
+        return buffer;
+    }
+
+    private static ByteBuffer randomBuffer(int size, boolean direct) {
+        byte[] data = new byte[size];
+        ThreadLocalRandom.current().nextBytes(data);
+        ByteBuffer buffer = direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+        ((Buffer) buffer.put(data)).flip();
+        return buffer;
+    }
+
+    private static ByteBuffer mapRandomFile(int size) throws Exception {
+        File file = File.createTempFile("payload", ".bin");
+        file.deleteOnExit();
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            byte[] data = new byte[size];
+            ThreadLocalRandom.current().nextBytes(data);
+            randomAccessFile.write(data);
+            // the mapping stays valid after the channel is closed
+            return randomAccessFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.out.println("Usage: PayloadBenchmark amqp://<msg_backbone_ip:amqp_port> <username> <password>"
+                    + " [--sizes <bytes>[,<bytes>...]] [--megabytes <MB per size>] [--source heap|direct|mmap]"
+                    + " [--window <in-flight messages>] [--prefetch <messages>]");
+            System.exit(-1);
+        }
+        new PayloadBenchmark().run(args[0], args[1], args[2], new SampleOptions(args, 3));
+    }
+}
@@ -0,0 +1,114 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ *  Apache Qpid JMS 2.0 Solace AMQP Examples: PoolingBenchmark
+ */
+
+package com.solace.samples.perf;
+
+import javax.jms.ConnectionFactory;
+import javax.jms.DeliveryMode;
+import javax.jms.JMSContext;
+import javax.jms.JMSProducer;
+import javax.jms.Topic;
+
+import org.apache.qpid.jms.JmsConnectionFactory;
+
+import com.solace.samples.ContextPool;
+import com.solace.samples.LatencyHistogram;
+import com.solace.samples.SampleOptions;
+
+/**
+ * Compares short-lived publishers that open their own connection with publishers that take a session from a
+ * {@link ContextPool}.
+ *
+ * Each run starts a publisher, sends one message and then {@code --count} more. The time from the start of the run until
+ * the first message has been sent, and the steady-state throughput of the rest, are reported for both variants.
+ */
+public class PoolingBenchmark {
+
+    final String TOPIC_NAME = "T/GettingStarted/pubsub";
+
+    private void run(String solaceHost, String solaceUsername, String solacePassword, SampleOptions options)
+            throws Exception {
+        int runs = options.getInt("runs", 20);
+        int count = options.getInt("count", 1000);
+        int connections = options.getInt("connections", 1);
+
+        System.out.printf("PoolingBenchmark is running %d publishers of %d messages against %s...%n", runs, count,
+                solaceHost);
+        ConnectionFactory connectionFactory = new JmsConnectionFactory(solaceUsername, solacePassword, solaceHost);
+
+        LatencyHistogram startup = new LatencyHistogram();
+        long steadyStateNanos = 0;
+        for (int i = 0; i < runs; i++) {
+            long startNanos = System.nanoTime();
+            try (JMSContext context = connectionFactory.createContext()) {
+                steadyStateNanos += publish(context, count, startNanos, startup);
+            }
+        }
+        report("Without pooling", runs, count, startup, steadyStateNanos);
+
+        startup.reset();
+        steadyStateNanos = 0;
+        // the pool is opened once, before the publishers start
+        try (ContextPool pool = new ContextPool(connectionFactory, connections)) {
+            for (int i = 0; i < runs; i++) {
+                long startNanos = System.nanoTime();
+                try (JMSContext context = pool.createContext(JMSContext.AUTO_ACKNOWLEDGE)) {
+                    steadyStateNanos += publish(context, count, startNanos, startup);
+                }
+            }
+        }
+        report("With pooling", runs, count, startup, steadyStateNanos);
+    }
+
+    /**
+     * Sends the first message, recording how long it took to get there, then the rest. Returns the time taken by the
+     * rest.
+     */
+    private long publish(JMSContext context, int count, long startNanos, LatencyHistogram startup) {
+        Topic topic = context.createTopic(TOPIC_NAME);
+        // persistent sends are confirmed by the broker, so the timings include the full round-trip
+        JMSProducer producer = context.createProducer().setDeliveryMode(DeliveryMode.PERSISTENT);
+        producer.send(topic, "First message");
+        startup.recordSince(startNanos);
+
+        long steadyStateStartNanos = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            producer.send(topic, "Message " + i);
+        }
+        return System.nanoTime() - steadyStateStartNanos;
+    }
+
+    private void report(String label, int runs, int count, LatencyHistogram startup, long steadyStateNanos) {
+        startup.printSummary(System.out, label + ", startup to first message");
+        System.out.printf("%s, steady state: %.0f msgs/sec%n", label, (double) runs * count / (steadyStateNanos / 1e9));
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.out.println("Usage: PoolingBenchmark amqp://<msg_backbone_ip:amqp_port> <username> <password>"
+                    + " [--runs <publishers>] [--count <messages per publisher>] [--connections <pooled connections>]");
+            System.exit(-1);
+        }
+        new PoolingBenchmark().run(args[0], args[1], args[2], new SampleOptions(args, 3));
+    }
+}
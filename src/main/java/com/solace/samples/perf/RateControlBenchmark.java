@@ -0,0 +1,209 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ *  Apache Qpid JMS 2.0 Solace AMQP Examples: RateControlBenchmark
+ */
+
+package com.solace.samples.perf;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.BytesMessage;
+import javax.jms.DeliveryMode;
+import javax.jms.JMSContext;
+import javax.jms.JMSProducer;
+import javax.jms.Topic;
+
+import org.apache.qpid.jms.JmsConnectionFactory;
+
+import com.solace.samples.LatencyHistogram;
+import com.solace.samples.LatencyRecorder;
+import com.solace.samples.RateController;
+import com.solace.samples.SampleOptions;
+import com.solace.samples.SendTimestamp;
+import com.solace.samples.SendWindow;
+
+/**
+ * Publishes as fast as a large send window allows, at a fixed rate and at the rate of a {@link RateController}, and
+ * compares the throughput with the send-completion latency of each.
+ *
+ * It is meant to run against a broker that cannot keep up, such as an EmbeddedBroker started with "--throttle", where
+ * an unlimited publisher fills the broker's queue up to the producer credit and every send then waits for the whole
+ * queue. Every second the benchmark prints the rate, p99 and, for the adaptive run, the controller's decision.
+ */
+public class RateControlBenchmark {
+
+    final String TOPIC_NAME = "T/ratecontrol";
+
+    final String DEFAULT_MODES = "unlimited,adaptive";
+
+    static final String DEFAULT_TARGET_P99_MILLIS = "20";
+
+    static final int WARMUP_RATE = 1000;
+
+    // the same threshold the send window reports stalls with
+    static final long STALL_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private void run(String solaceHost, String solaceUsername, String solacePassword, SampleOptions options)
+            throws Exception {
+        String[] modes = options.getString("modes", DEFAULT_MODES).split(",");
+        long durationSeconds = options.getLong("duration", 10);
+        int window = options.getInt("window", 5000);
+        int size = options.getInt("size", 100);
+
+        System.out.printf("RateControlBenchmark is publishing %d byte messages to topic '%s' on %s for %d seconds per"
+                + " mode, with a window of %d...%n", size, TOPIC_NAME, solaceHost, durationSeconds, window);
+
+        JmsConnectionFactory connectionFactory = new JmsConnectionFactory(solaceUsername, solacePassword, solaceHost);
+        warmUp(options.getLong("warmup", 3), new byte[size], connectionFactory);
+        List<String> results = new ArrayList<>();
+        for (String mode : modes) {
+            mode = mode.trim();
+            // a connection per run, so that no credit or queued sends are left over from the previous one
+            try (JMSContext context = connectionFactory.createContext()) {
+                results.add(measure(mode, durationSeconds, window, new byte[size], options, context));
+            }
+        }
+
+        System.out.println();
+        System.out.printf("%-16s %10s %10s %10s %10s %10s %12s%n", "mode", "msgs/sec", "p50 usec", "p99 usec",
+                "max usec", "stalls", "final rate");
+        for (String result : results) {
+            System.out.println(result);
+        }
+    }
+
+    /**
+     * Publishes well below the throttle for a while, so that the runs are not skewed by just-in-time compilation.
+     */
+    private void warmUp(long seconds, byte[] payload, JmsConnectionFactory connectionFactory) throws Exception {
+        System.out.printf("Warming up for %d seconds at %d msgs/sec...%n", seconds, WARMUP_RATE);
+        try (JMSContext context = connectionFactory.createContext()) {
+            Topic topic = context.createTopic(TOPIC_NAME);
+            SendWindow sendWindow = new SendWindow(WARMUP_RATE, new LatencyRecorder("Warm-up"));
+            JMSProducer producer = context.createProducer().setDeliveryMode(DeliveryMode.NON_PERSISTENT)
+                    .setAsync(sendWindow);
+            long startNanos = System.nanoTime();
+            for (long i = 0; i < seconds * WARMUP_RATE; i++) {
+                long dueNanos = startNanos + i * TimeUnit.SECONDS.toNanos(1) / WARMUP_RATE;
+                long now = System.nanoTime();
+                if (dueNanos - now > 0) {
+                    TimeUnit.NANOSECONDS.sleep(dueNanos - now);
+                }
+                BytesMessage message = context.createBytesMessage();
+                message.writeBytes(payload);
+                sendWindow.send(producer, topic, message);
+            }
+            sendWindow.awaitCompletion(30, TimeUnit.SECONDS);
+        }
+    }
+
+    private String measure(String mode, long durationSeconds, int window, byte[] payload, SampleOptions options,
+            JMSContext context) throws Exception {
+        // "fixed:<msgs/sec>" paces at a constant rate, "adaptive" lets a controller find the rate
+        long fixedRate = mode.startsWith("fixed:") ? Long.parseLong(mode.substring("fixed:".length())) : 0;
+        RateController controller = mode.equals("adaptive")
+                ? RateController.fromOptions("Adaptive rate", options) : null;
+        if (!mode.equals("unlimited") && fixedRate == 0 && controller == null) {
+            throw new IllegalArgumentException("Unknown mode: " + mode);
+        }
+        System.out.printf("Publishing %s...%n", controller != null
+                ? "at an adaptive rate for a p99 of " + controller.getTargetP99Micros() / 1000 + " ms"
+                : fixedRate > 0 ? "at " + fixedRate + " msgs/sec" : "as fast as possible");
+
+        Topic topic = context.createTopic(TOPIC_NAME);
+        LatencyRecorder latency = new LatencyRecorder("Send completion");
+        SendWindow sendWindow = new SendWindow(window, latency);
+        sendWindow.setRateController(controller);
+        JMSProducer producer = context.createProducer().setDeliveryMode(DeliveryMode.NON_PERSISTENT)
+                .setAsync(sendWindow);
+
+        LatencyHistogram total = new LatencyHistogram();
+        long stalls = 0;
+        long sent = 0;
+        long secondSent = 0;
+        long startNanos = System.nanoTime();
+        long deadline = startNanos + TimeUnit.SECONDS.toNanos(durationSeconds);
+        long nextReportNanos = startNanos + TimeUnit.SECONDS.toNanos(1);
+        long now;
+        while ((now = System.nanoTime()) - deadline < 0) {
+            if (now - nextReportNanos >= 0) {
+                LatencyHistogram second = latency.snapshotInterval();
+                total.add(second);
+                System.out.printf("  %3ds: %7d msgs/sec, p99 %8d usec%s%n",
+                        TimeUnit.NANOSECONDS.toSeconds(nextReportNanos - startNanos), secondSent,
+                        second.getValueAtPercentile(99), controller != null ? String.format(
+                                ", rate %6.0f msgs/sec (%s)", controller.getRate(), controller.getState()) : "");
+                secondSent = 0;
+                nextReportNanos += TimeUnit.SECONDS.toNanos(1);
+            }
+            if (controller != null) {
+                controller.acquire();
+            } else if (fixedRate > 0) {
+                long dueNanos = startNanos + (long) (sent * 1e9 / fixedRate);
+                if (dueNanos - now > 0) {
+                    TimeUnit.NANOSECONDS.sleep(dueNanos - now);
+                }
+            }
+            BytesMessage message = context.createBytesMessage();
+            message.writeBytes(payload);
+            SendTimestamp.stamp(message);
+            long sendNanos = System.nanoTime();
+            sendWindow.send(producer, topic, message);
+            if (System.nanoTime() - sendNanos > STALL_NANOS) {
+                stalls++;
+            }
+            sent++;
+            secondSent++;
+        }
+        if (!sendWindow.awaitCompletion(30, TimeUnit.SECONDS)) {
+            System.out.println("Timed out waiting for outstanding sends to complete.");
+        }
+        double elapsedSeconds = (System.nanoTime() - startNanos) / 1e9;
+        total.add(latency.snapshotInterval());
+        if (controller != null) {
+            controller.printSummary(System.out);
+        }
+
+        return String.format("%-16s %10.0f %10d %10d %10d %10d %12s", mode, sendWindow.getCompleted() / elapsedSeconds,
+                total.getValueAtPercentile(50), total.getValueAtPercentile(99), total.getMaxValue(), stalls,
+                controller != null ? String.format("%.0f", controller.getRate()) : "-");
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.out.println("Usage: RateControlBenchmark amqp://<msg_backbone_ip:amqp_port> <username> <password>"
+                    + " [--modes unlimited|fixed:<msgs/sec>|adaptive[,...]] [--duration <seconds per mode>]"
+                    + " [--window <in-flight sends>] [--size <bytes>] [--warmup <seconds>] [--target-p99 <msecs, default 20>]"
+                    + " [--rate <initial msgs/sec>] [--max-rate <msgs/sec>] [--rate-increase <msgs/sec>]"
+                    + " [--control-interval <msecs>]");
+            System.exit(-1);
+        }
+        List<String> arguments = new ArrayList<>(Arrays.asList(args));
+        if (!arguments.contains("--target-p99")) {
+            arguments.addAll(Arrays.asList("--target-p99", DEFAULT_TARGET_P99_MILLIS));
+        }
+        new RateControlBenchmark().run(args[0], args[1], args[2],
+                new SampleOptions(arguments.toArray(new String[0]), 3));
+    }
+}
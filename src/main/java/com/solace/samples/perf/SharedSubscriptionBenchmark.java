@@ -0,0 +1,298 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ *  Apache Qpid JMS 2.0 Solace AMQP Examples: SharedSubscriptionBenchmark
+ */
+
+package com.solace.samples.perf;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.jms.DeliveryMode;
+import javax.jms.JMSConsumer;
+import javax.jms.JMSContext;
+import javax.jms.JMSProducer;
+import javax.jms.TextMessage;
+import javax.jms.Topic;
+
+import org.apache.qpid.jms.JmsConnectionFactory;
+import org.apache.qpid.jms.policy.JmsDefaultPrefetchPolicy;
+
+import com.solace.samples.LatencyHistogram;
+import com.solace.samples.LatencyRecorder;
+import com.solace.samples.SampleOptions;
+import com.solace.samples.SendTimestamp;
+import com.solace.samples.SendWindow;
+
+/**
+ * Measures how a JMS 2.0 shared subscription scales out as consumers join it, and how quickly the load is rebalanced
+ * when a consumer joins or leaves.
+ *
+ * A publisher sends to the topic at a steady {@code --rate} for the whole run. Consumers, each on a connection of its
+ * own and with no client ID, are added one every {@code --step} seconds up to {@code --consumers}, and then removed
+ * again one at a time. Each consumer waits {@code --handler-cost} microseconds per message, so that a single consumer
+ * cannot keep up with the publisher and adding consumers raises the aggregate throughput.
+ *
+ * For every step the benchmark reports the aggregate throughput, the p99 and maximum end-to-end latency, and how evenly
+ * the messages were shared. For a join it reports the time from creating the consumer to its first message; for a
+ * leave, the time the close took and how many messages the remaining consumers received redelivered.
+ */
+public class SharedSubscriptionBenchmark {
+
+    final String TOPIC_NAME = "T/GettingStarted/shared";
+    final String SUBSCRIPTION_NAME = "SharedBenchmark";
+
+    /**
+     * A consumer of the shared subscription, on a connection of its own.
+     */
+    private static class Member {
+        final JMSContext context;
+        final AtomicLong received = new AtomicLong();
+        final long createdNanos = System.nanoTime();
+        volatile long firstMessageNanos;
+        long stepStartCount;
+
+        Member(JMSContext context) {
+            this.context = context;
+        }
+    }
+
+    private final List<Member> members = new ArrayList<>();
+    private final LatencyRecorder latency = new LatencyRecorder("End-to-end");
+    private final AtomicLong redelivered = new AtomicLong();
+
+    private JmsConnectionFactory connectionFactory;
+    private boolean durable;
+    private long handlerCostNanos;
+
+    private void run(String solaceHost, String solaceUsername, String solacePassword, SampleOptions options)
+            throws Exception {
+        int maxConsumers = options.getInt("consumers", 4);
+        long rate = options.getLong("rate", 1000);
+        long stepMillis = TimeUnit.SECONDS.toMillis(options.getLong("step", 5));
+        int prefetch = options.getInt("prefetch", 10);
+        durable = !options.getBoolean("non-durable");
+        handlerCostNanos = TimeUnit.MICROSECONDS.toNanos(options.getLong("handler-cost", 2000));
+
+        System.out.printf("SharedSubscriptionBenchmark is publishing %d msgs/sec to '%s' on %s, consumed through shared"
+                + " %s subscription '%s' by up to %d consumers with a handler cost of %d usec...%n", rate, TOPIC_NAME,
+                solaceHost, durable ? "durable" : "non-durable", SUBSCRIPTION_NAME, maxConsumers,
+                TimeUnit.NANOSECONDS.toMicros(handlerCostNanos));
+
+        connectionFactory = new JmsConnectionFactory(solaceUsername, solacePassword, solaceHost);
+        // a small prefetch keeps a busy consumer from holding on to messages that a new one could process
+        JmsDefaultPrefetchPolicy prefetchPolicy = new JmsDefaultPrefetchPolicy();
+        prefetchPolicy.setDurableTopicPrefetch(prefetch);
+        prefetchPolicy.setTopicPrefetch(prefetch);
+        connectionFactory.setPrefetchPolicy(prefetchPolicy);
+
+        List<String> results = new ArrayList<>();
+        Publisher publisher = new Publisher(connectionFactory, rate);
+        try {
+            // the first consumer creates the subscription, so that no message is published before it exists
+            join();
+            publisher.start();
+            results.add(measureStep("join", stepMillis));
+            while (members.size() < maxConsumers) {
+                long joinMicros = join();
+                results.add(measureStep("join", stepMillis) + String.format(" %12s", formatMillis(joinMicros)));
+            }
+            while (members.size() > 1) {
+                long closeMicros = leave();
+                results.add(measureStep("leave", stepMillis) + String.format(" %12s", formatMillis(closeMicros)));
+            }
+        } finally {
+            publisher.stop();
+            while (!members.isEmpty()) {
+                members.remove(members.size() - 1).context.close();
+            }
+        }
+        if (durable) {
+            unsubscribe();
+        }
+
+        System.out.println();
+        System.out.printf("%-6s %10s %10s %10s %10s %10s %10s %10s %12s%n", "step", "consumers", "msgs/sec", "p99 ms",
+                "max ms", "min share", "max share", "redeliv.", "join/close");
+        for (String result : results) {
+            System.out.println(result);
+        }
+        System.out.println("join is the time from creating a consumer to its first message, close the time"
+                + " closing a consumer took.");
+        System.out.printf("Published %d messages (%d failed).%n", publisher.sendWindow.getCompleted(),
+                publisher.sendWindow.getFailed());
+    }
+
+    /**
+     * Adds a consumer to the shared subscription and returns the time it took to receive its first message, in
+     * microseconds, or -1 if it received none within the step.
+     */
+    private long join() throws InterruptedException {
+        JMSContext context = connectionFactory.createContext(JMSContext.AUTO_ACKNOWLEDGE);
+        Member member = new Member(context);
+        Topic topic = context.createTopic(TOPIC_NAME);
+        JMSConsumer consumer = durable ? context.createSharedDurableConsumer(topic, SUBSCRIPTION_NAME)
+                : context.createSharedConsumer(topic, SUBSCRIPTION_NAME);
+        consumer.setMessageListener(message -> {
+            if (member.firstMessageNanos == 0) {
+                member.firstMessageNanos = System.nanoTime();
+            }
+            // stands in for processing, such as a database write
+            if (handlerCostNanos > 0) {
+                LockSupport.parkNanos(handlerCostNanos);
+            }
+            member.received.incrementAndGet();
+            try {
+                if (message.getJMSRedelivered()) {
+                    redelivered.incrementAndGet();
+                }
+                latency.recordEndToEnd(message);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        });
+        members.add(member);
+        System.out.printf("Consumer %d joined.%n", members.size());
+
+        // the first message normally arrives well within a second
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+        while (member.firstMessageNanos == 0 && System.nanoTime() - deadline < 0) {
+            Thread.sleep(1);
+        }
+        return member.firstMessageNanos == 0 ? -1 : (member.firstMessageNanos - member.createdNanos) / 1000;
+    }
+
+    /**
+     * Closes the most recently added consumer and returns the time the close took, in microseconds. Messages that it
+     * had prefetched, but not yet processed, go to the remaining consumers.
+     */
+    private long leave() {
+        Member member = members.remove(members.size() - 1);
+        long startNanos = System.nanoTime();
+        member.context.close();
+        long closeMicros = (System.nanoTime() - startNanos) / 1000;
+        System.out.printf("Consumer %d left.%n", members.size() + 1);
+        return closeMicros;
+    }
+
+    private String measureStep(String step, long stepMillis) throws InterruptedException {
+        long startNanos = System.nanoTime();
+        long startRedelivered = redelivered.get();
+        for (Member member : members) {
+            member.stepStartCount = member.received.get();
+        }
+        latency.snapshotInterval();
+        Thread.sleep(stepMillis);
+
+        LatencyHistogram interval = latency.snapshotInterval();
+        double elapsedSeconds = (System.nanoTime() - startNanos) / 1e9;
+        long count = 0;
+        long minShare = Long.MAX_VALUE;
+        long maxShare = 0;
+        for (Member member : members) {
+            long share = member.received.get() - member.stepStartCount;
+            count += share;
+            minShare = Math.min(minShare, share);
+            maxShare = Math.max(maxShare, share);
+        }
+        // each consumer's share of the messages, as a fraction of an even split
+        double evenShare = count / (double) members.size();
+        return String.format("%-6s %10d %10.0f %10.1f %10.1f %10.2f %10.2f %10d", step, members.size(),
+                count / elapsedSeconds, interval.getValueAtPercentile(99) / 1000.0, interval.getMaxValue() / 1000.0,
+                evenShare > 0 ? minShare / evenShare : 0, evenShare > 0 ? maxShare / evenShare : 0,
+                redelivered.get() - startRedelivered);
+    }
+
+    private void unsubscribe() {
+        try (JMSContext context = connectionFactory.createContext()) {
+            context.unsubscribe(SUBSCRIPTION_NAME);
+        } catch (RuntimeException e) {
+            System.out.printf("Could not remove the durable subscription '%s': %s%n", SUBSCRIPTION_NAME, e);
+        }
+    }
+
+    private static String formatMillis(long micros) {
+        return micros < 0 ? "-" : String.format("%.1f ms", micros / 1000.0);
+    }
+
+    /**
+     * Publishes stamped messages to the topic at a fixed rate, on a thread of its own.
+     */
+    private class Publisher implements Runnable {
+        final JMSContext context;
+        final long intervalNanos;
+        final SendWindow sendWindow = new SendWindow(1000, new LatencyRecorder("Send completion"));
+        final Thread thread = new Thread(this, "SharedSubscriptionBenchmark-publisher");
+        volatile boolean running = true;
+
+        Publisher(JmsConnectionFactory connectionFactory, long rate) {
+            this.context = connectionFactory.createContext();
+            this.intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+        }
+
+        void start() {
+            thread.start();
+        }
+
+        void stop() throws InterruptedException {
+            running = false;
+            thread.join();
+            context.close();
+        }
+
+        @Override
+        public void run() {
+            try {
+                Topic topic = context.createTopic(TOPIC_NAME);
+                JMSProducer producer = context.createProducer().setDeliveryMode(DeliveryMode.NON_PERSISTENT)
+                        .setAsync(sendWindow);
+                long nextSendNanos = System.nanoTime();
+                while (running) {
+                    // pace the sends against a fixed schedule so that the rate does not drift
+                    long now = System.nanoTime();
+                    if (nextSendNanos - now > 0) {
+                        TimeUnit.NANOSECONDS.sleep(nextSendNanos - now);
+                    }
+                    nextSendNanos += intervalNanos;
+                    TextMessage message = context.createTextMessage("Hello world!");
+                    SendTimestamp.stamp(message);
+                    sendWindow.send(producer, topic, message);
+                }
+                sendWindow.awaitCompletion(30, TimeUnit.SECONDS);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.out.println("Usage: SharedSubscriptionBenchmark amqp://<msg_backbone_ip:amqp_port> <username>"
+                    + " <password> [--consumers <consumers>] [--rate <msgs/sec>] [--step <seconds>]"
+                    + " [--handler-cost <usec>] [--prefetch <messages>] [--non-durable]");
+            System.exit(-1);
+        }
+        new SharedSubscriptionBenchmark().run(args[0], args[1], args[2], new SampleOptions(args, 3));
+    }
+}
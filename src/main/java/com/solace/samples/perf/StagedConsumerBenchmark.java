@@ -0,0 +1,162 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+/**
+ *  Apache Qpid JMS 2.0 Solace AMQP Examples: StagedConsumerBenchmark
+ */
+
+package com.solace.samples.perf;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.jms.DeliveryMode;
+import javax.jms.JMSConsumer;
+import javax.jms.JMSContext;
+import javax.jms.JMSProducer;
+import javax.jms.Queue;
+import javax.jms.TextMessage;
+
+import org.apache.qpid.jms.JmsConnectionFactory;
+
+import com.solace.samples.LatencyRecorder;
+import com.solace.samples.SampleOptions;
+import com.solace.samples.SendWindow;
+import com.solace.samples.StagedConsumer;
+
+/**
+ * Measures how a {@link StagedConsumer} scales with the cost of the message handler, compared with processing on the
+ * receiving thread.
+ *
+ * For every handler cost and worker count the queue is first filled with messages spread over {@code --keys}
+ * JMSXGroupID values, each with a per-key sequence number, and then consumed. The handler waits for its cost, like a
+ * handler that writes to a database, and checks that the messages of every key arrive in order. The acknowledgement
+ * waits show how long the receive thread spends draining the rings before it can acknowledge a batch.
+ */
+public class StagedConsumerBenchmark {
+
+    final String QUEUE_NAME = "Q/tutorial";
+
+    static final String KEY_SEQUENCE_PROPERTY = "SampleKeySequence";
+
+    private void run(String solaceHost, String solaceUsername, String solacePassword, SampleOptions options)
+            throws Exception {
+        String[] costs = options.getString("costs", "0,100,1000").split(",");
+        String[] workerCounts = options.getString("workers", "0,4,16").split(",");
+        int count = options.getInt("count", 5000);
+        int keys = options.getInt("keys", 64);
+        int ringSize = options.getInt("ring-size", 1024);
+        int ackBatch = options.getInt("ack-batch", StagedConsumer.DEFAULT_ACK_BATCH);
+
+        System.out.printf("StagedConsumerBenchmark is consuming %d messages with %d keys per run from queue '%s' "
+                + "on %s...%n", count, keys, QUEUE_NAME, solaceHost);
+
+        JmsConnectionFactory connectionFactory = new JmsConnectionFactory(solaceUsername, solacePassword, solaceHost);
+        List<String> results = new ArrayList<>();
+        try (JMSContext producerContext = connectionFactory.createContext()) {
+            Queue queue = producerContext.createQueue(QUEUE_NAME);
+            for (String cost : costs) {
+                for (String workers : workerCounts) {
+                    fill(producerContext, queue, count, keys);
+                    results.add(measure(connectionFactory, Long.parseLong(cost.trim()),
+                            Integer.parseInt(workers.trim()), count, ringSize, ackBatch));
+                }
+            }
+        }
+
+        System.out.println();
+        System.out.printf("%10s %8s %10s %10s %10s %10s %12s %10s%n", "cost usec", "workers", "msgs/sec",
+                "depth p99", "blocked ms", "acks", "ack wait p99", "reordered");
+        for (String result : results) {
+            System.out.println(result);
+        }
+        System.out.printf("Every acknowledgement waits until the workers have processed all messages handed out, which"
+                + " empties the rings every %d messages (--ack-batch). A larger batch keeps the workers busier, but"
+                + " more messages are delivered again after a failure.%n", ackBatch);
+    }
+
+    private void fill(JMSContext context, Queue queue, int count, int keys) throws Exception {
+        SendWindow sendWindow = new SendWindow(100, new LatencyRecorder("Send completion"));
+        JMSProducer producer = context.createProducer().setDeliveryMode(DeliveryMode.NON_PERSISTENT)
+                .setAsync(sendWindow);
+        for (int i = 0; i < count; i++) {
+            TextMessage message = context.createTextMessage("Hello world Queues!");
+            message.setStringProperty("JMSXGroupID", "key-" + (i % keys));
+            message.setLongProperty(KEY_SEQUENCE_PROPERTY, i / keys);
+            sendWindow.send(producer, queue, message);
+        }
+        sendWindow.awaitCompletion(30, TimeUnit.SECONDS);
+    }
+
+    private String measure(JmsConnectionFactory connectionFactory, long costMicros, int workers, int count,
+            int ringSize, int ackBatch) throws Exception {
+        System.out.printf("Consuming with a handler cost of %d usec on %s...%n", costMicros,
+                workers == 0 ? "the receive thread" : workers + " workers");
+        long costNanos = TimeUnit.MICROSECONDS.toNanos(costMicros);
+        Map<String, Long> lastSequences = new ConcurrentHashMap<>();
+        AtomicLong reordered = new AtomicLong();
+
+        try (JMSContext context = connectionFactory.createContext(JMSContext.CLIENT_ACKNOWLEDGE)) {
+            JMSConsumer consumer = context.createConsumer(context.createQueue(QUEUE_NAME));
+            StagedConsumer stagedConsumer = new StagedConsumer(context, consumer, message -> {
+                if (costNanos > 0) {
+                    LockSupport.parkNanos(costNanos);
+                }
+                try {
+                    // all messages of a key are processed by one worker, so this is never a race
+                    String key = message.getStringProperty("JMSXGroupID");
+                    long sequence = message.getLongProperty(KEY_SEQUENCE_PROPERTY);
+                    Long last = lastSequences.put(key, sequence);
+                    if (last != null && last > sequence) {
+                        reordered.incrementAndGet();
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }, "JMSXGroupID", workers, ringSize, ackBatch);
+
+            long startNanos = System.nanoTime();
+            stagedConsumer.run(count, TimeUnit.SECONDS.toMillis(10));
+            double elapsedSeconds = (System.nanoTime() - startNanos) / 1e9;
+            stagedConsumer.printSummary(System.out);
+
+            return String.format("%10d %8d %10.0f %10d %10d %10d %12d %10d", costMicros, workers,
+                    stagedConsumer.getProcessed() / elapsedSeconds,
+                    stagedConsumer.getRingDepth().getValueAtPercentile(99),
+                    TimeUnit.NANOSECONDS.toMillis(stagedConsumer.getBlockedNanos()),
+                    stagedConsumer.getAcknowledgements(),
+                    stagedConsumer.getAckWait().getTotal().getValueAtPercentile(99), reordered.get());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.out.println("Usage: StagedConsumerBenchmark amqp://<msg_backbone_ip:amqp_port> <username> <password>"
+                    + " [--costs <usec>[,<usec>...]] [--workers <threads>[,<threads>...]] [--count <messages>]"
+                    + " [--keys <keys>] [--ring-size <messages>] [--ack-batch <messages>]");
+            System.exit(-1);
+        }
+        new StagedConsumerBenchmark().run(args[0], args[1], args[2], new SampleOptions(args, 3));
+    }
+}